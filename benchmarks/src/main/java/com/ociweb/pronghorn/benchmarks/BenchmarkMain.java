@@ -0,0 +1,40 @@
+package com.ociweb.pronghorn.benchmarks;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line and, unless another result file is given with -rff,
+ * writes the results as JSON to target/jmh-result-&lt;time&gt;.json so runs of different commits can be kept
+ * side by side and compared with any JMH result viewer.
+ *
+ * java -jar target/benchmarks.jar [JMH options] [benchmark regex]
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+
+        OptionsBuilder builder = new OptionsBuilder();
+        if (!cmd.getResult().hasValue()) {
+            new File("target").mkdirs();
+            builder.result("target/jmh-result-"+new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date())+".json");
+        }
+        if (!cmd.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        Options options = builder.parent(cmd).build();
+
+        new Runner(options).run();
+    }
+
+}
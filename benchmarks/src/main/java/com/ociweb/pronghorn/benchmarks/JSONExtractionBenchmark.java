@@ -0,0 +1,122 @@
+package com.ociweb.pronghorn.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.json.JSONType;
+import com.ociweb.json.decode.JSONExtractor;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.struct.StructRegistry;
+import com.ociweb.pronghorn.util.TrieParserReader;
+import com.ociweb.pronghorn.util.parse.JSONStreamParser;
+import com.ociweb.pronghorn.util.parse.JSONStreamVisitorToChannel;
+
+/**
+ * Extraction of selected fields from a JSON document into a structured pipe message, the path taken
+ * by every JSON request body. The bytes counter reports the rate of JSON consumed, divide by one million
+ * for MB/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONExtractionBenchmark {
+
+    enum Field {id, name, email, age, active, score};
+
+    //every array in the document must be extracted, the visitor logs a warning for each one it has no field for
+    private static final String DOCUMENT =
+              "{\"user\":{\"id\":1234567,\"name\":\"Ada Lovelace\",\"email\":\"ada@example.com\","
+            + "\"age\":36,\"active\":true,\"score\":98765,"
+            + "\"address\":{\"street\":\"12 St James Square\",\"city\":\"London\",\"zip\":\"SW1Y 4JH\"}},"
+            + "\"meta\":{\"version\":3,\"source\":\"benchmark\",\"trace\":\"0af7651916cd43dd8448eb211c80319c\"}}";
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+        }
+    }
+
+    private final JSONExtractor extractor = new JSONExtractor()
+            .begin()
+                .element(JSONType.TypeInteger, false).asField("user.id", Field.id)
+                .element(JSONType.TypeString, false).asField("user.name", Field.name)
+                .element(JSONType.TypeString, false).asField("user.email", Field.email)
+                .element(JSONType.TypeInteger, false).asField("user.age", Field.age)
+                .element(JSONType.TypeBoolean, false).asField("user.active", Field.active)
+                .element(JSONType.TypeInteger, false).asField("user.score", Field.score)
+            .finish();
+
+    private byte[] source;
+    private Pipe<RawDataSchema> input;
+    private Pipe<RawDataSchema> target;
+    private TrieParserReader reader;
+    private JSONStreamParser parser;
+    private JSONStreamVisitorToChannel visitor;
+
+    @Setup
+    public void setup() {
+        StructRegistry reg = new StructRegistry();
+        extractor.addToStruct(reg, reg.addStruct());
+
+        source = DOCUMENT.getBytes(StandardCharsets.UTF_8);
+        input = new Pipe<RawDataSchema>(RawDataSchema.instance.newPipeConfig(4, source.length));
+        input.initBuffers();
+        target = new Pipe<RawDataSchema>(RawDataSchema.instance.newPipeConfig(4, 512));
+        target.initBuffers();
+        Pipe.structRegistry(target, reg);
+
+        reader = new TrieParserReader(true);
+        parser = new JSONStreamParser();
+        visitor = extractor.newJSONVisitor();
+    }
+
+    @Benchmark
+    public int extract(Bytes counter) {
+        final int size = Pipe.addMsgIdx(input, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(source, 0, source.length, input);
+        Pipe.confirmLowLevelWrite(input, size);
+        Pipe.publishWrites(input);
+
+        final int msgIdx = Pipe.takeMsgIdx(input);
+        TrieParserReader.parseSetup(reader, input);
+        parser.parse(reader, extractor.trieParser(), visitor);
+        Pipe.confirmLowLevelRead(input, Pipe.sizeOf(input, msgIdx));
+        Pipe.releaseReadLock(input);
+
+        final int writeSize = Pipe.addMsgIdx(target, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        DataOutputBlobWriter<RawDataSchema> stream = Pipe.openOutputStream(target);
+        visitor.export(stream, extractor.getIndexPositions());
+        DataOutputBlobWriter.commitBackData(stream, extractor.getStructId());
+        final int length = stream.closeLowLevelField();
+        Pipe.confirmLowLevelWrite(target, writeSize);
+        Pipe.publishWrites(target);
+
+        RawDataSchema.consume(target);
+        counter.bytes += source.length;
+        return length;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.ociweb.pronghorn.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+/**
+ * Low level messages per second on one thread with the rings on heap, in direct buffers and in a memory
+ * mapped file, see PipeConfig.offHeap() and PipeConfig.memoryMapped(). Same loop as PipeThroughputBenchmark.lowLevel
+ * so the heap case can be checked against that benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OffHeapPipeBenchmark {
+
+    private static final int BATCH = 64;
+
+    @Param({"heap", "direct", "mapped"})
+    public String rings;
+
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    private Pipe<RawDataSchema> pipe;
+    private byte[] payload;
+    private byte[] target;
+
+    @Setup
+    public void setup() throws IOException {
+        PipeConfig<RawDataSchema> config = RawDataSchema.instance.newPipeConfig(BATCH*2, payloadSize);
+        if ("direct".equals(rings)) {
+            config = config.offHeap();
+        } else if ("mapped".equals(rings)) {
+            File dir = Files.createTempDirectory("pipe").toFile();
+            dir.deleteOnExit();
+            config = config.memoryMapped(dir);
+        }
+        pipe = new Pipe<RawDataSchema>(config);
+        pipe.initBuffers();
+        payload = new byte[payloadSize];
+        for(int i = 0; i<payloadSize; i++) {
+            payload[i] = (byte)i;
+        }
+        target = new byte[payloadSize];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long lowLevel() {
+        final Pipe<RawDataSchema> pipe = this.pipe;
+        int i = BATCH;
+        while (--i>=0) {
+            final int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            Pipe.addByteArray(payload, 0, payload.length, pipe);
+            Pipe.confirmLowLevelWrite(pipe, size);
+            Pipe.publishWrites(pipe);
+        }
+        long total = 0;
+        i = BATCH;
+        while (--i>=0) {
+            final int msgIdx = Pipe.takeMsgIdx(pipe);
+            final int meta = Pipe.takeByteArrayMetaData(pipe);
+            final int len = Pipe.takeByteArrayLength(pipe);
+            Pipe.readBytes(pipe, target, 0, Integer.MAX_VALUE, meta, len);
+            total += len;
+            Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+            Pipe.releaseReadLock(pipe);
+        }
+        return total;
+    }
+
+}
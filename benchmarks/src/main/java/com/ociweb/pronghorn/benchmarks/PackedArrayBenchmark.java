@@ -0,0 +1,105 @@
+package com.ociweb.pronghorn.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+/**
+ * Decode of an array of packed longs, one value per call against the bulk reads. Reported per value.
+ * Time series are small deltas, the other case is values spread over the full range.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackedArrayBenchmark {
+
+    private static final int COUNT = 4096;
+
+    @Param({"series", "random"})
+    public String values;
+
+    private final long[] source = new long[COUNT];
+    private final long[] target = new long[COUNT];
+
+    private DataInputBlobReader<RawDataSchema> in;
+    private DataInputBlobReader<RawDataSchema> deltaIn;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        long time = 1500000000000L;
+        for(int i = 0; i<COUNT; i++) {
+            time += 1000 + r.nextInt(3) - 1;
+            source[i] = "series".equals(values) ? time : r.nextLong() >> r.nextInt(64);
+        }
+        in = open(false);
+        deltaIn = open(true);
+    }
+
+    private DataInputBlobReader<RawDataSchema> open(boolean deltaOfDelta) {
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(RawDataSchema.instance.newPipeConfig(4, COUNT*10));
+        pipe.initBuffers();
+        final int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(pipe);
+        if (deltaOfDelta) {
+            out.writePackedLongsDeltaOfDelta(source, 0, COUNT);
+        } else {
+            out.writePackedLongs(source, 0, COUNT);
+        }
+        out.closeLowLevelField();
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+
+        //the field stays open for the whole run and is rewound for each invocation
+        Pipe.takeMsgIdx(pipe);
+        return Pipe.openInputStream(pipe);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long readPackedLongEach() {
+        DataInputBlobReader.position(in, 0);
+        long sum = 0;
+        for(int i = 0; i<COUNT; i++) {
+            sum += DataInputBlobReader.readPackedLong(in);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long[] readPackedLongsBulk() {
+        DataInputBlobReader.position(in, 0);
+        in.readPackedLongs(target, 0, COUNT);
+        return target;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long[] readPackedLongsDeltaOfDelta() {
+        DataInputBlobReader.position(deltaIn, 0);
+        deltaIn.readPackedLongsDeltaOfDelta(target, 0, COUNT);
+        return target;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.ociweb.pronghorn.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+/**
+ * Round trip time of one small message sent to an echo thread on one pipe and returned on another.
+ * Both threads spin so this measures the cost of the pipe hand off and not of waking a thread, after
+ * a while without work they also yield so the other side can run when there are fewer cores than threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PingPongLatencyBenchmark {
+
+    private static final int SPINS = 10_000;
+
+    private final byte[] payload = new byte[8];
+
+    private Pipe<RawDataSchema> ping;
+    private Pipe<RawDataSchema> pong;
+    private Thread echo;
+    private volatile boolean running;
+
+    @Setup
+    public void setup() {
+        ping = new Pipe<RawDataSchema>(RawDataSchema.instance.newPipeConfig(4, 64));
+        pong = new Pipe<RawDataSchema>(RawDataSchema.instance.newPipeConfig(4, 64));
+        ping.initBuffers();
+        pong.initBuffers();
+
+        running = true;
+        echo = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] buffer = new byte[64];
+                int idle = 0;
+                while (running) {
+                    if (!Pipe.hasContentToRead(ping) || !Pipe.hasRoomForWrite(pong)) {
+                        if (++idle>SPINS) {
+                            Thread.yield();
+                        }
+                    } else {
+                        idle = 0;
+                        final int msgIdx = Pipe.takeMsgIdx(ping);
+                        final int meta = Pipe.takeByteArrayMetaData(ping);
+                        final int len = Pipe.takeByteArrayLength(ping);
+                        Pipe.readBytes(ping, buffer, 0, Integer.MAX_VALUE, meta, len);
+                        Pipe.confirmLowLevelRead(ping, Pipe.sizeOf(ping, msgIdx));
+                        Pipe.releaseReadLock(ping);
+
+                        final int size = Pipe.addMsgIdx(pong, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+                        Pipe.addByteArray(buffer, 0, len, pong);
+                        Pipe.confirmLowLevelWrite(pong, size);
+                        Pipe.publishWrites(pong);
+                    }
+                }
+            }
+        }, "echo");
+        echo.setDaemon(true);
+        echo.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        running = false;
+        echo.join();
+    }
+
+    @Benchmark
+    public int roundTrip() {
+        final int size = Pipe.addMsgIdx(ping, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(payload, 0, payload.length, ping);
+        Pipe.confirmLowLevelWrite(ping, size);
+        Pipe.publishWrites(ping);
+
+        int idle = 0;
+        while (!Pipe.hasContentToRead(pong)) {
+            if (++idle>SPINS) {
+                Thread.yield();
+            }
+        }
+        final int msgIdx = Pipe.takeMsgIdx(pong);
+        Pipe.takeByteArrayMetaData(pong);
+        final int len = Pipe.takeByteArrayLength(pong);
+        Pipe.confirmLowLevelRead(pong, Pipe.sizeOf(pong, msgIdx));
+        Pipe.releaseReadLock(pong);
+        return len;
+    }
+
+}
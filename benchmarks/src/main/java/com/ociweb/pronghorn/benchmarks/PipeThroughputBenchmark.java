@@ -0,0 +1,100 @@
+package com.ociweb.pronghorn.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.PipeWriter;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+/**
+ * Messages per second written and read back on one thread, using the low level and the high level API
+ * on the same schema. Each invocation fills half the pipe then drains it so both ends of the ring are used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipeThroughputBenchmark {
+
+    private static final int BATCH = 64;
+
+    @Param({"16", "256", "4096"})
+    public int payloadSize;
+
+    private Pipe<RawDataSchema> pipe;
+    private byte[] payload;
+    private byte[] target;
+
+    @Setup
+    public void setup() {
+        pipe = new Pipe<RawDataSchema>(RawDataSchema.instance.newPipeConfig(BATCH*2, payloadSize));
+        pipe.initBuffers();
+        payload = new byte[payloadSize];
+        for(int i = 0; i<payloadSize; i++) {
+            payload[i] = (byte)i;
+        }
+        target = new byte[payloadSize];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int lowLevel() {
+        final Pipe<RawDataSchema> pipe = this.pipe;
+        int i = BATCH;
+        while (--i>=0) {
+            final int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            Pipe.addByteArray(payload, 0, payload.length, pipe);
+            Pipe.confirmLowLevelWrite(pipe, size);
+            Pipe.publishWrites(pipe);
+        }
+        int total = 0;
+        i = BATCH;
+        while (--i>=0) {
+            final int msgIdx = Pipe.takeMsgIdx(pipe);
+            final int meta = Pipe.takeByteArrayMetaData(pipe);
+            final int len = Pipe.takeByteArrayLength(pipe);
+            Pipe.readBytes(pipe, target, 0, Integer.MAX_VALUE, meta, len);
+            total += len;
+            Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+            Pipe.releaseReadLock(pipe);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int highLevel() {
+        final Pipe<RawDataSchema> pipe = this.pipe;
+        int i = BATCH;
+        while (--i>=0) {
+            PipeWriter.tryWriteFragment(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            PipeWriter.writeBytes(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, payload, 0, payload.length);
+            PipeWriter.publishWrites(pipe);
+        }
+        int total = 0;
+        i = BATCH;
+        while (--i>=0) {
+            PipeReader.tryReadFragment(pipe);
+            total += PipeReader.readBytes(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, target, 0);
+            PipeReader.releaseReadLock(pipe);
+        }
+        return total;
+    }
+
+}
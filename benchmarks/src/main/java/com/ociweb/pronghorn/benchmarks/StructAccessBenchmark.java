@@ -0,0 +1,105 @@
+package com.ociweb.pronghorn.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.StructuredReader;
+import com.ociweb.pronghorn.pipe.StructuredWriter;
+import com.ociweb.pronghorn.struct.StructBuilder;
+import com.ociweb.pronghorn.struct.StructRegistry;
+import com.ociweb.pronghorn.struct.StructType;
+
+/**
+ * Cost of reading one field from a structured record already on a pipe, both through the associated
+ * object, which is looked up for every read, and through a field id resolved once ahead of time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructAccessBenchmark {
+
+    enum Field {id, count, symbol};
+
+    private final byte[] symbol = "PRONGHORN".getBytes(StandardCharsets.UTF_8);
+
+    private StructuredReader reader;
+    private long idField;
+    private long countField;
+    private long symbolField;
+
+    @Setup
+    public void setup() {
+        StructRegistry reg = new StructRegistry();
+        final int structId = StructBuilder.newStruct(reg)
+                                          .addField(Field.id, StructType.Long)
+                                          .addField(Field.count, StructType.Integer)
+                                          .addField(Field.symbol, StructType.Text)
+                                          .register();
+
+        Pipe<RawDataSchema> pipe = new Pipe<RawDataSchema>(RawDataSchema.instance.newPipeConfig(4, 256));
+        pipe.initBuffers();
+        Pipe.structRegistry(pipe, reg);
+
+        final int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(pipe);
+        StructuredWriter writer = out.structured();
+        writer.writeLong(Field.id, 9876543210L);
+        writer.writeInt(Field.count, 42);
+        writer.writeText(Field.symbol, "PRONGHORN");
+        writer.selectStruct(structId);
+        out.closeLowLevelField();
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+
+        //the record stays open for the whole run, every read below is random access
+        Pipe.takeMsgIdx(pipe);
+        reader = Pipe.openInputStream(pipe).structured();
+
+        idField = reg.fieldLookupByIdentity(Field.id, structId);
+        countField = reg.fieldLookupByIdentity(Field.count, structId);
+        symbolField = reg.fieldLookupByIdentity(Field.symbol, structId);
+    }
+
+    @Benchmark
+    public long readLongByAssociation() {
+        return reader.readLong(Field.id);
+    }
+
+    @Benchmark
+    public long readLongByFieldId() {
+        return reader.readLong(idField);
+    }
+
+    @Benchmark
+    public int readIntByAssociation() {
+        return reader.readInt(Field.count);
+    }
+
+    @Benchmark
+    public int readIntByFieldId() {
+        return reader.readInt(countField);
+    }
+
+    @Benchmark
+    public boolean isEqualTextByFieldId() {
+        return reader.isEqual(symbolField, symbol);
+    }
+
+}
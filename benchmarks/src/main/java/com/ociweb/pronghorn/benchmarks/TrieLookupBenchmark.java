@@ -0,0 +1,90 @@
+package com.ociweb.pronghorn.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.util.TrieParser;
+import com.ociweb.pronghorn.util.TrieParserReader;
+
+/**
+ * Lookups per second of known keys in a trie, for the request paths of a typical REST service and for
+ * the header names found in HTTP requests. Header names are matched without case as HTTP requires.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrieLookupBenchmark {
+
+    private static final String[] URLS = new String[] {
+        "/", "/index.html", "/favicon.ico", "/robots.txt", "/login", "/logout",
+        "/api/v1/users", "/api/v1/users/search", "/api/v1/users/me", "/api/v1/users/me/settings",
+        "/api/v1/orders", "/api/v1/orders/open", "/api/v1/orders/closed", "/api/v1/orders/history",
+        "/api/v1/products", "/api/v1/products/featured", "/api/v1/products/categories",
+        "/api/v1/cart", "/api/v1/cart/items", "/api/v1/cart/checkout",
+        "/api/v2/users", "/api/v2/orders", "/api/v2/products", "/api/v2/health",
+        "/static/css/main.css", "/static/css/theme.css", "/static/js/app.js", "/static/js/vendor.js",
+        "/static/img/logo.png", "/static/img/banner.jpg", "/metrics", "/health"
+    };
+
+    private static final String[] HEADERS = new String[] {
+        "Host", "User-Agent", "Accept", "Accept-Language", "Accept-Encoding", "Accept-Charset",
+        "Connection", "Keep-Alive", "Content-Type", "Content-Length", "Content-Encoding",
+        "Transfer-Encoding", "Cookie", "Authorization", "Cache-Control", "Pragma", "Referer",
+        "Origin", "Upgrade", "Upgrade-Insecure-Requests", "If-Modified-Since", "If-None-Match",
+        "X-Forwarded-For", "X-Forwarded-Proto", "X-Requested-With", "DNT", "TE", "Via",
+        "Sec-WebSocket-Key", "Sec-WebSocket-Version", "Sec-WebSocket-Protocol", "Range"
+    };
+
+    private static final int KEYS = 32;
+
+    @Param({"urls", "headers"})
+    public String keySet;
+
+    private TrieParser trie;
+    private TrieParserReader reader;
+    private byte[][] queries;
+
+    @Setup
+    public void setup() {
+        final boolean headers = "headers".equals(keySet);
+        final String[] keys = headers ? HEADERS : URLS;
+        trie = new TrieParser(1024, 1, false, false, headers);
+        reader = new TrieParserReader(true);
+        queries = new byte[keys.length][];
+        for(int i = 0; i<keys.length; i++) {
+            trie.setUTF8Value(keys[i], i);
+            //headers arrive in any case
+            final String key = headers && 0==(i&1) ? keys[i].toLowerCase() : keys[i];
+            queries[i] = key.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public long lookup() {
+        long sum = 0;
+        final byte[][] queries = this.queries;
+        for(int i = 0; i<KEYS; i++) {
+            final byte[] query = queries[i];
+            sum += TrieParserReader.query(reader, trie, query, 0, query.length, Integer.MAX_VALUE);
+        }
+        return sum;
+    }
+
+}
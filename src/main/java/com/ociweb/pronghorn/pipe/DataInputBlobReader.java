@@ -945,6 +945,96 @@ public class DataInputBlobReader<S extends MessageSchema<S>> extends ChannelRead
         return (v >= 0) ? readPackedInt((a | v) << 7, buf, mask, that, depth) : a | (v & 0x7F);
     }
 
+    ///////////////////////////////////////////////////////////////////////////////////
+    //Bulk packed values, written by the matching DataOutputBlobWriter methods.
+    //The position is held in a local for the whole run and single byte values,
+    //the common case for small deltas, take one branch with no accumulator.
+    //Nulls can not be detected in bulk and are read as zero.
+    ///////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Parse count packed 64 bit signed values into target starting at offset.
+     */
+    public void readPackedLongs(long[] target, int offset, int count) {
+    	readPackedLongs(this, target, offset, count);
+    }
+
+    /**
+     * Parse count packed 32 bit signed values into target starting at offset.
+     */
+    public void readPackedInts(int[] target, int offset, int count) {
+    	readPackedInts(this, target, offset, count);
+    }
+
+    /**
+     * Parse count values written with DataOutputBlobWriter.writePackedLongsDeltaOfDelta, typically time stamps
+     * or counters sampled at a near constant rate.
+     */
+    public void readPackedLongsDeltaOfDelta(long[] target, int offset, int count) {
+    	readPackedLongsDeltaOfDelta(this, target, offset, count);
+    }
+
+    public static <S extends MessageSchema<S>> void readPackedLongs(DataInputBlobReader<S> that, long[] target, int offset, int count) {
+    	assert(offset+count<=target.length) : "target is too small";
+    	final byte[] buf = that.backing;
+    	final int mask = that.byteMask;
+    	int pos = that.position;
+    	final int limit = offset+count;
+    	for(int i = offset; i<limit; i++) {
+    		byte v = buf[mask & pos++];
+    		//sign extend the low 7 bits of the first byte
+    		long a = (v << 25) >> 25;
+    		if (v >= 0) {
+    			int depth = 1;
+    			do {
+    				v = buf[mask & pos++];
+    				a = (a << 7) | (v & 0x7F);
+    			} while (v >= 0 && ++depth<10);
+    			assert(v < 0) : "Error malformed data";
+    		}
+    		target[i] = a;
+    	}
+    	that.position = pos;
+    }
+
+    public static <S extends MessageSchema<S>> void readPackedInts(DataInputBlobReader<S> that, int[] target, int offset, int count) {
+    	assert(offset+count<=target.length) : "target is too small";
+    	final byte[] buf = that.backing;
+    	final int mask = that.byteMask;
+    	int pos = that.position;
+    	final int limit = offset+count;
+    	for(int i = offset; i<limit; i++) {
+    		byte v = buf[mask & pos++];
+    		int a = (v << 25) >> 25;
+    		if (v >= 0) {
+    			int depth = 1;
+    			do {
+    				v = buf[mask & pos++];
+    				a = (a << 7) | (v & 0x7F);
+    			} while (v >= 0 && ++depth<5);
+    			assert(v < 0) : "Error malformed data";
+    		}
+    		target[i] = a;
+    	}
+    	that.position = pos;
+    }
+
+    public static <S extends MessageSchema<S>> void readPackedLongsDeltaOfDelta(DataInputBlobReader<S> that, long[] target, int offset, int count) {
+    	readPackedLongs(that, target, offset, count);
+    	//first is the value, second the delta and each after that the change of delta
+    	final int limit = offset+count;
+    	if (offset+1<limit) {
+    		long delta = target[offset+1];
+    		long prev = target[offset] + delta;
+    		target[offset+1] = prev;
+    		for(int i = offset+2; i<limit; i++) {
+    			delta += target[i];
+    			prev += delta;
+    			target[i] = prev;
+    		}
+    	}
+    }
+
     
 	public static void setupParser(DataInputBlobReader<?> input, TrieParserReader reader) {
 		
@@ -819,6 +819,68 @@ public class DataOutputBlobWriter<S extends MessageSchema<S>> extends ChannelWri
 		
 	}
     
+    /**
+     * Write count packed 64 bit signed values from source starting at offset, read back with
+     * DataInputBlobReader.readPackedLongs.
+     */
+    public void writePackedLongs(long[] source, int offset, int count) {
+    	writePackedLongs(this, source, offset, count);
+    }
+
+    /**
+     * Write count packed 32 bit signed values from source starting at offset, read back with
+     * DataInputBlobReader.readPackedInts.
+     */
+    public void writePackedInts(int[] source, int offset, int count) {
+    	writePackedInts(this, source, offset, count);
+    }
+
+    /**
+     * Write the first value, the first delta and then only the change of each delta. Values sampled at a near
+     * constant rate pack into a single byte each. Read back with DataInputBlobReader.readPackedLongsDeltaOfDelta.
+     */
+    public void writePackedLongsDeltaOfDelta(long[] source, int offset, int count) {
+    	writePackedLongsDeltaOfDelta(this, source, offset, count);
+    }
+
+    public static <T extends MessageSchema<T>> void writePackedLongs(DataOutputBlobWriter<T> that, long[] source, int offset, int count) {
+    	final byte[] buf = that.byteBuffer;
+    	final int mask = that.byteMask;
+    	int pos = that.activePosition;
+    	final int limit = offset+count;
+    	for(int i = offset; i<limit; i++) {
+    		pos = writePackedLong(source[i], buf, mask, pos);
+    	}
+    	that.activePosition = pos;
+    }
+
+    public static <T extends MessageSchema<T>> void writePackedInts(DataOutputBlobWriter<T> that, int[] source, int offset, int count) {
+    	final byte[] buf = that.byteBuffer;
+    	final int mask = that.byteMask;
+    	int pos = that.activePosition;
+    	final int limit = offset+count;
+    	for(int i = offset; i<limit; i++) {
+    		pos = writePackedInt(buf, mask, pos, source[i]);
+    	}
+    	that.activePosition = pos;
+    }
+
+    public static <T extends MessageSchema<T>> void writePackedLongsDeltaOfDelta(DataOutputBlobWriter<T> that, long[] source, int offset, int count) {
+    	final byte[] buf = that.byteBuffer;
+    	final int mask = that.byteMask;
+    	int pos = that.activePosition;
+    	final int limit = offset+count;
+    	long prev = 0;
+    	long prevDelta = 0;
+    	for(int i = offset; i<limit; i++) {
+    		final long delta = source[i]-prev;
+    		pos = writePackedLong(i==offset ? source[i] : delta-prevDelta, buf, mask, pos);
+    		prevDelta = i==offset ? 0 : delta;
+    		prev = source[i];
+    	}
+    	that.activePosition = pos;
+    }
+
     public static final <T extends MessageSchema<T>> void writePackedShort(DataOutputBlobWriter<T> that, short value) {
         
         int mask = (value>>31);         // FFFFF  or 000000
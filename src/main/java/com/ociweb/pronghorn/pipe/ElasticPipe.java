@@ -0,0 +1,154 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A pipe whose rings follow the load, growing under sustained backpressure and shrinking back when idle.
+ *
+ * The rings of a live Pipe can not change size because many flyweights and callers hold on to
+ * the arrays and masks. Instead the producer moves to a new pipe built from PipeConfig.grow2x()
+ * or shrink2x() and the consumer moves over once it has read everything left on the old one, so
+ * no unread fragment is lost and neither side ever waits on the other to resize.
+ *
+ * The producer must call safePoint() between fragments, it samples occupancy and decides when to
+ * resize. Both sides must fetch the pipe with writePipe() and readPipe() before each fragment
+ * instead of holding on to it. Resizing only allocates when it happens.
+ *
+ * @param <T> the schema of the pipe
+ */
+public class ElasticPipe<T extends MessageSchema<T>> {
+
+	private final PipeConfig<T> minConfig;
+	private final int maxSlabBits;
+	private final int growPercent;
+	private final int shrinkPercent;
+	private final int growSamples;
+	private final int shrinkSamples;
+
+	private Pipe<T> writePipe; //only used by the producer
+	private PipeConfig<T> writeConfig;
+	private int growCount;
+	private int shrinkCount;
+	private int resizeCount;
+
+	private Pipe<T> readPipe;  //only used by the consumer
+	private final ConcurrentLinkedQueue<Pipe<T>> pending = new ConcurrentLinkedQueue<Pipe<T>>();
+
+	/**
+	 * Uses 90% full for 3 samples to grow and 10% full for 1000 samples to shrink.
+	 * @param config PipeConfig of the first and smallest pipe
+	 * @param maxSlabBits int largest slab ring size as a power of 2
+	 */
+	public ElasticPipe(PipeConfig<T> config, int maxSlabBits) {
+		this(config, maxSlabBits, 90, 3, 10, 1000);
+	}
+
+	/**
+	 * @param config PipeConfig of the first and smallest pipe
+	 * @param maxSlabBits int largest slab ring size as a power of 2
+	 * @param growPercent int slab fill percentage counted as backpressure
+	 * @param growSamples int consecutive safe points under backpressure before growing
+	 * @param shrinkPercent int slab fill percentage counted as idle
+	 * @param shrinkSamples int consecutive idle safe points before shrinking
+	 */
+	public ElasticPipe(PipeConfig<T> config, int maxSlabBits,
+			           int growPercent, int growSamples, int shrinkPercent, int shrinkSamples) {
+		if (maxSlabBits<config.slabBits || maxSlabBits>30) {
+			throw new UnsupportedOperationException("maxSlabBits must be between "+config.slabBits+" and 30");
+		}
+		if (shrinkPercent>=growPercent || growSamples<1 || shrinkSamples<1) {
+			throw new UnsupportedOperationException("shrinkPercent must be below growPercent and sample counts must be positive");
+		}
+		this.minConfig = config;
+		this.maxSlabBits = maxSlabBits;
+		this.growPercent = growPercent;
+		this.growSamples = growSamples;
+		this.shrinkPercent = shrinkPercent;
+		this.shrinkSamples = shrinkSamples;
+
+		this.writeConfig = config;
+		this.writePipe = new Pipe<T>(config);
+		this.writePipe.initBuffers();
+		this.readPipe = writePipe;
+	}
+
+	/**
+	 * The pipe the producer must write the next fragment to.
+	 * @param elastic ElasticPipe source
+	 * @return Pipe for writing
+	 */
+	public static <S extends MessageSchema<S>> Pipe<S> writePipe(ElasticPipe<S> elastic) {
+		return elastic.writePipe;
+	}
+
+	/**
+	 * The pipe the consumer must read the next fragment from. Call between fragments only.
+	 * @param elastic ElasticPipe source
+	 * @return Pipe for reading
+	 */
+	public static <S extends MessageSchema<S>> Pipe<S> readPipe(ElasticPipe<S> elastic) {
+		//next must be read first, once it is seen the producer has published its last write to the old pipe
+		while (null!=elastic.pending.peek() && Pipe.headPosition(elastic.readPipe)==Pipe.getWorkingTailPosition(elastic.readPipe)) {
+			Pipe.releaseAllBatchedReads(elastic.readPipe);
+			elastic.readPipe = elastic.pending.poll();
+		}
+		return elastic.readPipe;
+	}
+
+	/**
+	 * Called by the producer between fragments to sample occupancy and resize when the policy requires.
+	 * @param elastic ElasticPipe target
+	 * @return boolean true if the producer now has a new pipe
+	 */
+	public static <S extends MessageSchema<S>> boolean safePoint(ElasticPipe<S> elastic) {
+		final Pipe<S> pipe = elastic.writePipe;
+		final int fillPercent = (int)((100L*(Pipe.workingHeadPosition(pipe)-Pipe.tailPosition(pipe)))>>pipe.bitsOfSlabRing);
+
+		if (fillPercent>=elastic.growPercent) {
+			elastic.shrinkCount = 0;
+			if (++elastic.growCount>=elastic.growSamples && elastic.writeConfig.slabBits<elastic.maxSlabBits) {
+				resize(elastic, elastic.writeConfig.grow2x());
+				return true;
+			}
+		} else if (fillPercent<=elastic.shrinkPercent) {
+			elastic.growCount = 0;
+			if (++elastic.shrinkCount>=elastic.shrinkSamples && elastic.writeConfig.slabBits>elastic.minConfig.slabBits) {
+				resize(elastic, elastic.writeConfig.shrink2x());
+				return true;
+			}
+		} else {
+			elastic.growCount = 0;
+			elastic.shrinkCount = 0;
+		}
+		return false;
+	}
+
+	private static <S extends MessageSchema<S>> void resize(ElasticPipe<S> elastic, PipeConfig<S> config) {
+		Pipe.publishAllBatchedWrites(elastic.writePipe);
+		Pipe<S> pipe = new Pipe<S>(config);
+		pipe.initBuffers();
+		elastic.writeConfig = config;
+		elastic.writePipe = pipe;
+		elastic.growCount = 0;
+		elastic.shrinkCount = 0;
+		elastic.resizeCount++;
+		elastic.pending.add(pipe); //publishes the new pipe to the consumer
+	}
+
+	/**
+	 * @param elastic ElasticPipe source
+	 * @return int slab ring size the producer is now writing to
+	 */
+	public static <S extends MessageSchema<S>> int slabSize(ElasticPipe<S> elastic) {
+		return elastic.writePipe.sizeOfSlabRing;
+	}
+
+	/**
+	 * @param elastic ElasticPipe source
+	 * @return int count of grow and shrink steps done by the producer
+	 */
+	public static <S extends MessageSchema<S>> int resizeCount(ElasticPipe<S> elastic) {
+		return elastic.resizeCount;
+	}
+
+}
@@ -0,0 +1,199 @@
+package com.ociweb.pronghorn.pipe;
+
+import com.ociweb.pronghorn.pipe.token.OperatorMask;
+import com.ociweb.pronghorn.pipe.token.TokenBuilder;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+import com.ociweb.pronghorn.pipe.util.hash.MurmurHash;
+
+/**
+ * Open addressing index over the names and ids of a FieldReferenceOffsetManager script, built once so
+ * every lookup is constant time and allocation free no matter how many fields the schema has.
+ *
+ * Field lookups only search the template holding the fragment start, from that fragment start forward,
+ * the same span the linear search covered. Each table slot holds the first script position for that
+ * template and name (or id) and the next array chains to the later positions with the same key.
+ *
+ * Template lookups return the last matching message start, again the same as the linear search.
+ */
+final class FieldReferenceIndex {
+
+	private final String[] names;
+	private final long[] ids;
+	private final int[] scope;      //count of template closes before each script position
+
+	private final int mask;
+	private final int[] fieldByName; //script position + 1, zero is empty
+	private final int[] fieldById;
+	private final int[] nextByName;  //next script position with the same name in this template, -1 for none
+	private final int[] nextById;
+
+	private final int[] templateByName; //message start + 1, zero is empty
+	private final int[] templateById;
+
+	FieldReferenceIndex(int[] tokens, String[] names, long[] ids, int[] messageStarts) {
+		this.names = names;
+		this.ids = ids;
+
+		final int length = names.length;
+		scope = new int[length];
+		int s = 0;
+		for(int x = 0; x<length; x++) {
+			scope[x] = s;
+			if (x<tokens.length && isTemplateClose(tokens[x])) {
+				s++;
+			}
+		}
+
+		int size = 2;
+		while (size < (Math.max(length, messageStarts.length)<<1)) {
+			size <<= 1;
+		}
+		mask = size-1;
+		fieldByName = new int[size];
+		fieldById = new int[size];
+		nextByName = new int[length];
+		nextById = new int[length];
+		templateByName = new int[size];
+		templateById = new int[size];
+
+		//walk backwards so each slot ends up holding the first position and chains to the later ones
+		int x = length;
+		while (--x>=0) {
+			nextByName[x] = -1;
+			if (null!=names[x]) {
+				int slot = findName(this, names[x], scope[x]);
+				if (0!=fieldByName[slot]) {
+					nextByName[x] = fieldByName[slot]-1;
+				}
+				fieldByName[slot] = x+1;
+			}
+			nextById[x] = -1;
+			if (x<ids.length) {
+				int slot = findId(this, ids[x], scope[x]);
+				if (0!=fieldById[slot]) {
+					nextById[x] = fieldById[slot]-1;
+				}
+				fieldById[slot] = x+1;
+			}
+		}
+
+		//walk forwards so the last message start wins
+		for(int i = 0; i<messageStarts.length; i++) {
+			int start = messageStarts[i];
+			if (start<length) {
+				if (null!=names[start]) {
+					templateByName[findTemplateName(this, names[start])] = start+1;
+				}
+				if (start<ids.length) {
+					templateById[findTemplateId(this, ids[start])] = start+1;
+				}
+			}
+		}
+	}
+
+	private static boolean isTemplateClose(int token) {
+		return TypeMask.Group == TokenBuilder.extractType(token) &&
+			   (0 != (token & (OperatorMask.Group_Bit_Close << TokenBuilder.SHIFT_OPER))) &&
+			   (0 != (token & (OperatorMask.Group_Bit_Templ << TokenBuilder.SHIFT_OPER)));
+	}
+
+	/**
+	 * @return script position of the field with this name, ignoring case, or -1 if not found
+	 */
+	static int fieldPosition(FieldReferenceIndex index, String name, int fragmentStart) {
+		if (fragmentStart<0 || fragmentStart>=index.scope.length) {
+			return -1;
+		}
+		int x = index.fieldByName[findName(index, name, index.scope[fragmentStart])]-1;
+		while (x>=0 && x<fragmentStart) {
+			x = index.nextByName[x];
+		}
+		return x;
+	}
+
+	/**
+	 * @return script position of the field with this id, or -1 if not found
+	 */
+	static int fieldPosition(FieldReferenceIndex index, long id, int fragmentStart) {
+		if (fragmentStart<0 || fragmentStart>=index.scope.length) {
+			return -1;
+		}
+		int x = index.fieldById[findId(index, id, index.scope[fragmentStart])]-1;
+		while (x>=0 && x<fragmentStart) {
+			x = index.nextById[x];
+		}
+		return x;
+	}
+
+	/**
+	 * @return script position of the field with both this id and name, ignoring case, or -1 if not found
+	 */
+	static int fieldPosition(FieldReferenceIndex index, long id, String name, int fragmentStart) {
+		int x = fieldPosition(index, id, fragmentStart);
+		while (x>=0 && !name.equalsIgnoreCase(index.names[x])) {
+			x = index.nextById[x];
+		}
+		return x;
+	}
+
+	/**
+	 * @return message start for this name or -1 if not found
+	 */
+	static int templatePosition(FieldReferenceIndex index, String name) {
+		return index.templateByName[findTemplateName(index, name)]-1;
+	}
+
+	/**
+	 * @return message start for this id or -1 if not found
+	 */
+	static int templatePosition(FieldReferenceIndex index, long id) {
+		return index.templateById[findTemplateId(index, id)]-1;
+	}
+
+	//each find returns the slot holding the key or the empty slot where it belongs
+
+	private static int findName(FieldReferenceIndex index, String name, int scope) {
+		int hash = scope;
+		int i = name.length();
+		while (--i>=0) {
+			//same folding as equalsIgnoreCase so equal names always share a hash
+			hash = 31*hash + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+		}
+		int slot = MurmurHash.hash32finalizer(hash);
+		int x;
+		while (0!=(x = index.fieldByName[slot&index.mask]) &&
+			   (scope!=index.scope[x-1] || !name.equalsIgnoreCase(index.names[x-1]))) {
+			slot++;
+		}
+		return slot&index.mask;
+	}
+
+	private static int findId(FieldReferenceIndex index, long id, int scope) {
+		int slot = MurmurHash.hash32finalizer(((int)(id>>32)) ^ (int)id ^ (scope*0x9E3779B9));
+		int x;
+		while (0!=(x = index.fieldById[slot&index.mask]) &&
+			   (scope!=index.scope[x-1] || id!=index.ids[x-1])) {
+			slot++;
+		}
+		return slot&index.mask;
+	}
+
+	private static int findTemplateName(FieldReferenceIndex index, String name) {
+		int slot = MurmurHash.hash32finalizer(name.hashCode());
+		int x;
+		while (0!=(x = index.templateByName[slot&index.mask]) && !name.equals(index.names[x-1])) {
+			slot++;
+		}
+		return slot&index.mask;
+	}
+
+	private static int findTemplateId(FieldReferenceIndex index, long id) {
+		int slot = MurmurHash.hash32finalizer(((int)(id>>32)) ^ (int)id);
+		int x;
+		while (0!=(x = index.templateById[slot&index.mask]) && id!=index.ids[x-1]) {
+			slot++;
+		}
+		return slot&index.mask;
+	}
+
+}
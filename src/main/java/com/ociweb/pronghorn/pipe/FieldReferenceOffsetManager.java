@@ -69,6 +69,8 @@ public class FieldReferenceOffsetManager {
     
     private int[] guid = new int[8];
 
+    private final FieldReferenceIndex index; //derived from names and ids, do not put in hash or equals
+
 
     
 
@@ -158,6 +160,7 @@ public class FieldReferenceOffsetManager {
             //consumer of this need not check for null because it is always created.
         }
         tokensLen = null==tokens?0:tokens.length;
+        index = new FieldReferenceIndex(tokens, fieldNameScript, fieldIdScript, messageStarts);
         populateGUID();  
 	}
 
@@ -461,24 +464,18 @@ public class FieldReferenceOffsetManager {
 	}
 
 	public static int lookupTemplateLocator(String name, FieldReferenceOffsetManager from) {
-    	int i = from.messageStarts.length;
-    	while(--i>=0) {
-    		if (name.equals(from.fieldNameScript[from.messageStarts[i]])) {
-    			
-    			return from.messageStarts[i];
-    		}
-    	}
+		int start = FieldReferenceIndex.templatePosition(from.index, name);
+		if (start>=0) {
+			return start;
+		}
     	throw new UnsupportedOperationException("Unable to find template name: "+name);
     }
     
 	public static int lookupTemplateLocator(final long id, FieldReferenceOffsetManager from) {
-    	int i = from.messageStarts.length;
-    	while(--i>=0) {
-    		if (id == from.fieldIdScript[from.messageStarts[i]]) {
-    			
-    			return from.messageStarts[i];
-    		}
-    	}
+		int start = FieldReferenceIndex.templatePosition(from.index, id);
+		if (start>=0) {
+			return start;
+		}
     	throw new UnsupportedOperationException("Unable to find template id: "+id);
     }
 	
@@ -499,67 +496,25 @@ public class FieldReferenceOffsetManager {
      * @param from
      */
     public static int lookupFieldLocator(String name, int fragmentStart, FieldReferenceOffsetManager from) {
-		int x = fragmentStart;
-        		
-		//upper bits is 4 bits of information
-
-        while (x < from.fieldNameScript.length) {
-            if (name.equalsIgnoreCase(from.fieldNameScript[x])) {            	
-            	return buildFieldLoc(from, fragmentStart, x);
-            }
-            
-            if (exitSearch(from, x)) {
-            	break;
-            }
-            
-            x++;
-        }
+		int x = FieldReferenceIndex.fieldPosition(from.index, name, fragmentStart);
+		if (x>=0) {
+			return buildFieldLoc(from, fragmentStart, x);
+		}
         throw new UnsupportedOperationException("Unable to find field name: "+name+" in "+Arrays.toString(from.fieldNameScript));
 	}
 
-    private static boolean exitSearch(FieldReferenceOffsetManager from, int x) {
-        int token = from.tokens[x];
-        int type = TokenBuilder.extractType(token);
-        boolean isGroupClosed = TypeMask.Group == type &&
-        		                (0 != (token & (OperatorMask.Group_Bit_Close << TokenBuilder.SHIFT_OPER))) &&
-        		                (0 != (token & (OperatorMask.Group_Bit_Templ << TokenBuilder.SHIFT_OPER)));
-        return isGroupClosed;
-    }
-
     public static int paranoidLookupFieldLocator(long id, String name, int fragmentStart, FieldReferenceOffsetManager from) {
-		int x = fragmentStart;
-        		
-		//upper bits is 4 bits of information
-
-        while (x < from.fieldNameScript.length) {
-            if (id == from.fieldIdScript[x] && name.equalsIgnoreCase(from.fieldNameScript[x])) {            	
-            	return buildFieldLoc(from, fragmentStart, x);
-            }
-            
-            if (exitSearch(from, x)) {
-            	break;
-            }
-            
-            x++;
-        }
+		int x = FieldReferenceIndex.fieldPosition(from.index, id, name, fragmentStart);
+		if (x>=0) {
+			return buildFieldLoc(from, fragmentStart, x);
+		}
         throw new UnsupportedOperationException("Unable to find field id: "+id+" in "+Arrays.toString(from.fieldNameScript));
 	}
     
     public static int lookupFieldLocator(long id, int fragmentStart, FieldReferenceOffsetManager from) {
-        int x = fragmentStart;
-                
-        //upper bits is 4 bits of information
-
-        while (x < from.fieldNameScript.length) {
-            if (id == from.fieldIdScript[x]) {              
-                return buildFieldLoc(from, fragmentStart, x);
-            }
-            
-            if (exitSearch(from, x)) {
-                break;
-            }
-            
-            x++;
+        int x = FieldReferenceIndex.fieldPosition(from.index, id, fragmentStart);
+        if (x>=0) {
+            return buildFieldLoc(from, fragmentStart, x);
         }
         throw new UnsupportedOperationException("Unable to find field id: "+id+" in "+Arrays.toString(from.fieldNameScript));
     }
@@ -594,40 +549,18 @@ public class FieldReferenceOffsetManager {
 	
 	
     public static int lookupFragmentLocator(String target, int fragmentStart, FieldReferenceOffsetManager from) {
-		int x = fragmentStart;
-        		
-        while (x < from.fieldNameScript.length) {
-            if (target.equalsIgnoreCase(from.fieldNameScript[x])) {
-            	return x;
-            }
-            
-            boolean isGroupClosed = exitSearch(from, x);
-           
-            if (isGroupClosed) {
-            	break;
-            }
-            
-            x++;
-        }
+		int x = FieldReferenceIndex.fieldPosition(from.index, target, fragmentStart);
+		if (x>=0) {
+			return x;
+		}
         throw new UnsupportedOperationException("Unable to find fragment name: "+target+" in "+Arrays.toString(from.fieldNameScript));
 	}
     
     public static int lookupFragmentLocator(final long id, int fragmentStart, FieldReferenceOffsetManager from) {
-		int x = fragmentStart;
-        		
-        while (x < from.fieldNameScript.length) {
-            if (id == from.fieldIdScript[x]) {
-            	return x;
-            }
-            
-            boolean isGroupClosed = exitSearch(from, x);
-           
-            if (isGroupClosed) {
-            	break;
-            }
-            
-            x++;
-        }
+		int x = FieldReferenceIndex.fieldPosition(from.index, id, fragmentStart);
+		if (x>=0) {
+			return x;
+		}
         throw new UnsupportedOperationException("Unable to find fragment id: "+id+" in "+Arrays.toString(from.fieldNameScript));
 	}
     
@@ -779,6 +712,20 @@ public class FieldReferenceOffsetManager {
         return RLESparseArray.rlDecodeSparseArray(intDefaults);
     }
     
+    /**
+     * @return copy of the run length encoded long defaults as given to the constructor
+     */
+    public long[] longDefaults() {
+        return longDefaults.clone();
+    }
+
+    /**
+     * @return copy of the run length encoded int defaults as given to the constructor
+     */
+    public int[] intDefaults() {
+        return intDefaults.clone();
+    }
+
     public void appendLongDefaults(Appendable target) throws IOException {
             Appendables.appendArray(target.append("new long[]"), '{', longDefaults, '}');
     }
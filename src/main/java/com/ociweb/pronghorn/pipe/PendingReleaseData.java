@@ -87,6 +87,7 @@ public class PendingReleaseData {
 			Pipe.setBlobTailPosition(pipe,newTail);
 
 			pipe.slabRingTail.tailPos.lazySet(that.pendingSlabReleaseRing[idx]);
+			Pipe.tailPublished(pipe);
 			that.pendingReleaseCount = 0;
 
 		}
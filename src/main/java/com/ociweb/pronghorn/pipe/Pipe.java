@@ -10,17 +10,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.DataInput;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  *
@@ -259,6 +264,23 @@ public class Pipe<T extends MessageSchema<T>> {
 		}
     }
 
+    /**
+     * Holds the claimed head positions when more than one producer writes to this pipe.
+     * Producers hold the claim lock only long enough to move both positions forward so the
+     * slab and blob regions of every fragment are always claimed in the same order.
+     */
+    static class ClaimHead {
+        final AtomicBoolean claimLock;
+        long slabClaimPos;
+        int blobClaimPos;
+
+        ClaimHead(long slabPos, int blobPos) {
+            this.claimLock = new AtomicBoolean(false);
+            this.slabClaimPos = slabPos;
+            this.blobClaimPos = blobPos;
+        }
+    }
+
     /**
      * Provides a container holding a long value that fills a 64-byte cache line.
      */
@@ -427,8 +449,8 @@ public class Pipe<T extends MessageSchema<T>> {
     //            the time slices of the graph will need to be kept for all rings to reconstruct history later.
 
 
-    private final SlabRingHead slabRingHead = new SlabRingHead();
-    private final BlobRingHead blobRingHead = new BlobRingHead();
+    private final SlabRingHead slabRingHead;
+    private final BlobRingHead blobRingHead;
 
     LowLevelAPIWritePositionCache llWrite; //low level write head pos cache and target
     LowLevelAPIReadPositionCache llRead; //low level read tail pos cache and target
@@ -440,6 +462,33 @@ public class Pipe<T extends MessageSchema<T>> {
     PendingReleaseData pendingReleases;//only used when we want to release blob data async from our walking of each fragment
     
 
+    //only built when the config requests multiple producers, see PipeClaim
+    ClaimHead claimHead;
+
+    //broadcast support, readers share the rings and head of the source but each has its own tail
+    private final Pipe<T> broadcastSource;
+    private volatile Pipe<T>[] broadcastReaders;
+    //readers count their tail publishes here, the one which moves it from 0 publishes the source tails for all
+    private final AtomicInteger broadcastTailRequests = new AtomicInteger();
+
+    //see PipeConfig.waitStrategy(), parked threads are woken when the head or tail is published
+    final PipeWaitStrategy waitStrategy;
+    private final boolean wakesParked;
+    volatile Thread headParkedThread;//consumer waiting for the head to move
+    volatile Thread tailParkedThread;//producer waiting for the tail to move
+    Thread producerThread;//last thread to publish the head, only kept when wakesParked
+    Thread consumerThread;//last thread to publish the tail, only kept when wakesParked
+    //spinWork(pipe) is given no attempt count so it counts the calls made while head and tail stay put
+    private long spinSeenPositions = -1;
+    private int spinAttempt;
+
+    //null unless PipeConfig.telemetry() was used
+    final PipeTelemetry telemetry;
+    //null unless PipeConfig.latencyTrace() was used
+    final PipeLatency latency;
+    //null unless PipeConfig.adaptiveBatching() was used
+    final PipeAdaptiveBatch adaptiveBatch;
+
     final SlabRingTail slabRingTail = new SlabRingTail(); //primary working and public
     private final BlobRingTail blobRingTail = new BlobRingTail(); //primary working and public
 
@@ -469,6 +518,11 @@ public class Pipe<T extends MessageSchema<T>> {
     //defined externally and never changes
     protected final byte[] blobConstBuffer;
     private byte[][] blobRingLookup;
+    //off heap rings, see PipeConfig.offHeap(), slabRing and blobRing stay null when these are in use
+    private IntBuffer slabBuffer;
+    private ByteBuffer blobBuffer;
+    private ByteBuffer blobWriteView; //each side positions its own view so the producer and consumer never share one
+    private ByteBuffer blobReadView;
     
     
     //NOTE:
@@ -603,6 +657,15 @@ public class Pipe<T extends MessageSchema<T>> {
 		p.totalWrittenFragments+=sum;
 	}
 	
+	/**
+	 * Live counters for this pipe, see PipeTelemetry.pull() to read them.
+	 * @param p pipe with telemetry
+	 * @return PipeTelemetry or null if not enabled in the PipeConfig
+	 */
+	public static PipeTelemetry telemetry(Pipe<?> p) {
+		return p.telemetry;
+	}
+	
 	////////////////////
 	////////////////////
 	/**
@@ -620,8 +683,15 @@ public class Pipe<T extends MessageSchema<T>> {
 	 * @param usingHighLevelAPI boolean used to turn off high level if its not used.
 	 */
     public Pipe(PipeConfig<T> config, boolean usingHighLevelAPI) {
+    	this(config, usingHighLevelAPI, null);
+    }
+    
+    private Pipe(PipeConfig<T> config, boolean usingHighLevelAPI, Pipe<T> broadcastSource) {
     	assert(holdConstructionLocation());
     	this.config = config;
+    	this.broadcastSource = broadcastSource;
+    	this.slabRingHead = null==broadcastSource ? new SlabRingHead() : broadcastSource.slabRingHead;
+    	this.blobRingHead = null==broadcastSource ? new BlobRingHead() : broadcastSource.blobRingHead;
     	this.usingHighLevelAPI = usingHighLevelAPI;
         byte primaryBits = config.slabBits;
         byte byteBits = config.blobBits;
@@ -629,6 +699,11 @@ public class Pipe<T extends MessageSchema<T>> {
         this.schema = config.schema;
 
         debugFlags = config.debugFlags;
+        waitStrategy = config.waitStrategy;
+        wakesParked = waitStrategy.parks;
+        telemetry = config.telemetry>0 ? new PipeTelemetry(config.telemetry) : null;
+        latency = config.latencyTrace>0 ? new PipeLatency(config.latencyTrace, config.slabBits) : null;
+        adaptiveBatch = config.adaptiveBatchMicros>0 ? new PipeAdaptiveBatch(config.adaptiveBatchMicros) : null;
                 
 
         //Assign the immutable universal id value for this specific instance
@@ -775,6 +850,16 @@ public class Pipe<T extends MessageSchema<T>> {
         return PipeRegulator.computeRateLimitDelay(pipe, Pipe.workingHeadPosition(pipe), pipe.regulatorProducer);
     }
     
+    /**
+     * Checks if this pipe was configured to accept writes from more than one producer.
+     * Such pipes must be written with PipeClaim instead of the single producer write API.
+     * @param pipe to check
+     * @return boolean true if many producers may write
+     */
+    public static <S extends MessageSchema<S>> boolean isMultiProducer(Pipe<S> pipe) {
+        return pipe.config.multiProducer;
+    }
+    
     /**
      * Checks if schema matches that used by the pipe.
      * @param pipe to check schema
@@ -820,7 +905,7 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return long bytes count estimate memory consumed
      */
     public static <S extends MessageSchema<S>> long estBytesAllocated(Pipe<S> pipe) {
-    	return ((long)pipe.blobRing.length) + (pipe.slabRing.length*4L) + 1024L;//1K for overhead
+    	return ((long)pipe.sizeOfBlobRing) + (pipe.sizeOfSlabRing*4L) + 1024L;//1K for overhead
     }
     
     /**
@@ -1148,6 +1233,11 @@ public class Pipe<T extends MessageSchema<T>> {
     
 	private void buildBuffers() {
 
+		if (null!=broadcastSource) {
+			buildBroadcastReaderBuffers();
+			return;
+		}
+
 	    this.pendingReleases = 
 	    		((null == schema.from) ?	null : //pending releases only supported with real FROM schemas
 	    		new PendingReleaseData(
@@ -1177,9 +1267,17 @@ public class Pipe<T extends MessageSchema<T>> {
         llRead.llwConfirmedPosition = toPos - sizeOfSlabRing;// TODO: hack test,  mask;//must be mask to ensure zero case works.
         llWrite.llrConfirmedPosition = toPos;
 
+        if (config.multiProducer) {
+        	this.claimHead = new ClaimHead(toPos, blobRingHead.byteWorkingHeadPos.value);
+        }
+
         try {
-	        this.blobRing = new byte[sizeOfBlobRing];
-	        this.slabRing = new int[sizeOfSlabRing];
+        	if (config.isOffHeap()) {
+        		allocateOffHeap();
+        	} else {
+		        this.blobRing = new byte[sizeOfBlobRing];
+		        this.slabRing = new int[sizeOfSlabRing];
+        	}
 	        this.blobRingLookup = new byte[][] {blobRing,blobConstBuffer};
         } catch (OutOfMemoryError oome) {
         	
@@ -1188,14 +1286,14 @@ public class Pipe<T extends MessageSchema<T>> {
         	System.exit(-1);
         }
         //This assignment is critical to knowing that init was called
-        this.wrappedSlabRing = IntBuffer.wrap(this.slabRing);        
+        this.wrappedSlabRing = null==this.slabRing ? this.slabBuffer : IntBuffer.wrap(this.slabRing);        
 
         //only create if there is a possibility that they may be used.
         if (sizeOfBlobRing>0) {
-	        this.wrappedBlobReadingRingA = ByteBuffer.wrap(this.blobRing);
-	        this.wrappedBlobReadingRingB = ByteBuffer.wrap(this.blobRing);
-	        this.wrappedBlobWritingRingA = ByteBuffer.wrap(this.blobRing);
-	        this.wrappedBlobWritingRingB = ByteBuffer.wrap(this.blobRing);	        
+	        this.wrappedBlobReadingRingA = wrapBlob();
+	        this.wrappedBlobReadingRingB = wrapBlob();
+	        this.wrappedBlobWritingRingA = wrapBlob();
+	        this.wrappedBlobWritingRingB = wrapBlob();	        
 	        this.wrappedBlobConstBuffer = null==this.blobConstBuffer?null:ByteBuffer.wrap(this.blobConstBuffer);
 	        
 	        this.wrappedReadingBuffers = new ByteBuffer[]{wrappedBlobReadingRingA,wrappedBlobReadingRingB}; 
@@ -1205,10 +1303,254 @@ public class Pipe<T extends MessageSchema<T>> {
 	        assert(0==wrappedBlobReadingRingA.position() && wrappedBlobReadingRingA.capacity()==wrappedBlobReadingRingA.limit()) : "The ByteBuffer is not clear.";
 	
 	        //blobReader and writer must be last since they will be checking isInit in construction.
-	        this.blobReader = createNewBlobReader();
-	        this.blobWriter = createNewBlobWriter();
+	        if (null!=this.blobRing) { //they work on the backing array so off heap rings have none
+		        this.blobReader = createNewBlobReader();
+		        this.blobWriter = createNewBlobWriter();
+	        }
         }
 	}
+
+	/**
+	 * Direct buffers for the rings, or buffers mapped to a file in the directory of PipeConfig.memoryMapped().
+	 */
+	private void allocateOffHeap() {
+		final File directory = config.mappedDirectory();
+		if (null==directory) {
+			this.slabBuffer = ByteBuffer.allocateDirect(sizeOfSlabRing<<2).order(ByteOrder.nativeOrder()).asIntBuffer();
+			this.blobBuffer = ByteBuffer.allocateDirect(sizeOfBlobRing);
+		} else {
+			final File file = new File(directory, "pipe"+id+".ring");
+			try {
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try {
+					FileChannel channel = raf.getChannel();
+					this.slabBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4L*sizeOfSlabRing).order(ByteOrder.nativeOrder()).asIntBuffer();
+					this.blobBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 4L*sizeOfSlabRing, sizeOfBlobRing);
+				} finally {
+					raf.close(); //the mapping stays valid once the channel is closed
+				}
+			} catch (IOException e) {
+				throw new PipeException("Unable to map the rings of pipe "+id+" to "+file+" "+e.getMessage());
+			}
+			file.deleteOnExit();
+		}
+		this.blobWriteView = blobBuffer.duplicate();
+		this.blobReadView = blobBuffer.duplicate();
+	}
+
+	private ByteBuffer wrapBlob() {
+		return null==blobRing ? blobBuffer.duplicate() : ByteBuffer.wrap(blobRing);
+	}
+	
+	private void buildBroadcastReaderBuffers() {
+		assert(isInit(broadcastSource)) : "The broadcast source pipe must be init before its readers";
+		
+	    this.pendingReleases = 
+	    		((null == schema.from) ? null :
+	    		new PendingReleaseData(
+	    				sizeOfSlabRing / FieldReferenceOffsetManager.minFragmentSize(MessageSchema.from(schema))	
+	    		));
+	    
+		//start reading where the slowest reader is so nothing unreleased is missed
+		long tail = broadcastSource.slabRingTail.tailPos.get();
+		int blobTail = PaddedInt.get(broadcastSource.blobRingTail.bytesTailPos);
+		slabRingTail.workingTailPos.value = tail;
+		slabRingTail.tailPos.set(tail);
+		blobRingTail.byteWorkingTailPos.value = blobTail;
+		PaddedInt.set(blobRingTail.bytesTailPos, blobTail);
+		blobReadBase = broadcastSource.blobReadBase;
+		
+	    if (usingHighLevelAPI && null!=schema.from) {
+	    	this.ringWalker = new StackStateWalker(MessageSchema.from(schema), sizeOfSlabRing);
+	    	ringWalker.nextWorkingHead = tail;
+	    	ringWalker.nextWorkingTail = tail;
+	    }
+		
+		this.llRead = new LowLevelAPIReadPositionCache();
+		this.llWrite = new LowLevelAPIWritePositionCache();
+		llWrite.llwHeadPosCache = tail;
+		llRead.llrTailPosCache = tail;
+		llRead.llwConfirmedPosition = tail - sizeOfSlabRing;
+		llWrite.llrConfirmedPosition = tail;
+		
+		this.blobRing = broadcastSource.blobRing;
+		this.slabRing = broadcastSource.slabRing;
+		this.blobRingLookup = broadcastSource.blobRingLookup;
+		this.slabBuffer = broadcastSource.slabBuffer;
+		this.blobBuffer = broadcastSource.blobBuffer;
+		if (null!=this.blobBuffer) {
+			this.blobWriteView = blobBuffer.duplicate();
+			this.blobReadView = blobBuffer.duplicate();
+		}
+		this.wrappedSlabRing = null==this.slabRing ? this.slabBuffer : IntBuffer.wrap(this.slabRing);
+		if (sizeOfBlobRing>0) {
+	        this.wrappedBlobReadingRingA = wrapBlob();
+	        this.wrappedBlobReadingRingB = wrapBlob();
+	        this.wrappedBlobWritingRingA = wrapBlob();
+	        this.wrappedBlobWritingRingB = wrapBlob();	        
+	        this.wrappedBlobConstBuffer = null==this.blobConstBuffer?null:ByteBuffer.wrap(this.blobConstBuffer);
+	        this.wrappedReadingBuffers = new ByteBuffer[]{wrappedBlobReadingRingA,wrappedBlobReadingRingB}; 
+	        this.wrappedWritingBuffers = new ByteBuffer[]{wrappedBlobWritingRingA,wrappedBlobWritingRingB};
+	        if (null!=this.blobRing) {
+		        this.blobReader = createNewBlobReader();
+		        this.blobWriter = createNewBlobWriter();
+	        }
+		}
+	}
+
+	/**
+	 * Build reader pipes which all consume every fragment written to the source pipe.
+	 * Each reader shares the rings of the source and has its own tail so it can be read
+	 * with the normal low or high level API. The source is only written to, it is never read,
+	 * and the writer may only move ahead of the slowest reader.
+	 * 
+	 * The source must be init before the readers and readers are best added before the first write.
+	 * 
+	 * @param source Pipe to be written
+	 * @param count int number of readers
+	 * @return new reader pipes
+	 */
+	public static <S extends MessageSchema<S>> Pipe<S>[] buildBroadcastReaders(Pipe<S> source, int count) {
+		assert(null==source.broadcastSource) : "Readers can not be built from another reader";
+		Pipe<S>[] result = new Pipe[count];
+		int i = count;
+		while (--i>=0) {
+			result[i] = new Pipe<S>(source.config, source.usingHighLevelAPI, source);
+		}
+		
+		Pipe<S>[] readers = null==source.broadcastReaders ? new Pipe[0] : source.broadcastReaders;
+		Pipe<S>[] all = new Pipe[readers.length+count];
+		System.arraycopy(readers, 0, all, 0, readers.length);
+		System.arraycopy(result, 0, all, readers.length, count);
+		source.broadcastReaders = all;
+		
+		return result;
+	}
+	
+	/**
+	 * Checks if this pipe is one of the readers of a broadcast pipe.
+	 * @param pipe to check
+	 * @return boolean true if this is a broadcast reader
+	 */
+	public static <S extends MessageSchema<S>> boolean isBroadcastReader(Pipe<S> pipe) {
+		return null != pipe.broadcastSource;
+	}
+	
+	//readers call this after publishing their own tail so the writer can see the slowest one,
+	//it also wakes any thread parked by the wait strategy
+	static <S extends MessageSchema<S>> void tailPublished(Pipe<S> pipe) {
+		if (pipe.wakesParked) {
+			pipe.consumerThread = Thread.currentThread();
+		}
+		if (null != pipe.broadcastSource) {
+			publishSlowestBroadcastTail(pipe.broadcastSource);
+		} else if (pipe.wakesParked) {
+			wakeTailParked(pipe);
+		}
+	}
+
+	//writers call this after publishing the head so parked readers can continue
+	private static <S extends MessageSchema<S>> void headPublished(Pipe<S> pipe) {
+		if (pipe.wakesParked) {
+			pipe.producerThread = Thread.currentThread();
+			wakeHeadParked(pipe);
+			if (null != pipe.claimHead) {
+				wakeTailParked(pipe);//other producers wait for this head to publish their claims
+			}
+			Pipe<S>[] readers = pipe.broadcastReaders;
+			if (null != readers) {
+				int i = readers.length;
+				while (--i>=0) {
+					wakeHeadParked(readers[i]);
+				}
+			}
+		}
+	}
+
+	private static <S extends MessageSchema<S>> void wakeHeadParked(Pipe<S> pipe) {
+		Thread parked = pipe.headParkedThread;
+		if (null != parked) {
+			pipe.headParkedThread = null;
+			LockSupport.unpark(parked);
+		}
+	}
+
+	private static <S extends MessageSchema<S>> void wakeTailParked(Pipe<S> pipe) {
+		Thread parked = pipe.tailParkedThread;
+		if (null != parked) {
+			pipe.tailParkedThread = null;
+			LockSupport.unpark(parked);
+		}
+	}
+
+	/**
+	 * Checks if the calling thread waits on the tail of this pipe, used by the wait strategy to pick
+	 * the slot a thread parks in. Each side is known once it has published, before that only the
+	 * consumer can be waiting on an empty pipe.
+	 */
+	static <S extends MessageSchema<S>> boolean waitsOnTail(Pipe<S> pipe) {
+		Thread current = Thread.currentThread();
+		if (current == pipe.consumerThread) {
+			return false;
+		}
+		if (current == pipe.producerThread) {
+			return true;
+		}
+		return headPosition(pipe) != tailPosition(pipe);
+	}
+
+	//head last seen by the consumer when it checked for content, parking is skipped if it has moved since
+	static <S extends MessageSchema<S>> long consumerSeenHead(Pipe<S> pipe) {
+		return pipe.llWrite.llwHeadPosCache;
+	}
+
+	//tail last seen by the producer when it checked for room, parking is skipped if it has moved since.
+	//Claiming producers also wait on each other so only the tail read now can be used for them.
+	static <S extends MessageSchema<S>> long producerSeenTail(Pipe<S> pipe) {
+		return null == pipe.claimHead ? pipe.llRead.llrTailPosCache : tailPosition(pipe);
+	}
+
+	private static <S extends MessageSchema<S>> void publishSlowestBroadcastTail(Pipe<S> source) {
+		//many readers release at once but only one may write the source tails, else a slower reader
+		//could move the blob tail back after a faster one moved both forward. Requests arriving while
+		//a reader owns the tails are picked up by another pass of the owner.
+		if (0 == source.broadcastTailRequests.getAndIncrement()) {
+			int requests;
+			do {
+				requests = source.broadcastTailRequests.get();
+				moveSlowestBroadcastTail(source);
+			} while (0 != source.broadcastTailRequests.addAndGet(-requests));
+		}
+	}
+
+	private static <S extends MessageSchema<S>> void moveSlowestBroadcastTail(Pipe<S> source) {
+		Pipe<S>[] readers = source.broadcastReaders;
+		long minTail = Long.MAX_VALUE;
+		int minBlobTail = 0;
+		int i = readers.length;
+		while (--i>=0) {
+			Pipe<S> reader = readers[i];
+			if (!isInit(reader)) {
+				return;//this reader has not started so nothing may be written over yet
+			}
+			long tail = reader.slabRingTail.tailPos.get();
+			if (tail<minTail) {
+				minTail = tail;
+				minBlobTail = PaddedInt.get(reader.blobRingTail.bytesTailPos);
+			}
+		}
+		//only the owner writes here so both tails move forward together, blob first so the
+		//writer never sees slab room without the matching blob room
+		if (minTail > source.slabRingTail.tailPos.get()) {
+			source.blobRingTail.byteWorkingTailPos.value = minBlobTail;
+			PaddedInt.set(source.blobRingTail.bytesTailPos, minBlobTail);
+			source.slabRingTail.workingTailPos.value = minTail;
+			source.slabRingTail.tailPos.set(minTail);
+			if (source.wakesParked) {
+				wakeTailParked(source);
+			}
+		}
+	}
 	
 	//Can be overridden to support specific classes which extend DataInputBlobReader
 	protected DataInputBlobReader<T> createNewBlobReader() {
@@ -1229,8 +1571,8 @@ public class Pipe<T extends MessageSchema<T>> {
 	    //Due to the fact that no locks are used it becomes necessary to check
 	    //every single field to ensure the full initialization of the object
 	    //this is done as part of graph set up and as such is called rarely.
-		return null!=pipe.blobRing &&
-			   null!=pipe.slabRing &&
+		return (null!=pipe.blobRing || null!=pipe.blobBuffer) &&
+			   (null!=pipe.slabRing || null!=pipe.slabBuffer) &&
 			   null!=pipe.blobRingLookup &&
 			   null!=pipe.wrappedSlabRing &&
 			   null!=pipe.llRead &&
@@ -1306,6 +1648,11 @@ public class Pipe<T extends MessageSchema<T>> {
 
         blobRingTail.byteWorkingTailPos.value = unstructuredPos;
         PaddedInt.set(blobRingTail.bytesTailPos,unstructuredPos);
+        
+        if (null!=claimHead) {
+        	claimHead.slabClaimPos = structuredPos;
+        	claimHead.blobClaimPos = unstructuredPos;
+        }
         StackStateWalker.reset(ringWalker, structuredPos);
     }
 
@@ -1366,6 +1713,80 @@ public class Pipe<T extends MessageSchema<T>> {
 		
 	}
 
+	/**
+	 * Move as many whole fragments as possible from source to target in one bulk copy per ring.
+	 * The copy stops at maxFragments, at the end of the published source data, when the target
+	 * is full or after an EOF. The target is published once and the source released once.
+	 * Both pipes must use the low level API and the same schema.
+	 *
+	 * @param source Pipe to read from, positioned between fragments
+	 * @param target Pipe to write to, positioned between fragments
+	 * @param maxFragments int largest count of fragments to move
+	 * @return int count of fragments moved
+	 */
+	public static <S extends MessageSchema<S>> int transferAvailable(Pipe<S> source, Pipe<S> target, int maxFragments) {
+		assert(Pipe.from(source)==Pipe.from(target)) : "Both pipes must be of the same schema";
+		assert(source.slabRingTail.workingTailPos.value == source.llWrite.llrConfirmedPosition) : "Source must not be in the middle of a fragment";
+		assert(target.slabRingHead.workingHeadPos.value-target.sizeOfSlabRing == target.llRead.llwConfirmedPosition) : "Target must not be in the middle of a fragment";
+		assert(Pipe.singleThreadPerPipeRead(source.id));
+		assert(Pipe.singleThreadPerPipeWrite(target.id));
+
+		final int[] sourceSlab = source.slabRing;
+		final int sourceMask = source.slabMask;
+		final int[] fragDataSize = Pipe.from(source).fragDataSize;
+		final long start = source.slabRingTail.workingTailPos.value;
+		final long head = source.llWrite.llwHeadPosCache = source.slabRingHead.headPos.get();
+		//the blob tail is stored masked so a completely full ring would look empty, at least one byte stays free
+		final int targetBlobFree = target.blobMask - (target.blobMask & (target.blobRingHead.byteWorkingHeadPos.value - PaddedInt.get(target.blobRingTail.bytesTailPos)));
+
+		//find the longest run of whole fragments which fits
+		long pos = start;
+		int blobBytes = 0;
+		int count = 0;
+		while (count<maxFragments && pos<head) {
+			final int msgIdx = sourceSlab[sourceMask & (int)pos];
+			final int size = msgIdx<0 ? Pipe.EOF_SIZE : fragDataSize[msgIdx];
+			final int fragBlob = sourceSlab[sourceMask & (int)(pos+size-1)];
+			if (!roomToLowLevelWrite(target, target.llRead.llwConfirmedPosition+(pos+size-start))
+				|| blobBytes+fragBlob > targetBlobFree) {
+				break;
+			}
+			pos += size;
+			blobBytes += fragBlob;
+			count++;
+			if (msgIdx<0) {
+				break;//nothing may follow the EOF
+			}
+		}
+		if (0==count) {
+			return 0;
+		}
+		final int slabLen = (int)(pos-start);
+
+		//var length positions are relative to each fragment so the whole run copies as is
+		copyIntsFromToRing(sourceSlab, (int)start, sourceMask,
+				           target.slabRing, (int)target.slabRingHead.workingHeadPos.value, target.slabMask, slabLen);
+		copyBytesFromToRing(source.blobRing, source.blobReadBase, source.blobMask,
+				            target.blobRing, target.blobRingHead.byteWorkingHeadPos.value, target.blobMask, blobBytes);
+
+		//publish the target once
+		PaddedInt.maskedAdd(target.blobRingHead.byteWorkingHeadPos, blobBytes, Pipe.BYTES_WRAP_MASK);
+		target.blobWriteLastConsumedPos = target.blobRingHead.byteWorkingHeadPos.value;
+		markBytesWriteBase(target);
+		target.slabRingHead.workingHeadPos.value += slabLen;
+		target.llRead.llwConfirmedPosition += slabLen;
+		target.totalWrittenFragments += count;
+		publishWritesBatched(target);
+
+		//release the source once
+		source.slabRingTail.workingTailPos.value = pos;
+		source.llWrite.llrConfirmedPosition += slabLen;
+		markBytesReadBase(source, blobBytes);
+		batchedReleasePublish(source, source.blobRingTail.byteWorkingTailPos.value = source.blobReadBase, pos);
+
+		return count;
+	}
+
 	/**
 	 * Build an array of Pipe instances from a set of PipeConfig.
 	 * @param configs array of PipeConfig values
@@ -2169,7 +2590,11 @@ public class Pipe<T extends MessageSchema<T>> {
      */
     public static <S extends MessageSchema<S>> void readBytes(Pipe<S> pipe, byte[] target, int targetIdx, int targetMask, int meta, int len) {
 		if (meta >= 0) {
-			copyBytesFromToRing(pipe.blobRing,restorePosition(pipe,meta),pipe.blobMask,target,targetIdx,targetMask,len);
+			if (null!=pipe.blobRing) {
+				copyBytesFromToRing(pipe.blobRing,restorePosition(pipe,meta),pipe.blobMask,target,targetIdx,targetMask,len);
+			} else {
+				blobGet(pipe, restorePosition(pipe,meta), target, targetIdx, targetMask, len);
+			}
 	    } else {
 	    	//NOTE: constByteBuffer does not wrap so we do not need the mask
 	    	copyBytesFromToRing(pipe.blobConstBuffer, PipeReader.POS_CONST_MASK & meta, 0xFFFFFFFF, target, targetIdx, targetMask, len);
@@ -2610,10 +3035,11 @@ public class Pipe<T extends MessageSchema<T>> {
 	
 			PaddedInt.set(pipe.blobRingHead.bytesHeadPos,pipe.blobRingHead.byteWorkingHeadPos.value);
 			pipe.knownPositionOfEOF = (int)pipe.slabRingHead.workingHeadPos.value +  from(pipe).templateOffset;
-			pipe.slabRing[pipe.slabMask & (int)pipe.knownPositionOfEOF]    = -1;
-			pipe.slabRing[pipe.slabMask & ((int)pipe.knownPositionOfEOF+1)] = 0;
+			slabSet(pipe, pipe.knownPositionOfEOF, -1);
+			slabSet(pipe, pipe.knownPositionOfEOF+1, 0);
 	
 			pipe.slabRingHead.headPos.lazySet(pipe.slabRingHead.workingHeadPos.value = pipe.slabRingHead.workingHeadPos.value + Pipe.EOF_SIZE);
+			headPublished(pipe);
 		} else {
 			log.error("Unable to send EOF, the outgoing pipe is 100% full, downstream stages may not get closed.\n"
 					+ "To resolve this issue ensure the outgoing pipe has room for write before calling this.");
@@ -3491,7 +3917,11 @@ public class Pipe<T extends MessageSchema<T>> {
     	assert(sourceLen>=0);
 		validateVarLength(pipe, sourceLen);
 		
-		copyBytesFromArrayToRing(source, sourceIdx, pipe.blobRing, pipe.blobRingHead.byteWorkingHeadPos.value, pipe.blobMask, sourceLen);
+		if (null!=pipe.blobRing) {
+			copyBytesFromArrayToRing(source, sourceIdx, pipe.blobRing, pipe.blobRingHead.byteWorkingHeadPos.value, pipe.blobMask, sourceLen);
+		} else {
+			blobPut(pipe, source, sourceIdx, -1, pipe.blobRingHead.byteWorkingHeadPos.value, sourceLen);
+		}
 		
 		addBytePosAndLen(pipe, pipe.blobRingHead.byteWorkingHeadPos.value, sourceLen);
 		pipe.blobRingHead.byteWorkingHeadPos.value = BYTES_WRAP_MASK&(pipe.blobRingHead.byteWorkingHeadPos.value + sourceLen);
@@ -3511,7 +3941,11 @@ public class Pipe<T extends MessageSchema<T>> {
     	assert(sourceLen>=0);
     	validateVarLength(pipe, sourceLen);
 
-    	copyBytesFromToRing(source, sourceIdx, sourceMask, pipe.blobRing, pipe.blobRingHead.byteWorkingHeadPos.value, pipe.blobMask, sourceLen);
+    	if (null!=pipe.blobRing) {
+    		copyBytesFromToRing(source, sourceIdx, sourceMask, pipe.blobRing, pipe.blobRingHead.byteWorkingHeadPos.value, pipe.blobMask, sourceLen);
+    	} else {
+    		blobPut(pipe, source, sourceIdx, sourceMask, pipe.blobRingHead.byteWorkingHeadPos.value, sourceLen);
+    	}
 
     	addBytePosAndLen(pipe, pipe.blobRingHead.byteWorkingHeadPos.value, sourceLen);
         pipe.blobRingHead.byteWorkingHeadPos.value = BYTES_WRAP_MASK&(pipe.blobRingHead.byteWorkingHeadPos.value + sourceLen);
@@ -3535,7 +3969,7 @@ public class Pipe<T extends MessageSchema<T>> {
     public static <S extends MessageSchema<S>> void addIntValue(int value, Pipe<S> pipe) {
          assert(pipe.slabRingHead.workingHeadPos.value <= Pipe.tailPosition(pipe)+pipe.sizeOfSlabRing);
          //TODO: not always working in deep structures, check offsets:  assert(isValidFieldTypePosition(rb, TypeMask.IntegerSigned, TypeMask.IntegerSignedOptional, TypeMask.IntegerUnsigned, TypeMask.IntegerUnsignedOptional, TypeMask.Decimal));
-		 setValue(pipe.slabRing,pipe.slabMask,pipe.slabRingHead.workingHeadPos.value++,value);
+		 slabSet(pipe, pipe.slabRingHead.workingHeadPos.value++, value);
 	}
 
 	private static <S extends MessageSchema<S>> boolean isValidFieldTypePosition(Pipe<S> rb, int ... expected) {
@@ -3582,7 +4016,7 @@ public class Pipe<T extends MessageSchema<T>> {
      */
     public static <S extends MessageSchema<S>> void setIntValue(int value, Pipe<S> pipe, long position) {
         assert(pipe.slabRingHead.workingHeadPos.value <= Pipe.tailPosition(pipe)+pipe.sizeOfSlabRing);
-        setValue(pipe.slabRing,pipe.slabMask,position,value);
+        slabSet(pipe, position, value);
     }
     
     /**
@@ -3619,9 +4053,9 @@ public class Pipe<T extends MessageSchema<T>> {
 
    // 	 assert(rb.llwNextHeadTarget<=rb.headPos.get() || rb.workingHeadPos.value<=rb.llwNextHeadTarget) : "Unsupported mix of high and low level API.";
             	 
-     	 assert(null != pipe.slabRing) : "Pipe must be init before use";
+     	 assert(null != pipe.wrappedSlabRing) : "Pipe must be init before use";
      	 
-		 pipe.slabRing[pipe.slabMask & (int)pipe.slabRingHead.workingHeadPos.value++] = msgIdx;
+		 slabSet(pipe, pipe.slabRingHead.workingHeadPos.value++, msgIdx);
 		 
 		 final int size = Pipe.from(pipe).fragDataSize[msgIdx];
 	   	    
@@ -3680,9 +4114,14 @@ public class Pipe<T extends MessageSchema<T>> {
      */    
     public static <S extends MessageSchema<S>> void addBytePosAndLenSpecial(Pipe<S> targetOutput, final int startBytePos, int bytesLength) {
         PaddedLong workingHeadPos = getWorkingHeadPositionObject(targetOutput);
-        setBytePosAndLen(slab(targetOutput), targetOutput.slabMask, workingHeadPos.value, 
-        		         startBytePos, bytesLength, 
-        		         bytesWriteBase(targetOutput));
+        if (null!=targetOutput.slabRing) {
+	        setBytePosAndLen(targetOutput.slabRing, targetOutput.slabMask, workingHeadPos.value, 
+	        		         startBytePos, bytesLength, 
+	        		         bytesWriteBase(targetOutput));
+        } else {
+        	slabSet(targetOutput, workingHeadPos.value, bytePosMeta(startBytePos, bytesWriteBase(targetOutput)));
+        	slabSet(targetOutput, workingHeadPos.value+1, bytesLength);
+        }
         PaddedLong.add(workingHeadPos, 2);
     }
 
@@ -3690,12 +4129,16 @@ public class Pipe<T extends MessageSchema<T>> {
 			long bufferPos, int dataBlobPos, int dataBlobLen, int baseBytePos) {
 	   	//negative position is written as is because the internal array does not have any offset (but it could some day)
     	//positive position is written after subtracting the rbRingBuffer.bytesHeadPos.longValue()
+    	buffer[bufferMask & (int)bufferPos] = bytePosMeta(dataBlobPos, baseBytePos);
+        buffer[bufferMask & (int)(bufferPos+1)] = dataBlobLen;
+	}
+
+	private static int bytePosMeta(int dataBlobPos, int baseBytePos) {
     	if (dataBlobPos>=0) {
-    		buffer[bufferMask & (int)bufferPos] = (int)(dataBlobPos-baseBytePos) & Pipe.BYTES_WRAP_MASK; //mask is needed for the negative case, does no harm in positive case
+    		return (int)(dataBlobPos-baseBytePos) & Pipe.BYTES_WRAP_MASK; //mask is needed for the negative case, does no harm in positive case
     	} else {
-    		buffer[bufferMask & (int)bufferPos] = dataBlobPos;
+    		return dataBlobPos;
     	}
-        buffer[bufferMask & (int)(bufferPos+1)] = dataBlobLen;
 	}
 	
 
@@ -3762,7 +4205,12 @@ public class Pipe<T extends MessageSchema<T>> {
      * @param pipe Pipe target
      */
     public static <S extends MessageSchema<S>> void addDecimal(int exponent, long mantissa, Pipe<S> pipe) {
-        pipe.slabRingHead.workingHeadPos.value = setValues(pipe.slabRing, pipe.slabMask, pipe.slabRingHead.workingHeadPos.value, exponent, mantissa);
+        if (null!=pipe.slabRing) {
+        	pipe.slabRingHead.workingHeadPos.value = setValues(pipe.slabRing, pipe.slabMask, pipe.slabRingHead.workingHeadPos.value, exponent, mantissa);
+        } else {
+        	slabSet(pipe, pipe.slabRingHead.workingHeadPos.value++, exponent);
+        	addLongValue(mantissa, pipe);
+        }
     }
 
 	static <S extends MessageSchema<S>> long setValues(int[] buffer, int rbMask, long pos, int value1, long value2) {
@@ -3779,7 +4227,14 @@ public class Pipe<T extends MessageSchema<T>> {
      * @param <S> MessageSchema to be extended
      */
 	public static <S extends MessageSchema<S>> void addLongValue(long value, Pipe<S> pipe) {
-		 addLongValue(pipe.slabRing, pipe.slabMask, pipe.slabRingHead.workingHeadPos, value);
+		if (null!=pipe.slabRing) {
+			addLongValue(pipe.slabRing, pipe.slabMask, pipe.slabRingHead.workingHeadPos, value);
+		} else {
+			final long p = pipe.slabRingHead.workingHeadPos.value;
+			slabSet(pipe, p, (int)(value >>> 32));
+			slabSet(pipe, p+1, (int)value);
+			pipe.slabRingHead.workingHeadPos.value = p+2;
+		}
 	}
 
 	
@@ -3811,7 +4266,7 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return int length
      */
 	public static <S extends MessageSchema<S>> int readByteArrayLength(int idx, Pipe<S> pipe) {
-		return readByteArrayLength(idx,pipe.slabRing, pipe.slabMask, pipe.slabRingTail.workingTailPos.value);
+		return slabGet(pipe, pipe.slabRingTail.workingTailPos.value+idx+1);
 	}
 
 	/**
@@ -3821,7 +4276,7 @@ public class Pipe<T extends MessageSchema<T>> {
 	 */
 	public static <S extends MessageSchema<S>> int takeByteArrayLength(Pipe<S> pipe) {
 	//    assert(ring.structuredLayoutRingTail.workingTailPos.value<RingBuffer.workingHeadPosition(pipe));
-		return pipe.slabRing[(int)(pipe.slabMask & (pipe.slabRingTail.workingTailPos.value++))];// second int is always the length
+		return slabGet(pipe, pipe.slabRingTail.workingTailPos.value++);// second int is always the length
 	}
 
 	@Deprecated
@@ -3836,6 +4291,7 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return byte[] backing array
      */
     public static <S extends MessageSchema<S>> byte[] byteBackingArray(int meta, Pipe<S> pipe) {
+        assert(meta<0 || null!=pipe.blobRing) : "Off heap pipes have no backing array, use readBytes";
         return pipe.blobRingLookup[meta>>>31];
     }
 
@@ -3851,7 +4307,7 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return int meta
      */
 	public static <S extends MessageSchema<S>> int readByteArraMetaData(int pos, Pipe<S> pipe) {
-		return readIntValue(pos,pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value);
+		return slabGet(pipe, pipe.slabRingTail.workingTailPos.value+pos);
 	}
 
 	@Deprecated
@@ -3866,7 +4322,7 @@ public class Pipe<T extends MessageSchema<T>> {
 	 */
 	public static <S extends MessageSchema<S>> int takeByteArrayMetaData(Pipe<S> pipe) {
 		//NOTE: must always read metadata before length, easy mistake to make, need assert to ensure this is caught if happens.
-		return readIntValue(0,pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value++);
+		return slabGet(pipe, pipe.slabRingTail.workingTailPos.value++);
 	}
 
     static <S extends MessageSchema<S>> int readIntValue(int fieldPos, int[] rbB, int rbMask, long rbPos) {
@@ -3881,7 +4337,7 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return int value from specified index
      */
     public static <S extends MessageSchema<S>> int readIntValue(int idx, Pipe<S> pipe) {
-    	return readIntValue(idx, pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value);
+    	return slabGet(pipe, pipe.slabRingTail.workingTailPos.value+idx);
     }
     
     @Deprecated
@@ -3895,7 +4351,7 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return int value
      */
     public static <S extends MessageSchema<S>> int takeInt(Pipe<S> pipe) {
-    	return readValue(pipe.slabRing, pipe.slabMask, pipe.slabRingTail.workingTailPos.value++);
+    	return slabGet(pipe, pipe.slabRingTail.workingTailPos.value++);
     }
     
     @Deprecated //use takeInt
@@ -3936,7 +4392,7 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return Integer value
      */
     public static <S extends MessageSchema<S>> Integer takeOptionalValue(Pipe<S> pipe, int absent32Value) {
-        int temp = readIntValue(0, pipe.slabRing, pipe.slabMask, pipe.slabRingTail.workingTailPos.value++);
+        int temp = slabGet(pipe, pipe.slabRingTail.workingTailPos.value++);
         return absent32Value!=temp ? new Integer(temp) : null;
     }
 
@@ -3950,7 +4406,7 @@ public class Pipe<T extends MessageSchema<T>> {
         //this assert does not always work because the head position is volatile, Not sure what should be done to resolve it.  
         //assert(ring.slabRingTail.workingTailPos.value<Pipe.workingHeadPosition(ring)) : "working tail "+ring.slabRingTail.workingTailPos.value+" but head is "+Pipe.workingHeadPosition(ring);
     	
-        long result = readLong(pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value);
+        long result = slabGetLong(pipe, pipe.slabRingTail.workingTailPos.value);
     	pipe.slabRingTail.workingTailPos.value+=2;
     	return result;
     }
@@ -3973,7 +4429,7 @@ public class Pipe<T extends MessageSchema<T>> {
      */
     public static <S extends MessageSchema<S>> Long takeOptionalLong(Pipe<S> pipe, long absent64Value) {
         assert(pipe.slabRingTail.workingTailPos.value<Pipe.workingHeadPosition(pipe)) : "working tail "+pipe.slabRingTail.workingTailPos.value+" but head is "+Pipe.workingHeadPosition(pipe);
-        long result = readLong(pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value);
+        long result = slabGetLong(pipe, pipe.slabRingTail.workingTailPos.value);
         pipe.slabRingTail.workingTailPos.value+=2;
         return absent64Value!=result ? new Long(result) : null;
     }
@@ -3986,7 +4442,7 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return long value from specified index
      */
     public static <S extends MessageSchema<S>> long readLong(int idx, Pipe<S> pipe) {
-    	return readLong(pipe.slabRing,pipe.slabMask,idx+pipe.slabRingTail.workingTailPos.value);
+    	return slabGetLong(pipe, idx+pipe.slabRingTail.workingTailPos.value);
 
     }
 
@@ -4002,7 +4458,7 @@ public class Pipe<T extends MessageSchema<T>> {
     			      Pipe.bytesReadBase(pipe)
     			));
   
-    	return pipe.lastMsgIdx = readValue(pipe.slabRing, pipe.slabMask, pipe.slabRingTail.workingTailPos.value++);
+    	return pipe.lastMsgIdx = slabGet(pipe, pipe.slabRingTail.workingTailPos.value++);
     }
     
     /**
@@ -4055,7 +4511,7 @@ public class Pipe<T extends MessageSchema<T>> {
      */
     public static <S extends MessageSchema<S>> int peekInt(Pipe<S> pipe) {
     	assert((Pipe.contentRemaining(pipe)>0)) : "results would not be repeatable";
-        return readIntValue(pipe.slabRing, pipe.slabMask, pipe.slabRingTail.workingTailPos.value);
+        return slabGet(pipe, pipe.slabRingTail.workingTailPos.value);
     }
     
     /**
@@ -4066,7 +4522,7 @@ public class Pipe<T extends MessageSchema<T>> {
      */
     public static <S extends MessageSchema<S>> int peekInt(Pipe<S> pipe, int offset) {
     	assert((Pipe.contentRemaining(pipe)>0)) : "results would not be repeatable";
-        return readIntValue(pipe.slabRing, pipe.slabMask, pipe.slabRingTail.workingTailPos.value+offset);
+        return slabGet(pipe, pipe.slabRingTail.workingTailPos.value+offset);
     }
    
     /**
@@ -4077,7 +4533,7 @@ public class Pipe<T extends MessageSchema<T>> {
      */
     public static <S extends MessageSchema<S>> long peekLong(Pipe<S> pipe, int offset) {
     	assert((Pipe.contentRemaining(pipe)>0)) : "results would not be repeatable";
-        return readLong(pipe.slabRing,pipe.slabMask,pipe.slabRingTail.workingTailPos.value+offset);
+        return slabGetLong(pipe, pipe.slabRingTail.workingTailPos.value+offset);
     }
     
     /**
@@ -4127,6 +4583,12 @@ public class Pipe<T extends MessageSchema<T>> {
 
         assert(bytesConsumedByFragment>=0) : "Bytes consumed by fragment must never be negative, was fragment written correctly?, is read positioned correctly?";
         Pipe.markBytesReadBase(pipe, bytesConsumedByFragment);  //the base has been moved so we can also use it below.
+        if (null!=pipe.telemetry) {
+        	PipeTelemetry.released(pipe.telemetry, bytesConsumedByFragment);
+        }
+        if (null!=pipe.latency) {
+        	PipeLatency.released(pipe.latency, pipe.slabRingTail.workingTailPos.value-1);
+        }
         long tail = pipe.slabRingTail.workingTailPos.value;
 		batchedReleasePublish(pipe, 
         		              pipe.blobRingTail.byteWorkingTailPos.value = pipe.blobReadBase, 
@@ -4136,6 +4598,37 @@ public class Pipe<T extends MessageSchema<T>> {
         return bytesConsumedByFragment;        
     }
 
+    /**
+     * Release a run of whole messages in one step, the caller has already summed their blob bytes.
+     * @param pipe Pipe source
+     * @param nextTail long slab position just after the last message released
+     * @param bytesConsumed int total blob bytes of the released messages
+     */
+    static <S extends MessageSchema<S>> void releaseReadLock(Pipe<S> pipe, long nextTail, int bytesConsumed) {
+        assert(null==pipe.ringWalker || pipe.ringWalker.cursor<=0 && !PipeReader.isNewMessage(pipe.ringWalker)) : "Unsupported mix of high and low level API.  ";
+        releaseRun(pipe, nextTail, bytesConsumed);
+    }
+
+    /**
+     * Shared by the low level bulk release above and PipeReader for the messages it skips.
+     * The messages are not walked, every stamped position before nextTail is a released fragment.
+     */
+    static <S extends MessageSchema<S>> void releaseRun(Pipe<S> pipe, long nextTail, int bytesConsumed) {
+        assert(Pipe.singleThreadPerPipeRead(pipe.id));
+        if (null!=pipe.latency) {
+            PipeLatency.released(pipe.latency, pipe.slabRingTail.workingTailPos.value, nextTail);
+        }
+        pipe.slabRingTail.workingTailPos.value = nextTail;
+        Pipe.markBytesReadBase(pipe, bytesConsumed);
+        if (null!=pipe.telemetry) {
+            PipeTelemetry.released(pipe.telemetry, bytesConsumed);
+        }
+        releaseBatchedReads(pipe, 
+                            pipe.blobRingTail.byteWorkingTailPos.value = pipe.blobReadBase, 
+                            nextTail);
+        assert(validateInsideData(pipe, pipe.blobReadBase));
+    }
+
     /**
      * Move cursor forward to next fragment for reading but does NOT release the previous fragment
      * to be written over.  This is helpful in cases where multiple messages must be held until a 
@@ -4182,13 +4675,20 @@ public class Pipe<T extends MessageSchema<T>> {
            //NOTE: the working tail is in use as part of the read and should not be modified
            //      this method only modifies the externally visible tail to let writers see it.
            pipe.slabRingTail.tailPos.lazySet(nextWorkingTail);
+           tailPublished(pipe);
            
            beginNewReleaseBatch(pipe); 
+           if (null!=pipe.adaptiveBatch) {
+        	   PipeAdaptiveBatch.tuneRelease(pipe);
+           }
            
            assert(validateInsideData(pipe, pipe.blobReadBase));
            
         } else {
            storeUnpublishedTail(pipe, nextWorkingTail, workingBlobRingTailPosition);            
+           if (null!=pipe.adaptiveBatch) {
+        	   PipeAdaptiveBatch.heldRelease(pipe);
+           }
         }
     }
 
@@ -4208,6 +4708,7 @@ public class Pipe<T extends MessageSchema<T>> {
         if (pipe.lastReleasedSlabTail > pipe.slabRingTail.tailPos.get()) {
             PaddedInt.set(pipe.blobRingTail.bytesTailPos,pipe.lastReleasedBlobTail);
             pipe.slabRingTail.tailPos.lazySet(pipe.lastReleasedSlabTail);
+            tailPublished(pipe);
             pipe.batchReleaseCountDown = pipe.batchReleaseCountDownInit;
         }
 
@@ -4237,6 +4738,7 @@ public class Pipe<T extends MessageSchema<T>> {
 
         PaddedInt.set(pipe.blobRingTail.bytesTailPos, newTailBytesToPublish);
         pipe.slabRingTail.tailPos.lazySet(newTailToPublish);
+        tailPublished(pipe);
         pipe.batchReleaseCountDown = pipe.batchReleaseCountDownInit;
     }
 
@@ -4358,6 +4860,7 @@ public class Pipe<T extends MessageSchema<T>> {
     	if (pipe.lastPublishedSlabRingHead>pipe.slabRingHead.headPos.get()) {
     		PaddedInt.set(pipe.blobRingHead.bytesHeadPos,pipe.lastPublishedBlobRingHead);
     		pipe.slabRingHead.headPos.lazySet(pipe.lastPublishedSlabRingHead);
+    		headPublished(pipe);
     	}
 
 		assert(debugHeadAssignment(pipe));
@@ -4390,10 +4893,17 @@ public class Pipe<T extends MessageSchema<T>> {
 	    if ((--pipe.batchPublishCountDown<=0)) {
 	        PaddedInt.set(pipe.blobRingHead.bytesHeadPos, pipe.blobRingHead.byteWorkingHeadPos.value);
 	        pipe.slabRingHead.headPos.lazySet(pipe.slabRingHead.workingHeadPos.value);
+	        headPublished(pipe);
 	        assert(debugHeadAssignment(pipe));
 	        pipe.batchPublishCountDown = pipe.batchPublishCountDownInit;
+	        if (null!=pipe.adaptiveBatch) {
+	        	PipeAdaptiveBatch.tunePublish(pipe);
+	        }
 	    } else {
 	        storeUnpublishedWrites(pipe);
+	        if (null!=pipe.adaptiveBatch) {
+	        	PipeAdaptiveBatch.heldWrite(pipe);
+	        }
 	    }
 	}
 
@@ -4427,7 +4937,60 @@ public class Pipe<T extends MessageSchema<T>> {
      * @param pipe
      */
 	public static <S extends MessageSchema<S>> void spinWork(Pipe<S> pipe) {
-		Thread.yield();//needed for now but re-evaluate performance impact
+		final long positions = headPosition(pipe)+tailPosition(pipe);
+		if (positions != pipe.spinSeenPositions) {
+			pipe.spinSeenPositions = positions;
+			pipe.spinAttempt = 0;
+		}
+		spinWork(pipe, pipe.spinAttempt++);
+	}
+
+    /**
+     * Wait once for the head to move past seenHead, the head position this consumer last read.
+     * Loops which keep their own copy of the head must use this instead of spinWork(pipe, attempt),
+     * else a parking strategy can not tell the pipe is unchanged and never parks.
+     * @param pipe Pipe being waited on
+     * @param attempt int count of earlier calls for this wait, starts at zero
+     * @param seenHead long head position last read by the caller
+     */
+	public static <S extends MessageSchema<S>> void spinWorkForContent(Pipe<S> pipe, int attempt, long seenHead) {
+		if (pipe.wakesParked) {
+			pipe.llWrite.llwHeadPosCache = seenHead;
+			pipe.consumerThread = Thread.currentThread();
+		}
+		spinWork(pipe, attempt);
+	}
+
+    /**
+     * Wait once for the tail to move past seenTail, the tail position this producer last read.
+     * Loops which keep their own copy of the tail must use this instead of spinWork(pipe, attempt),
+     * else a parking strategy can not tell the pipe is unchanged and never parks.
+     * @param pipe Pipe being waited on
+     * @param attempt int count of earlier calls for this wait, starts at zero
+     * @param seenTail long tail position last read by the caller
+     */
+	public static <S extends MessageSchema<S>> void spinWorkForRoom(Pipe<S> pipe, int attempt, long seenTail) {
+		if (pipe.wakesParked) {
+			pipe.llRead.llrTailPosCache = seenTail;
+			pipe.producerThread = Thread.currentThread();
+		}
+		spinWork(pipe, attempt);
+	}
+
+    /**
+     * Wait once with the PipeWaitStrategy of this pipe, see PipeConfig.waitStrategy().
+     * Like spinWork(pipe) this throws if the pipe is shutdown or the thread is interrupted.
+     * @param pipe Pipe being waited on
+     * @param attempt int count of earlier calls for this wait, starts at zero
+     */
+	public static <S extends MessageSchema<S>> void spinWork(Pipe<S> pipe, int attempt) {
+		if (null==pipe.telemetry) {
+			pipe.waitStrategy.idle(pipe, attempt);
+		} else {
+			long start = System.nanoTime();
+			pipe.waitStrategy.idle(pipe, attempt);
+			PipeTelemetry.spun(pipe.telemetry, System.nanoTime()-start);
+		}
 		if (isShutdown(pipe) || Thread.currentThread().isInterrupted()) {
 			Thread.currentThread().interrupt();
 			throw null!=pipe.firstShutdownCaller ? pipe.firstShutdownCaller : new PipeException("Unexpected shutdown");
@@ -4600,6 +5163,7 @@ public class Pipe<T extends MessageSchema<T>> {
 	 */
 	public static <S extends MessageSchema<S>> void publishWorkingHeadPosition(Pipe<S> pipe, long workingHeadPos) {
 		pipe.slabRingHead.headPos.lazySet(pipe.slabRingHead.workingHeadPos.value = workingHeadPos);
+		headPublished(pipe);
 	}
 
 	/**
@@ -4620,6 +5184,7 @@ public class Pipe<T extends MessageSchema<T>> {
 	 */
 	public static <S extends MessageSchema<S>> void publishWorkingTailPosition(Pipe<S> pipe, long workingTailPos) {
 		pipe.slabRingTail.tailPos.lazySet(pipe.slabRingTail.workingTailPos.value = workingTailPos);
+		tailPublished(pipe);
 	}
     
 	/**
@@ -4656,8 +5221,14 @@ public class Pipe<T extends MessageSchema<T>> {
 
 		//used by both pipe and pipe writer so ideal place to count fragments
 		pipe.totalWrittenFragments++;		
+		if (null!=pipe.telemetry) {
+			PipeTelemetry.published(pipe.telemetry, pipe);
+		}
+		if (null!=pipe.latency) {
+			PipeLatency.published(pipe.latency, pos);
+		}
 		
-		pipe.slabRing[pipe.slabMask & (int)pos] = consumed;
+		slabSet(pipe, pos, consumed);
 		pipe.blobWriteLastConsumedPos = pipe.blobRingHead.byteWorkingHeadPos.value;
 		return consumed;
 	}
@@ -4803,8 +5374,9 @@ public class Pipe<T extends MessageSchema<T>> {
     public static <S extends MessageSchema<S>> void presumeRoomForWrite(Pipe<S> pipe) {
     	if (!hasRoomForWrite(pipe)) {
     		log.warn("Assumed available space but not found, make pipe larger or write less {}",pipe, new Exception());    		
+    		int attempt = 0;
     		while (!hasRoomForWrite(pipe)) {
-    			spinWork(pipe);
+    			spinWork(pipe, attempt++);
     		}
     	}
     }
@@ -4816,7 +5388,7 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return <code>true</code> if pipe has room to write else <code>false</code>
      */
     public static <S extends MessageSchema<S>> boolean hasRoomForWrite(Pipe<S> pipe) {
-        assert(null != pipe.slabRing) : "Pipe must be init before use";
+        assert(null != pipe.wrappedSlabRing) : "Pipe must be init before use";
         assert(null != pipe.llRead) : "Expected pipe to be setup for low level use.";
         assert(Pipe.singleThreadPerPipeWrite(pipe.id));
        
@@ -4830,7 +5402,16 @@ public class Pipe<T extends MessageSchema<T>> {
 	}
 
 	private static <S extends MessageSchema<S>> boolean roomToLowLevelWriteSlow(Pipe<S> pipe, long target) {
-        return (pipe.llRead.llrTailPosCache = pipe.slabRingTail.tailPos.get()  ) >= target;
+        if ((pipe.llRead.llrTailPosCache = pipe.slabRingTail.tailPos.get()  ) >= target) {
+        	return true;
+        }
+        if (null!=pipe.telemetry) {
+        	pipe.telemetry.producerFullStalls++;
+        }
+        if (null!=pipe.adaptiveBatch) {
+        	PipeAdaptiveBatch.producerFull(pipe);
+        }
+        return false;
 	}
 
 	/**
@@ -4901,7 +5482,7 @@ public class Pipe<T extends MessageSchema<T>> {
 	                                                +(output.llRead.llwConfirmedPosition+output.slabMask)+" workingHead:"+Pipe.workingHeadPosition(output)+
 	                                                " \n CHECK that Pipe is written same fields as message defines and skips none!";
 	   
-	    return  output.llRead.llwConfirmedPosition += Pipe.sizeOf(output, output.slabRing[lastConfirmedWritePosition(output)]);
+	    return  output.llRead.llwConfirmedPosition += Pipe.sizeOf(output, slabGet(output, output.llRead.llwConfirmedPosition));
 
 	}
 
@@ -4939,7 +5520,7 @@ public class Pipe<T extends MessageSchema<T>> {
     	//this method can only be used with low level api navigation loop
     	//CAUTION: THIS IS NOT COMPATIBLE WITH PipeReader behavior...
     	assert(Pipe.singleThreadPerPipeRead(pipe.id));
-        assert(null != pipe.slabRing) : "Pipe must be init before use";
+        assert(null != pipe.wrappedSlabRing) : "Pipe must be init before use";
         return contentToLowLevelRead2(pipe, pipe.llWrite.llrConfirmedPosition, pipe.llWrite);
 
     }
@@ -4950,7 +5531,16 @@ public class Pipe<T extends MessageSchema<T>> {
 	}
 
 	private static <S extends MessageSchema<S>> boolean contentToLowLevelReadSlow(Pipe<S> pipe, long target, LowLevelAPIWritePositionCache llWrite) {
-		return (llWrite.llwHeadPosCache = pipe.slabRingHead.headPos.get()) > target;  
+		if ((llWrite.llwHeadPosCache = pipe.slabRingHead.headPos.get()) > target) {
+			return true;
+		}
+		if (null!=pipe.telemetry) {
+			pipe.telemetry.consumerEmptyStalls++;
+		}
+		if (null!=pipe.adaptiveBatch) {
+			PipeAdaptiveBatch.consumerEmpty(pipe);
+		}
+		return false;
 	}
 
 	/**
@@ -5105,6 +5695,14 @@ public class Pipe<T extends MessageSchema<T>> {
         return --pipe.batchPublishCountDown;
     }
 
+    static <S extends MessageSchema<S>> int batchPublishRemaining(Pipe<S> pipe) {
+        return pipe.batchPublishCountDown;
+    }
+
+    static <S extends MessageSchema<S>> int batchReleaseRemaining(Pipe<S> pipe) {
+        return pipe.batchReleaseCountDown;
+    }
+
     /**
      * start new batch for release
      * @param pipe Pipe target
@@ -5127,6 +5725,7 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return byte[] backing
      */
     public static <S extends MessageSchema<S>> byte[] blob(Pipe<S> pipe) {        
+        assert(null!=pipe.blobRing || null==pipe.blobBuffer) : "Off heap pipes have no backing array, see PipeConfig.offHeap()";
         return pipe.blobRing;
     }
     
@@ -5136,8 +5735,68 @@ public class Pipe<T extends MessageSchema<T>> {
      * @return int[] backing
      */
     public static <S extends MessageSchema<S>> int[] slab(Pipe<S> pipe) {
+        assert(null!=pipe.slabRing || null==pipe.slabBuffer) : "Off heap pipes have no backing array, see PipeConfig.offHeap()";
         return pipe.slabRing;
     }
+
+    /**
+     * @param pipe Pipe source
+     * @return true if the rings are direct or memory mapped buffers rather than arrays
+     */
+    public static <S extends MessageSchema<S>> boolean isOffHeap(Pipe<S> pipe) {
+        return null!=pipe.slabBuffer;
+    }
+
+    //ring access for the low level methods, these also work when the rings are off heap
+
+    private static int slabGet(Pipe<?> pipe, long pos) {
+        final int[] slab = pipe.slabRing;
+        return null!=slab ? slab[pipe.slabMask & (int)pos] : pipe.slabBuffer.get(pipe.slabMask & (int)pos);
+    }
+
+    private static long slabGetLong(Pipe<?> pipe, long pos) {
+        return (((long) slabGet(pipe, pos)) << 32) | (0xFFFFFFFFL & slabGet(pipe, pos+1));
+    }
+
+    private static void slabSet(Pipe<?> pipe, long pos, int value) {
+        final int[] slab = pipe.slabRing;
+        if (null!=slab) {
+            slab[pipe.slabMask & (int)pos] = value;
+        } else {
+            pipe.slabBuffer.put(pipe.slabMask & (int)pos, value);
+        }
+    }
+
+    private static void blobPut(Pipe<?> pipe, byte[] source, int sourceIdx, int sourceMask, int targetPos, int length) {
+        final ByteBuffer view = pipe.blobWriteView;
+        final int mask = pipe.blobMask;
+        while (length>0) {
+            //each run stops where either side wraps
+            final int s = sourceIdx & sourceMask;
+            final int t = targetPos & mask;
+            final int run = (int)Math.min(Math.min(length, 1+mask-t), 1L+(0xFFFFFFFFL&sourceMask)-s);
+            ((Buffer)view).position(t);
+            view.put(source, s, run);
+            sourceIdx += run;
+            targetPos += run;
+            length -= run;
+        }
+    }
+
+    private static void blobGet(Pipe<?> pipe, int sourcePos, byte[] target, int targetIdx, int targetMask, int length) {
+        final ByteBuffer view = pipe.blobReadView;
+        final int mask = pipe.blobMask;
+        while (length>0) {
+            final int s = sourcePos & mask;
+            final int t = targetIdx & targetMask;
+            final int run = (int)Math.min(Math.min(length, 1+mask-s), 1L+(0xFFFFFFFFL&targetMask)-t);
+            ((Buffer)view).position(s);
+            view.get(target, t, run);
+            sourcePos += run;
+            targetIdx += run;
+            length -= run;
+        }
+    }
     
     @Deprecated
     public static <S extends MessageSchema<S>> byte[] byteBuffer(Pipe<S> pipe) {        
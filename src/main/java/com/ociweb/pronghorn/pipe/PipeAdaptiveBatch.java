@@ -0,0 +1,150 @@
+package com.ociweb.pronghorn.pipe;
+
+/**
+ * Publish and release batch sizes which follow the load, only built when requested with
+ * PipeConfig.adaptiveBatching().
+ *
+ * Each time a batch completes its side looks at how full the pipe is. Below a quarter full the
+ * other side is keeping up so the batch doubles, up to computeMaxBatchSize(pipe, 3). Above half
+ * full it halves, so room or content is handed over sooner as the pipe backs up.
+ *
+ * A partial batch is never held past the time bound. The age is checked as each fragment joins
+ * the batch. Pending writes are also published as soon as the producer finds the pipe full, and
+ * pending releases as soon as the consumer finds it empty. A producer which may sit idle with
+ * a partial batch should call flushAgedWrites() from its idle loop.
+ *
+ * Any batch sizes set with Pipe.setPublishBatchSize() or setReleaseBatchSize() are only the starting point.
+ */
+public class PipeAdaptiveBatch {
+
+	private final long maxNanos;
+	private int maxBatch = -1; //computed on first use once the pipe is built
+
+	private long publishStart; //producer only
+	private long releaseStart; //consumer only
+
+	PipeAdaptiveBatch(int maxBatchMicros) {
+		assert(maxBatchMicros>0);
+		this.maxNanos = maxBatchMicros*1000L;
+	}
+
+	/**
+	 * Called by the producer when a fragment was stored instead of published.
+	 */
+	static <S extends MessageSchema<S>> void heldWrite(Pipe<S> pipe) {
+		final PipeAdaptiveBatch that = pipe.adaptiveBatch;
+		final long now = System.nanoTime();
+		if (Pipe.getPublishBatchSize(pipe)-1 == Pipe.batchPublishRemaining(pipe)) {
+			that.publishStart = now; //first fragment of this batch
+		} else if (now-that.publishStart >= that.maxNanos) {
+			Pipe.publishAllBatchedWrites(pipe);
+		}
+	}
+
+	/**
+	 * Called by the consumer when a release was stored instead of made visible.
+	 */
+	static <S extends MessageSchema<S>> void heldRelease(Pipe<S> pipe) {
+		final PipeAdaptiveBatch that = pipe.adaptiveBatch;
+		final long now = System.nanoTime();
+		if (Pipe.getReleaseBatchSize(pipe)-1 == Pipe.batchReleaseRemaining(pipe)) {
+			that.releaseStart = now;
+		} else if (now-that.releaseStart >= that.maxNanos) {
+			Pipe.releaseAllBatchedReads(pipe);
+		}
+	}
+
+	/**
+	 * Called by the producer when it finds no room, the consumer may be waiting on the held writes.
+	 */
+	static <S extends MessageSchema<S>> void producerFull(Pipe<S> pipe) {
+		if (Pipe.getPublishBatchSize(pipe) != Pipe.batchPublishRemaining(pipe)) {
+			Pipe.publishAllBatchedWrites(pipe);
+			tunePublish(pipe);
+		}
+	}
+
+	/**
+	 * Called by the consumer when it finds nothing to read, the producer may be waiting on the held releases.
+	 */
+	static <S extends MessageSchema<S>> void consumerEmpty(Pipe<S> pipe) {
+		if (Pipe.getReleaseBatchSize(pipe) != Pipe.batchReleaseRemaining(pipe)) {
+			Pipe.releaseAllBatchedReads(pipe);
+			tuneRelease(pipe);
+		}
+	}
+
+	/**
+	 * Called by the producer after each complete publish batch.
+	 */
+	static <S extends MessageSchema<S>> void tunePublish(Pipe<S> pipe) {
+		//one volatile read per batch, the cached tail is only refreshed when the producer runs short of room
+		long fill = Pipe.workingHeadPosition(pipe) - (pipe.llRead.llrTailPosCache = Pipe.tailPosition(pipe));
+		int size = nextSize(pipe, Pipe.getPublishBatchSize(pipe), fill);
+		if (size != Pipe.getPublishBatchSize(pipe)) {
+			Pipe.setPublishBatchSize(pipe, size);
+		}
+	}
+
+	/**
+	 * Called by the consumer after each complete release batch.
+	 */
+	static <S extends MessageSchema<S>> void tuneRelease(Pipe<S> pipe) {
+		long fill = (pipe.llWrite.llwHeadPosCache = Pipe.headPosition(pipe)) - Pipe.getWorkingTailPosition(pipe);
+		int size = nextSize(pipe, Pipe.getReleaseBatchSize(pipe), fill);
+		if (size != Pipe.getReleaseBatchSize(pipe)) {
+			Pipe.setReleaseBatchSize(pipe, size);
+		}
+	}
+
+	private static <S extends MessageSchema<S>> int nextSize(Pipe<S> pipe, int size, long fill) {
+		final PipeAdaptiveBatch that = pipe.adaptiveBatch;
+		if (fill < (pipe.sizeOfSlabRing>>2)) {
+			if (that.maxBatch<0) {
+				that.maxBatch = Pipe.computeMaxBatchSize(pipe, 3);
+			}
+			return Math.min(that.maxBatch, size<1 ? 2 : size<<1);
+		} else if (fill > (pipe.sizeOfSlabRing>>1)) {
+			return size>>1;
+		}
+		return size;
+	}
+
+	/**
+	 * Publish a partial batch which is past the time bound. Call from the producer thread when it has nothing to write.
+	 * @param pipe Pipe built with adaptive batching
+	 * @return boolean true if writes were published
+	 */
+	public static <S extends MessageSchema<S>> boolean flushAgedWrites(Pipe<S> pipe) {
+		final PipeAdaptiveBatch that = batch(pipe);
+		if (Pipe.getPublishBatchSize(pipe) != Pipe.batchPublishRemaining(pipe)
+			&& System.nanoTime()-that.publishStart >= that.maxNanos) {
+			Pipe.publishAllBatchedWrites(pipe);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Make a partial batch of releases visible if it is past the time bound. Call from the consumer thread.
+	 * @param pipe Pipe built with adaptive batching
+	 * @return boolean true if releases were made visible
+	 */
+	public static <S extends MessageSchema<S>> boolean flushAgedReleases(Pipe<S> pipe) {
+		final PipeAdaptiveBatch that = batch(pipe);
+		if (Pipe.getReleaseBatchSize(pipe) != Pipe.batchReleaseRemaining(pipe)
+			&& System.nanoTime()-that.releaseStart >= that.maxNanos) {
+			Pipe.releaseAllBatchedReads(pipe);
+			return true;
+		}
+		return false;
+	}
+
+	private static <S extends MessageSchema<S>> PipeAdaptiveBatch batch(Pipe<S> pipe) {
+		if (null==pipe.adaptiveBatch) {
+			throw new UnsupportedOperationException("Adaptive batching is off for "+pipe+", see PipeConfig.adaptiveBatching()");
+		}
+		return pipe.adaptiveBatch;
+	}
+
+}
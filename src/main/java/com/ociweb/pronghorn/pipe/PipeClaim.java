@@ -0,0 +1,188 @@
+package com.ociweb.pronghorn.pipe;
+
+import com.ociweb.pronghorn.pipe.Pipe.ClaimHead;
+
+/**
+ * Write cursor for pipes shared by many producers, see PipeConfig.multiProducer().
+ *
+ * Each producer thread holds its own PipeClaim. A fragment is written by claiming its slab
+ * and blob space, adding the fields in order and then publishing. Claims are handed out in
+ * order and published in the same order so the consumer side of the pipe is unchanged and
+ * may use either the low level or the high level read API.
+ *
+ * Only whole single fragment messages can be claimed because the fragments of a larger
+ * message could otherwise be interleaved with those of other producers.
+ *
+ * @param <T> the schema of the pipe
+ */
+public class PipeClaim<T extends MessageSchema<T>> {
+
+	private final Pipe<T> pipe;
+
+	private long slabStart = -1; //-1 when nothing is claimed
+	private long slabPos;
+	private int  slabSize;
+
+	private int blobStart;
+	private int blobPos;
+	private int blobReserved;
+
+	public PipeClaim(Pipe<T> pipe) {
+		assert(Pipe.isMultiProducer(pipe)) : "Pipe must be configured with PipeConfig.multiProducer()";
+		assert(null==Pipe.from(pipe) || Pipe.from(pipe).hasSimpleMessagesOnly) : "Only simple single fragment messages may be claimed";
+		this.pipe = pipe;
+	}
+
+	/**
+	 * Claim room for the next fragment reserving the largest var length field size of the pipe.
+	 * @param claim PipeClaim for this producer
+	 * @param msgIdx int message to be written
+	 * @return boolean true if the space was claimed
+	 */
+	public static <S extends MessageSchema<S>> boolean tryClaim(PipeClaim<S> claim, int msgIdx) {
+		return tryClaim(claim, msgIdx, 0==claim.pipe.sizeOfBlobRing ? 0 : claim.pipe.maxVarLen);
+	}
+
+	/**
+	 * Claim room for the next fragment. The reserved blob bytes are consumed by this
+	 * fragment even if fewer are written.
+	 * @param claim PipeClaim for this producer
+	 * @param msgIdx int message to be written
+	 * @param blobBytes int count of var length bytes to reserve
+	 * @return boolean true if the space was claimed
+	 */
+	public static <S extends MessageSchema<S>> boolean tryClaim(PipeClaim<S> claim, int msgIdx, int blobBytes) {
+		assert(-1 == claim.slabStart) : "Must publish the previous claim first";
+		assert(msgIdx>=0) : "EOF must be sent with Pipe.publishEOF() after all producers are done";
+		assert(blobBytes>=0);
+		final Pipe<S> pipe = claim.pipe;
+		final ClaimHead head = pipe.claimHead;
+		assert(null!=head) : "Pipe must be init before use";
+		final int size = Pipe.from(pipe).fragDataSize[msgIdx];
+
+		if (!head.claimLock.compareAndSet(false, true)) {
+			return false;//another producer is claiming, try again
+		}
+		try {
+			final long slabStart = head.slabClaimPos;
+			final int blobStart = head.blobClaimPos;
+
+			final long slabTail = pipe.slabRingTail.tailPos.get();
+			if (slabStart+size-slabTail > pipe.sizeOfSlabRing) {
+				return false;
+			}
+			//the released blob tail is masked so only the masked distance can be known and a full ring
+			//would look empty, like the single producer the blob ring is never allowed to become completely full
+			final int blobUsed = pipe.blobMask & (blobStart - Pipe.getBlobTailPosition(pipe));
+			if (blobUsed+blobBytes > pipe.blobMask) {
+				return false;
+			}
+
+			head.slabClaimPos = slabStart+size;
+			head.blobClaimPos = Pipe.BYTES_WRAP_MASK & (blobStart+blobBytes);
+
+			claim.slabStart = slabStart;
+			claim.blobStart = blobStart;
+
+		} finally {
+			head.claimLock.set(false);
+		}
+
+		claim.slabSize = size;
+		claim.slabPos = claim.slabStart+1;
+		claim.blobPos = claim.blobStart;
+		claim.blobReserved = blobBytes;
+		Pipe.slab(pipe)[pipe.slabMask & (int)claim.slabStart] = msgIdx;
+		return true;
+	}
+
+	/**
+	 * Add the next int field of the claimed fragment.
+	 * @param value int value
+	 * @param claim PipeClaim target
+	 */
+	public static <S extends MessageSchema<S>> void addIntValue(int value, PipeClaim<S> claim) {
+		assert(claim.slabPos < claim.slabStart+claim.slabSize-1) : "Field is past the end of the claimed fragment";
+		Pipe.slab(claim.pipe)[claim.pipe.slabMask & (int)claim.slabPos++] = value;
+	}
+
+	/**
+	 * Add the next long field of the claimed fragment.
+	 * @param value long value
+	 * @param claim PipeClaim target
+	 */
+	public static <S extends MessageSchema<S>> void addLongValue(long value, PipeClaim<S> claim) {
+		assert(claim.slabPos+1 < claim.slabStart+claim.slabSize-1) : "Field is past the end of the claimed fragment";
+		final int[] slab = Pipe.slab(claim.pipe);
+		final int mask = claim.pipe.slabMask;
+		slab[mask & (int)claim.slabPos++] = (int)(value >>> 32);
+		slab[mask & (int)claim.slabPos++] = (int)value;
+	}
+
+	/**
+	 * Add the next var length field of the claimed fragment.
+	 * @param source byte[] backing data
+	 * @param sourceIdx int position in source
+	 * @param sourceLen int count of bytes
+	 * @param claim PipeClaim target
+	 */
+	public static <S extends MessageSchema<S>> void addByteArray(byte[] source, int sourceIdx, int sourceLen, PipeClaim<S> claim) {
+		assert(sourceLen>=0);
+		assert(Pipe.BYTES_WRAP_MASK&(claim.blobPos+sourceLen-claim.blobStart)) <= claim.blobReserved : "Claimed blob space is too small for "+sourceLen+" bytes";
+		final Pipe<S> pipe = claim.pipe;
+
+		Pipe.copyBytesFromArrayToRing(source, sourceIdx, Pipe.blob(pipe), claim.blobPos, pipe.blobMask, sourceLen);
+		Pipe.setBytePosAndLen(Pipe.slab(pipe), pipe.slabMask, claim.slabPos, claim.blobPos, sourceLen, claim.blobStart);
+		claim.slabPos += 2;
+		claim.blobPos = Pipe.BYTES_WRAP_MASK & (claim.blobPos+sourceLen);
+	}
+
+	/**
+	 * Add a null for the next var length field of the claimed fragment.
+	 * @param claim PipeClaim target
+	 */
+	public static <S extends MessageSchema<S>> void addNullByteArray(PipeClaim<S> claim) {
+		final Pipe<S> pipe = claim.pipe;
+		Pipe.setBytePosAndLen(Pipe.slab(pipe), pipe.slabMask, claim.slabPos, claim.blobPos, -1, claim.blobStart);
+		claim.slabPos += 2;
+	}
+
+	/**
+	 * Publish the claimed fragment. All earlier claims must be published first so this
+	 * will spin until the producers ahead of this one have published.
+	 * @param claim PipeClaim to publish
+	 */
+	public static <S extends MessageSchema<S>> void publish(PipeClaim<S> claim) {
+		assert(claim.slabPos == claim.slabStart+claim.slabSize-1) : "Fields written do not match the claimed fragment size";
+		final Pipe<S> pipe = claim.pipe;
+		final long slabEnd = claim.slabStart+claim.slabSize;
+		final int blobEnd = Pipe.BYTES_WRAP_MASK & (claim.blobStart+claim.blobReserved);
+
+		//trailing count includes all the reserved bytes so the reader skips any unused
+		Pipe.slab(pipe)[pipe.slabMask & (int)claim.slabPos] = claim.blobReserved;
+
+		int attempt = 0;
+		while (Pipe.headPosition(pipe) != claim.slabStart) {
+			Pipe.spinWork(pipe, attempt++);
+		}
+		//now the only writer of the head until lazySet is done
+		pipe.blobWriteLastConsumedPos = blobEnd;
+		Pipe.sumWrittenFragments(pipe, 1);
+		Pipe.setBlobWorkingHead(pipe, blobEnd);
+		Pipe.setBlobHeadPosition(pipe, blobEnd);
+		Pipe.publishWorkingHeadPosition(pipe, slabEnd);
+		Pipe.notifyPubListener(pipe);
+
+		claim.slabStart = -1;
+	}
+
+	/**
+	 * Checks if this producer holds a claim which is not yet published.
+	 * @param claim PipeClaim to check
+	 * @return boolean true if claimed
+	 */
+	public static <S extends MessageSchema<S>> boolean isClaimed(PipeClaim<S> claim) {
+		return -1 != claim.slabStart;
+	}
+
+}
@@ -0,0 +1,314 @@
+package com.ociweb.pronghorn.pipe;
+
+import com.ociweb.pronghorn.pipe.token.LOCUtil;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+
+/**
+ * Column view over a run of published messages of one template, for consumers which aggregate a field
+ * across many messages rather than reading message by message.
+ *
+ * Every message of the template is one fragment of the same size so a field is found in the slab at a fixed
+ * stride from one message to the next. The kernels below walk that stride directly, without masking when the
+ * run does not wrap the end of the slab, and the whole run is released at once.
+ *
+ * This works with the low level API, begin must be called between messages and the run must be released
+ * before reading on.
+ */
+public class PipeColumnBatch {
+
+    private final int msgIdx;
+    private final int size;
+    private final int templateOffset;
+
+    private Pipe<?> pipe;
+    private int[] slab;
+    private int mask;
+    private long start;
+    private int rows;
+
+    /**
+     * @param from FieldReferenceOffsetManager of the pipes to be read
+     * @param msgIdx template of the messages in the batch
+     */
+    public PipeColumnBatch(FieldReferenceOffsetManager from, int msgIdx) {
+        final int next = msgIdx+from.fragScriptSize[msgIdx];
+        if (next<from.tokens.length && !FieldReferenceOffsetManager.isTemplateStart(from, next)) {
+            throw new UnsupportedOperationException("Only messages made of a single fragment can be read as columns, "+from.fieldNameScript[msgIdx]+" has more.");
+        }
+        this.msgIdx = msgIdx;
+        this.size = from.fragDataSize[msgIdx];
+        this.templateOffset = from.templateOffset;
+    }
+
+    /**
+     * Start a batch of the messages of this template which are published, beginning at the read position.
+     * The batch ends at the first message of another template.
+     * @param pipe to be read
+     * @param maxRows largest number of messages to take
+     * @return count of messages in the batch, may be zero
+     */
+    public int begin(Pipe<?> pipe, int maxRows) {
+        assert(0==rows) : "release the previous batch first";
+        assert(Pipe.singleThreadPerPipeRead(pipe.id));
+        this.pipe = pipe;
+        this.slab = Pipe.slab(pipe);
+        this.mask = Pipe.slabMask(pipe);
+        this.start = Pipe.getWorkingTailPosition(pipe);
+
+        final long head = Pipe.headPosition(pipe);
+        long pos = start;
+        int count = 0;
+        while (count<maxRows && pos+size<=head && msgIdx==slab[mask & (int)(pos+templateOffset)]) {
+            pos += size;
+            count++;
+        }
+        return rows = count;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Slab position of the field for the first message, add stride() for each following message and mask
+     * with slabMask() to read the column directly from slab().
+     */
+    public long position(int loc) {
+        return start+(PipeReader.OFF_MASK&loc);
+    }
+
+    public int stride() {
+        return size;
+    }
+
+    public int[] slab() {
+        return slab;
+    }
+
+    public int slabMask() {
+        return mask;
+    }
+
+    public int readInt(int loc, int row) {
+        assert(isInt(loc)) : "Value found "+LOCUtil.typeAsString(loc);
+        assert(row>=0 && row<rows);
+        return slab[mask & (int)(position(loc)+(long)row*size)];
+    }
+
+    public long readLong(int loc, int row) {
+        assert(isLong(loc)) : "Value found "+LOCUtil.typeAsString(loc);
+        assert(row>=0 && row<rows);
+        final long pos = position(loc)+(long)row*size;
+        return (((long) slab[mask & (int)pos]) << 32) | (0xFFFFFFFFL & slab[mask & (int)(pos+1)]);
+    }
+
+    /**
+     * @return sum of the int column, values are signed and absent values are not excluded
+     */
+    public long sumInt(int loc) {
+        assert(isInt(loc)) : "Value found "+LOCUtil.typeAsString(loc);
+        final int[] slab = this.slab;
+        long sum = 0;
+        int p = mask & (int)position(loc);
+        if (isContiguous(p, 1)) {
+            final int limit = p+rows*size;
+            for(; p<limit; p+=size) {
+                sum += slab[p];
+            }
+        } else {
+            int i = rows;
+            while (--i>=0) {
+                sum += slab[mask & p];
+                p += size;
+            }
+        }
+        return sum;
+    }
+
+    public int minInt(int loc) {
+        assert(isInt(loc)) : "Value found "+LOCUtil.typeAsString(loc);
+        final int[] slab = this.slab;
+        int min = Integer.MAX_VALUE;
+        int p = mask & (int)position(loc);
+        if (isContiguous(p, 1)) {
+            final int limit = p+rows*size;
+            for(; p<limit; p+=size) {
+                min = Math.min(min, slab[p]);
+            }
+        } else {
+            int i = rows;
+            while (--i>=0) {
+                min = Math.min(min, slab[mask & p]);
+                p += size;
+            }
+        }
+        return min;
+    }
+
+    public int maxInt(int loc) {
+        assert(isInt(loc)) : "Value found "+LOCUtil.typeAsString(loc);
+        final int[] slab = this.slab;
+        int max = Integer.MIN_VALUE;
+        int p = mask & (int)position(loc);
+        if (isContiguous(p, 1)) {
+            final int limit = p+rows*size;
+            for(; p<limit; p+=size) {
+                max = Math.max(max, slab[p]);
+            }
+        } else {
+            int i = rows;
+            while (--i>=0) {
+                max = Math.max(max, slab[mask & p]);
+                p += size;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return count of messages whose int value is between min and max inclusive
+     */
+    public int countInt(int loc, int min, int max) {
+        assert(isInt(loc)) : "Value found "+LOCUtil.typeAsString(loc);
+        final int[] slab = this.slab;
+        int count = 0;
+        int p = mask & (int)position(loc);
+        if (isContiguous(p, 1)) {
+            final int limit = p+rows*size;
+            for(; p<limit; p+=size) {
+                final int value = slab[p];
+                count += (value>=min && value<=max) ? 1 : 0;
+            }
+        } else {
+            int i = rows;
+            while (--i>=0) {
+                final int value = slab[mask & p];
+                count += (value>=min && value<=max) ? 1 : 0;
+                p += size;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return sum of the long column, values are signed and absent values are not excluded
+     */
+    public long sumLong(int loc) {
+        assert(isLong(loc)) : "Value found "+LOCUtil.typeAsString(loc);
+        final int[] slab = this.slab;
+        long sum = 0;
+        int p = mask & (int)position(loc);
+        if (isContiguous(p, 2)) {
+            final int limit = p+rows*size;
+            for(; p<limit; p+=size) {
+                sum += (((long) slab[p]) << 32) | (0xFFFFFFFFL & slab[p+1]);
+            }
+        } else {
+            int i = rows;
+            while (--i>=0) {
+                sum += (((long) slab[mask & p]) << 32) | (0xFFFFFFFFL & slab[mask & (p+1)]);
+                p += size;
+            }
+        }
+        return sum;
+    }
+
+    public long minLong(int loc) {
+        assert(isLong(loc)) : "Value found "+LOCUtil.typeAsString(loc);
+        final int[] slab = this.slab;
+        long min = Long.MAX_VALUE;
+        int p = mask & (int)position(loc);
+        if (isContiguous(p, 2)) {
+            final int limit = p+rows*size;
+            for(; p<limit; p+=size) {
+                min = Math.min(min, (((long) slab[p]) << 32) | (0xFFFFFFFFL & slab[p+1]));
+            }
+        } else {
+            int i = rows;
+            while (--i>=0) {
+                min = Math.min(min, (((long) slab[mask & p]) << 32) | (0xFFFFFFFFL & slab[mask & (p+1)]));
+                p += size;
+            }
+        }
+        return min;
+    }
+
+    public long maxLong(int loc) {
+        assert(isLong(loc)) : "Value found "+LOCUtil.typeAsString(loc);
+        final int[] slab = this.slab;
+        long max = Long.MIN_VALUE;
+        int p = mask & (int)position(loc);
+        if (isContiguous(p, 2)) {
+            final int limit = p+rows*size;
+            for(; p<limit; p+=size) {
+                max = Math.max(max, (((long) slab[p]) << 32) | (0xFFFFFFFFL & slab[p+1]));
+            }
+        } else {
+            int i = rows;
+            while (--i>=0) {
+                max = Math.max(max, (((long) slab[mask & p]) << 32) | (0xFFFFFFFFL & slab[mask & (p+1)]));
+                p += size;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return count of messages whose long value is between min and max inclusive
+     */
+    public int countLong(int loc, long min, long max) {
+        assert(isLong(loc)) : "Value found "+LOCUtil.typeAsString(loc);
+        final int[] slab = this.slab;
+        int count = 0;
+        int p = mask & (int)position(loc);
+        if (isContiguous(p, 2)) {
+            final int limit = p+rows*size;
+            for(; p<limit; p+=size) {
+                final long value = (((long) slab[p]) << 32) | (0xFFFFFFFFL & slab[p+1]);
+                count += (value>=min && value<=max) ? 1 : 0;
+            }
+        } else {
+            int i = rows;
+            while (--i>=0) {
+                final long value = (((long) slab[mask & p]) << 32) | (0xFFFFFFFFL & slab[mask & (p+1)]);
+                count += (value>=min && value<=max) ? 1 : 0;
+                p += size;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Release every message of the batch in one step so they can be written over.
+     */
+    public void release() {
+        if (0==rows) {
+            return;
+        }
+        final long end = start+(long)rows*size;
+        int bytesConsumed = 0;
+        for(long pos = start+size-1; pos<end; pos+=size) {
+            bytesConsumed += slab[mask & (int)pos];
+        }
+
+        Pipe.confirmLowLevelRead(pipe, end-start);
+        Pipe.releaseReadLock(pipe, end, bytesConsumed);
+        rows = 0;
+    }
+
+    /**
+     * @return true if the column from the first message to the last one does not pass the end of the slab
+     */
+    private boolean isContiguous(int first, int width) {
+        return (long)first+(long)(rows-1)*size+width <= slab.length;
+    }
+
+    private static boolean isInt(int loc) {
+        return LOCUtil.isLocOfAnyType(loc, TypeMask.IntegerSigned, TypeMask.IntegerSignedOptional, TypeMask.IntegerUnsigned, TypeMask.IntegerUnsignedOptional);
+    }
+
+    private static boolean isLong(int loc) {
+        return LOCUtil.isLocOfAnyType(loc, TypeMask.LongSigned, TypeMask.LongSignedOptional, TypeMask.LongUnsigned, TypeMask.LongUnsignedOptional);
+    }
+
+}
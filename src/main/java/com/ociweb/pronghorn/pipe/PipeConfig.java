@@ -1,5 +1,7 @@
 package com.ociweb.pronghorn.pipe;
 
+import java.io.File;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +17,13 @@ public class PipeConfig<T extends MessageSchema<T>> {
 	final T schema; 
 	int debugFlags = 0;
 	boolean showLabels = true;
+	boolean multiProducer = false;
+	PipeWaitStrategy waitStrategy = PipeWaitStrategy.YIELD;
+	int telemetry = 0;
+	int latencyTrace = 0;
+	int adaptiveBatchMicros = 0;
+	boolean offHeap = false;
+	File mappedDirectory = null;
 	private static final Logger logger = LoggerFactory.getLogger(PipeConfig.class);
 		
    /**
@@ -151,33 +160,147 @@ public class PipeConfig<T extends MessageSchema<T>> {
         validate(messageSchema, minimumFragmentsOnRing, maximumLenghOfVariableLengthFields );
      }
 	
+	/**
+	 * Copy of the source config at a new size carrying across all the pipe options.
+	 */
+	private PipeConfig(PipeConfig<T> source, byte slabBits, byte blobBits) {
+		this(slabBits, blobBits, source.byteConst, source.schema);
+		this.showLabels = source.showLabels;
+		this.debugFlags = source.debugFlags;
+		this.multiProducer = source.multiProducer;
+		this.waitStrategy = source.waitStrategy;
+		this.telemetry = source.telemetry;
+		this.latencyTrace = source.latencyTrace;
+		this.adaptiveBatchMicros = source.adaptiveBatchMicros;
+		this.offHeap = source.offHeap;
+		this.mappedDirectory = source.mappedDirectory;
+	}
+	
 	public PipeConfig<T> grow2x(){
-		PipeConfig<T> result = new PipeConfig<T>((byte)(1+slabBits), (byte)(0==blobBits ? 0 : 1+blobBits), byteConst, schema);
-		result.showLabels = showLabels;
-		return result;
+		return new PipeConfig<T>(this, (byte)(1+slabBits), (byte)(0==blobBits ? 0 : 1+blobBits));
 	}
 	
 	public PipeConfig<T> shrink2x(){
-		PipeConfig<T> result = new PipeConfig<T>((byte)(slabBits-1), (byte)(0==blobBits ? 0 : blobBits-1), byteConst, schema);
-		result.showLabels = showLabels;
-		return result;
+		return new PipeConfig<T>(this, (byte)(slabBits-1), (byte)(0==blobBits ? 0 : blobBits-1));
 	}
 	
 	@Deprecated
 	public PipeConfig<T> blobGrow2x(){
-		PipeConfig<T> result = new PipeConfig<T>((byte)(slabBits), (byte)(1+blobBits), byteConst, schema);
-		result.showLabels = showLabels;
-		return result;
+		return new PipeConfig<T>(this, slabBits, (byte)(1+blobBits));
 	}
 	
 	
 	public PipeConfig<T> debug(int debugFlags){
-		PipeConfig<T> result = new PipeConfig<T>((byte)(slabBits), (byte)(blobBits), byteConst, schema);
-		result.showLabels = this.showLabels;
+		PipeConfig<T> result = new PipeConfig<T>(this, slabBits, blobBits);
 		result.debugFlags = debugFlags;
 		return result;
 	}
 	
+	/**
+	 * Returns a copy of this config for pipes written by many producers at once.
+	 * Producers must write with PipeClaim, the consumer side is unchanged.
+	 */
+	public PipeConfig<T> multiProducer(){
+		PipeConfig<T> result = new PipeConfig<T>(this, slabBits, blobBits);
+		result.multiProducer = true;
+		return result;
+	}
+	
+	public boolean isMultiProducer() {
+		return multiProducer;
+	}
+	
+	/**
+	 * Returns a copy of this config which waits with the given strategy in all the blocking helpers.
+	 * The default is PipeWaitStrategy.YIELD.
+	 */
+	public PipeConfig<T> waitStrategy(PipeWaitStrategy waitStrategy){
+		assert(null!=waitStrategy);
+		PipeConfig<T> result = new PipeConfig<T>(this, slabBits, blobBits);
+		result.waitStrategy = waitStrategy;
+		return result;
+	}
+	
+	public PipeWaitStrategy waitStrategy() {
+		return waitStrategy;
+	}
+	
+	/**
+	 * Returns a copy of this config whose pipes keep live counters, see PipeTelemetry.
+	 * @param sampleEveryNPublishes fill is recorded once for this many publishes, zero turns telemetry off
+	 */
+	public PipeConfig<T> telemetry(int sampleEveryNPublishes){
+		assert(sampleEveryNPublishes>=0);
+		PipeConfig<T> result = new PipeConfig<T>(this, slabBits, blobBits);
+		result.telemetry = sampleEveryNPublishes;
+		return result;
+	}
+	
+	public boolean hasTelemetry() {
+		return telemetry>0;
+	}
+	
+	/**
+	 * Returns a copy of this config whose pipes record how long fragments wait between publish and release, see PipeLatency.
+	 * @param sampleEveryNFragments one of this many fragments is timed, zero turns tracing off
+	 */
+	public PipeConfig<T> latencyTrace(int sampleEveryNFragments){
+		assert(sampleEveryNFragments>=0);
+		PipeConfig<T> result = new PipeConfig<T>(this, slabBits, blobBits);
+		result.latencyTrace = sampleEveryNFragments;
+		return result;
+	}
+	
+	public boolean hasLatencyTrace() {
+		return latencyTrace>0;
+	}
+	
+	/**
+	 * Returns a copy of this config whose pipes tune their own publish and release batch sizes, see PipeAdaptiveBatch.
+	 * @param maxBatchMicros no partial batch is held longer than this once the next fragment is written or released, zero turns tuning off
+	 */
+	public PipeConfig<T> adaptiveBatching(int maxBatchMicros){
+		assert(maxBatchMicros>=0);
+		PipeConfig<T> result = new PipeConfig<T>(this, slabBits, blobBits);
+		result.adaptiveBatchMicros = maxBatchMicros;
+		return result;
+	}
+	
+	public boolean isAdaptiveBatching() {
+		return adaptiveBatchMicros>0;
+	}
+	
+	/**
+	 * Returns a copy of this config whose pipes keep their slab and blob rings in direct buffers instead of arrays.
+	 * Only the low level Pipe take/add/read methods may be used, Pipe.slab() and Pipe.blob() assert heap rings.
+	 */
+	public PipeConfig<T> offHeap(){
+		PipeConfig<T> result = new PipeConfig<T>(this, slabBits, blobBits);
+		result.offHeap = true;
+		result.mappedDirectory = null;
+		return result;
+	}
+	
+	/**
+	 * Returns a copy of this config whose pipes keep their rings in a memory mapped file, one per pipe, in the given directory.
+	 * The same limits as offHeap() apply, the files are deleted on exit.
+	 */
+	public PipeConfig<T> memoryMapped(File directory){
+		assert(null!=directory && directory.isDirectory()) : "Must be an existing directory";
+		PipeConfig<T> result = new PipeConfig<T>(this, slabBits, blobBits);
+		result.offHeap = true;
+		result.mappedDirectory = directory;
+		return result;
+	}
+	
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+	
+	File mappedDirectory() {
+		return mappedDirectory;
+	}
+	
 	public static final int SHOW_HEAD_PUBLISH = 1;
 
 	/**
@@ -0,0 +1,218 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Durable write ahead journal of every fragment published on a pipe, see PipeJournalReader for replay.
+ *
+ * The journal is a consumer of its pipe. To keep the cost off the producer journal a broadcast
+ * reader, see Pipe.buildBroadcastReaders(), and call journal() from its own thread. The producer
+ * only waits if the journal falls a full ring behind.
+ *
+ * Fragments are appended to memory mapped segment files named by SEGMENT_FORMAT. Each segment
+ * starts with a header holding the schema GUID followed by records of
+ * [slab int count][blob byte count][slab ints][blob bytes padded to a whole int].
+ * The slab count is written last so a record is never seen half written. A zero slab count
+ * ends the segment. Every record is one whole message so only schemas without sequences
+ * or groups can be journaled. A restarted journal never writes into old segments, it starts a new one.
+ *
+ * Group commit: the mapped segment is forced to disk once syncFragments fragments or
+ * syncNanos nanoseconds have passed since the last sync, whichever comes first.
+ *
+ * @param <T> the schema of the pipe
+ */
+public class PipeJournal<T extends MessageSchema<T>> {
+
+	static final int MAGIC = 0x504A524E; //PJRN
+	static final int HEADER_BYTES = 64;
+	static final String SEGMENT_FORMAT = "journal-%08d.seg";
+
+	/**
+	 * sync policy which never forces, the OS writes the pages back in its own time
+	 */
+	public static final int SYNC_NEVER = Integer.MAX_VALUE;
+
+	private final Pipe<T> pipe;
+	private final File directory;
+	private final int segmentBytes;
+	private final int syncFragments;
+	private final long syncNanos;
+
+	private int segmentIdx = -1;
+	private MappedByteBuffer segment;
+	private IntBuffer segmentInts;
+
+	private int unsyncedFragments;
+	private long lastSyncTime;
+	private long totalFragments;
+
+	/**
+	 * @param pipe Pipe to consume and journal
+	 * @param directory File for the segment files, created if missing
+	 * @param segmentBytes int size of each segment file
+	 * @param syncFragments int force to disk after this many fragments, 1 forces every journal() call with data, SYNC_NEVER disables
+	 * @param syncNanos long force to disk after this long with unsynced fragments, Long.MAX_VALUE disables
+	 */
+	public PipeJournal(Pipe<T> pipe, File directory, int segmentBytes, int syncFragments, long syncNanos) {
+		if (!Pipe.from(pipe).hasSimpleMessagesOnly) {
+			//records are read back as whole messages, the body fragments of a sequence would be taken for message starts
+			throw new UnsupportedOperationException("Only schemas of single fragment messages can be journaled, "+pipe+" has sequences or groups");
+		}
+		if (syncFragments<1 || syncNanos<0) {
+			throw new UnsupportedOperationException("syncFragments must be positive and syncNanos must not be negative");
+		}
+		if (segmentBytes < HEADER_BYTES+8+(4*pipe.sizeOfSlabRing)) {
+			throw new UnsupportedOperationException("segmentBytes of "+segmentBytes+" is too small for the fragments of "+pipe);
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new PipeException("Unable to create journal directory "+directory);
+		}
+		this.pipe = pipe;
+		this.directory = directory;
+		this.segmentBytes = segmentBytes & 0xFFFFFFFC; //whole ints only
+		this.syncFragments = syncFragments;
+		this.syncNanos = syncNanos;
+		this.lastSyncTime = System.nanoTime();
+		//a restarted journal appends new segments after any found from the earlier run
+		while (segmentFile(directory, segmentIdx+1).exists()) {
+			segmentIdx++;
+		}
+	}
+
+	/**
+	 * Consume and journal every fragment now on the pipe, syncing to disk as the policy requires.
+	 * @param journal PipeJournal target
+	 * @return int count of fragments journaled
+	 */
+	public static <S extends MessageSchema<S>> int journal(PipeJournal<S> journal) {
+		final Pipe<S> pipe = journal.pipe;
+		final int[] slab = Pipe.slab(pipe);
+		final byte[] blob = Pipe.blob(pipe);
+		final int slabMask = pipe.slabMask;
+		final int blobMask = pipe.blobMask;
+
+		int count = 0;
+		while (Pipe.hasContentToRead(pipe)) {
+			final long slabPos = Pipe.getWorkingTailPosition(pipe);
+			final int blobPos = Pipe.bytesReadBase(pipe);
+			final int msgIdx = Pipe.takeMsgIdx(pipe);
+			final int size = msgIdx<0 ? Pipe.EOF_SIZE : Pipe.sizeOf(pipe, msgIdx);
+			final int slabLen = size-1; //trailing byte count is written as the blob count
+			final int blobLen = slab[slabMask & (int)(slabPos+slabLen)];
+
+			final int recordBytes = 8 + (slabLen<<2) + ((blobLen+3) & 0xFFFFFFFC);
+			if (null==journal.segment || journal.segment.remaining()<recordBytes) {
+				if (recordBytes > journal.segmentBytes-HEADER_BYTES) {
+					throw new PipeException("Fragment of "+recordBytes+" bytes can not fit in journal segments of "+journal.segmentBytes+" bytes");
+				}
+				nextSegment(journal);
+			}
+			writeRecord(journal.segment, journal.segmentInts, slab, slabMask, (int)slabPos, slabLen, blob, blobMask, blobPos, blobLen);
+
+			Pipe.addAndGetWorkingTail(pipe, slabLen-1);
+			Pipe.confirmLowLevelRead(pipe, size);
+			Pipe.releaseReadLock(pipe);
+			count++;
+		}
+		if (count>0) {
+			journal.totalFragments += count;
+			journal.unsyncedFragments += count;
+		}
+		if (journal.unsyncedFragments>0 &&
+		    (journal.unsyncedFragments>=journal.syncFragments || System.nanoTime()-journal.lastSyncTime>=journal.syncNanos)) {
+			sync(journal);
+		}
+		return count;
+	}
+
+	private static void writeRecord(MappedByteBuffer segment, IntBuffer ints,
+			                        int[] slab, int slabMask, int slabPos, int slabLen,
+			                        byte[] blob, int blobMask, int blobPos, int blobLen) {
+		final int start = segment.position();
+
+		//ints go through the int view, at most two bulk copies when the ring wraps
+		ints.position((start>>2)+2);
+		int slabIdx = slabMask & slabPos;
+		int slabFirst = Math.min(slabLen, slab.length-slabIdx);
+		ints.put(slab, slabIdx, slabFirst);
+		if (slabFirst<slabLen) {
+			ints.put(slab, 0, slabLen-slabFirst);
+		}
+
+		segment.position(start+8+(slabLen<<2));
+		if (blobLen>0) {
+			int blobIdx = blobMask & blobPos;
+			int blobFirst = Math.min(blobLen, blob.length-blobIdx);
+			segment.put(blob, blobIdx, blobFirst);
+			if (blobFirst<blobLen) {
+				segment.put(blob, 0, blobLen-blobFirst);
+			}
+		}
+		segment.position(start+8+(slabLen<<2)+((blobLen+3) & 0xFFFFFFFC));
+
+		segment.putInt(start+4, blobLen);
+		segment.putInt(start, slabLen);//written last, the record now exists
+	}
+
+	private static <S extends MessageSchema<S>> void nextSegment(PipeJournal<S> journal) {
+		if (null!=journal.segment) {
+			journal.segment.force();
+		}
+		journal.segmentIdx++;
+		File file = segmentFile(journal.directory, journal.segmentIdx);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(journal.segmentBytes);
+				journal.segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, journal.segmentBytes);
+			} finally {
+				raf.close(); //the mapping stays valid after close
+			}
+		} catch (IOException e) {
+			throw new PipeException("Unable to map journal segment "+file+" "+e.getMessage());
+		}
+		journal.segmentInts = journal.segment.asIntBuffer();
+		writeHeader(journal.segment, Pipe.from(journal.pipe));
+	}
+
+	private static void writeHeader(ByteBuffer segment, FieldReferenceOffsetManager from) {
+		segment.position(0);
+		segment.putInt(MAGIC);
+		int[] guid = from.cloneGUID();
+		for(int i = 0; i<guid.length; i++) {
+			segment.putInt(guid[i]);
+		}
+		segment.position(HEADER_BYTES);
+	}
+
+	/**
+	 * Force everything journaled so far to disk.
+	 * @param journal PipeJournal target
+	 */
+	public static <S extends MessageSchema<S>> void sync(PipeJournal<S> journal) {
+		if (null!=journal.segment) {
+			journal.segment.force();
+		}
+		journal.unsyncedFragments = 0;
+		journal.lastSyncTime = System.nanoTime();
+	}
+
+	/**
+	 * @param journal PipeJournal source
+	 * @return long count of fragments journaled since this journal was created
+	 */
+	public static <S extends MessageSchema<S>> long totalFragments(PipeJournal<S> journal) {
+		return journal.totalFragments;
+	}
+
+	static File segmentFile(File directory, int idx) {
+		return new File(directory, String.format(SEGMENT_FORMAT, idx));
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays the segments written by PipeJournal into a pipe of the same schema.
+ *
+ * Each record is copied straight from the mapped segment into the slab and blob rings with
+ * at most two bulk copies per ring. replay() publishes as much as the target has room for
+ * and can be called again once the target is read. It also follows a journal which is still
+ * being written, returning zero until the next record appears.
+ *
+ * @param <T> the schema of the target pipe
+ */
+public class PipeJournalReader<T extends MessageSchema<T>> {
+
+	private final File directory;
+	private int segmentIdx = -1;
+	private MappedByteBuffer segment;
+	private IntBuffer segmentInts;
+	private long totalFragments;
+
+	/**
+	 * @param directory File holding the segments of a PipeJournal
+	 */
+	public PipeJournalReader(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Publish journaled fragments into the target until it is full or the journal has nothing more.
+	 * @param reader PipeJournalReader source
+	 * @param target Pipe to publish into, must be of the journaled schema
+	 * @return int count of fragments published
+	 */
+	public static <S extends MessageSchema<S>> int replay(PipeJournalReader<S> reader, Pipe<S> target) {
+		int count = 0;
+		while (hasRecord(reader, target)) {
+			final MappedByteBuffer segment = reader.segment;
+			final int start = segment.position();
+			final int slabLen = segment.getInt(start);
+			final int blobLen = segment.getInt(start+4);
+			final int msgIdx = segment.getInt(start+8);
+
+			if (msgIdx<0) {
+				if (!Pipe.hasRoomForWrite(target, Pipe.EOF_SIZE)) {
+					break;
+				}
+				Pipe.publishEOF(target);
+			} else {
+				final int size = slabLen+1;
+				assert(Pipe.sizeOf(target, msgIdx)==size) : "journal record does not match the fragment size of the target schema";
+				if (!Pipe.hasRoomForWrite(target, size)) {
+					break;
+				}
+				copyRecord(reader, target, start, slabLen, blobLen);
+			}
+			segment.position(start+8+(slabLen<<2)+((blobLen+3) & 0xFFFFFFFC));
+			count++;
+		}
+		reader.totalFragments += count;
+		return count;
+	}
+
+	private static <S extends MessageSchema<S>> void copyRecord(PipeJournalReader<S> reader, Pipe<S> target,
+			                                                     int start, int slabLen, int blobLen) {
+		final MappedByteBuffer segment = reader.segment;
+
+		final int[] slab = Pipe.slab(target);
+		final int slabIdx = target.slabMask & (int)Pipe.workingHeadPosition(target);
+		final int slabFirst = Math.min(slabLen, slab.length-slabIdx);
+		final IntBuffer ints = reader.segmentInts;
+		ints.position((start>>2)+2);
+		ints.get(slab, slabIdx, slabFirst);
+		if (slabFirst<slabLen) {
+			ints.get(slab, 0, slabLen-slabFirst);
+		}
+
+		if (blobLen>0) {
+			final byte[] blob = Pipe.blob(target);
+			final int blobIdx = target.blobMask & Pipe.getWorkingBlobHeadPosition(target);
+			final int blobFirst = Math.min(blobLen, blob.length-blobIdx);
+			segment.position(start+8+(slabLen<<2));
+			segment.get(blob, blobIdx, blobFirst);
+			if (blobFirst<blobLen) {
+				segment.get(blob, 0, blobLen-blobFirst);
+			}
+			segment.position(start);
+		}
+		//var length positions in the slab are relative to the fragment so they are valid as copied
+		Pipe.addAndGetBlobWorkingHeadPosition(target, blobLen);
+		Pipe.addAndGetWorkingHead(target, slabLen);
+		Pipe.confirmLowLevelWrite(target, slabLen+1);
+		Pipe.publishWrites(target);
+	}
+
+	private static <S extends MessageSchema<S>> boolean hasRecord(PipeJournalReader<S> reader, Pipe<S> target) {
+		MappedByteBuffer segment = reader.segment;
+		if (null!=segment && segment.remaining()>=8 && 0!=segment.getInt(segment.position())) {
+			return true;
+		}
+		//this segment is done, only move on once the writer has started the next
+		File next = PipeJournal.segmentFile(reader.directory, reader.segmentIdx+1);
+		if (next.length() < PipeJournal.HEADER_BYTES) {
+			return false;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(next, "r");
+			try {
+				segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new PipeException("Unable to map journal segment "+next+" "+e.getMessage());
+		}
+		if (PipeJournal.MAGIC != segment.getInt(0)) {
+			return false; //header not yet written
+		}
+		int[] guid = new int[8];
+		for(int i = 0; i<guid.length; i++) {
+			guid[i] = segment.getInt(4+(i<<2));
+		}
+		Pipe.from(target).validateGUID(guid);
+
+		reader.segmentInts = segment.asIntBuffer(); //view indexes from the start of the file
+		segment.position(PipeJournal.HEADER_BYTES);
+		reader.segment = segment;
+		reader.segmentIdx++;
+		return segment.remaining()>=8 && 0!=segment.getInt(segment.position());
+	}
+
+	/**
+	 * @param reader PipeJournalReader source
+	 * @return long count of fragments replayed since this reader was created
+	 */
+	public static <S extends MessageSchema<S>> long totalFragments(PipeJournalReader<S> reader) {
+		return reader.totalFragments;
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.ociweb.pronghorn.pipe;
+
+import com.ociweb.pronghorn.util.SmallFootprintHistogram;
+
+/**
+ * Time each sampled fragment spends on a pipe, from the producer finishing it to the consumer
+ * releasing it. Only built when requested with PipeConfig.latencyTrace().
+ *
+ * The producer stamps the nanotime into a side ring indexed by the slab position of the trailing
+ * byte count of the fragment. The consumer looks up the same position on release and records the
+ * difference. The full position is kept with the stamp so fragments moved without a release,
+ * eg Pipe.transferAvailable(), never match an old stamp. Publish batching is part of the measured time.
+ *
+ * Fragments written with PipeClaim are not traced.
+ */
+public class PipeLatency {
+
+	private final int sampleEvery;
+	private int sampleCountDown; //producer only
+	private final int mask;
+	private final long[] side; //pairs of [trailing position, stamp]
+
+	private final SmallFootprintHistogram residency = new SmallFootprintHistogram(); //consumer only
+
+	PipeLatency(int sampleEvery, int slabBits) {
+		assert(sampleEvery>0);
+		this.sampleEvery = sampleEvery;
+		this.sampleCountDown = sampleEvery;
+		this.mask = (1<<slabBits)-1;
+		this.side = new long[2<<slabBits];
+		int i = mask+1;
+		while (--i>=0) {
+			side[i<<1] = -1; //no position matches until stamped
+		}
+	}
+
+	static void published(PipeLatency that, long trailingPos) {
+		if (--that.sampleCountDown<=0) {
+			that.sampleCountDown = that.sampleEvery;
+			final int idx = (that.mask & (int)trailingPos)<<1;
+			that.side[idx+1] = System.nanoTime();
+			that.side[idx] = trailingPos;
+		}
+	}
+
+	static void released(PipeLatency that, long trailingPos) {
+		final int idx = (that.mask & (int)trailingPos)<<1;
+		if (that.side[idx] == trailingPos) {
+			SmallFootprintHistogram.record(that.residency, System.nanoTime()-that.side[idx+1]);
+			that.side[idx] = -1;
+		}
+	}
+
+	//bulk releases do not walk the fragments, any stamp in the range is a trailing position being released
+	static void released(PipeLatency that, long fromPos, long toPos) {
+		long now = 0;
+		for(long pos = fromPos; pos<toPos; pos++) {
+			final int idx = (that.mask & (int)pos)<<1;
+			if (that.side[idx] == pos) {
+				if (0==now) {
+					now = System.nanoTime();
+				}
+				SmallFootprintHistogram.record(that.residency, now-that.side[idx+1]);
+				that.side[idx] = -1;
+			}
+		}
+	}
+
+	/**
+	 * @param pipe Pipe built with latency tracing
+	 * @param pct double between 0 and 1
+	 * @return long nanoseconds spent on the pipe at this percentile of the sampled fragments
+	 */
+	public static <S extends MessageSchema<S>> long nanosAtPercentile(Pipe<S> pipe, double pct) {
+		return SmallFootprintHistogram.elapsedAtPercentile(trace(pipe).residency, pct);
+	}
+
+	/**
+	 * @param pipe Pipe built with latency tracing
+	 * @return long count of sampled fragments released so far
+	 */
+	public static <S extends MessageSchema<S>> long samples(Pipe<S> pipe) {
+		return SmallFootprintHistogram.totalCount(trace(pipe).residency);
+	}
+
+	/**
+	 * Drop all the recorded samples, fragments already stamped are still recorded when released.
+	 * @param pipe Pipe built with latency tracing
+	 */
+	public static <S extends MessageSchema<S>> void clear(Pipe<S> pipe) {
+		SmallFootprintHistogram.clear(trace(pipe).residency);
+	}
+
+	/**
+	 * @param pipe Pipe built with latency tracing
+	 * @param target Appendable for the percentile report
+	 * @return the target
+	 */
+	public static <S extends MessageSchema<S>, A extends Appendable> A report(Pipe<S> pipe, A target) {
+		return trace(pipe).residency.report(target);
+	}
+
+	private static <S extends MessageSchema<S>> PipeLatency trace(Pipe<S> pipe) {
+		if (null==pipe.latency) {
+			throw new UnsupportedOperationException("Latency tracing is off for "+pipe+", see PipeConfig.latencyTrace()");
+		}
+		return pipe.latency;
+	}
+
+}
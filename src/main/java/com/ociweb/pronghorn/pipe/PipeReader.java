@@ -970,6 +970,9 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
 		assert(pipe.usingHighLevelAPI);
 		assert(Pipe.singleThreadPerPipeRead(pipe.id));
 		assert(null!=pipe.ringWalker) : "NullPointer, double check that pipe was passed into super constructor of stage.";
+		if (pipe.ringWalker.simpleMessagesOnly) {
+			return StackStateWalker.prepReadSimpleMessage(pipe, pipe.ringWalker);
+		}
 		if (FieldReferenceOffsetManager.isTemplateStart(Pipe.from(pipe), pipe.ringWalker.nextCursor)) {    
 		    assert(StackStateWalker.isSeqStackEmpty(pipe.ringWalker)) : "Error the seqStack should be empty";
 			return StackStateWalker.prepReadMessage(pipe, pipe.ringWalker);			   
@@ -978,7 +981,80 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
 	    }
 	}
 
+    /**
+     * Tests the scan predicates against every message of the scanned template which is already published,
+     * without reading or releasing any of them. Scanning stops at the first message of another template.
+     * Must be called between messages, after any message read has been released.
+     * @param pipe to be scanned
+     * @param scan predicates to test
+     * @param matches bitmap where bit n is set when the n'th message from the read position matches
+     * @return count of messages scanned, at most 64 times the length of matches
+     */
+	public static int scan(Pipe pipe, PipeScan scan, long[] matches) {
+		assert(Pipe.singleThreadPerPipeRead(pipe.id));
+		assert(FieldReferenceOffsetManager.isTemplateStart(Pipe.from(pipe), pipe.ringWalker.nextCursor)) : "scan must be called between messages";
+
+		final int[] slab = Pipe.slab(pipe);
+		final int mask = pipe.slabMask;
+		final int templateOffset = Pipe.from(pipe).templateOffset;
+		final long head = Pipe.headPosition(pipe);
+		final int limit = matches.length<<6;
+		long pos = pipe.ringWalker.nextWorkingTail;
+		int blobBase = Pipe.bytesReadBase(pipe);
+		int count = 0;
+		while (count<limit && pos+scan.size<=head && scan.msgIdx==slab[mask & (int)(pos+templateOffset)]) {
+			final long bit = 1L<<(count&0x3F);
+			if (PipeScan.matches(scan, pipe, slab, mask, pos, blobBase)) {
+				matches[count>>6] |= bit;
+			} else {
+				matches[count>>6] &= ~bit;
+			}
+			blobBase += slab[mask & (int)(pos+scan.size-1)];
+			pos += scan.size;
+			count++;
+		}
+		return count;
+	}
 
+    /**
+     * Same as tryReadFragment but messages of the scanned template which do not match are skipped. They are
+     * tested directly on the slab and all released together before the next message is read. Messages of
+     * other templates and the end of file are always read so the stage can act on them.
+     * Must be called between messages, after any message read has been released.
+     * @param pipe to be read
+     * @param scan predicates the message must match
+     * @return true if a message was read, it must be released with releaseReadLock as usual
+     */
+	public static <S extends MessageSchema<S>> boolean tryReadMatchingFragment(Pipe<S> pipe, PipeScan scan) {
+		assert(Pipe.singleThreadPerPipeRead(pipe.id));
+		assert(FieldReferenceOffsetManager.isTemplateStart(Pipe.from(pipe), pipe.ringWalker.nextCursor)) : "scan must be called between messages";
+
+		final int[] slab = Pipe.slab(pipe);
+		final int mask = pipe.slabMask;
+		final int templateOffset = Pipe.from(pipe).templateOffset;
+		final long head = Pipe.headPosition(pipe);
+		final long start = pipe.ringWalker.nextWorkingTail;
+		long pos = start;
+		int blobBase = Pipe.bytesReadBase(pipe);
+		int skippedBytes = 0;
+		while (pos+scan.size<=head
+			   && scan.msgIdx==slab[mask & (int)(pos+templateOffset)]
+			   && !PipeScan.matches(scan, pipe, slab, mask, pos, blobBase)) {
+			final int bytes = slab[mask & (int)(pos+scan.size-1)];
+			blobBase += bytes;
+			skippedBytes += bytes;
+			pos += scan.size;
+		}
+		if (pos!=start) {
+			releaseSkipped(pipe, pos, skippedBytes);
+		}
+		return tryReadFragment(pipe);
+	}
+
+	private static void releaseSkipped(Pipe pipe, long nextWorkingTail, int bytesConsumed) {
+		pipe.ringWalker.nextWorkingTail = nextWorkingTail;
+		Pipe.releaseRun(pipe, nextWorkingTail, bytesConsumed);
+	}
 
 	private static int collectConsumedCountOfBytes(Pipe pipe) {
 	    if (pipe.ringWalker.nextWorkingTail>0) { //first iteration it will not have a valid position
@@ -1005,9 +1081,15 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
 		
 		assert(Pipe.singleThreadPerPipeRead(pipe.id));
         int consumed = collectConsumedCountOfBytes(pipe); 
+        if (null!=pipe.telemetry) {
+        	PipeTelemetry.released(pipe.telemetry, consumed);
+        }
+        if (null!=pipe.latency && pipe.ringWalker.nextWorkingTail>0) {
+        	PipeLatency.released(pipe.latency, pipe.ringWalker.nextWorkingTail-1);
+        }
 	    
 	    //ensure we only call for new templates.
-	    if (FieldReferenceOffsetManager.isTemplateStart(Pipe.from(pipe), pipe.ringWalker.nextCursor)) {
+	    if (pipe.ringWalker.simpleMessagesOnly || FieldReferenceOffsetManager.isTemplateStart(Pipe.from(pipe), pipe.ringWalker.nextCursor)) {
             assert(Pipe.isReplaying(pipe) || pipe.ringWalker.nextWorkingTail!=Pipe.getWorkingTailPosition(pipe)) : "Only call release once per message";
             Pipe.markBytesReadBase(pipe); //moves us forward so we can read the next fragment/message
             Pipe.releaseBatchedReads(pipe, Pipe.getWorkingBlobTailPosition(pipe), pipe.ringWalker.nextWorkingTail);
@@ -1040,7 +1122,7 @@ public class PipeReader {//TODO: B, build another static reader that does auto c
 		assert(Pipe.singleThreadPerPipeRead(pipe.id));
         int bytesConsumed = collectConsumedCountOfBytes(pipe); 
         
-        if (FieldReferenceOffsetManager.isTemplateStart(Pipe.from(pipe), pipe.ringWalker.nextCursor)) {
+        if (pipe.ringWalker.simpleMessagesOnly || FieldReferenceOffsetManager.isTemplateStart(Pipe.from(pipe), pipe.ringWalker.nextCursor)) {
             assert(Pipe.isReplaying(pipe) || pipe.ringWalker.nextWorkingTail!=Pipe.getWorkingTailPosition(pipe)) : "Only call release once per message";
             //moves us forward so we can read the next fragment/message
             Pipe.markBytesReadBase(pipe); 
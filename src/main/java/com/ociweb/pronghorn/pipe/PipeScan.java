@@ -0,0 +1,161 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.util.Arrays;
+
+import com.ociweb.pronghorn.pipe.token.LOCUtil;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+
+/**
+ * Predicates over the fields of one template which are tested directly against the slab, used with
+ * PipeReader.scan and PipeReader.tryReadMatchingFragment so a filtering stage does not need to open
+ * and release every message it is not interested in.
+ *
+ * All the registered predicates must pass for a message to match. The template must be a single fragment
+ * message, which is the same limit PipeReader.tryReadFragment has.
+ */
+public class PipeScan {
+
+    private static final int INT_RANGE   = 0;
+    private static final int LONG_RANGE  = 1;
+    private static final int BYTES_EQUAL = 2;
+    private static final int BYTES_PREFIX= 3;
+
+    final int msgIdx;
+    final int size;
+
+    private int count;
+    private int[] kinds = new int[4];
+    private int[] offsets = new int[4];
+    private long[] mins = new long[4];
+    private long[] maxs = new long[4];
+    private byte[][] bytes = new byte[4][];
+
+    /**
+     * @param from FieldReferenceOffsetManager of the pipes to be scanned
+     * @param msgIdx template whose messages are tested, messages of any other template are never filtered
+     */
+    public PipeScan(FieldReferenceOffsetManager from, int msgIdx) {
+        final int next = msgIdx+from.fragScriptSize[msgIdx];
+        if (next<from.tokens.length && !FieldReferenceOffsetManager.isTemplateStart(from, next)) {
+            throw new UnsupportedOperationException("Only messages made of a single fragment can be scanned, "+from.fieldNameScript[msgIdx]+" has more.");
+        }
+        this.msgIdx = msgIdx;
+        this.size = from.fragDataSize[msgIdx];
+    }
+
+    /**
+     * Match when the int field is between min and max inclusive, compared as signed values.
+     */
+    public PipeScan intRange(int loc, int min, int max) {
+        assert(LOCUtil.isLocOfAnyType(loc, TypeMask.IntegerSigned, TypeMask.IntegerSignedOptional, TypeMask.IntegerUnsigned, TypeMask.IntegerUnsignedOptional)): "Value found "+LOCUtil.typeAsString(loc);
+        add(INT_RANGE, loc, min, max, null);
+        return this;
+    }
+
+    /**
+     * Match when the long field is between min and max inclusive, compared as signed values.
+     */
+    public PipeScan longRange(int loc, long min, long max) {
+        assert(LOCUtil.isLocOfAnyType(loc, TypeMask.LongSigned, TypeMask.LongSignedOptional, TypeMask.LongUnsigned, TypeMask.LongUnsignedOptional)): "Value found "+LOCUtil.typeAsString(loc);
+        add(LONG_RANGE, loc, min, max, null);
+        return this;
+    }
+
+    /**
+     * Match when the text field holds exactly this value. The value is encoded to UTF8 once here so the scan
+     * only compares bytes.
+     */
+    public PipeScan eqUTF8(int loc, CharSequence value) {
+        assert(LOCUtil.isLocOfAnyType(loc, TypeMask.TextUTF8, TypeMask.TextUTF8Optional, TypeMask.TextASCII, TypeMask.TextASCIIOptional, TypeMask.ByteVector, TypeMask.ByteVectorOptional)): "Value found "+LOCUtil.typeAsString(loc);
+        byte[] encoded = new byte[value.length()*6];
+        int len = Pipe.convertToUTF8(value, 0, value.length(), encoded, 0, Integer.MAX_VALUE);
+        add(BYTES_EQUAL, loc, 0, 0, Arrays.copyOf(encoded, len));
+        return this;
+    }
+
+    /**
+     * Match when the text or byte field starts with these bytes. Null fields never match.
+     */
+    public PipeScan bytePrefix(int loc, byte[] prefix) {
+        assert(LOCUtil.isLocOfAnyType(loc, TypeMask.TextUTF8, TypeMask.TextUTF8Optional, TypeMask.TextASCII, TypeMask.TextASCIIOptional, TypeMask.ByteVector, TypeMask.ByteVectorOptional)): "Value found "+LOCUtil.typeAsString(loc);
+        add(BYTES_PREFIX, loc, 0, 0, prefix.clone());
+        return this;
+    }
+
+    private void add(int kind, int loc, long min, long max, byte[] value) {
+        if (count==kinds.length) {
+            int newLength = count<<1;
+            kinds = Arrays.copyOf(kinds, newLength);
+            offsets = Arrays.copyOf(offsets, newLength);
+            mins = Arrays.copyOf(mins, newLength);
+            maxs = Arrays.copyOf(maxs, newLength);
+            bytes = Arrays.copyOf(bytes, newLength);
+        }
+        kinds[count] = kind;
+        offsets[count] = PipeReader.OFF_MASK&loc;
+        mins[count] = min;
+        maxs[count] = max;
+        bytes[count] = value;
+        count++;
+    }
+
+    /**
+     * @param pos slab position of the message
+     * @param blobBase position the relative blob positions of this message are added to
+     * @return true if every predicate passes for the message
+     */
+    static boolean matches(PipeScan that, Pipe<?> pipe, int[] slab, int slabMask, long pos, int blobBase) {
+        int i = that.count;
+        while (--i>=0) {
+            final int idx = slabMask & (int)(pos+that.offsets[i]);
+            switch (that.kinds[i]) {
+                case INT_RANGE:
+                    {
+                        final int value = slab[idx];
+                        if (value<that.mins[i] || value>that.maxs[i]) {
+                            return false;
+                        }
+                    }
+                    break;
+                case LONG_RANGE:
+                    {
+                        final long value = (((long) slab[idx]) << 32) | (0xFFFFFFFFL & slab[slabMask & (idx+1)]);
+                        if (value<that.mins[i] || value>that.maxs[i]) {
+                            return false;
+                        }
+                    }
+                    break;
+                default:
+                    {
+                        final byte[] expected = that.bytes[i];
+                        final int len = slab[slabMask & (idx+1)];
+                        if (len<expected.length || (BYTES_EQUAL==that.kinds[i] && len!=expected.length)) {
+                            return false;
+                        }
+                        final int meta = slab[idx];
+                        if (meta<0) {
+                            if (!equals(pipe.blobConstBuffer, PipeReader.POS_CONST_MASK & meta, Integer.MAX_VALUE, expected)) {
+                                return false;
+                            }
+                        } else {
+                            if (!equals(Pipe.blob(pipe), blobBase+(Pipe.RELATIVE_POS_MASK & meta), pipe.blobMask, expected)) {
+                                return false;
+                            }
+                        }
+                    }
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(byte[] backing, int pos, int mask, byte[] expected) {
+        int j = expected.length;
+        while (--j>=0) {
+            if (expected[j]!=backing[mask & (pos+j)]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,465 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.util.Arrays;
+
+import com.ociweb.pronghorn.pipe.stream.LowLevelStateManager;
+import com.ociweb.pronghorn.pipe.token.OperatorMask;
+import com.ociweb.pronghorn.pipe.token.TokenBuilder;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+
+/**
+ * Moves messages from a pipe of one schema to a pipe of a compatible schema, for rolling upgrades where old and
+ * new producers must feed the same consumers.
+ *
+ * The two FieldReferenceOffsetManagers are compared once when this is built. Templates and fields are matched
+ * by id, so fields may be reordered within a fragment, new optional fields are written as absent, source fields
+ * the target does not have are dropped and types may be widened: mandatory to optional, int to long and
+ * ASCII to UTF8 to byte vector. Sequences must exist in both with the same length id. Absent optional values are
+ * written with the absent values of the target schema.
+ *
+ * Fragments that have the same layout in both schemas are bulk copied with copyIntsFromToRing and only the
+ * template id is changed, the rest are rewritten field by field from the precomputed plan.
+ */
+public class PipeSchemaMapper {
+
+    private static final int OP_INT         = 0;
+    private static final int OP_LONG        = 1;
+    private static final int OP_INT_TO_LONG = 2; //signed
+    private static final int OP_UINT_TO_LONG= 3; //unsigned
+    private static final int OP_DECIMAL     = 4;
+    private static final int OP_BYTES       = 5;
+    private static final int OP_ABSENT_INT  = 6;
+    private static final int OP_ABSENT_LONG = 7;
+    private static final int OP_ABSENT_DECIMAL = 8;
+    private static final int OP_NULL_BYTES  = 9;
+
+    private final Pipe<?> source;
+    private final Pipe<?> target;
+    private final FieldReferenceOffsetManager sourceFrom;
+    private final FieldReferenceOffsetManager targetFrom;
+    private final LowLevelStateManager navState;
+    private final int maxFragmentSize;
+
+    //by source fragment start
+    private final int[] targetCursor;     //matching target fragment start
+    private final boolean[] identical;    //same layout so it can be bulk copied
+    private final int[][] ops;            //rewrite plan, one entry per target field
+    private final int[][] sourceOffsets;  //slab offset in the source fragment for each target field, -1 when absent
+    private final boolean[][] sourceOptional;
+    private final int[] lengthOffset;     //slab offset of the sequence length ending this fragment, -1 for none
+
+    private final int sourceAbsent32;
+    private final long sourceAbsent64;
+    private final int absent32;
+    private final long absent64;
+    private final boolean sameAbsent;
+
+    private final String problem; //why the schemas can not be mapped, null when they can
+
+    public PipeSchemaMapper(Pipe<?> source, Pipe<?> target) {
+        this(source, target, Pipe.from(source), Pipe.from(target));
+        if (null!=problem) {
+            throw new UnsupportedOperationException(problem);
+        }
+    }
+
+    private PipeSchemaMapper(Pipe<?> source, Pipe<?> target, FieldReferenceOffsetManager sourceFrom, FieldReferenceOffsetManager targetFrom) {
+        this.source = source;
+        this.target = target;
+        this.sourceFrom = sourceFrom;
+        this.targetFrom = targetFrom;
+        this.navState = new LowLevelStateManager(sourceFrom);
+        this.maxFragmentSize = FieldReferenceOffsetManager.maxFragmentSize(targetFrom);
+        this.sourceAbsent32 = FieldReferenceOffsetManager.getAbsent32Value(sourceFrom);
+        this.sourceAbsent64 = FieldReferenceOffsetManager.getAbsent64Value(sourceFrom);
+        this.absent32 = FieldReferenceOffsetManager.getAbsent32Value(targetFrom);
+        this.absent64 = FieldReferenceOffsetManager.getAbsent64Value(targetFrom);
+        this.sameAbsent = sourceAbsent32==absent32 && sourceAbsent64==absent64;
+
+        final int len = sourceFrom.tokens.length;
+        targetCursor = new int[len];
+        identical = new boolean[len];
+        ops = new int[len][];
+        sourceOffsets = new int[len][];
+        sourceOptional = new boolean[len][];
+        lengthOffset = new int[len];
+
+        String found = null;
+        for(int i = 0; null==found && i<sourceFrom.messageStarts.length; i++) {
+            final int start = sourceFrom.messageStarts[i];
+            final long id = sourceFrom.fieldIdScript[start];
+            final int t = findTemplate(targetFrom, id);
+            found = t<0 ? "Template "+sourceFrom.fieldNameScript[start]+" id "+id+" is not in the target schema"
+                        : mapFragment(start, t, true);
+        }
+        this.problem = found;
+    }
+
+    /**
+     * @return true if every message of the source schema can be mapped to the target schema
+     */
+    public static boolean isCompatible(FieldReferenceOffsetManager source, FieldReferenceOffsetManager target) {
+        return null==new PipeSchemaMapper(null, null, source, target).problem;
+    }
+
+    private static int findTemplate(FieldReferenceOffsetManager from, long id) {
+        for(int start : from.messageStarts) {
+            if (id==from.fieldIdScript[start]) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return why the fragment can not be mapped, null when it and the fragments that follow it are planned
+     */
+    private String mapFragment(final int s, final int t, final boolean isMessageStart) {
+        final int[] sTokens = sourceFrom.tokens;
+        final int[] tTokens = targetFrom.tokens;
+        final int sSize = sourceFrom.fragScriptSize[s];
+        final int tSize = targetFrom.fragScriptSize[t];
+
+        targetCursor[s] = t;
+        identical[s] = sameAbsent && sSize==tSize && sourceFrom.fragDataSize[s]==targetFrom.fragDataSize[t];
+        for(int i = 0; identical[s] && i<sSize; i++) {
+            identical[s] = TokenBuilder.extractType(sTokens[s+i])==TokenBuilder.extractType(tTokens[t+i])
+                        && sourceFrom.fieldIdScript[s+i]==targetFrom.fieldIdScript[t+i];
+        }
+
+        final int sLength = fragmentLength(sourceFrom, s);
+        final int tLength = fragmentLength(targetFrom, t);
+        if ((sLength<0) != (tLength<0)) {
+            return "Fragment "+targetFrom.fieldNameScript[t]+" must end with a sequence in both schemas or neither";
+        }
+        lengthOffset[s] = sLength<0 ? -1 : slabOffset(sourceFrom, s, sLength, isMessageStart);
+
+        //plan each target field, skipping group tokens and the second token of decimals
+        final int[] plan = new int[tSize];
+        final int[] offsets = new int[tSize];
+        final boolean[] optional = new boolean[tSize];
+        int count = 0;
+        int i = isMessageStart ? 1 : 0;
+        while (i<tSize) {
+            final int tPos = t+i++;
+            final int tType = TokenBuilder.extractType(tTokens[tPos]);
+            if (TypeMask.Group==tType || TypeMask.Dictionary==tType) {
+                continue;
+            }
+            if (TypeMask.Decimal==(tType&~1)) {
+                i++;
+            }
+            final long id = targetFrom.fieldIdScript[tPos];
+            final int sPos = findField(s, sSize, isMessageStart, id);
+            final String name = targetFrom.fieldNameScript[tPos];
+            final int op;
+            if (sPos<0) {
+                if (TypeMask.GroupLength==tType || 0==(tType&1)) {
+                    return "New field "+name+" must be optional";
+                }
+                op = absentOp(tType);
+                offsets[count] = -1;
+            } else {
+                final int sType = TokenBuilder.extractType(sTokens[sPos]);
+                op = convertOp(sType, tType);
+                if (op<0) {
+                    return conversionProblem(sType, tType, name);
+                }
+                offsets[count] = slabOffset(sourceFrom, s, sPos, isMessageStart);
+                optional[count] = TypeMask.GroupLength!=sType && 0!=(sType&1);
+            }
+            plan[count++] = op;
+        }
+        ops[s] = Arrays.copyOf(plan, count);
+        sourceOffsets[s] = Arrays.copyOf(offsets, count);
+        sourceOptional[s] = Arrays.copyOf(optional, count);
+
+        if (sLength<0) {
+            return null;
+        }
+        if (sourceFrom.fieldIdScript[sLength]!=targetFrom.fieldIdScript[tLength]) {
+            return "Sequence "+targetFrom.fieldNameScript[tLength+1]+" has a different length id in the source schema";
+        }
+        //sequence body
+        final int sOpen = sLength+1;
+        final int tOpen = tLength+1;
+        final String bodyProblem = mapFragment(sOpen, tOpen, false);
+        if (null!=bodyProblem) {
+            return bodyProblem;
+        }
+        //fields after the sequence
+        final int sNext = continuation(sourceFrom, sOpen);
+        final int tNext = continuation(targetFrom, tOpen);
+        if ((sNext<0) != (tNext<0)) {
+            return "Fields after sequence "+targetFrom.fieldNameScript[tOpen]+" must exist in both schemas or neither";
+        }
+        return sNext<0 ? null : mapFragment(sNext, tNext, false);
+    }
+
+    private static int fragmentLength(FieldReferenceOffsetManager from, int start) {
+        final int last = start+from.fragScriptSize[start]-1;
+        return TypeMask.GroupLength==TokenBuilder.extractType(from.tokens[last]) ? last : -1;
+    }
+
+    private static int continuation(FieldReferenceOffsetManager from, int open) {
+        final int len = from.tokens.length;
+        int next = open+(from.tokens[open] & TokenBuilder.MAX_INSTANCE)+1;
+        while (next<len && FieldReferenceOffsetManager.isGroupClosed(from, next)) {
+            next++;
+        }
+        return (next<len && !FieldReferenceOffsetManager.isGroup(from, next)) ? next : -1;
+    }
+
+    private int findField(int s, int sSize, boolean isMessageStart, long id) {
+        final int[] tokens = sourceFrom.tokens;
+        int i = isMessageStart ? 1 : 0;
+        while (i<sSize) {
+            final int pos = s+i++;
+            final int type = TokenBuilder.extractType(tokens[pos]);
+            if (TypeMask.Group!=type && TypeMask.Dictionary!=type && id==sourceFrom.fieldIdScript[pos]) {
+                return pos;
+            }
+            if (TypeMask.Decimal==(type&~1)) {
+                i++; //mantissa shares the id
+            }
+        }
+        return -1;
+    }
+
+    private static int slabOffset(FieldReferenceOffsetManager from, int start, int pos, boolean isMessageStart) {
+        int offset = isMessageStart ? 1 : 0;
+        for(int i = isMessageStart ? start+1 : start; i<pos; i++) {
+            offset += TypeMask.ringBufferFieldSize[TokenBuilder.extractType(from.tokens[i])];
+        }
+        return offset;
+    }
+
+    private static int absentOp(int type) {
+        switch (type&~1) {
+            case TypeMask.IntegerUnsigned:
+            case TypeMask.IntegerSigned:
+                return OP_ABSENT_INT;
+            case TypeMask.LongUnsigned:
+            case TypeMask.LongSigned:
+                return OP_ABSENT_LONG;
+            case TypeMask.Decimal:
+                return OP_ABSENT_DECIMAL;
+            default:
+                return OP_NULL_BYTES;
+        }
+    }
+
+    /**
+     * @return the op copying a source field into the target field or -1 when there is none
+     */
+    private static int convertOp(int sType, int tType) {
+        if (TypeMask.GroupLength==sType || TypeMask.GroupLength==tType) {
+            return sType==tType ? OP_INT : -1;
+        }
+        if (0!=(sType&1) && 0==(tType&1)) {
+            return -1;
+        }
+        final int s = sType&~1;
+        final int t = tType&~1;
+        if (s==t) {
+            switch (t) {
+                case TypeMask.IntegerUnsigned:
+                case TypeMask.IntegerSigned:
+                    return OP_INT;
+                case TypeMask.LongUnsigned:
+                case TypeMask.LongSigned:
+                    return OP_LONG;
+                case TypeMask.Decimal:
+                    return OP_DECIMAL;
+                default:
+                    return OP_BYTES;
+            }
+        }
+        if (TypeMask.LongSigned==t && (TypeMask.IntegerSigned==s)) {
+            return OP_INT_TO_LONG;
+        }
+        if ((TypeMask.LongSigned==t || TypeMask.LongUnsigned==t) && TypeMask.IntegerUnsigned==s) {
+            return OP_UINT_TO_LONG;
+        }
+        if ((TypeMask.TextASCII==s && (TypeMask.TextUTF8==t || TypeMask.ByteVector==t)) ||
+            (TypeMask.TextUTF8==s && TypeMask.ByteVector==t)) {
+            return OP_BYTES;
+        }
+        return -1;
+    }
+
+    private static String conversionProblem(int sType, int tType, String name) {
+        if (TypeMask.GroupLength==sType || TypeMask.GroupLength==tType) {
+            return "Field "+name+" must be a sequence length in both schemas";
+        }
+        if (0!=(sType&1) && 0==(tType&1)) {
+            return "Optional field "+name+" can not become mandatory";
+        }
+        return "Field "+name+" can not be widened from "+TypeMask.xmlTypeName[sType]+" to "+TypeMask.xmlTypeName[tType];
+    }
+
+    public void run() {
+
+        while (Pipe.hasContentToRead(source) && Pipe.hasRoomForWrite(target, maxFragmentSize)) {
+
+            final int[] slab = Pipe.slab(source);
+            final int mask = Pipe.slabMask(source);
+            final long base = Pipe.getWorkingTailPosition(source);
+            final boolean isMessageStart = LowLevelStateManager.isStartNewMessage(navState);
+
+            final int cursor;
+            if (isMessageStart) {
+                cursor = slab[mask & (int)base];
+                if (cursor<0) {
+                    Pipe.takeMsgIdx(source);
+                    Pipe.confirmLowLevelRead(source, Pipe.EOF_SIZE);
+                    Pipe.releaseReadLock(source);
+                    Pipe.publishEOF(target);
+                    return;
+                }
+            } else {
+                cursor = LowLevelStateManager.activeCursor(navState);
+            }
+
+            final int slabSize = sourceFrom.fragDataSize[cursor];
+            final int blobSize = slab[mask & (int)(base+slabSize-1)];
+            final int blobPos = Pipe.getWorkingBlobTailPosition(source);
+
+            if (identical[cursor]) {
+                copyFragment(slab, mask, (int)base, blobPos, slabSize, blobSize, isMessageStart, targetCursor[cursor]);
+            } else {
+                rewriteFragment(slab, mask, base, cursor, isMessageStart);
+            }
+
+            navigate(slab, mask, base, cursor);
+
+            Pipe.addAndGetWorkingTail(source, slabSize-1);
+            Pipe.addAndGetBlobWorkingTailPosition(source, blobSize);
+            Pipe.confirmLowLevelRead(source, slabSize);
+            Pipe.releaseReadLock(source);
+        }
+        Pipe.publishAllBatchedWrites(target);
+    }
+
+    private void copyFragment(int[] slab, int mask, int slabPos, int blobPos, int slabSize, int blobSize, boolean isMessageStart, int targetMsgIdx) {
+        Pipe.copyBytesFromToRing(Pipe.blob(source), blobPos, Pipe.blobMask(source),
+                                 Pipe.blob(target), Pipe.getWorkingBlobHeadPosition(target), Pipe.blobMask(target),
+                                 blobSize);
+        Pipe.addAndGetBlobWorkingHeadPosition(target, blobSize);
+
+        final long head = Pipe.workingHeadPosition(target);
+        Pipe.copyIntsFromToRing(slab, slabPos, mask, Pipe.slab(target), (int)head, Pipe.slabMask(target), slabSize);
+        if (isMessageStart) {
+            //same layout but the template may be at a different position in the target script
+            Pipe.slab(target)[Pipe.slabMask(target) & (int)head] = targetMsgIdx;
+        }
+        Pipe.addAndGetWorkingHead(target, slabSize-1);
+        Pipe.confirmLowLevelWrite(target, slabSize);
+        Pipe.publishWrites(target);
+    }
+
+    private void rewriteFragment(int[] slab, int mask, long base, int cursor, boolean isMessageStart) {
+        final int t = targetCursor[cursor];
+        if (isMessageStart) {
+            Pipe.addMsgIdx(target, t);
+        }
+        final int[] plan = ops[cursor];
+        final int[] offsets = sourceOffsets[cursor];
+        final boolean[] optional = sourceOptional[cursor];
+        for(int i = 0; i<plan.length; i++) {
+            final int p = mask & (int)(base+offsets[i]);
+            switch (plan[i]) {
+                case OP_INT:
+                    Pipe.addIntValue(optional[i] && sourceAbsent32==slab[p] ? absent32 : slab[p], target);
+                    break;
+                case OP_LONG:
+                    {
+                        final long value = readLong(slab, mask, base+offsets[i]);
+                        Pipe.addLongValue(optional[i] && sourceAbsent64==value ? absent64 : value, target);
+                    }
+                    break;
+                case OP_INT_TO_LONG:
+                    Pipe.addLongValue(optional[i] && sourceAbsent32==slab[p] ? absent64 : (long)slab[p], target);
+                    break;
+                case OP_UINT_TO_LONG:
+                    Pipe.addLongValue(optional[i] && sourceAbsent32==slab[p] ? absent64 : 0xFFFFFFFFL&slab[p], target);
+                    break;
+                case OP_DECIMAL:
+                    if (optional[i] && sourceAbsent32==slab[p]) {
+                        Pipe.addIntValue(absent32, target);
+                        Pipe.addLongValue(absent64, target);
+                    } else {
+                        Pipe.addIntValue(slab[p], target);
+                        Pipe.addLongValue(readLong(slab, mask, base+offsets[i]+1), target);
+                    }
+                    break;
+                case OP_BYTES:
+                    {
+                        final int meta = slab[p];
+                        final int len = slab[mask & (int)(base+offsets[i]+1)];
+                        if (len<0) {
+                            Pipe.addNullByteArray(target);
+                        } else {
+                            Pipe.addByteArray(Pipe.byteBackingArray(meta, source), Pipe.convertToPosition(meta, source), len, Pipe.blobMask(source), target);
+                        }
+                    }
+                    break;
+                case OP_ABSENT_INT:
+                    Pipe.addIntValue(absent32, target);
+                    break;
+                case OP_ABSENT_LONG:
+                    Pipe.addLongValue(absent64, target);
+                    break;
+                case OP_ABSENT_DECIMAL:
+                    Pipe.addIntValue(absent32, target);
+                    Pipe.addLongValue(absent64, target);
+                    break;
+                case OP_NULL_BYTES:
+                    Pipe.addNullByteArray(target);
+                    break;
+            }
+        }
+        Pipe.confirmLowLevelWrite(target, targetFrom.fragDataSize[t]);
+        Pipe.publishWrites(target);
+    }
+
+    private static long readLong(int[] slab, int mask, long pos) {
+        return (((long) slab[mask & (int)pos]) << 32) | (0xFFFFFFFFL & slab[mask & (int)(pos+1)]);
+    }
+
+    /**
+     * Same steps as StreamingVisitorReader so the next fragment is known.
+     */
+    private void navigate(int[] slab, int mask, long base, int cursor) {
+        if (lengthOffset[cursor]>=0) {
+            LowLevelStateManager.processGroupLength(navState, cursor, slab[mask & (int)(base+lengthOffset[cursor])]);
+            return;
+        }
+        final int fieldsInFragment = sourceFrom.fragScriptSize[cursor];
+        final int fieldLimit = cursor+fieldsInFragment-1;
+        final int len = sourceFrom.tokens.length;
+        int fieldCursor = cursor+1;
+        while (fieldCursor<=fieldLimit && !FieldReferenceOffsetManager.isGroupClosed(sourceFrom, fieldCursor)) {
+            fieldCursor++;
+        }
+        if (fieldCursor>fieldLimit) {
+            LowLevelStateManager.closeFragment(navState);
+            return;
+        }
+        do {
+            if (FieldReferenceOffsetManager.isGroupSequence(sourceFrom, fieldCursor)) {
+                if (!LowLevelStateManager.closeSequenceIteration(navState)) {
+                    return;
+                }
+                LowLevelStateManager.closeFragment(navState);
+            } else if (fieldCursor<=fieldLimit && sourceFrom.fragDepth[fieldCursor]>0) {
+                LowLevelStateManager.closeFragment(navState);
+            }
+        } while (++fieldCursor<len && FieldReferenceOffsetManager.isGroupClosed(sourceFrom, fieldCursor));
+
+        if (fieldCursor<len && !FieldReferenceOffsetManager.isGroup(sourceFrom, fieldCursor)) {
+            LowLevelStateManager.continueAtThisCursor(navState, fieldCursor);
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ociweb.pronghorn.util.Appendables;
+import com.ociweb.pronghorn.util.SmallFootprintHistogram;
+
+/**
+ * Live counters of one pipe, only built when requested with PipeConfig.telemetry().
+ *
+ * The producer and consumer only bump plain fields on the paths they already take, fill is
+ * sampled once every N publishes and spinWork() is only timed while the thread is already idle.
+ * Any other thread may call pull() to turn the totals into rates, nothing here allocates once
+ * the pipe is built. Values read from another thread may be a little stale but never block either side.
+ *
+ * To find the pipe throttling a graph pull every pipe and look for high fill with producer stalls,
+ * the consumer of that pipe is the slow one. See busiest().
+ */
+public class PipeTelemetry {
+
+	private final int sampleEvery;
+	private int sampleCountDown;
+
+	//written by the producer
+	private final SmallFootprintHistogram slabFill = new SmallFootprintHistogram();
+	private final SmallFootprintHistogram blobFill = new SmallFootprintHistogram();
+	long producerFullStalls;
+
+	//written by the consumer
+	long consumerEmptyStalls;
+	long releasedFragments;
+	long releasedBytes;
+
+	//either side may be waiting
+	private final AtomicLong spinNanos = new AtomicLong();
+
+	//only used by the thread calling pull()
+	private long lastPullTime;
+	private long lastWrittenFragments;
+	private int lastBlobHead;
+	private long lastReleasedFragments;
+	private long lastReleasedBytes;
+	private long publishedFragmentsPerSecond;
+	private long publishedBytesPerSecond;
+	private long releasedFragmentsPerSecond;
+	private long releasedBytesPerSecond;
+
+	PipeTelemetry(int sampleEvery) {
+		assert(sampleEvery>0);
+		this.sampleEvery = sampleEvery;
+		this.sampleCountDown = sampleEvery;
+		this.lastPullTime = System.nanoTime();
+	}
+
+	/**
+	 * Called by the producer as each fragment is finished, records the fill once every N calls.
+	 */
+	static <S extends MessageSchema<S>> void published(PipeTelemetry that, Pipe<S> pipe) {
+		if (--that.sampleCountDown<=0) {
+			that.sampleCountDown = that.sampleEvery;
+			SmallFootprintHistogram.record(that.slabFill, (100L*(Pipe.workingHeadPosition(pipe)-Pipe.tailPosition(pipe)))>>pipe.bitsOfSlabRing);
+			if (pipe.sizeOfBlobRing>1) {
+				//the blob tail is kept masked so only the masked distance is meaningful, the ring is never completely full
+				int blobUsed = pipe.blobMask & (Pipe.getWorkingBlobHeadPosition(pipe)-Pipe.getBlobTailPosition(pipe));
+				SmallFootprintHistogram.record(that.blobFill, (100L*blobUsed)>>pipe.bitsOfBlogRing);
+			}
+		}
+	}
+
+	static void released(PipeTelemetry that, int bytes) {
+		that.releasedFragments++;
+		that.releasedBytes += bytes;
+	}
+
+	static void spun(PipeTelemetry that, long nanos) {
+		that.spinNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * Compute the rates since the last pull. Call from one monitoring thread only.
+	 * @param pipe Pipe to pull, must have been built with telemetry
+	 * @return PipeTelemetry of this pipe for use with the getters
+	 */
+	public static <S extends MessageSchema<S>> PipeTelemetry pull(Pipe<S> pipe) {
+		final PipeTelemetry that = Pipe.telemetry(pipe);
+		if (null==that) {
+			throw new UnsupportedOperationException("Telemetry is off for "+pipe+", see PipeConfig.telemetry()");
+		}
+		final long now = System.nanoTime();
+		final long elapsed = now-that.lastPullTime;
+		if (elapsed>0) {
+			final long written = Pipe.totalWrittenFragments(pipe);
+			final int blobHead = Pipe.getBlobHeadPosition(pipe);
+			final long released = that.releasedFragments;
+			final long releasedBytes = that.releasedBytes;
+
+			that.publishedFragmentsPerSecond = perSecond(written-that.lastWrittenFragments, elapsed);
+			that.publishedBytesPerSecond = perSecond(Pipe.BYTES_WRAP_MASK & (blobHead-that.lastBlobHead), elapsed);
+			that.releasedFragmentsPerSecond = perSecond(released-that.lastReleasedFragments, elapsed);
+			that.releasedBytesPerSecond = perSecond(releasedBytes-that.lastReleasedBytes, elapsed);
+
+			that.lastWrittenFragments = written;
+			that.lastBlobHead = blobHead;
+			that.lastReleasedFragments = released;
+			that.lastReleasedBytes = releasedBytes;
+			that.lastPullTime = now;
+		}
+		return that;
+	}
+
+	private static long perSecond(long count, long nanos) {
+		return (long)((count*1_000_000_000d)/nanos);
+	}
+
+	/**
+	 * Pull each pipe and return the one which is most often full while its producer waits.
+	 * @param pipes Pipe[] to check, pipes without telemetry are skipped
+	 * @return Pipe with the highest 90th percentile slab fill, ties go to the most producer stalls, null if none have telemetry
+	 */
+	public static Pipe<?> busiest(Pipe<?>[] pipes) {
+		Pipe<?> result = null;
+		long bestFill = -1;
+		long bestStalls = -1;
+		int i = pipes.length;
+		while (--i>=0) {
+			if (null!=Pipe.telemetry(pipes[i])) {
+				PipeTelemetry that = pull(pipes[i]);
+				long fill = slabFillAtPercentile(that, .9f);
+				if (fill>bestFill || (fill==bestFill && that.producerFullStalls>bestStalls)) {
+					bestFill = fill;
+					bestStalls = that.producerFullStalls;
+					result = pipes[i];
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param that PipeTelemetry source
+	 * @param pct double between 0 and 1
+	 * @return long slab fill percentage at this percentile of the samples
+	 */
+	public static long slabFillAtPercentile(PipeTelemetry that, double pct) {
+		return SmallFootprintHistogram.elapsedAtPercentile(that.slabFill, pct);
+	}
+
+	/**
+	 * @param that PipeTelemetry source
+	 * @param pct double between 0 and 1
+	 * @return long blob fill percentage at this percentile of the samples
+	 */
+	public static long blobFillAtPercentile(PipeTelemetry that, double pct) {
+		return SmallFootprintHistogram.elapsedAtPercentile(that.blobFill, pct);
+	}
+
+	/**
+	 * @param that PipeTelemetry source
+	 * @return long count of fill samples taken
+	 */
+	public static long fillSamples(PipeTelemetry that) {
+		return SmallFootprintHistogram.totalCount(that.slabFill);
+	}
+
+	/**
+	 * @param that PipeTelemetry source
+	 * @return long times the producer found no room to write
+	 */
+	public static long producerFullStalls(PipeTelemetry that) {
+		return that.producerFullStalls;
+	}
+
+	/**
+	 * @param that PipeTelemetry source
+	 * @return long times the consumer found nothing to read
+	 */
+	public static long consumerEmptyStalls(PipeTelemetry that) {
+		return that.consumerEmptyStalls;
+	}
+
+	/**
+	 * @param that PipeTelemetry source
+	 * @return long total nanoseconds both sides spent in Pipe.spinWork()
+	 */
+	public static long spinNanos(PipeTelemetry that) {
+		return that.spinNanos.get();
+	}
+
+	/**
+	 * @param that PipeTelemetry source
+	 * @return long fragments published per second as of the last pull
+	 */
+	public static long publishedFragmentsPerSecond(PipeTelemetry that) {
+		return that.publishedFragmentsPerSecond;
+	}
+
+	/**
+	 * @param that PipeTelemetry source
+	 * @return long blob bytes published per second as of the last pull
+	 */
+	public static long publishedBytesPerSecond(PipeTelemetry that) {
+		return that.publishedBytesPerSecond;
+	}
+
+	/**
+	 * @param that PipeTelemetry source
+	 * @return long fragments released per second as of the last pull
+	 */
+	public static long releasedFragmentsPerSecond(PipeTelemetry that) {
+		return that.releasedFragmentsPerSecond;
+	}
+
+	/**
+	 * @param that PipeTelemetry source
+	 * @return long blob bytes released per second as of the last pull
+	 */
+	public static long releasedBytesPerSecond(PipeTelemetry that) {
+		return that.releasedBytesPerSecond;
+	}
+
+	/**
+	 * Reset the fill samples and stall counters, rates are unchanged.
+	 * @param that PipeTelemetry target
+	 */
+	public static void clear(PipeTelemetry that) {
+		SmallFootprintHistogram.clear(that.slabFill);
+		SmallFootprintHistogram.clear(that.blobFill);
+		that.producerFullStalls = 0;
+		that.consumerEmptyStalls = 0;
+		that.spinNanos.set(0);
+	}
+
+	public <A extends Appendable> A report(A target) {
+		try {
+			Appendables.appendValue(target.append("Slab fill% p50:"), slabFillAtPercentile(this, .5f));
+			Appendables.appendValue(target.append(" p99:"), slabFillAtPercentile(this, .99f));
+			Appendables.appendValue(target.append(" Blob fill% p50:"), blobFillAtPercentile(this, .5f));
+			Appendables.appendValue(target.append(" p99:"), blobFillAtPercentile(this, .99f)).append("\n");
+			Appendables.appendValue(target.append("Published frags/s:"), publishedFragmentsPerSecond);
+			Appendables.appendValue(target.append(" bytes/s:"), publishedBytesPerSecond);
+			Appendables.appendValue(target.append(" Released frags/s:"), releasedFragmentsPerSecond);
+			Appendables.appendValue(target.append(" bytes/s:"), releasedBytesPerSecond).append("\n");
+			Appendables.appendValue(target.append("Full stalls:"), producerFullStalls);
+			Appendables.appendValue(target.append(" Empty stalls:"), consumerEmptyStalls);
+			Appendables.appendValue(target.append(" Spin ns:"), spinNanos.get()).append("\n");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return target;
+	}
+
+	public String toString() {
+		return report(new StringBuilder()).toString();
+	}
+
+}
@@ -0,0 +1,213 @@
+package com.ociweb.pronghorn.pipe;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits inside the blocking helpers of a pipe, see PipeConfig.waitStrategy().
+ *
+ * Every blocking loop calls Pipe.spinWork(pipe, attempt) where attempt counts up from zero
+ * for each new wait. Latency critical pipes can busy spin while bulk pipes back off or park
+ * so they stop burning cores. YIELD is the default and matches the original behavior.
+ *
+ * Strategies which park are woken when the pipe head or tail is published. The park is
+ * always bounded so a missed wake up only adds latency and can never hang the pipe.
+ */
+public abstract class PipeWaitStrategy {
+
+	/**
+	 * Spin without giving up the core, lowest latency but burns the whole core while waiting.
+	 */
+	public static final PipeWaitStrategy BUSY_SPIN = new PipeWaitStrategy(false) {
+		@Override
+		public void idle(Pipe<?> pipe, int attempt) {
+		}
+	};
+
+	/**
+	 * Thread.yield() on every attempt, the original behavior of Pipe.spinWork.
+	 */
+	public static final PipeWaitStrategy YIELD = new PipeWaitStrategy(false) {
+		@Override
+		public void idle(Pipe<?> pipe, int attempt) {
+			Thread.yield();
+		}
+	};
+
+	/**
+	 * Spin with the Thread.onSpinWait() hint when the running JVM has it (9+), otherwise yield.
+	 */
+	public static final PipeWaitStrategy SPIN_HINT = new PipeWaitStrategy(false) {
+		@Override
+		public void idle(Pipe<?> pipe, int attempt) {
+			onSpinWait();
+		}
+	};
+
+	/**
+	 * Spin then yield then park for growing periods, see backoff(int, int, long).
+	 */
+	public static final PipeWaitStrategy BACKOFF = backoff(100, 100, TimeUnit.MILLISECONDS.toNanos(1));
+
+	/**
+	 * Park until the pipe moves, see park(long).
+	 */
+	public static final PipeWaitStrategy PARK = park(TimeUnit.MILLISECONDS.toNanos(10));
+
+	private static final MethodHandle ON_SPIN_WAIT = lookupOnSpinWait();
+
+	final boolean parks;
+
+	/**
+	 * @param parks boolean true if idle may call park(Pipe, long) so the pipe must wake parked threads
+	 */
+	protected PipeWaitStrategy(boolean parks) {
+		this.parks = parks;
+	}
+
+	/**
+	 * Called once for each failed check of a blocking loop.
+	 * @param pipe Pipe being waited on
+	 * @param attempt int count of earlier calls for this wait, starts at zero
+	 */
+	public abstract void idle(Pipe<?> pipe, int attempt);
+
+	/**
+	 * Spin for spinCount attempts, then yield for yieldCount attempts, then park for a
+	 * period which doubles up to maxParkNanos.
+	 * @param spinCount int attempts to busy spin
+	 * @param yieldCount int attempts to yield
+	 * @param maxParkNanos long longest single park
+	 * @return PipeWaitStrategy new strategy
+	 */
+	public static PipeWaitStrategy backoff(final int spinCount, final int yieldCount, final long maxParkNanos) {
+		assert(spinCount>=0 && yieldCount>=0 && maxParkNanos>0);
+		return new PipeWaitStrategy(true) {
+			@Override
+			public void idle(Pipe<?> pipe, int attempt) {
+				if (attempt<spinCount) {
+					onSpinWait();
+				} else if (attempt<spinCount+yieldCount) {
+					Thread.yield();
+				} else {
+					int shift = Math.min(30, attempt-(spinCount+yieldCount));
+					park(pipe, Math.min(maxParkNanos, 1000L<<shift));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Park the waiting thread until the pipe head or tail is published or maxParkNanos has passed.
+	 * @param maxParkNanos long longest single park
+	 * @return PipeWaitStrategy new strategy
+	 */
+	public static PipeWaitStrategy park(final long maxParkNanos) {
+		assert(maxParkNanos>0);
+		return new PipeWaitStrategy(true) {
+			@Override
+			public void idle(Pipe<?> pipe, int attempt) {
+				park(pipe, maxParkNanos);
+			}
+		};
+	}
+
+	/**
+	 * Wait with the given strategy but throw a PipeException once a single wait has taken longer than timeoutNanos.
+	 * @param strategy PipeWaitStrategy used for each attempt
+	 * @param timeoutNanos long longest total wait
+	 * @return PipeWaitStrategy new strategy
+	 */
+	public static PipeWaitStrategy timeout(final PipeWaitStrategy strategy, final long timeoutNanos) {
+		assert(timeoutNanos>0);
+		final ThreadLocal<long[]> start = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				return new long[1];
+			}
+		};
+		return new PipeWaitStrategy(strategy.parks) {
+			@Override
+			public void idle(Pipe<?> pipe, int attempt) {
+				long[] begin = start.get();
+				long now = System.nanoTime();
+				if (0==attempt) {
+					begin[0] = now;
+				} else if (now-begin[0] > timeoutNanos) {
+					throw new PipeException("Timed out after "+TimeUnit.NANOSECONDS.toMillis(now-begin[0])+"ms waiting on "+pipe);
+				}
+				strategy.idle(pipe, attempt);
+			}
+		};
+	}
+
+	/**
+	 * Park the current thread on this pipe, it is unparked when the pipe head or tail is published.
+	 * A thread waiting for room parks apart from one waiting for content so producer and consumer
+	 * may both be parked and each is woken by the other side.
+	 * Only strategies constructed with parks true are woken early.
+	 * @param pipe Pipe being waited on
+	 * @param nanos long longest time to park
+	 */
+	protected static void park(Pipe<?> pipe, long nanos) {
+		if (Pipe.waitsOnTail(pipe)) {
+			parkOnTail(pipe, nanos);
+		} else {
+			parkOnHead(pipe, nanos);
+		}
+	}
+
+	private static void parkOnHead(Pipe<?> pipe, long nanos) {
+		Thread current = Thread.currentThread();
+		long seen = Pipe.consumerSeenHead(pipe);
+		pipe.headParkedThread = current;
+		//a head published before we were visible would never wake us so check again
+		if (seen == Pipe.headPosition(pipe)) {
+			LockSupport.parkNanos(pipe, nanos);
+		}
+		if (current == pipe.headParkedThread) {
+			pipe.headParkedThread = null;
+		}
+	}
+
+	private static void parkOnTail(Pipe<?> pipe, long nanos) {
+		Thread current = Thread.currentThread();
+		long seen = Pipe.producerSeenTail(pipe);
+		pipe.tailParkedThread = current;
+		//a tail published before we were visible would never wake us so check again
+		if (seen == Pipe.tailPosition(pipe)) {
+			LockSupport.parkNanos(pipe, nanos);
+		}
+		if (current == pipe.tailParkedThread) {
+			pipe.tailParkedThread = null;
+		}
+	}
+
+	/**
+	 * Busy spin hint for the processor, Thread.onSpinWait() where available.
+	 */
+	protected static void onSpinWait() {
+		if (null!=ON_SPIN_WAIT) {
+			try {
+				ON_SPIN_WAIT.invokeExact();
+				return;
+			} catch (Throwable e) {
+				//fall through to yield
+			}
+		}
+		Thread.yield();
+	}
+
+	private static MethodHandle lookupOnSpinWait() {
+		//looked up so this still builds and runs on 1.7 and 1.8
+		try {
+			return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+}
@@ -516,6 +516,9 @@ public class PipeWriter {
 		
 		if ((Pipe.decBatchPublish(pipe)>0)) {		
 			Pipe.storeUnpublishedWrites(pipe);
+			if (null!=pipe.adaptiveBatch) {
+				PipeAdaptiveBatch.heldWrite(pipe);
+			}
 			return consumed;
 		}
 		
@@ -533,6 +536,9 @@ public class PipeWriter {
 		Pipe.publishWorkingHeadPosition(pipe, Pipe.workingHeadPosition(pipe));
 
 		Pipe.beginNewPublishBatch(pipe);
+		if (null!=pipe.adaptiveBatch) {
+			PipeAdaptiveBatch.tunePublish(pipe);
+		}
 	}
 
 	/**
@@ -607,8 +613,9 @@ public class PipeWriter {
 		
 		if (!tryWriteFragment(pipe,fragmentId)) {
 			logger.error("Expected pipe {} to have room",pipe, new UnsupportedOperationException("Ensure PipeWriter.hasRoomForWrite(pipe) returns true before calling this presumeWriteFragment method."));
+			int attempt = 0;
 			while (!tryWriteFragment(pipe,fragmentId)) {
-				Pipe.spinWork(pipe);//safe spin which watches for shutdown or interrupt.
+				Pipe.spinWork(pipe, attempt++);//safe spin which watches for shutdown or interrupt.
 			}
 		}
 	}
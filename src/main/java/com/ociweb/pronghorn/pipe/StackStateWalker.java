@@ -35,6 +35,9 @@ class StackStateWalker {
 	private int seqStackHead; //TODO: convert to private
 			
 	int nextCursor = -1;
+	
+	//every message is one fragment so reads never need the sequence stack
+	final boolean simpleMessagesOnly;
     
     StackStateWalker(FieldReferenceOffsetManager from, int slabSize) {
 		
@@ -50,6 +53,7 @@ class StackStateWalker {
 	        this.from = from;
 	        this.activeWriteFragmentStack = new long[from.maximumFragmentStackDepth];
 	        this.activeReadFragmentStack = new long[from.maximumFragmentStackDepth];
+	        this.simpleMessagesOnly = from.hasSimpleMessagesOnly;
 
 	}
 
@@ -116,6 +120,12 @@ class StackStateWalker {
 								
 				assert (ringBuffer.llWrite.llwHeadPosCache<=ringBufferConsumer.nextWorkingTail) : 
 					  "Partial fragment published!  expected "+(target-ringBufferConsumer.nextWorkingTail)+" but found "+(ringBuffer.llWrite.llwHeadPosCache-ringBufferConsumer.nextWorkingTail);
+				if (null!=ringBuffer.telemetry) {
+					ringBuffer.telemetry.consumerEmptyStalls++;
+				}
+				if (null!=ringBuffer.adaptiveBatch) {
+					PipeAdaptiveBatch.consumerEmpty(ringBuffer);
+				}
 
 				return false;
 			}
@@ -146,6 +156,12 @@ class StackStateWalker {
 			} else {
 				//rare slow case where we don't find any data
 				ringBufferConsumer.isNewMessage = false; 
+				if (null!=ringBuffer.telemetry) {
+					ringBuffer.telemetry.consumerEmptyStalls++;
+				}
+				if (null!=ringBuffer.adaptiveBatch) {
+					PipeAdaptiveBatch.consumerEmpty(ringBuffer);
+				}
 				return false;					
 			}
 		}
@@ -154,6 +170,40 @@ class StackStateWalker {
 	}
 
 
+	/**
+	 * Same as prepReadMessage for schemas where every message is a single fragment. No sequence can be open
+	 * so the stack is not checked or updated and the next fragment is always the start of a message.
+	 */
+	static boolean prepReadSimpleMessage(Pipe pipe, StackStateWalker walker) {
+		final long tail = walker.nextWorkingTail;
+		if (pipe.llWrite.llwHeadPosCache > 1+tail || (pipe.llWrite.llwHeadPosCache = Pipe.headPosition(pipe)) > 1+tail) {
+			walker.isNewMessage = true;
+			Pipe.setWorkingTailPosition(pipe, tail);
+			walker.activeReadFragmentStack[0] = tail;
+			setMsgIdx(walker, readMsgIdx(pipe, walker, tail), pipe.llWrite.llwHeadPosCache);
+			
+			final int idx = walker.msgIdx;
+			final int[] fragDataSize = walker.from.fragDataSize;
+			if (idx >= 0 && idx < fragDataSize.length) {
+				walker.cursor = idx;
+				walker.nextCursor = idx + walker.from.fragScriptSize[idx];
+				walker.nextWorkingTail = tail + fragDataSize[idx];
+			} else {
+				prepReadMessage2EOF(pipe, walker, tail, fragDataSize);
+			}
+			return true;
+		} else {
+			walker.isNewMessage = false; 
+			if (null!=pipe.telemetry) {
+				pipe.telemetry.consumerEmptyStalls++;
+			}
+			if (null!=pipe.adaptiveBatch) {
+				PipeAdaptiveBatch.consumerEmpty(pipe);
+			}
+			return false;
+		}
+	}
+
 	private static void prepReadFragment(Pipe ringBuffer,
 			final StackStateWalker ringBufferConsumer, final int scriptFragSize,
 			long tmpNextWorkingTail, final long target) {
@@ -439,7 +489,7 @@ class StackStateWalker {
 
 	private static void prepWriteFragmentSpecificProcessing(Pipe pipe, final int cursorPosition, FieldReferenceOffsetManager from) {
 		
-		if (FieldReferenceOffsetManager.isTemplateStart(from, cursorPosition)) {
+		if (pipe.ringWalker.simpleMessagesOnly || FieldReferenceOffsetManager.isTemplateStart(from, cursorPosition)) {
 			prepWriteMessageStart(pipe, cursorPosition, from);
 		 } else {			
 			//this fragment does not start a new message but its start position must be recorded for usage later
@@ -538,6 +588,13 @@ class StackStateWalker {
             hasRoom = (pipe.llRead.llrTailPosCache = Pipe.tailPosition(pipe)) >=  target;       
             if (hasRoom) {      
                 prepWriteFragment(pipe, cursorPosition, from, fragSize);
+            } else {
+            	if (null!=pipe.telemetry) {
+            		pipe.telemetry.producerFullStalls++;
+            	}
+            	if (null!=pipe.adaptiveBatch) {
+            		PipeAdaptiveBatch.producerFull(pipe);
+            	}
             }
         }
     
@@ -548,8 +605,10 @@ class StackStateWalker {
             StackStateWalker consumerData) {
         int fragSize = from.fragDataSize[messageTemplateLOC];
 		long lastCheckedValue = pipe.llRead.llrTailPosCache;
+		int attempt = 0;
 		while (null==Pipe.slab(pipe) || lastCheckedValue < consumerData.nextWorkingHead - (pipe.sizeOfSlabRing - fragSize)) {
-			Pipe.spinWork(pipe);
+			pipe.llRead.llrTailPosCache = lastCheckedValue;//seen by the wait strategy
+			Pipe.spinWork(pipe, attempt++);
 		    lastCheckedValue = Pipe.tailPosition(pipe);
 		}
     	pipe.llRead.llrTailPosCache = lastCheckedValue;
@@ -560,8 +619,10 @@ class StackStateWalker {
     static void writeEOF(Pipe ring) {
         assert(Pipe.workingHeadPosition(ring)<=ring.ringWalker.nextWorkingHead) : "Unsupported use of high level API with low level methods.";
 		long lastCheckedValue = ring.llRead.llrTailPosCache;
+		int attempt = 0;
 		while (null==Pipe.slab(ring) || lastCheckedValue < Pipe.workingHeadPosition(ring) - (ring.sizeOfSlabRing - Pipe.EOF_SIZE)) {
-			Pipe.spinWork(ring);
+			ring.llRead.llrTailPosCache = lastCheckedValue;//seen by the wait strategy
+			Pipe.spinWork(ring, attempt++);
 		    lastCheckedValue = Pipe.tailPosition(ring);
 		}
     	ring.llRead.llrTailPosCache = lastCheckedValue;
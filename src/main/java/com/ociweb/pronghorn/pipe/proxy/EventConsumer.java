@@ -1,6 +1,7 @@
 package com.ociweb.pronghorn.pipe.proxy;
 
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
 
 import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
 import com.ociweb.pronghorn.pipe.Pipe;
@@ -9,8 +10,11 @@ import com.ociweb.pronghorn.pipe.PipeWriter;
 public class EventConsumer {
 
 	private final Pipe output;	
-	private Object cached;
-	private int    cachedMsgId;
+	//one instance per interface, most pipes only ever see a few so a scan is fastest
+	private Class<?>[] poolTypes = new Class<?>[4];
+	private Object[]   pool = new Object[4];
+	private int[]      poolMsgIdx = new int[4];
+	private int        poolCount;
 	
 	public EventConsumer(Pipe output) {
 		this.output = output;
@@ -19,12 +23,15 @@ public class EventConsumer {
 	@SuppressWarnings("unchecked")
 	public static <T> T create(final EventConsumer consumer, Class<T> clazz) {
 		
-		//re-use old proxy if possible
-		if (null!=consumer.cached && clazz.isAssignableFrom(consumer.cached.getClass())) {
-			if (PipeWriter.tryWriteFragment(consumer.output, consumer.cachedMsgId)) {
-				return (T)consumer.cached;			
-			} else {
-				return null;
+		//re-use old instance if possible
+		int i = consumer.poolCount;
+		while (--i>=0) {
+			if (clazz==consumer.poolTypes[i]) {
+				if (PipeWriter.tryWriteFragment(consumer.output, consumer.poolMsgIdx[i])) {
+					return (T)consumer.pool[i];
+				} else {
+					return null;
+				}
 			}
 		}
 		return slowCreate(consumer, clazz);		
@@ -35,13 +42,22 @@ public class EventConsumer {
 
 		if (PipeWriter.tryWriteFragment(consumer.output, msgIdx)) {
 			
-			T result = (T) Proxy.newProxyInstance(
+			T result = ProngTemplateCompiler.newWriter(consumer.output, msgIdx, clazz);
+			if (null==result) {
+				result = (T) Proxy.newProxyInstance(
 								clazz.getClassLoader(),
 								new Class[] { clazz },
 								new OutputPipeInvocationHandler(consumer.output, msgIdx, clazz));	
+			}
 			
-			consumer.cached = result; //TODO: needs smarter pool but this is fine for now.
-			consumer.cachedMsgId = msgIdx;
+			if (consumer.poolCount==consumer.pool.length) {
+				consumer.poolTypes = Arrays.copyOf(consumer.poolTypes, consumer.poolCount*2);
+				consumer.pool = Arrays.copyOf(consumer.pool, consumer.poolCount*2);
+				consumer.poolMsgIdx = Arrays.copyOf(consumer.poolMsgIdx, consumer.poolCount*2);
+			}
+			consumer.poolTypes[consumer.poolCount] = clazz;
+			consumer.pool[consumer.poolCount] = result;
+			consumer.poolMsgIdx[consumer.poolCount++] = msgIdx;
 			
 			return result;
 			
@@ -51,7 +67,7 @@ public class EventConsumer {
 	}
 
 	public static void publish(EventConsumer consumer, Object dq) {
-	    assert(null==consumer.cached || dq==consumer.cached);
+	    assert(EventProducer.isPooled(consumer.pool, consumer.poolCount, dq));
 		PipeWriter.publishWrites(consumer.output);
 	}
 
@@ -1,6 +1,7 @@
 package com.ociweb.pronghorn.pipe.proxy;
 
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
 
 import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
 import com.ociweb.pronghorn.pipe.Pipe;
@@ -9,8 +10,11 @@ import com.ociweb.pronghorn.pipe.PipeReader;
 public class EventProducer {
 
 	private final Pipe input;	
-	private Object cached;
-	private int    cachedMsgId;
+	//one instance per interface, most pipes only ever see a few so a scan is fastest
+	private Class<?>[] poolTypes = new Class<?>[4];
+	private Object[]   pool = new Object[4];
+	private int[]      poolMsgIdx = new int[4];
+	private int        poolCount;
 	
 	public EventProducer(Pipe input) {
 		this.input = input;
@@ -19,13 +23,16 @@ public class EventProducer {
 	@SuppressWarnings("unchecked")
 	public static <T> T take(final EventProducer consumer, Class<T> clazz) {
 		
-		//re-use old proxy if possible
-		if (null!=consumer.cached && clazz.isAssignableFrom(consumer.cached.getClass())) {
-			if (PipeReader.tryReadFragment(consumer.input)) {
-				assert(consumer.cachedMsgId == PipeReader.getMsgIdx(consumer.input));
-				return (T)consumer.cached;			
-			} else {
-				return null;
+		//re-use old instance if possible
+		int i = consumer.poolCount;
+		while (--i>=0) {
+			if (clazz==consumer.poolTypes[i]) {
+				if (PipeReader.tryReadFragment(consumer.input)) {
+					assert(consumer.poolMsgIdx[i] == PipeReader.getMsgIdx(consumer.input));
+					return (T)consumer.pool[i];
+				} else {
+					return null;
+				}
 			}
 		}
 		return slowCreate(consumer, clazz);		
@@ -36,13 +43,22 @@ public class EventProducer {
 
 		if (PipeReader.tryReadFragment(consumer.input)) {
 			
-			T result = (T) Proxy.newProxyInstance(
+			T result = ProngTemplateCompiler.newReader(consumer.input, PipeReader.getMsgIdx(consumer.input), clazz);
+			if (null==result) {
+				result = (T) Proxy.newProxyInstance(
 								clazz.getClassLoader(),
 								new Class[] { clazz },
 								new InputPipeInvocationHandler(consumer.input, PipeReader.getMsgIdx(consumer.input), clazz));	
+			}
 			
-			consumer.cached = result; //TODO: needs smarter pool but this is fine for now.
-			consumer.cachedMsgId = PipeReader.getMsgIdx(consumer.input);
+			if (consumer.poolCount==consumer.pool.length) {
+				consumer.poolTypes = Arrays.copyOf(consumer.poolTypes, consumer.poolCount*2);
+				consumer.pool = Arrays.copyOf(consumer.pool, consumer.poolCount*2);
+				consumer.poolMsgIdx = Arrays.copyOf(consumer.poolMsgIdx, consumer.poolCount*2);
+			}
+			consumer.poolTypes[consumer.poolCount] = clazz;
+			consumer.pool[consumer.poolCount] = result;
+			consumer.poolMsgIdx[consumer.poolCount++] = PipeReader.getMsgIdx(consumer.input);
 			
 			return result;
 			
@@ -52,8 +68,18 @@ public class EventProducer {
 	}
 
 	public static void dispose(EventProducer consumer, Object dq) {
-	    assert(null==consumer.cached || dq==consumer.cached);
+	    assert(isPooled(consumer.pool, consumer.poolCount, dq));
 		PipeReader.releaseReadLock(consumer.input);
 	}
 
+	static boolean isPooled(Object[] pool, int count, Object dq) {
+		int i = count;
+		while (--i>=0) {
+			if (dq==pool[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 }
@@ -0,0 +1,334 @@
+package com.ociweb.pronghorn.pipe.proxy;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.PipeWriter;
+import com.ociweb.pronghorn.pipe.token.TokenBuilder;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+import com.ociweb.pronghorn.pipe.util.build.TemplateProcessCompiler;
+
+/**
+ * Builds classes which implement @ProngTemplateMessage interfaces with direct PipeReader and PipeWriter
+ * calls. Each field LOC is a static final constant of the generated class so there is no method lookup,
+ * reflection or boxing on each call, unlike the Proxy based InputPipeInvocationHandler and OutputPipeInvocationHandler.
+ *
+ * Classes are compiled once per interface, schema and message then kept for the life of the interface.
+ * Null is returned when a class can not be built, eg the interface is not public or this is not a JDK,
+ * so the caller can fall back to the Proxy handlers.
+ */
+public class ProngTemplateCompiler {
+
+	private static final Logger log = LoggerFactory.getLogger(ProngTemplateCompiler.class);
+
+	private static final Object NOT_SUPPORTED = new Object();
+	private static final ClassValue<ConcurrentMap<String, Object>> built = new ClassValue<ConcurrentMap<String, Object>>() {
+		@Override
+		protected ConcurrentMap<String, Object> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, Object>();
+		}
+	};
+
+	/**
+	 * @param pipe Pipe the instance will read from with PipeReader
+	 * @param msgIdx int message the interface maps to
+	 * @param clazz Class of the annotated interface
+	 * @return instance of a generated class or null if one could not be built
+	 */
+	public static <T> T newReader(Pipe pipe, int msgIdx, Class<T> clazz) {
+		return build(pipe, msgIdx, clazz, true);
+	}
+
+	/**
+	 * @param pipe Pipe the instance will write to with PipeWriter
+	 * @param msgIdx int message the interface maps to
+	 * @param clazz Class of the annotated interface
+	 * @return instance of a generated class or null if one could not be built
+	 */
+	public static <T> T newWriter(Pipe pipe, int msgIdx, Class<T> clazz) {
+		return build(pipe, msgIdx, clazz, false);
+	}
+
+	private static <T> T build(Pipe pipe, int msgIdx, Class<T> clazz, boolean isReader) {
+		final FieldReferenceOffsetManager from = Pipe.from(pipe);
+		final String key = (isReader ? "r" : "w")+msgIdx+Arrays.toString(from.cloneGUID());
+
+		final ConcurrentMap<String, Object> map = built.get(clazz);
+		Object constructor = map.get(key);
+		if (null==constructor) {
+			constructor = compile(from, msgIdx, clazz, isReader);
+			Object prev = map.putIfAbsent(key, constructor);
+			if (null!=prev) {
+				constructor = prev;
+			}
+		}
+		if (NOT_SUPPORTED==constructor) {
+			return null;
+		}
+		try {
+			return clazz.cast(((Constructor<?>)constructor).newInstance(pipe));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static Object compile(FieldReferenceOffsetManager from, int msgIdx, Class<?> clazz, boolean isReader) {
+		if (!clazz.isInterface() || !Modifier.isPublic(clazz.getModifiers()) || null==clazz.getCanonicalName()) {
+			log.debug("Using Proxy for {}, only public interfaces can be generated", clazz.getName());
+			return NOT_SUPPORTED;
+		}
+		final String className = clazz.getSimpleName()+(isReader ? "Reader" : "Writer");
+		final String qualifiedName = TemplateProcessCompiler.PACKAGE_NAME+'.'+className;
+		try {
+			StringBuilder source = new StringBuilder();
+			appendSource(source, className, from, msgIdx, clazz, isReader);
+			Class<?> generated = TemplateProcessCompiler.defineIsolated(clazz.getClassLoader(), qualifiedName,
+					                                                   TemplateProcessCompiler.compile(qualifiedName, source, clazz));
+			return generated.getConstructor(Pipe.class);
+		} catch (Exception e) {
+			log.warn("Using Proxy for {}, unable to generate: {}", clazz.getName(), e.getMessage(), e);
+			return NOT_SUPPORTED;
+		}
+	}
+
+	static void appendSource(Appendable target, String className, FieldReferenceOffsetManager from, int msgIdx, Class<?> clazz, boolean isReader) throws IOException {
+		target.append("package ").append(TemplateProcessCompiler.PACKAGE_NAME).append(";\n");
+		target.append("import ").append(Pipe.class.getCanonicalName()).append(";\n");
+		target.append("import ").append(isReader ? PipeReader.class.getCanonicalName() : PipeWriter.class.getCanonicalName()).append(";\n");
+		target.append("\n");
+		target.append("public final class ").append(className).append(" implements ").append(clazz.getCanonicalName()).append(" {\n");
+		target.append("\n");
+		target.append("    private static final int ABSENT32 = ").append(Integer.toString(FieldReferenceOffsetManager.getAbsent32Value(from))).append(";\n");
+		target.append("    private static final long ABSENT64 = ").append(Long.toString(FieldReferenceOffsetManager.getAbsent64Value(from))).append("L;\n");
+		target.append("    private static final char[] EMPTY_CHAR = new char[0];\n");
+		target.append("    private static final byte[] EMPTY_BYTES = new byte[0];\n");
+		target.append("    private final Pipe pipe;\n");
+		target.append("\n");
+		target.append("    public ").append(className).append("(Pipe pipe) {\n");
+		target.append("        this.pipe = pipe;\n");
+		target.append("    }\n");
+
+		Method[] methods = clazz.getMethods();
+		for(int m = 0; m<methods.length; m++) {
+			final Method method = methods[m];
+			if (!Modifier.isAbstract(method.getModifiers())) {
+				continue;
+			}
+			final Class<?>[] params = method.getParameterTypes();
+			final Class<?> result = method.getReturnType();
+
+			target.append("\n");
+			ProngTemplateField field = method.getAnnotation(ProngTemplateField.class);
+			if (null!=field) {
+				int loc = FieldReferenceOffsetManager.lookupFieldLocator(field.fieldId(), msgIdx, from);
+				target.append("    private static final int LOC_").append(Integer.toString(m)).append(" = ").append(Integer.toString(loc)).append(";\n");
+			}
+			target.append("    public ").append(result.getCanonicalName()).append(' ').append(method.getName()).append('(');
+			for(int p = 0; p<params.length; p++) {
+				if (p>0) {
+					target.append(", ");
+				}
+				target.append(params[p].getCanonicalName()).append(" arg").append(Integer.toString(p));
+			}
+			target.append(") {\n");
+			if (null==field) {
+				target.append("        throw new UnsupportedOperationException(\"Not a template field\");\n");
+			} else {
+				final String loc = "LOC_"+m;
+				final int type = (FieldReferenceOffsetManager.lookupFieldLocator(field.fieldId(), msgIdx, from) >> FieldReferenceOffsetManager.RW_FIELD_OFF_BITS) & TokenBuilder.MASK_TYPE;
+				if (isReader) {
+					appendRead(target, loc, type, result, params);
+				} else {
+					appendWrite(target, loc, type, field.decimalPlaces(), result, params);
+				}
+			}
+			target.append("    }\n");
+		}
+		target.append("}\n");
+	}
+
+	//NOTE: this is the same logic as InputPipeReaderMethod
+	private static void appendRead(Appendable target, String loc, int type, Class<?> result, Class<?>[] params) throws IOException {
+		final boolean isOptional = 1==(1&type) && !result.isPrimitive(); //a primitive result just gets the absent value
+		switch (type) {
+			case TypeMask.IntegerUnsigned:
+			case TypeMask.IntegerSigned:
+			case TypeMask.IntegerUnsignedOptional:
+			case TypeMask.IntegerSignedOptional:
+				if (isOptional) {
+					target.append("        int value = PipeReader.readInt(pipe, ").append(loc).append(");\n");
+					appendReturn(target, result, "ABSENT32==value ? null : Integer.valueOf(value)");
+				} else {
+					appendReturn(target, result, "PipeReader.readInt(pipe, "+loc+")");
+				}
+				break;
+			case TypeMask.LongUnsigned:
+			case TypeMask.LongSigned:
+			case TypeMask.LongUnsignedOptional:
+			case TypeMask.LongSignedOptional:
+				if (isOptional) {
+					target.append("        long value = PipeReader.readLong(pipe, ").append(loc).append(");\n");
+					appendReturn(target, result, "ABSENT64==value ? null : Long.valueOf(value)");
+				} else {
+					appendReturn(target, result, "PipeReader.readLong(pipe, "+loc+")");
+				}
+				break;
+			case TypeMask.TextASCII:
+			case TypeMask.TextASCIIOptional:
+			case TypeMask.TextUTF8:
+			case TypeMask.TextUTF8Optional:
+				if (isOptional) {
+					appendNullWhen(target, result, "PipeReader.readBytesLength(pipe, "+loc+")<0");
+				}
+				final String readText = type<TypeMask.TextUTF8 ? "PipeReader.readASCII(pipe, " : "PipeReader.readUTF8(pipe, ";
+				if (String.class==result) {
+					//text is read into the given Appendable or a new one and returned as a String
+					appendReturn(target, result, readText+loc+", "+(params.length>0 ? "arg0" : "new StringBuilder()")+").toString()");
+				} else {
+					requireArgs(params, 1);
+					appendReturn(target, result, readText+loc+", arg0)");
+				}
+				break;
+			case TypeMask.Decimal:
+			case TypeMask.DecimalOptional:
+				if (isOptional) {
+					appendNullWhen(target, result, "ABSENT32==PipeReader.readDecimalExponent(pipe, "+loc+")");
+				}
+				appendReturn(target, result, "PipeReader.readDouble(pipe, "+loc+")");
+				break;
+			case TypeMask.ByteVector:
+			case TypeMask.ByteVectorOptional:
+				requireArgs(params, 1);
+				if (TypeMask.ByteVectorOptional==type) {
+					appendNullWhen(target, result, "PipeReader.readBytesLength(pipe, "+loc+")<=0");
+				}
+				switch (params.length) {
+					case 1:
+						appendReturn(target, result, "PipeReader.readBytes(pipe, "+loc+", arg0)");
+						break;
+					case 2:
+						appendReturn(target, result, "PipeReader.readBytes(pipe, "+loc+", arg0, arg1)");
+						break;
+					default:
+						appendReturn(target, result, "PipeReader.readBytes(pipe, "+loc+", arg0, arg1, arg2)");
+				}
+				break;
+			default:
+				throw new UnsupportedOperationException("No support yet for "+TypeMask.xmlTypeName[type]);
+		}
+	}
+
+	//NOTE: this is the same logic as OutputPipeWriterMethod
+	private static void appendWrite(Appendable target, String loc, int type, int decimalPlaces, Class<?> result, Class<?>[] params) throws IOException {
+		requireArgs(params, 1);
+		final boolean isNullable = 1==(1&type) && !params[0].isPrimitive();
+		if (isNullable) {
+			target.append("        if (null==arg0) {\n");
+			switch (type) {
+				case TypeMask.IntegerUnsignedOptional:
+				case TypeMask.IntegerSignedOptional:
+					target.append("            PipeWriter.writeInt(pipe, ").append(loc).append(", ABSENT32);\n");
+					break;
+				case TypeMask.LongUnsignedOptional:
+				case TypeMask.LongSignedOptional:
+					target.append("            PipeWriter.writeLong(pipe, ").append(loc).append(", ABSENT64);\n");
+					break;
+				case TypeMask.TextASCIIOptional:
+					target.append("            PipeWriter.writeASCII(pipe, ").append(loc).append(", EMPTY_CHAR, 0, -1);\n");
+					break;
+				case TypeMask.TextUTF8Optional:
+					//the UTF8 writers store the encoded byte count so null must be written as an explicit -1 length
+					target.append("            PipeWriter.writeSpecialBytesPosAndLen(pipe, ").append(loc).append(", -1, Pipe.getWorkingBlobHeadPosition(pipe));\n");
+					break;
+				case TypeMask.DecimalOptional:
+					target.append("            PipeWriter.writeDecimal(pipe, ").append(loc).append(", ABSENT32, ABSENT64);\n");
+					break;
+				case TypeMask.ByteVectorOptional:
+					target.append("            PipeWriter.writeBytes(pipe, ").append(loc).append(", EMPTY_BYTES, 0, -1, 1);\n");
+					break;
+			}
+			target.append("        } else {\n");
+		}
+		target.append("        ");
+		switch (type) {
+			case TypeMask.IntegerUnsigned:
+			case TypeMask.IntegerSigned:
+			case TypeMask.IntegerUnsignedOptional:
+			case TypeMask.IntegerSignedOptional:
+				target.append("PipeWriter.writeInt(pipe, ").append(loc).append(", ").append(params[0].isPrimitive() ? "(int)arg0" : "((Number)arg0).intValue()").append(");\n");
+				break;
+			case TypeMask.LongUnsigned:
+			case TypeMask.LongSigned:
+			case TypeMask.LongUnsignedOptional:
+			case TypeMask.LongSignedOptional:
+				target.append("PipeWriter.writeLong(pipe, ").append(loc).append(", ").append(params[0].isPrimitive() ? "(long)arg0" : "((Number)arg0).longValue()").append(");\n");
+				break;
+			case TypeMask.TextASCII:
+			case TypeMask.TextASCIIOptional:
+			case TypeMask.TextUTF8:
+			case TypeMask.TextUTF8Optional:
+				//a CharSequence is written as is, there is no need for a String
+				target.append(type<TypeMask.TextUTF8 ? "PipeWriter.writeASCII(pipe, " : "PipeWriter.writeUTF8(pipe, ").append(loc).append(", ")
+				      .append(CharSequence.class.isAssignableFrom(params[0]) ? "arg0" : "String.valueOf(arg0)").append(");\n");
+				break;
+			case TypeMask.Decimal:
+			case TypeMask.DecimalOptional:
+				target.append("PipeWriter.writeDouble(pipe, ").append(loc).append(", ").append(params[0].isPrimitive() ? "(double)arg0" : "((Number)arg0).doubleValue()")
+				      .append(", ").append(Integer.toString(decimalPlaces)).append(");\n");
+				break;
+			case TypeMask.ByteVector:
+			case TypeMask.ByteVectorOptional:
+				if (ByteBuffer.class.isAssignableFrom(params[0])) {
+					target.append("PipeWriter.writeBytes(pipe, ").append(loc).append(", arg0, ")
+					      .append(params.length>1 ? (params[1].isPrimitive() ? "(int)arg1" : "((Number)arg1).intValue()") : "arg0.remaining()").append(");\n");
+				} else {
+					target.append("PipeWriter.writeBytes(pipe, ").append(loc).append(", arg0);\n");
+				}
+				break;
+			default:
+				throw new UnsupportedOperationException("No support yet for "+TypeMask.xmlTypeName[type]);
+		}
+		if (isNullable) {
+			target.append("        }\n");
+		}
+		if (Void.TYPE!=result) {
+			if (result.isPrimitive()) {
+				throw new UnsupportedOperationException("Write methods must return void or an object");
+			}
+			target.append("        return null;\n");
+		}
+	}
+
+	private static void appendReturn(Appendable target, Class<?> result, String expression) throws IOException {
+		if (Void.TYPE==result) {
+			target.append("        ").append(expression).append(";\n");
+		} else {
+			target.append("        return (").append(result.getCanonicalName()).append(")(").append(expression).append(");\n");
+		}
+	}
+
+	private static void appendNullWhen(Appendable target, Class<?> result, String condition) throws IOException {
+		target.append("        if (").append(condition).append(") {\n");
+		target.append(Void.TYPE==result ? "            return;\n" : "            return null;\n");
+		target.append("        }\n");
+	}
+
+	private static void requireArgs(Class<?>[] params, int count) {
+		if (params.length<count) {
+			throw new UnsupportedOperationException("Expected at least "+count+" argument(s)");
+		}
+	}
+
+}
@@ -0,0 +1,308 @@
+package com.ociweb.pronghorn.pipe.schema.loader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.SAXException;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+
+/**
+ * Binary form of a FieldReferenceOffsetManager so schemas can be loaded without parsing the XML templates.
+ *
+ * The file holds the constructor arguments of the FROM, its GUID, the derived fragDataSize and optionally the
+ * initial values of the DictionaryFactory. On load the FROM is rebuilt and checked against the stored GUID and
+ * fragDataSize, so a file written by a library which builds the FROM differently is rejected rather than used.
+ *
+ * Files are read through a memory mapped buffer, build them ahead of time with main(), for example
+ * java FROMBinary templates.xml templates.bin
+ */
+public class FROMBinary {
+
+    private static final int MAGIC = 0x50464D42; //PFMB
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Parse each XML template file and write its binary form beside it, or to the given name.
+     * Arguments are pairs of template file and binary file, a missing binary name uses the template name with .bin
+     */
+    public static void main(String[] args) throws Exception {
+        if (0==args.length) {
+            System.err.println("Usage: FROMBinary template.xml [template.bin] ...");
+            System.exit(1);
+        }
+        int i = 0;
+        while (i<args.length) {
+            String source = args[i++];
+            String target = (i<args.length && !args[i].endsWith(".xml")) ? args[i++] : binaryName(source);
+            compile(source, new File(target));
+            System.out.println("wrote "+target);
+        }
+    }
+
+    private static String binaryName(String source) {
+        int dot = source.lastIndexOf('.');
+        return (dot>0 ? source.substring(0, dot) : source)+".bin";
+    }
+
+    /**
+     * Parse the XML template and write the FROM and its dictionary initial values.
+     * @param source String resource or file name of the XML template
+     * @param target File to write
+     */
+    public static void compile(String source, File target) throws ParserConfigurationException, SAXException, IOException {
+        InputStream in = TemplateHandler.class.getResourceAsStream(source);
+        TemplateHandler handler = new TemplateHandler();
+        try {
+            if (null==in) {
+                SAXParserFactory.newInstance().newSAXParser().parse(new File(source), handler);
+            } else {
+                SAXParserFactory.newInstance().newSAXParser().parse(in, handler);
+            }
+        } finally {
+            if (null!=in) {
+                in.close();
+            }
+        }
+        FieldReferenceOffsetManager from = TemplateHandler.from(handler, (short)0, TemplateHandler.simpleName(source));
+        write(from, handler.defaultConstValues, target);
+    }
+
+    public static void write(FieldReferenceOffsetManager from, DictionaryFactory dictionary, File target) throws IOException {
+        ByteBuffer buffer = write(from, dictionary);
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            out.write(buffer.array(), 0, buffer.limit());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param from FieldReferenceOffsetManager to be written
+     * @param dictionary DictionaryFactory with the initial values, may be null
+     * @return ByteBuffer ready to read holding the binary form
+     */
+    public static ByteBuffer write(FieldReferenceOffsetManager from, DictionaryFactory dictionary) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+        buffer = room(buffer, 48);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        int[] guid = from.cloneGUID();
+        buffer.putInt(guid.length);
+        for(int g : guid) {
+            buffer.putInt(g);
+        }
+        buffer.putShort(from.preableBytes);
+        buffer = putString(buffer, from.name);
+
+        buffer = putInts(buffer, from.tokens);
+        buffer = room(buffer, 4);
+        buffer.putInt(from.fieldNameScript.length);
+        for(String name : from.fieldNameScript) {
+            buffer = putString(buffer, name);
+        }
+        buffer = putLongs(buffer, from.fieldIdScript);
+        buffer = room(buffer, 4);
+        buffer.putInt(from.dictionaryNameScript.length);
+        for(String name : from.dictionaryNameScript) {
+            buffer = putString(buffer, name);
+        }
+        buffer = putLongs(buffer, from.longDefaults());
+        buffer = putInts(buffer, from.intDefaults());
+        buffer = putInts(buffer, from.fragDataSize);
+
+        buffer = room(buffer, 1);
+        if (null==dictionary) {
+            buffer.put((byte)0);
+        } else {
+            buffer.put((byte)1);
+            buffer = room(buffer, 20);
+            buffer.putInt(dictionary.integerCount);
+            buffer.putInt(dictionary.longCount);
+            buffer.putInt(dictionary.bytesCount);
+            buffer.putInt(dictionary.gapBytesSize);
+            buffer.putInt(dictionary.singleBytesSize);
+
+            buffer = putInts(buffer, Arrays.copyOf(dictionary.integerInitIndex, dictionary.integerInitCount));
+            buffer = putInts(buffer, Arrays.copyOf(dictionary.integerInitValue, dictionary.integerInitCount));
+            buffer = putInts(buffer, Arrays.copyOf(dictionary.longInitIndex, dictionary.longInitCount));
+            buffer = putLongs(buffer, Arrays.copyOf(dictionary.longInitValue, dictionary.longInitCount));
+            buffer = putInts(buffer, Arrays.copyOf(dictionary.byteInitIndex, dictionary.byteInitCount));
+            for(int i = 0; i<dictionary.byteInitCount; i++) {
+                byte[] value = dictionary.byteInitValue[i];
+                buffer = room(buffer, 4+(null==value ? 0 : value.length));
+                if (null==value) {
+                    buffer.putInt(-1);
+                } else {
+                    buffer.putInt(value.length);
+                    buffer.put(value);
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Memory map the file and read the FROM from it.
+     * @param source File written by write() or compile()
+     * @param dictionary DictionaryFactory to be given the initial values, may be null
+     */
+    public static FieldReferenceOffsetManager load(File source, DictionaryFactory dictionary) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(source, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), dictionary);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @param buffer ByteBuffer positioned at the start of the binary form, it is read up to the end of it
+     * @param dictionary DictionaryFactory to be given the initial values, may be null
+     * @return FieldReferenceOffsetManager matching the one that was written
+     */
+    public static FieldReferenceOffsetManager read(ByteBuffer buffer, DictionaryFactory dictionary) {
+        if (MAGIC!=buffer.getInt()) {
+            throw new UnsupportedOperationException("Not a binary FieldReferenceOffsetManager.");
+        }
+        int version = buffer.getInt();
+        if (VERSION!=version) {
+            throw new UnsupportedOperationException("Binary FieldReferenceOffsetManager version "+version+" is not supported, expected "+VERSION);
+        }
+        int[] guid = new int[buffer.getInt()];
+        for(int i = 0; i<guid.length; i++) {
+            guid[i] = buffer.getInt();
+        }
+        short preamble = buffer.getShort();
+        String name = getString(buffer);
+
+        int[] tokens = getInts(buffer);
+        String[] names = new String[buffer.getInt()];
+        for(int i = 0; i<names.length; i++) {
+            names[i] = getString(buffer);
+        }
+        long[] ids = getLongs(buffer);
+        String[] dictionaryNames = new String[buffer.getInt()];
+        for(int i = 0; i<dictionaryNames.length; i++) {
+            dictionaryNames[i] = getString(buffer);
+        }
+        long[] longDefaults = getLongs(buffer);
+        int[] intDefaults = getInts(buffer);
+        int[] fragDataSize = getInts(buffer);
+
+        FieldReferenceOffsetManager from = new FieldReferenceOffsetManager(tokens, preamble, names, ids, dictionaryNames, name, longDefaults, intDefaults);
+        from.validateGUID(guid);
+        if (!Arrays.equals(fragDataSize, from.fragDataSize)) {
+            throw new UnsupportedOperationException("Fragment sizes do not match those when written, rebuild the binary schema with this version.");
+        }
+
+        if (0!=buffer.get() && null!=dictionary) {
+            dictionary.integerCount = buffer.getInt();
+            dictionary.longCount = buffer.getInt();
+            dictionary.bytesCount = buffer.getInt();
+            dictionary.gapBytesSize = buffer.getInt();
+            dictionary.singleBytesSize = buffer.getInt();
+
+            int[] index = getInts(buffer);
+            int[] intValues = getInts(buffer);
+            for(int i = 0; i<index.length; i++) {
+                dictionary.addInitInteger(index[i], intValues[i]);
+            }
+            index = getInts(buffer);
+            long[] longValues = getLongs(buffer);
+            for(int i = 0; i<index.length; i++) {
+                dictionary.addInitLong(index[i], longValues[i]);
+            }
+            index = getInts(buffer);
+            for(int i = 0; i<index.length; i++) {
+                int len = buffer.getInt();
+                byte[] value = null;
+                if (len>=0) {
+                    value = new byte[len];
+                    buffer.get(value);
+                }
+                dictionary.addInit(index[i], value);
+            }
+        }
+        return from;
+    }
+
+    private static ByteBuffer room(ByteBuffer buffer, int size) {
+        if (buffer.remaining()>=size) {
+            return buffer;
+        }
+        ByteBuffer temp = ByteBuffer.allocate(Math.max(buffer.capacity()<<1, buffer.position()+size));
+        buffer.flip();
+        temp.put(buffer);
+        return temp;
+    }
+
+    private static ByteBuffer putString(ByteBuffer buffer, String value) {
+        if (null==value) {
+            buffer = room(buffer, 4);
+            buffer.putInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(UTF8);
+            buffer = room(buffer, 4+bytes.length);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        return buffer;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int len = buffer.getInt();
+        if (len<0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static ByteBuffer putInts(ByteBuffer buffer, int[] values) {
+        buffer = room(buffer, 4+(values.length<<2));
+        buffer.putInt(values.length);
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position()+(values.length<<2));
+        return buffer;
+    }
+
+    private static int[] getInts(ByteBuffer buffer) {
+        int[] values = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position()+(values.length<<2));
+        return values;
+    }
+
+    private static ByteBuffer putLongs(ByteBuffer buffer, long[] values) {
+        buffer = room(buffer, 4+(values.length<<3));
+        buffer.putInt(values.length);
+        buffer.asLongBuffer().put(values);
+        buffer.position(buffer.position()+(values.length<<3));
+        return buffer;
+    }
+
+    private static long[] getLongs(ByteBuffer buffer) {
+        long[] values = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position()+(values.length<<3));
+        return values;
+    }
+
+}
@@ -37,8 +37,9 @@ public class AppendableASCIIRing implements Appendable {
 	@Override
 	public Appendable append(CharSequence csq) throws IOException {
 		long lastCheckedValue = tailPosCache;
+		int attempt = 0;
 		while (null==Pipe.slab(ringBuffer) || lastCheckedValue < outputTarget) {
-			Pipe.spinWork(ringBuffer);
+			Pipe.spinWorkForRoom(ringBuffer, attempt++, lastCheckedValue);
 		    lastCheckedValue = Pipe.tailPosition(ringBuffer);
 		}
 		tailPosCache = lastCheckedValue;
@@ -60,8 +61,9 @@ public class AppendableASCIIRing implements Appendable {
 	public Appendable append(CharSequence csq, int start, int end)
 			throws IOException {
 		long lastCheckedValue = tailPosCache;
+		int attempt = 0;
 		while (null==Pipe.slab(ringBuffer) || lastCheckedValue < outputTarget) {
-			Pipe.spinWork(ringBuffer);
+			Pipe.spinWorkForRoom(ringBuffer, attempt++, lastCheckedValue);
 		    lastCheckedValue = Pipe.tailPosition(ringBuffer);
 		}
 		tailPosCache = lastCheckedValue;
@@ -82,8 +84,9 @@ public class AppendableASCIIRing implements Appendable {
 	@Override
 	public Appendable append(char c) throws IOException {
 		long lastCheckedValue = tailPosCache;
+		int attempt = 0;
 		while (null==Pipe.slab(ringBuffer) || lastCheckedValue < outputTarget) {
-			Pipe.spinWork(ringBuffer);
+			Pipe.spinWorkForRoom(ringBuffer, attempt++, lastCheckedValue);
 		    lastCheckedValue = Pipe.tailPosition(ringBuffer);
 		}
 		tailPosCache = lastCheckedValue;
@@ -31,8 +31,9 @@ public class AppendableUTF8Ring implements Appendable {
 	@Override
 	public Appendable append(CharSequence csq) throws IOException {
 		long lastCheckedValue = tailPosCache;
+		int attempt = 0;
 		while (null==Pipe.slab(ringBuffer) || lastCheckedValue < outputTarget) {
-			Pipe.spinWork(ringBuffer);
+			Pipe.spinWorkForRoom(ringBuffer, attempt++, lastCheckedValue);
 		    lastCheckedValue = Pipe.tailPosition(ringBuffer);
 		}
 		tailPosCache = lastCheckedValue;
@@ -50,8 +51,9 @@ public class AppendableUTF8Ring implements Appendable {
 	public Appendable append(CharSequence csq, int start, int end)
 			throws IOException {
 		long lastCheckedValue = tailPosCache;
+		int attempt = 0;
 		while (null==Pipe.slab(ringBuffer) || lastCheckedValue < outputTarget) {
-			Pipe.spinWork(ringBuffer);
+			Pipe.spinWorkForRoom(ringBuffer, attempt++, lastCheckedValue);
 		    lastCheckedValue = Pipe.tailPosition(ringBuffer);
 		}
 		tailPosCache = lastCheckedValue;
@@ -68,8 +70,9 @@ public class AppendableUTF8Ring implements Appendable {
 	@Override
 	public Appendable append(char c) throws IOException {
 		long lastCheckedValue = tailPosCache;
+		int attempt = 0;
 		while (null==Pipe.slab(ringBuffer) || lastCheckedValue < outputTarget) {
-			Pipe.spinWork(ringBuffer);
+			Pipe.spinWorkForRoom(ringBuffer, attempt++, lastCheckedValue);
 		    lastCheckedValue = Pipe.tailPosition(ringBuffer);
 		}
 		tailPosCache = lastCheckedValue;
@@ -87,8 +90,9 @@ public class AppendableUTF8Ring implements Appendable {
 	
 	public void flush() {
 		long lastCheckedValue = tailPosCache;
+		int attempt = 0;
 		while (null==Pipe.slab(ringBuffer) || lastCheckedValue < outputTarget) {
-			Pipe.spinWork(ringBuffer);
+			Pipe.spinWorkForRoom(ringBuffer, attempt++, lastCheckedValue);
 		    lastCheckedValue = Pipe.tailPosition(ringBuffer);
 		}
 		tailPosCache = lastCheckedValue;
@@ -0,0 +1,545 @@
+package com.ociweb.pronghorn.pipe.stream;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.schema.loader.DictionaryFactory;
+import com.ociweb.pronghorn.pipe.token.OperatorMask;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+
+/**
+ * Reads FAST encoded bytes from RawDataSchema chunks and writes the decoded messages to a pipe of the schema
+ * they were encoded with. This is the inverse of FASTEncoder, see it for the supported operators.
+ *
+ * Each chunk must hold one or more whole messages, a message may not continue into the next chunk.
+ * The chunk is held until all of its messages are written so run() may be called again when the output is full.
+ */
+public class FASTDecoder {
+
+    private final Pipe<RawDataSchema> input;
+    private final Pipe<?> output;
+    private final FieldReferenceOffsetManager from;
+    private final FASTScript script;
+    private final LowLevelStateManager navState;
+    private final int maxFragmentSize;
+    private final int absent32;
+    private final long absent64;
+
+    private boolean hasChunk;
+    private byte[] inputBacking;
+    private int inputMask;
+    private int inputPos;
+    private int inputLimit;
+
+    private final long[] pmapBits;
+    private final int[] pmapCount;
+    private int pmapDepth = -1;
+
+    private int skipDepth = -1; //nested depth of the zero length sequence being written, -1 when not skipping
+    private long templateId;
+    private boolean hasTemplateId;
+
+    private boolean decodedAbsent;
+    private byte[] text = new byte[64];
+
+    public FASTDecoder(Pipe<RawDataSchema> input, Pipe<?> output) {
+        this(input, output, null);
+    }
+
+    /**
+     * @param input Pipe of RawDataSchema chunks holding whole encoded messages
+     * @param output Pipe for the decoded messages
+     * @param dictionary DictionaryFactory from the TemplateHandler, needed for text Constant and Default values, may be null
+     */
+    public FASTDecoder(Pipe<RawDataSchema> input, Pipe<?> output, DictionaryFactory dictionary) {
+        this.input = input;
+        this.output = output;
+        this.from = Pipe.from(output);
+        this.script = new FASTScript(from, dictionary);
+        this.navState = new LowLevelStateManager(from);
+        this.maxFragmentSize = FieldReferenceOffsetManager.maxFragmentSize(from);
+        this.absent32 = FieldReferenceOffsetManager.getAbsent32Value(from);
+        this.absent64 = FieldReferenceOffsetManager.getAbsent64Value(from);
+
+        int stack = from.maximumFragmentStackDepth+2;
+        this.pmapBits = new long[stack];
+        this.pmapCount = new int[stack];
+    }
+
+    public void run() {
+
+        while (Pipe.hasRoomForWrite(output, maxFragmentSize)) {
+
+            int startPos;
+            int cursor;
+
+            if (LowLevelStateManager.isStartNewMessage(navState)) {
+                if (!hasChunk && !takeChunk()) {
+                    break;
+                }
+                readPMap();
+                long id = readTemplateId();
+                cursor = FieldReferenceOffsetManager.lookupTemplateLocator(id, from);
+                Pipe.addMsgIdx(output, cursor);
+                startPos = 1;
+            } else {
+                cursor = LowLevelStateManager.activeCursor(navState);
+                startPos = 0;
+            }
+
+            processFragment(startPos, cursor);
+
+            Pipe.confirmLowLevelWrite(output, from.fragDataSize[cursor]);
+            Pipe.publishWrites(output);
+
+            if (LowLevelStateManager.isStartNewMessage(navState)) {
+                pmapDepth--;
+                if (inputPos>=inputLimit) {
+                    releaseChunk();
+                }
+            }
+        }
+        Pipe.publishAllBatchedWrites(output);
+    }
+
+    private boolean takeChunk() {
+        if (!Pipe.hasContentToRead(input)) {
+            return false;
+        }
+        int msgIdx = Pipe.takeMsgIdx(input);
+        if (msgIdx<0) {
+            Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+            Pipe.releaseReadLock(input);
+            Pipe.publishEOF(output);
+            return false;
+        }
+        int meta = Pipe.takeByteArrayMetaData(input);
+        int len = Pipe.takeByteArrayLength(input);
+        if (len<=0) {
+            //nothing to decode
+            Pipe.confirmLowLevelRead(input, Pipe.sizeOf(input, msgIdx));
+            Pipe.releaseReadLock(input);
+            return takeChunk();
+        }
+        inputBacking = Pipe.byteBackingArray(meta, input);
+        inputMask = Pipe.blobMask(input);
+        inputPos = Pipe.bytePosition(meta, input, len);
+        inputLimit = inputPos+len;
+        hasChunk = true;
+        return true;
+    }
+
+    private void releaseChunk() {
+        Pipe.confirmLowLevelRead(input, Pipe.sizeOf(input, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+        Pipe.releaseReadLock(input);
+        hasChunk = false;
+    }
+
+    private void processFragment(int startPos, final int fragmentCursor) {
+
+        final int fieldsInFragment = from.fragScriptSize[fragmentCursor];
+        final int[] depth = from.fragDepth;
+
+        int i = startPos;
+        while (i<fieldsInFragment) {
+            int fieldCursor = fragmentCursor+i++;
+
+            switch (script.type[fieldCursor]) {
+                case TypeMask.Group:
+                    if (FieldReferenceOffsetManager.isGroupOpen(from, fieldCursor)) {
+                        if (skipDepth<0 && FieldReferenceOffsetManager.isGroupSequence(from, fieldCursor)) {
+                            if (script.pmapBytes[fieldCursor]>0) {
+                                readPMap();
+                            } else {
+                                pmapBits[++pmapDepth] = 0;
+                                pmapCount[pmapDepth] = 0;
+                            }
+                        }
+                    } else {
+                        final int fieldLimit = fieldCursor+(fieldsInFragment-i);
+                        final int len = from.tokens.length;
+
+                        do {
+                            if (FieldReferenceOffsetManager.isGroupSequence(from, fieldCursor)) {
+                                if (skipDepth<0) {
+                                    pmapDepth--;
+                                }
+                                boolean endOfSkip = skipDepth==navState.nestedFragmentDepth;
+                                if (!LowLevelStateManager.closeSequenceIteration(navState)) {
+                                    return;
+                                }
+                                LowLevelStateManager.closeFragment(navState);
+                                if (endOfSkip) {
+                                    skipDepth = -1;
+                                }
+                            } else {
+                                if (fieldCursor<=fieldLimit && depth[fieldCursor]>0) {
+                                    LowLevelStateManager.closeFragment(navState);
+                                }
+                            }
+                        } while (++fieldCursor<len && FieldReferenceOffsetManager.isGroupClosed(from, fieldCursor));
+
+                        if (fieldCursor<len && !FieldReferenceOffsetManager.isGroup(from, fieldCursor)) {
+                            LowLevelStateManager.continueAtThisCursor(navState, fieldCursor);
+                        }
+                        return;
+                    }
+                    break;
+                case TypeMask.GroupLength:
+                    {
+                        int seqLength = skipDepth<0 ? (int)decodeNumber(fieldCursor, false) : 0;
+                        Pipe.addIntValue(seqLength, output);
+                        LowLevelStateManager.processGroupLength(navState, fragmentCursor, seqLength);
+                        if (skipDepth<0 && 0==seqLength) {
+                            //one empty iteration is still written to the pipe but nothing is read for it
+                            skipDepth = navState.nestedFragmentDepth;
+                        }
+                    }
+                    return;
+                case TypeMask.IntegerUnsigned:
+                case TypeMask.IntegerUnsignedOptional:
+                case TypeMask.IntegerSigned:
+                case TypeMask.IntegerSignedOptional:
+                    if (skipDepth<0) {
+                        int value = (int)decodeNumber(fieldCursor, false);
+                        Pipe.addIntValue(decodedAbsent ? absent32 : value, output);
+                    } else {
+                        Pipe.addIntValue(FASTScript.isOptional(script.type[fieldCursor]) ? absent32 : 0, output);
+                    }
+                    break;
+                case TypeMask.LongUnsigned:
+                case TypeMask.LongUnsignedOptional:
+                case TypeMask.LongSigned:
+                case TypeMask.LongSignedOptional:
+                    if (skipDepth<0) {
+                        long value = decodeNumber(fieldCursor, true);
+                        Pipe.addLongValue(decodedAbsent ? absent64 : value, output);
+                    } else {
+                        Pipe.addLongValue(FASTScript.isOptional(script.type[fieldCursor]) ? absent64 : 0, output);
+                    }
+                    break;
+                case TypeMask.Decimal:
+                case TypeMask.DecimalOptional:
+                    if (skipDepth<0) {
+                        int exponent = (int)decodeNumber(fieldCursor, false);
+                        if (decodedAbsent) {
+                            Pipe.addIntValue(absent32, output);
+                            Pipe.addLongValue(absent64, output);
+                        } else {
+                            Pipe.addIntValue(exponent, output);
+                            Pipe.addLongValue(decodeNumber(fieldCursor+1, true), output);
+                        }
+                    } else if (FASTScript.isOptional(script.type[fieldCursor])) {
+                        Pipe.addIntValue(absent32, output);
+                        Pipe.addLongValue(absent64, output);
+                    } else {
+                        Pipe.addIntValue(0, output);
+                        Pipe.addLongValue(0, output);
+                    }
+                    i++;//decimal takes up 2 slots in the script
+                    break;
+                case TypeMask.TextASCII:
+                case TypeMask.TextASCIIOptional:
+                case TypeMask.TextUTF8:
+                case TypeMask.TextUTF8Optional:
+                case TypeMask.ByteVector:
+                case TypeMask.ByteVectorOptional:
+                    if (skipDepth<0) {
+                        decodeText(fieldCursor);
+                    } else if (FASTScript.isOptional(script.type[fieldCursor])) {
+                        Pipe.addNullByteArray(output);
+                    } else {
+                        Pipe.addByteArray(text, 0, 0, output);
+                    }
+                    break;
+                case TypeMask.Dictionary:
+                    if (skipDepth<0) {
+                        FASTScript.reset(script);
+                        hasTemplateId = false;
+                    }
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown type "+script.type[fieldCursor]);
+            }
+        }
+
+        LowLevelStateManager.closeFragment(navState);
+    }
+
+    private long readTemplateId() {
+        if (readPMapBit()) {
+            templateId = readUnsigned();
+            hasTemplateId = true;
+        } else if (!hasTemplateId) {
+            throw new UnsupportedOperationException("Template id was not sent and there is no prior value");
+        }
+        return templateId;
+    }
+
+    private long decodeNumber(int pos, boolean isLong) {
+        final FASTScript s = script;
+        final int type = s.type[pos];
+        final boolean optional = FASTScript.isOptional(type);
+        final int inst = s.instance[pos];
+        final long[] values = isLong ? s.longValues : s.intValues;
+        final byte[] state = isLong ? s.longState : s.intState;
+
+        switch (s.oper[pos]) {
+            case OperatorMask.Field_None:
+                return readNumber(optional, FASTScript.isSigned(type));
+            case OperatorMask.Field_Constant:
+                decodedAbsent = optional && !readPMapBit();
+                return s.initValue[pos];
+            case OperatorMask.Field_Default:
+                if (readPMapBit()) {
+                    return readNumber(optional, FASTScript.isSigned(type));
+                }
+                decodedAbsent = s.initAbsent[pos];
+                return s.initValue[pos];
+            case OperatorMask.Field_Copy:
+            case OperatorMask.Field_Increment:
+                {
+                    long value;
+                    if (readPMapBit()) {
+                        value = readNumber(optional, FASTScript.isSigned(type));
+                    } else {
+                        final byte prior = state[inst];
+                        decodedAbsent = FASTScript.EMPTY==prior;
+                        value = FASTScript.ASSIGNED==prior ? values[inst] : s.initValue[pos];
+                        if (FASTScript.ASSIGNED==prior && OperatorMask.Field_Increment==s.oper[pos]) {
+                            value++;
+                        }
+                    }
+                    if (decodedAbsent) {
+                        state[inst] = FASTScript.EMPTY;
+                    } else {
+                        values[inst] = value;
+                        state[inst] = FASTScript.ASSIGNED;
+                    }
+                    return value;
+                }
+            case OperatorMask.Field_Delta:
+                {
+                    long delta = readNumber(optional, true);
+                    if (decodedAbsent) {
+                        return 0;
+                    }
+                    final long value = (FASTScript.ASSIGNED==state[inst] ? values[inst] : s.initValue[pos]) + delta;
+                    values[inst] = value;
+                    state[inst] = FASTScript.ASSIGNED;
+                    return value;
+                }
+            default:
+                throw new UnsupportedOperationException("Operator "+s.oper[pos]+" is not supported for "+from.fieldNameScript[pos]);
+        }
+    }
+
+    private void decodeText(int pos) {
+        final FASTScript s = script;
+        final int type = s.type[pos];
+        final boolean optional = FASTScript.isOptional(type);
+        final int inst = s.instance[pos];
+
+        switch (s.oper[pos]) {
+            case OperatorMask.Field_None:
+                writeText(readText(type, optional));
+                break;
+            case OperatorMask.Field_Constant:
+                if (optional && !readPMapBit()) {
+                    Pipe.addNullByteArray(output);
+                } else {
+                    writeBytes(s.initBytes[pos], null==s.initBytes[pos] ? -1 : s.initBytes[pos].length);
+                }
+                break;
+            case OperatorMask.Field_Default:
+                if (readPMapBit()) {
+                    writeText(readText(type, optional));
+                } else {
+                    writeBytes(s.initBytes[pos], null==s.initBytes[pos] ? -1 : s.initBytes[pos].length);
+                }
+                break;
+            case OperatorMask.Field_Copy:
+                if (readPMapBit()) {
+                    int len = readText(type, optional);
+                    if (len<0) {
+                        s.bytesState[inst] = FASTScript.EMPTY;
+                    } else {
+                        FASTScript.setBytes(s, inst, text, 0, len, -1);
+                    }
+                    writeText(len);
+                } else {
+                    final byte prior = s.bytesState[inst];
+                    if (FASTScript.ASSIGNED==prior) {
+                        writeBytes(s.bytesValues[inst], s.bytesLength[inst]);
+                    } else if (FASTScript.UNDEFINED==prior && null!=s.initBytes[pos]) {
+                        FASTScript.setBytes(s, inst, s.initBytes[pos], 0, s.initBytes[pos].length, -1);
+                        writeBytes(s.initBytes[pos], s.initBytes[pos].length);
+                    } else if (optional) {
+                        s.bytesState[inst] = FASTScript.EMPTY;
+                        Pipe.addNullByteArray(output);
+                    } else {
+                        throw new UnsupportedOperationException("Mandatory copy field "+from.fieldNameScript[pos]+" was not sent and has no prior value");
+                    }
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Operator "+s.oper[pos]+" is not supported for "+from.fieldNameScript[pos]);
+        }
+    }
+
+    private void writeText(int len) {
+        writeBytes(text, len);
+    }
+
+    private void writeBytes(byte[] source, int len) {
+        if (len<0) {
+            Pipe.addNullByteArray(output);
+        } else {
+            Pipe.addByteArray(source, 0, len, output);
+        }
+    }
+
+    ///////////////////
+    //presence map
+    ///////////////////
+
+    private void readPMap() {
+        final int d = ++pmapDepth;
+        long bits = 0;
+        int b;
+        int i = 0;
+        do {
+            if (i>8) {
+                throw new UnsupportedOperationException("Presence map is longer than "+FASTScript.MAX_PMAP_BITS+" bits");
+            }
+            b = readByte();
+            bits |= ((long)(0x7F & b)) << (56-(7*i++));
+        } while (0==(0x80 & b));
+        pmapBits[d] = bits;
+        pmapCount[d] = 0;
+    }
+
+    private boolean readPMapBit() {
+        final int d = pmapDepth;
+        final int k = pmapCount[d]++;
+        return k<=62 && 0!=(1L & (pmapBits[d] >>> (62-k)));
+    }
+
+    ///////////////////
+    //primitives
+    ///////////////////
+
+    private long readNumber(boolean optional, boolean signed) {
+        decodedAbsent = false;
+        long value = signed ? readSigned() : readUnsigned();
+        if (optional) {
+            if (0==value) {
+                decodedAbsent = true;
+            } else if (!signed || value>0) {
+                value--;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Read the text into the text array.
+     * @return length of the text or -1 when absent
+     */
+    private int readText(int type, boolean optional) {
+        decodedAbsent = false;
+        if (TypeMask.TextASCII==(type&~1)) {
+            int len = 0;
+            int b;
+            do {
+                b = readByte();
+                ensureText(len+1);
+                text[len++] = (byte)(0x7F & b);
+            } while (0==(0x80 & b));
+
+            int start = 0;
+            if (optional) {
+                if (1==len && 0==text[0]) {
+                    decodedAbsent = true;
+                    return -1;
+                }
+                if (0==text[0]) {
+                    start = 1;
+                }
+            }
+            //same forms as the encoder, a leading zero marks empty and "\0"
+            int remaining = len-start;
+            if (remaining>0 && 0==text[start]) {
+                if (1==remaining) {
+                    return 0;
+                }
+                if (2==remaining && 0==text[start+1]) {
+                    text[0] = 0;
+                    return 1;
+                }
+                start++;
+            }
+            remaining = len-start;
+            if (start>0) {
+                System.arraycopy(text, start, text, 0, remaining);
+            }
+            return remaining;
+        } else {
+            long len = readUnsigned();
+            if (optional) {
+                if (0==len) {
+                    decodedAbsent = true;
+                    return -1;
+                }
+                len--;
+            }
+            if (len > inputLimit-inputPos) {
+                throw new UnsupportedOperationException("FAST message runs past the end of the chunk");
+            }
+            int l = (int)len;
+            ensureText(l);
+            for(int i = 0; i<l; i++) {
+                text[i] = (byte)readByte();
+            }
+            return l;
+        }
+    }
+
+    private void ensureText(int size) {
+        if (size > text.length) {
+            byte[] temp = new byte[Math.max(text.length<<1, size)];
+            System.arraycopy(text, 0, temp, 0, text.length);
+            text = temp;
+        }
+    }
+
+    private long readUnsigned() {
+        long value = 0;
+        int b;
+        do {
+            b = readByte();
+            value = (value<<7) | (0x7F & b);
+        } while (0==(0x80 & b));
+        return value;
+    }
+
+    private long readSigned() {
+        int b = readByte();
+        //sign comes from the top data bit of the first byte
+        long value = 0==(0x40 & b) ? 0 : -1;
+        value = (value<<7) | (0x7F & b);
+        while (0==(0x80 & b)) {
+            b = readByte();
+            value = (value<<7) | (0x7F & b);
+        }
+        return value;
+    }
+
+    private int readByte() {
+        if (inputPos>=inputLimit) {
+            throw new UnsupportedOperationException("FAST message runs past the end of the chunk");
+        }
+        return 0xFF & inputBacking[inputMask & inputPos++];
+    }
+
+}
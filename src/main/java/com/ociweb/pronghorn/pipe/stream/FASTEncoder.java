@@ -0,0 +1,585 @@
+package com.ociweb.pronghorn.pipe.stream;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.schema.loader.DictionaryFactory;
+import com.ociweb.pronghorn.pipe.token.OperatorMask;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+
+/**
+ * Streams the messages of a pipe out as FAST encoded bytes, one whole message per RawDataSchema chunk.
+ *
+ * Each field is encoded by the operator in its token, Copy, Increment and Delta keep their prior values in the
+ * dictionaries of the FASTScript and Constant and Default take their values from the schema. Fields that use a
+ * presence map bit set it in the map of the enclosing template or sequence iteration, the map is reserved at its
+ * largest size and trimmed once the message or iteration is complete.
+ *
+ * Text supports the None and Copy operators, Constant and Default need the DictionaryFactory the schema was
+ * loaded with because the initial text values are not kept by the FieldReferenceOffsetManager.
+ *
+ * Nullable fields are sent as one more than their value so the largest unsigned 64 bit value and the largest
+ * signed long can not be encoded when optional, they are rejected rather than wrapped into the null encoding.
+ *
+ * The matching FASTDecoder must be built from the same schema and initial values.
+ */
+public class FASTEncoder {
+
+    private final Pipe<?> input;
+    private final Pipe<RawDataSchema> output;
+    private final FieldReferenceOffsetManager from;
+    private final FASTScript script;
+    private final LowLevelStateManager navState;
+    private final int absent32;
+    private final long absent64;
+
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    private final int[] pmapStart;
+    private final int[] pmapReserved;
+    private final long[] pmapBits;
+    private final int[] pmapCount;
+    private int pmapDepth = -1;
+
+    private int skipDepth = -1; //nested depth of the zero length sequence being skipped, -1 when not skipping
+    private long templateId;
+    private boolean hasTemplateId;
+
+    public FASTEncoder(Pipe<?> input, Pipe<RawDataSchema> output) {
+        this(input, output, null);
+    }
+
+    /**
+     * @param input Pipe of messages to be encoded
+     * @param output Pipe of RawDataSchema to hold one encoded message per chunk
+     * @param dictionary DictionaryFactory from the TemplateHandler, needed for text Constant and Default values, may be null
+     */
+    public FASTEncoder(Pipe<?> input, Pipe<RawDataSchema> output, DictionaryFactory dictionary) {
+        this.input = input;
+        this.output = output;
+        this.from = Pipe.from(input);
+        this.script = new FASTScript(from, dictionary);
+        this.navState = new LowLevelStateManager(from);
+        this.absent32 = FieldReferenceOffsetManager.getAbsent32Value(from);
+        this.absent64 = FieldReferenceOffsetManager.getAbsent64Value(from);
+
+        int stack = from.maximumFragmentStackDepth+2;
+        this.pmapStart = new int[stack];
+        this.pmapReserved = new int[stack];
+        this.pmapBits = new long[stack];
+        this.pmapCount = new int[stack];
+    }
+
+    public void run() {
+
+        while (Pipe.hasContentToRead(input)) {
+
+            int startPos;
+            int cursor;
+
+            if (LowLevelStateManager.isStartNewMessage(navState)) {
+                //an encoded message is published whole so only begin one when there is room for it
+                if (!Pipe.hasRoomForWrite(output)) {
+                    return;
+                }
+                cursor = Pipe.takeMsgIdx(input);
+                if (cursor<0) {
+                    Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+                    Pipe.releaseReadLock(input);
+                    Pipe.publishEOF(output);
+                    return;
+                }
+                startPos = 1;
+                length = 0;
+                openPMap(cursor);
+                writeTemplateId(from.fieldIdScript[cursor]);
+            } else {
+                cursor = LowLevelStateManager.activeCursor(navState);
+                startPos = 0;
+            }
+
+            processFragment(startPos, cursor);
+
+            Pipe.confirmLowLevelRead(input, Pipe.sizeOf(input, cursor));
+            Pipe.releaseReadLock(input);
+
+            if (LowLevelStateManager.isStartNewMessage(navState)) {
+                closePMap();
+                publishMessage();
+            }
+        }
+        Pipe.publishAllBatchedWrites(output);
+    }
+
+    private void publishMessage() {
+        if (length > output.maxVarLen) {
+            throw new UnsupportedOperationException("Encoded message of "+length+" bytes does not fit in the "+output.maxVarLen+" byte chunks of the output pipe");
+        }
+        Pipe.addMsgIdx(output, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(buffer, 0, length, output);
+        Pipe.confirmLowLevelWrite(output, Pipe.sizeOf(output, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+        Pipe.publishWrites(output);
+    }
+
+    private void processFragment(int startPos, final int fragmentCursor) {
+
+        final int fieldsInFragment = from.fragScriptSize[fragmentCursor];
+        final int[] depth = from.fragDepth;
+
+        int i = startPos;
+        while (i<fieldsInFragment) {
+            int fieldCursor = fragmentCursor+i++;
+
+            switch (script.type[fieldCursor]) {
+                case TypeMask.Group:
+                    if (FieldReferenceOffsetManager.isGroupOpen(from, fieldCursor)) {
+                        if (skipDepth<0 && FieldReferenceOffsetManager.isGroupSequence(from, fieldCursor)) {
+                            openPMap(fieldCursor);
+                        }
+                    } else {
+                        final int fieldLimit = fieldCursor+(fieldsInFragment-i);
+                        final int len = from.tokens.length;
+
+                        do {
+                            if (FieldReferenceOffsetManager.isGroupSequence(from, fieldCursor)) {
+                                if (skipDepth<0) {
+                                    closePMap();
+                                }
+                                boolean endOfSkip = skipDepth==navState.nestedFragmentDepth;
+                                if (!LowLevelStateManager.closeSequenceIteration(navState)) {
+                                    return;
+                                }
+                                LowLevelStateManager.closeFragment(navState);
+                                if (endOfSkip) {
+                                    skipDepth = -1;
+                                }
+                            } else {
+                                if (fieldCursor<=fieldLimit && depth[fieldCursor]>0) {
+                                    LowLevelStateManager.closeFragment(navState);
+                                }
+                            }
+                        } while (++fieldCursor<len && FieldReferenceOffsetManager.isGroupClosed(from, fieldCursor));
+
+                        if (fieldCursor<len && !FieldReferenceOffsetManager.isGroup(from, fieldCursor)) {
+                            LowLevelStateManager.continueAtThisCursor(navState, fieldCursor);
+                        }
+                        return;
+                    }
+                    break;
+                case TypeMask.GroupLength:
+                    {
+                        int seqLength = Pipe.takeInt(input);
+                        if (skipDepth<0) {
+                            encodeNumber(fieldCursor, false, 0xFFFFFFFFL&seqLength, false);
+                        }
+                        LowLevelStateManager.processGroupLength(navState, fragmentCursor, seqLength);
+                        if (skipDepth<0 && 0==seqLength) {
+                            //the pipe still carries one iteration for an empty sequence, it is read but not encoded
+                            skipDepth = navState.nestedFragmentDepth;
+                        }
+                    }
+                    return;
+                case TypeMask.IntegerUnsigned:
+                case TypeMask.IntegerUnsignedOptional:
+                    {
+                        int value = Pipe.takeInt(input);
+                        if (skipDepth<0) {
+                            encodeNumber(fieldCursor, false, 0xFFFFFFFFL&value, FASTScript.isOptional(script.type[fieldCursor]) && absent32==value);
+                        }
+                    }
+                    break;
+                case TypeMask.IntegerSigned:
+                case TypeMask.IntegerSignedOptional:
+                    {
+                        int value = Pipe.takeInt(input);
+                        if (skipDepth<0) {
+                            encodeNumber(fieldCursor, false, value, FASTScript.isOptional(script.type[fieldCursor]) && absent32==value);
+                        }
+                    }
+                    break;
+                case TypeMask.LongUnsigned:
+                case TypeMask.LongUnsignedOptional:
+                case TypeMask.LongSigned:
+                case TypeMask.LongSignedOptional:
+                    {
+                        long value = Pipe.takeLong(input);
+                        if (skipDepth<0) {
+                            encodeNumber(fieldCursor, true, value, FASTScript.isOptional(script.type[fieldCursor]) && absent64==value);
+                        }
+                    }
+                    break;
+                case TypeMask.Decimal:
+                case TypeMask.DecimalOptional:
+                    {
+                        int exponent = Pipe.takeInt(input);
+                        long mantissa = Pipe.takeLong(input);
+                        if (skipDepth<0) {
+                            boolean absent = FASTScript.isOptional(script.type[fieldCursor]) && absent32==exponent;
+                            encodeNumber(fieldCursor, false, exponent, absent);
+                            if (!absent) {
+                                encodeNumber(fieldCursor+1, true, mantissa, false);
+                            }
+                        }
+                    }
+                    i++;//decimal takes up 2 slots in the script
+                    break;
+                case TypeMask.TextASCII:
+                case TypeMask.TextASCIIOptional:
+                case TypeMask.TextUTF8:
+                case TypeMask.TextUTF8Optional:
+                case TypeMask.ByteVector:
+                case TypeMask.ByteVectorOptional:
+                    {
+                        int meta = Pipe.takeByteArrayMetaData(input);
+                        int len = Pipe.takeByteArrayLength(input);
+                        if (skipDepth<0) {
+                            encodeText(fieldCursor, Pipe.byteBackingArray(meta, input), Pipe.bytePosition(meta, input, len), len, Pipe.blobMask(input));
+                        }
+                    }
+                    break;
+                case TypeMask.Dictionary:
+                    if (skipDepth<0) {
+                        FASTScript.reset(script);
+                        hasTemplateId = false;
+                    }
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown type "+script.type[fieldCursor]);
+            }
+        }
+
+        LowLevelStateManager.closeFragment(navState);
+    }
+
+    private void writeTemplateId(long id) {
+        //template id is always a copy field with the first bit of the message presence map
+        if (hasTemplateId && id==templateId) {
+            setPMapBit(false);
+        } else {
+            setPMapBit(true);
+            writeUnsigned(id);
+            templateId = id;
+            hasTemplateId = true;
+        }
+    }
+
+    private void encodeNumber(int pos, boolean isLong, long value, boolean absent) {
+        final FASTScript s = script;
+        final int type = s.type[pos];
+        final boolean optional = FASTScript.isOptional(type);
+        final int inst = s.instance[pos];
+        final long[] values = isLong ? s.longValues : s.intValues;
+        final byte[] state = isLong ? s.longState : s.intState;
+
+        switch (s.oper[pos]) {
+            case OperatorMask.Field_None:
+                writeNumber(value, absent, optional, FASTScript.isSigned(type));
+                break;
+            case OperatorMask.Field_Constant:
+                if (optional) {
+                    setPMapBit(!absent);
+                }
+                if (!absent && value!=s.initValue[pos]) {
+                    throw new UnsupportedOperationException("Constant field "+from.fieldNameScript[pos]+" must be "+s.initValue[pos]+" but was "+value);
+                }
+                break;
+            case OperatorMask.Field_Default:
+                if (absent ? s.initAbsent[pos] : (!s.initAbsent[pos] && value==s.initValue[pos])) {
+                    setPMapBit(false);
+                } else {
+                    setPMapBit(true);
+                    writeNumber(value, absent, optional, FASTScript.isSigned(type));
+                }
+                break;
+            case OperatorMask.Field_Copy:
+            case OperatorMask.Field_Increment:
+                {
+                    final byte prior = state[inst];
+                    final boolean expectAbsent = FASTScript.EMPTY==prior;
+                    long expected = FASTScript.ASSIGNED==prior ? values[inst] : s.initValue[pos];
+                    if (FASTScript.ASSIGNED==prior && OperatorMask.Field_Increment==s.oper[pos]) {
+                        expected++;
+                    }
+                    if (absent ? expectAbsent : (!expectAbsent && value==expected)) {
+                        setPMapBit(false);
+                    } else {
+                        setPMapBit(true);
+                        writeNumber(value, absent, optional, FASTScript.isSigned(type));
+                    }
+                    if (absent) {
+                        state[inst] = FASTScript.EMPTY;
+                    } else {
+                        values[inst] = value;
+                        state[inst] = FASTScript.ASSIGNED;
+                    }
+                }
+                break;
+            case OperatorMask.Field_Delta:
+                if (absent) {
+                    writeByte(0x80); //null delta, the dictionary keeps its value
+                } else {
+                    final long base = FASTScript.ASSIGNED==state[inst] ? values[inst] : s.initValue[pos];
+                    writeNumber(value-base, false, optional, true);
+                    values[inst] = value;
+                    state[inst] = FASTScript.ASSIGNED;
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Operator "+s.oper[pos]+" is not supported for "+from.fieldNameScript[pos]);
+        }
+    }
+
+    private void encodeText(int pos, byte[] source, int sourcePos, int len, int mask) {
+        final FASTScript s = script;
+        final int type = s.type[pos];
+        final boolean optional = FASTScript.isOptional(type);
+        final boolean absent = len<0;
+        final int inst = s.instance[pos];
+
+        switch (s.oper[pos]) {
+            case OperatorMask.Field_None:
+                writeText(type, optional, source, sourcePos, len, mask);
+                break;
+            case OperatorMask.Field_Constant:
+                if (optional) {
+                    setPMapBit(!absent);
+                }
+                if (!absent && !equals(s.initBytes[pos], null==s.initBytes[pos] ? 0 : s.initBytes[pos].length, source, sourcePos, len, mask)) {
+                    throw new UnsupportedOperationException("Constant field "+from.fieldNameScript[pos]+" does not match its value");
+                }
+                break;
+            case OperatorMask.Field_Default:
+                {
+                    byte[] init = s.initBytes[pos];
+                    if (absent ? null==init : equals(init, null==init ? -1 : init.length, source, sourcePos, len, mask)) {
+                        setPMapBit(false);
+                    } else {
+                        setPMapBit(true);
+                        writeText(type, optional, source, sourcePos, len, mask);
+                    }
+                }
+                break;
+            case OperatorMask.Field_Copy:
+                {
+                    final byte prior = s.bytesState[inst];
+                    byte[] expected;
+                    int expectedLen;
+                    if (FASTScript.ASSIGNED==prior) {
+                        expected = s.bytesValues[inst];
+                        expectedLen = s.bytesLength[inst];
+                    } else if (FASTScript.UNDEFINED==prior && null!=s.initBytes[pos]) {
+                        expected = s.initBytes[pos];
+                        expectedLen = expected.length;
+                    } else {
+                        expected = null;
+                        expectedLen = -1;
+                    }
+                    if (absent ? expectedLen<0 : equals(expected, expectedLen, source, sourcePos, len, mask)) {
+                        setPMapBit(false);
+                    } else {
+                        setPMapBit(true);
+                        writeText(type, optional, source, sourcePos, len, mask);
+                    }
+                    if (absent) {
+                        s.bytesState[inst] = FASTScript.EMPTY;
+                    } else {
+                        FASTScript.setBytes(s, inst, source, sourcePos, len, mask);
+                    }
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Operator "+s.oper[pos]+" is not supported for "+from.fieldNameScript[pos]);
+        }
+    }
+
+    private static boolean equals(byte[] expected, int expectedLen, byte[] source, int pos, int len, int mask) {
+        if (expectedLen!=len || len<0) {
+            return false;
+        }
+        int i = len;
+        while (--i>=0) {
+            if (expected[i]!=source[mask & (pos+i)]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    ///////////////////
+    //presence map
+    ///////////////////
+
+    private void openPMap(int openCursor) {
+        final int reserve = script.pmapBytes[openCursor];
+        if (reserve>0) {
+            int d = ++pmapDepth;
+            pmapStart[d] = length;
+            pmapReserved[d] = reserve;
+            pmapBits[d] = 0;
+            pmapCount[d] = 0;
+            ensureRoom(reserve);
+            length += reserve;
+        } else {
+            //iteration has no bits of its own, mark it so the close finds nothing to write
+            int d = ++pmapDepth;
+            pmapReserved[d] = 0;
+        }
+    }
+
+    private void setPMapBit(boolean value) {
+        final int d = pmapDepth;
+        if (value) {
+            pmapBits[d] |= 1L<<(62-pmapCount[d]);
+        }
+        pmapCount[d]++;
+    }
+
+    private void closePMap() {
+        final int d = pmapDepth--;
+        final int reserved = pmapReserved[d];
+        if (0==reserved) {
+            return;
+        }
+        final long bits = pmapBits[d];
+        final int used = 0==bits ? 1 : ((62-Long.numberOfTrailingZeros(bits))/7)+1;
+        final int start = pmapStart[d];
+        for(int b = 0; b<used; b++) {
+            buffer[start+b] = (byte)(0x7F & (bits >>> (56-(7*b))));
+        }
+        buffer[start+used-1] |= 0x80;
+        if (used<reserved) {
+            //trailing zero bytes are implied so the reserved space is given back
+            System.arraycopy(buffer, start+reserved, buffer, start+used, length-(start+reserved));
+            length -= (reserved-used);
+        }
+    }
+
+    ///////////////////
+    //primitives
+    ///////////////////
+
+    private void writeNumber(long value, boolean absent, boolean optional, boolean signed) {
+        if (optional) {
+            if (absent) {
+                writeByte(0x80);
+            } else if (signed) {
+                if (Long.MAX_VALUE==value) {
+                    //one more would wrap negative, nullable signed values stop one short of the long range
+                    throw new UnsupportedOperationException("Nullable signed value "+value+" has no FAST encoding");
+                }
+                writeSigned(value>=0 ? value+1 : value);
+            } else {
+                if (-1L==value) {
+                    //2^64-1 plus one wraps to zero which is the null encoding
+                    throw new UnsupportedOperationException("Nullable unsigned value 18446744073709551615 has no FAST encoding");
+                }
+                writeUnsigned(value+1);
+            }
+        } else if (signed) {
+            writeSigned(value);
+        } else {
+            writeUnsigned(value);
+        }
+    }
+
+    private void writeText(int type, boolean optional, byte[] source, int pos, int len, int mask) {
+        if (TypeMask.TextASCII==(type&~1)) {
+            writeASCII(optional, source, pos, len, mask);
+        } else {
+            //UTF8 and byte vectors are length prefixed
+            if (optional) {
+                writeUnsigned(len<0 ? 0 : len+1L);
+            } else {
+                writeUnsigned(len);
+            }
+            if (len>0) {
+                ensureRoom(len);
+                for(int i = 0; i<len; i++) {
+                    buffer[length++] = source[mask & (pos+i)];
+                }
+            }
+        }
+    }
+
+    private void writeASCII(boolean optional, byte[] source, int pos, int len, int mask) {
+        if (len<0) {
+            writeByte(0x80);
+            return;
+        }
+        //a leading zero marks the null, empty and "\0" forms so text starting with zero gets one more
+        boolean leadingZero = 0==len || 0==source[mask & pos];
+        if (optional && leadingZero) {
+            writeByte(0x00);
+        }
+        if (0==len) {
+            writeByte(0x80);
+        } else if (1==len && leadingZero) {
+            writeByte(0x00);
+            writeByte(0x80);
+        } else {
+            if (leadingZero) {
+                writeByte(0x00);
+            }
+            ensureRoom(len);
+            for(int i = 0; i<len; i++) {
+                byte b = source[mask & (pos+i)];
+                if (b<0) {
+                    throw new UnsupportedOperationException("ASCII field holds a byte above 0x7F");
+                }
+                buffer[length++] = b;
+            }
+            buffer[length-1] |= 0x80;
+        }
+    }
+
+    private void writeUnsigned(long value) {
+        ensureRoom(10);
+        writeGroups(value, unsignedGroups(value));
+    }
+
+    private void writeSigned(long value) {
+        ensureRoom(10);
+        writeGroups(value, signedGroups(value));
+    }
+
+    private void writeGroups(long value, int groups) {
+        int shift = 7*(groups-1);
+        while (shift>0) {
+            buffer[length++] = (byte)(0x7F & (value >>> shift));
+            shift -= 7;
+        }
+        buffer[length++] = (byte)(0x80 | (0x7F & value));
+    }
+
+    private static int unsignedGroups(long value) {
+        int groups = 1;
+        while (groups<10 && 0!=(value >>> (7*groups))) {
+            groups++;
+        }
+        return groups;
+    }
+
+    private static int signedGroups(long value) {
+        //enough groups that the top bit of the first group is the sign
+        int groups = 1;
+        while (groups<10 && (value >> (7*groups-1))!=(value >> 63)) {
+            groups++;
+        }
+        return groups;
+    }
+
+    private void writeByte(int value) {
+        ensureRoom(1);
+        buffer[length++] = (byte)value;
+    }
+
+    private void ensureRoom(int size) {
+        if (length+size > buffer.length) {
+            byte[] temp = new byte[Math.max(buffer.length<<1, length+size)];
+            System.arraycopy(buffer, 0, temp, 0, length);
+            buffer = temp;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.ociweb.pronghorn.pipe.stream;
+
+import java.util.Arrays;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.schema.loader.DictionaryFactory;
+import com.ociweb.pronghorn.pipe.token.OperatorMask;
+import com.ociweb.pronghorn.pipe.token.TokenBuilder;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+
+/**
+ * Per schema plan shared by FASTEncoder and FASTDecoder. Everything the codec needs to know about a field is worked
+ * out once here by script position so the per message work is a switch on the precomputed operator with no lookups.
+ *
+ * Also holds the dictionary state, one entry per token instance for each of the int, long and bytes dictionaries.
+ * Two fields with the same instance share their prior value as the FAST global dictionary requires.
+ */
+final class FASTScript {
+
+    static final byte UNDEFINED = 0;
+    static final byte ASSIGNED  = 1;
+    static final byte EMPTY     = 2;
+
+    static final int MAX_PMAP_BITS = 63;
+
+    final FieldReferenceOffsetManager from;
+
+    //by script position
+    final int[] type;
+    final int[] oper;
+    final int[] instance;
+    final long[] initValue;      //logical numeric initial value
+    final boolean[] initAbsent;  //optional default with no value
+    final byte[][] initBytes;    //text initial value, null for absent
+    final int[] pmapBytes;       //message starts and sequence opens, max pmap bytes or zero when no pmap is needed
+
+    //dictionaries by token instance
+    final long[] intValues;
+    final byte[] intState;
+    final long[] longValues;
+    final byte[] longState;
+    final byte[][] bytesValues;
+    final int[] bytesLength;
+    final byte[] bytesState;
+
+    FASTScript(FieldReferenceOffsetManager from, DictionaryFactory dictionary) {
+        if (from.preambleOffset>=0) {
+            throw new UnsupportedOperationException("Preamble is not supported by the FAST codec.");
+        }
+        this.from = from;
+
+        final int[] tokens = from.tokens;
+        final int length = tokens.length;
+        type = new int[length];
+        oper = new int[length];
+        instance = new int[length];
+        initValue = new long[length];
+        initAbsent = new boolean[length];
+        initBytes = new byte[length][];
+        pmapBytes = new int[length];
+
+        byte[][] byteInit = null;
+        if (null!=dictionary) {
+            int maxIdx = 0;
+            for(int i = 0; i<dictionary.byteInitCount; i++) {
+                maxIdx = Math.max(maxIdx, dictionary.byteInitIndex[i]+1);
+            }
+            byteInit = new byte[maxIdx][];
+            for(int i = 0; i<dictionary.byteInitCount; i++) {
+                byteInit[dictionary.byteInitIndex[i]] = dictionary.byteInitValue[i];
+            }
+        }
+
+        final int[] intDefaults = from.newIntDefaultsDictionary();
+        final long[] longDefaults = from.newLongDefaultsDictionary();
+        int maxInt = intDefaults.length;
+        int maxLong = longDefaults.length;
+        int maxBytes = 0;
+
+        final int[] bitStack = new int[from.maximumFragmentStackDepth+2];
+        final int[] openStack = new int[bitStack.length];
+        int depth = -1;
+
+        for(int i = 0; i<length; i++) {
+            final int token = tokens[i];
+            final int t = TokenBuilder.extractType(token);
+            final int o = TokenBuilder.extractOper(token);
+            final int inst = token & TokenBuilder.MAX_INSTANCE;
+            type[i] = t;
+            oper[i] = o;
+            instance[i] = inst;
+
+            switch (t) {
+                case TypeMask.Group:
+                    if (0 == (o & OperatorMask.Group_Bit_Close)) {
+                        if (0 != (o & OperatorMask.Group_Bit_Templ)) {
+                            depth = 0;
+                            openStack[depth] = i;
+                            bitStack[depth] = 1; //template id
+                        } else if (0 != (o & OperatorMask.Group_Bit_Seq)) {
+                            openStack[++depth] = i;
+                            bitStack[depth] = 0;
+                        } else {
+                            throw new UnsupportedOperationException("Only sequence groups may be nested by the FAST codec, found "+from.fieldNameScript[i]);
+                        }
+                    } else if (depth>=0) {
+                        final int bits = bitStack[depth];
+                        if (bits > MAX_PMAP_BITS) {
+                            throw new UnsupportedOperationException("More than "+MAX_PMAP_BITS+" presence map bits needed by "+from.fieldNameScript[openStack[depth]]);
+                        }
+                        pmapBytes[openStack[depth]] = (bits+6)/7;
+                        depth--;
+                    }
+                    break;
+                case TypeMask.Dictionary:
+                    break;
+                case TypeMask.TextASCII:
+                case TypeMask.TextASCIIOptional:
+                case TypeMask.TextUTF8:
+                case TypeMask.TextUTF8Optional:
+                case TypeMask.ByteVector:
+                case TypeMask.ByteVectorOptional:
+                    if (OperatorMask.Field_None!=o && OperatorMask.Field_Copy!=o) {
+                        if (OperatorMask.Field_Constant!=o && OperatorMask.Field_Default!=o) {
+                            throw new UnsupportedOperationException("Operator "+OperatorMask.xmlOperatorName[o]+" is not supported for text by the FAST codec, found "+from.fieldNameScript[i]);
+                        }
+                        if (null==dictionary) {
+                            throw new UnsupportedOperationException("A DictionaryFactory with the initial values is needed for "+from.fieldNameScript[i]);
+                        }
+                    }
+                    if (null!=byteInit && inst<byteInit.length) {
+                        initBytes[i] = byteInit[inst];
+                    }
+                    maxBytes = Math.max(maxBytes, inst+1);
+                    bitStack[depth] += usesPMapBit(t, o) ? 1 : 0;
+                    break;
+                case TypeMask.Decimal:
+                case TypeMask.DecimalOptional:
+                    //exponent, the mantissa follows as its own LongSigned token
+                    initValue[i] = inst<intDefaults.length ? intDefaults[inst] : 0;
+                    maxInt = Math.max(maxInt, inst+1);
+                    bitStack[depth] += usesPMapBit(t, o) ? 1 : 0;
+                    break;
+                case TypeMask.IntegerUnsigned:
+                case TypeMask.IntegerUnsignedOptional:
+                case TypeMask.IntegerSigned:
+                case TypeMask.IntegerSignedOptional:
+                case TypeMask.GroupLength:
+                    initNumber(i, t, o, inst<intDefaults.length ? intDefaults[inst] : 0);
+                    if (TypeMask.IntegerUnsigned==(t&~1) || TypeMask.GroupLength==t) {
+                        initValue[i] &= 0xFFFFFFFFL;
+                    }
+                    maxInt = Math.max(maxInt, inst+1);
+                    bitStack[depth] += usesPMapBit(t, o) ? 1 : 0;
+                    break;
+                case TypeMask.LongUnsigned:
+                case TypeMask.LongUnsignedOptional:
+                case TypeMask.LongSigned:
+                case TypeMask.LongSignedOptional:
+                    initNumber(i, t, o, inst<longDefaults.length ? longDefaults[inst] : 0);
+                    maxLong = Math.max(maxLong, inst+1);
+                    bitStack[depth] += usesPMapBit(t, o) ? 1 : 0;
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Type "+TypeMask.xmlTypeName[t]+" is not supported by the FAST codec, found "+from.fieldNameScript[i]);
+            }
+        }
+
+        intValues = new long[maxInt];
+        intState = new byte[maxInt];
+        longValues = new long[maxLong];
+        longState = new byte[maxLong];
+        bytesValues = new byte[maxBytes][];
+        bytesLength = new int[maxBytes];
+        bytesState = new byte[maxBytes];
+    }
+
+    private void initNumber(int i, int t, int o, long stored) {
+        //optional defaults are stored as value+1 so zero can mean no default, negative values are not shifted
+        if (OperatorMask.Field_Default==o && 0!=(t&1)) {
+            initAbsent[i] = 0==stored;
+            initValue[i] = stored>0 ? stored-1 : stored;
+        } else {
+            initValue[i] = stored;
+        }
+    }
+
+    static boolean usesPMapBit(int type, int oper) {
+        switch (oper) {
+            case OperatorMask.Field_Copy:
+            case OperatorMask.Field_Default:
+            case OperatorMask.Field_Increment:
+                return true;
+            case OperatorMask.Field_Constant:
+                return 0!=(type&1);
+            default:
+                return false;
+        }
+    }
+
+    static boolean isOptional(int type) {
+        return TypeMask.GroupLength!=type && 0!=(type&1);
+    }
+
+    static boolean isSigned(int type) {
+        return TypeMask.IntegerSigned==(type&~1) || TypeMask.LongSigned==(type&~1) || TypeMask.Decimal==(type&~1);
+    }
+
+    static boolean isText(int type) {
+        return type>=TypeMask.TextASCII && type<=TypeMask.TextUTF8Optional || TypeMask.ByteVector==(type&~1);
+    }
+
+    /**
+     * Dictionary token, every entry goes back to its initial value.
+     */
+    static void reset(FASTScript script) {
+        Arrays.fill(script.intState, UNDEFINED);
+        Arrays.fill(script.longState, UNDEFINED);
+        Arrays.fill(script.bytesState, UNDEFINED);
+    }
+
+    static void setBytes(FASTScript script, int inst, byte[] source, int pos, int len, int mask) {
+        byte[] target = script.bytesValues[inst];
+        if (null==target || target.length<len) {
+            script.bytesValues[inst] = target = new byte[Math.max(len, 16)];
+        }
+        for(int i = 0; i<len; i++) {
+            target[i] = source[mask & (pos+i)];
+        }
+        script.bytesLength[inst] = len;
+        script.bytesState[inst] = ASSIGNED;
+    }
+
+}
@@ -101,8 +101,9 @@ public class RingInputStream extends InputStream implements AutoCloseable {
 		do {
 			//block until we have something to read
 		    long lastCheckedValue = headPosCache;
+			int attempt = 0;
 			while ( lastCheckedValue < target) {
-				Pipe.spinWork(pipe);//TODO: WARNING this may hang when using a single thread scheduler
+				Pipe.spinWorkForContent(pipe, attempt++, lastCheckedValue);//TODO: WARNING this may hang when using a single thread scheduler
 			    lastCheckedValue = Pipe.headPosition(pipe);
 			}
 			headPosCache = lastCheckedValue;
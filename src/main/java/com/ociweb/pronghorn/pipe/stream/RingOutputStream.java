@@ -42,8 +42,9 @@ public class RingOutputStream extends OutputStream implements AutoCloseable {
 	@Override
 	public void close() {
 		long lastCheckedValue = tailPosition(pipe);
+		int attempt = 0;
 		while (null==Pipe.slab(pipe) || lastCheckedValue < headPosition(pipe)-(1 + pipe.slabMask - Pipe.EOF_SIZE)) {
-			Pipe.spinWork(pipe);
+			Pipe.spinWorkForRoom(pipe, attempt++, lastCheckedValue);
 		    lastCheckedValue = Pipe.tailPosition(pipe);
 		}
 		Pipe.publishEOF(pipe);
@@ -57,8 +57,9 @@ public class RingStreams {
         	//block until one more byteVector is ready.
         	
         	long lastCheckedValue = headPosCache;
+			int attempt = 0;
 			while ( lastCheckedValue < target) {
-				Pipe.spinWork(inputRing);//TODO: WARNING this may hang when using a single thread scheduler
+				Pipe.spinWorkForContent(inputRing, attempt++, lastCheckedValue);//TODO: WARNING this may hang when using a single thread scheduler
 			    lastCheckedValue = Pipe.headPosition(inputRing);
 			}
 			headPosCache = lastCheckedValue;	                        	    	                        		           
@@ -131,8 +132,9 @@ public class RingStreams {
         	//block until one more byteVector is ready.
         	
         	long lastCheckedValue = headPosCache;
+			int attempt = 0;
 			while ( lastCheckedValue < target) {
-				Pipe.spinWork(inputRing);//TODO: WARNING this may hang when using a single thread scheduler
+				Pipe.spinWorkForContent(inputRing, attempt++, lastCheckedValue);//TODO: WARNING this may hang when using a single thread scheduler
 			    lastCheckedValue = Pipe.headPosition(inputRing);
 			}
 			headPosCache = lastCheckedValue;
@@ -210,8 +212,9 @@ public class RingStreams {
 				if (size>0) {
 					//block until there is a slot to write into
 					long lastCheckedValue = tailPosCache;
+					int attempt = 0;
 					while (null==Pipe.slab(outputRing) || lastCheckedValue < targetTailValue) {
-						Pipe.spinWork(outputRing);
+						Pipe.spinWorkForRoom(outputRing, attempt++, lastCheckedValue);
 					    lastCheckedValue = Pipe.tailPosition(outputRing);
 					}
 					tailPosCache = lastCheckedValue;///TODO:M Rewrite using RingBuffer.roomToLowLevelWrite(output, size)
@@ -256,8 +259,9 @@ public class RingStreams {
 		while (position<stop) {
 			 
 			    long lastCheckedValue = tailPosCache;
+				int attempt = 0;
 				while (null==Pipe.slab(output) || lastCheckedValue < headPosition(output)-fill) {
-					Pipe.spinWork(output);
+					Pipe.spinWorkForRoom(output, attempt++, lastCheckedValue);
 				    lastCheckedValue = Pipe.tailPosition(output);
 				}
 				tailPosCache = lastCheckedValue; ///TODO:M Rewrite using RingBuffer.roomToLowLevelWrite(output, size)
@@ -278,8 +282,9 @@ public class RingStreams {
 	@Deprecated
 	public static void writeEOF(Pipe ring) {//TODO:M propose a way to remove the need for this poison pill and the blocking use of this call on close()
 		long lastCheckedValue = tailPosition(ring);
+		int attempt = 0;
 		while (null==Pipe.slab(ring) || lastCheckedValue < headPosition(ring)-(1 + ring.slabMask - Pipe.EOF_SIZE)) {
-			Pipe.spinWork(ring);
+			Pipe.spinWorkForRoom(ring, attempt++, lastCheckedValue);
 		    lastCheckedValue = Pipe.tailPosition(ring);
 		}
 		Pipe.publishEOF(ring);	
@@ -308,8 +313,9 @@ public class RingStreams {
 	    	//block until one more byteVector is ready.
 	    	
 	    	long lastCheckedValue = headPosCache;
+			int attempt = 0;
 			while ( lastCheckedValue < target) {
-				Pipe.spinWork(inputRing);//TODO: WARNING this may hang when using a single thread scheduler
+				Pipe.spinWorkForContent(inputRing, attempt++, lastCheckedValue);//TODO: WARNING this may hang when using a single thread scheduler
 			    lastCheckedValue = Pipe.headPosition(inputRing);
 			}
 			headPosCache = lastCheckedValue; //TODO:M,  make this non blocking- will require method signature change.	                        	    	                        		           
@@ -14,6 +14,7 @@ import com.ociweb.pronghorn.pipe.DataInputBlobReader;
 import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
 import com.ociweb.pronghorn.pipe.Pipe;
 import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.PipeWaitStrategy;
 import com.ociweb.pronghorn.pipe.RawDataSchema;
 
 public class StreamRegulator {
@@ -37,7 +38,15 @@ public class StreamRegulator {
     private static final int MSG_SIZE = RawDataSchema.FROM.fragDataSize[RawDataSchema.MSG_CHUNKEDSTREAM_1];
     
     public StreamRegulator(long bitPerSecond, int maxWrittenChunksInFlight, int maxWrittenChunkSizeInBytes) {
-        PipeConfig<RawDataSchema> pipeConfig = new PipeConfig<RawDataSchema>(RawDataSchema.instance, maxWrittenChunksInFlight, maxWrittenChunkSizeInBytes);
+        this(bitPerSecond, maxWrittenChunksInFlight, maxWrittenChunkSizeInBytes, PipeWaitStrategy.YIELD);
+    }
+    
+    /**
+     * @param waitStrategy used by the internal pipe when a blocking helper must wait for room or content,
+     *                     the rate itself is still held by sleeping until the next chunk is due.
+     */
+    public StreamRegulator(long bitPerSecond, int maxWrittenChunksInFlight, int maxWrittenChunkSizeInBytes, PipeWaitStrategy waitStrategy) {
+        PipeConfig<RawDataSchema> pipeConfig = new PipeConfig<RawDataSchema>(RawDataSchema.instance, maxWrittenChunksInFlight, maxWrittenChunkSizeInBytes).waitStrategy(waitStrategy);
         this.pipe = new Pipe<RawDataSchema>(pipeConfig);
         this.pipe.initBuffers();
         Pipe.setPublishBatchSize(pipe, 0); 
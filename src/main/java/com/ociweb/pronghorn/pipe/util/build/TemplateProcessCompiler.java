@@ -0,0 +1,314 @@
+package com.ociweb.pronghorn.pipe.util.build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.stream.StreamingReadVisitor;
+import com.ociweb.pronghorn.pipe.stream.StreamingWriteVisitor;
+
+/**
+ * Compiles generated stages in memory with javax.tools.JavaCompiler and loads each one through its own
+ * class loader, so it can be unloaded once no instance remains. The parent of that loader is the one which
+ * loaded this library.
+ *
+ * Compiled classes are kept by the GUID of the FieldReferenceOffsetManager they were generated from,
+ * weakly in memory and, when a cache folder is given, on disk as cacheFolder/GUID/ClassName.class. Later runs
+ * load from disk and need no compiler, so a JRE is enough once the cache is populated. Classes are compiled
+ * for the version of the running JVM since that is the one which loads them.
+ *
+ * A changed generator or pipe library does not change the GUID, so clear the cache folder when upgrading.
+ */
+public class TemplateProcessCompiler {
+
+    public static final String PACKAGE_NAME = "com.ociweb.pronghorn.pipe.build";
+    private static final String READER_NAME = "GeneratedVisitorReader";
+    private static final String WRITER_NAME = "GeneratedVisitorWriter";
+    private static final String JAVA_VERSION = System.getProperty("java.specification.version");
+
+    private final File cacheFolder;
+    //weak so a class and its loader can be collected once no instance remains, it is built again if needed later
+    private final Map<String, WeakReference<Class<?>>> loaded = new ConcurrentHashMap<String, WeakReference<Class<?>>>();
+
+    /**
+     * @param cacheFolder File folder for compiled classes, null to only keep them in memory
+     */
+    public TemplateProcessCompiler(File cacheFolder) {
+        this.cacheFolder = cacheFolder;
+    }
+
+    /**
+     * Build a specialized replacement for StreamingVisitorReader, it sends the same events to the visitor.
+     * Each call to run() reads until the pipe is empty or the visitor is paused.
+     * @param input Pipe to be read
+     * @param visitor StreamingReadVisitor to be called for each field
+     * @return Runnable reader for this pipe
+     */
+    public Runnable newVisitorReader(Pipe<?> input, StreamingReadVisitor visitor) {
+        final MessageSchema schema = new MessageSchemaDynamic(Pipe.from(input));
+        StringBuilder source = new StringBuilder();
+        Class<?> clazz = load(Pipe.from(input), READER_NAME, new TemplateProcessGeneratorVisitorReader(schema, source, READER_NAME, PACKAGE_NAME), source);
+        return newInstance(clazz, new Class<?>[]{Pipe.class, StreamingReadVisitor.class}, input, visitor);
+    }
+
+    /**
+     * Build a specialized replacement for StreamingVisitorWriter, it pulls the same values from the visitor.
+     * Each call to run() writes until the pipe is full or the visitor is paused.
+     * @param output Pipe to be written
+     * @param visitor StreamingWriteVisitor to supply each field
+     * @return Runnable writer for this pipe
+     */
+    public Runnable newVisitorWriter(Pipe<?> output, StreamingWriteVisitor visitor) {
+        final MessageSchema schema = new MessageSchemaDynamic(Pipe.from(output));
+        StringBuilder source = new StringBuilder();
+        Class<?> clazz = load(Pipe.from(output), WRITER_NAME, new TemplateProcessGeneratorVisitorWriter(schema, source, WRITER_NAME, PACKAGE_NAME), source);
+        return newInstance(clazz, new Class<?>[]{Pipe.class, StreamingWriteVisitor.class}, output, visitor);
+    }
+
+    /**
+     * Load the class for this schema, only running the generator and compiler when it is not already cached.
+     * @param from FieldReferenceOffsetManager the generated source was built from
+     * @param className String simple name of the generated class, it must be in PACKAGE_NAME
+     * @param generator TemplateProcessGenerator which writes the source into target
+     * @param target StringBuilder for the source
+     * @return Class loaded from an isolated class loader
+     */
+    public Class<?> load(FieldReferenceOffsetManager from, String className, TemplateProcessGenerator generator, StringBuilder target) {
+        final String guid = guidText(from);
+        final String qualifiedName = PACKAGE_NAME+'.'+className;
+        final String key = guid+'/'+qualifiedName;
+
+        Class<?> clazz = lookup(key);
+        if (null==clazz) {
+            synchronized(loaded) {
+                clazz = lookup(key);
+                if (null==clazz) {
+                    Map<String, byte[]> classes = readCache(guid, className);
+                    if (null==classes) {
+                        try {
+                            generator.processSchema();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                        classes = compile(qualifiedName, target);
+                        writeCache(guid, classes);
+                    }
+                    clazz = defineIsolated(TemplateProcessCompiler.class.getClassLoader(), qualifiedName, classes);
+                    loaded.put(key, new WeakReference<Class<?>>(clazz));
+                }
+            }
+        }
+        return clazz;
+    }
+
+    private Class<?> lookup(String key) {
+        WeakReference<Class<?>> ref = loaded.get(key);
+        return null==ref ? null : ref.get();
+    }
+
+    /**
+     * Load compiled classes through a new class loader of their own.
+     * @param parent ClassLoader which can see every type the classes refer to
+     * @param qualifiedName String full name of the class to return
+     * @param classes Map of binary class names to class file bytes, as returned by compile()
+     * @return Class loaded from an isolated class loader
+     */
+    public static Class<?> defineIsolated(ClassLoader parent, String qualifiedName, Map<String, byte[]> classes) {
+        try {
+            return new IsolatedClassLoader(parent, classes).loadClass(qualifiedName);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Compile one source file in memory.
+     * @param qualifiedName String full name of the class in the source
+     * @param source CharSequence of the java source
+     * @param visible Class array of types the source uses which may not be on the class path, this library is always added
+     * @return Map of binary class names to class file bytes, inner classes included
+     */
+    public static Map<String, byte[]> compile(String qualifiedName, CharSequence source, Class<?> ... visible) {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (null==compiler) {
+            throw new UnsupportedOperationException("No Java compiler found, run on a JDK or populate the class cache folder first.");
+        }
+
+        final Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        final JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(compiler.getStandardFileManager(diagnostics, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, final String className, Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///"+className.replace('.', '/')+kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return new ByteArrayOutputStream() {
+                            @Override
+                            public void close() {
+                                classes.put(className, toByteArray());
+                            }
+                        };
+                    }
+                };
+            }
+        };
+
+        //the classes may have been loaded from somewhere other than the class path, eg a container
+        String classPath = System.getProperty("java.class.path");
+        classPath = codeSource(Pipe.class)+classPath;
+        for(Class<?> clazz : visible) {
+            classPath = codeSource(clazz)+classPath;
+        }
+
+        String simpleName = qualifiedName.substring(qualifiedName.lastIndexOf('.')+1);
+        boolean ok = compiler.getTask(null, fileManager, diagnostics,
+                                      Arrays.asList("-classpath", classPath, "-source", JAVA_VERSION, "-target", JAVA_VERSION, "-nowarn"), null,
+                                      Arrays.asList(new SimpleSourceFileObject(simpleName, source))).call();
+        if (!ok) {
+            throw new RuntimeException("Unable to compile "+qualifiedName+" "+diagnostics.getDiagnostics());
+        }
+        return classes;
+    }
+
+    private static String codeSource(Class<?> clazz) {
+        try {
+            return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath()+File.pathSeparator;
+        } catch (Exception e) {
+            return ""; //not known so rely on the class path
+        }
+    }
+
+    private Map<String, byte[]> readCache(String guid, String className) {
+        if (null==cacheFolder) {
+            return null;
+        }
+        File[] files = new File(cacheFolder, guid).listFiles();
+        if (null==files) {
+            return null;
+        }
+        Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        boolean found = false;
+        for(File file : files) {
+            String name = file.getName();
+            //the named class and any inner classes
+            if (name.endsWith(".class") && (name.equals(className+".class") || name.startsWith(className+'$'))) {
+                try {
+                    classes.put(PACKAGE_NAME+'.'+name.substring(0, name.length()-6), readFully(file));
+                } catch (IOException e) {
+                    return null; //unreadable so build it again
+                }
+                found |= name.equals(className+".class");
+            }
+        }
+        return found ? classes : null;
+    }
+
+    private void writeCache(String guid, Map<String, byte[]> classes) {
+        if (null==cacheFolder) {
+            return;
+        }
+        File folder = new File(cacheFolder, guid);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new RuntimeException("Unable to create class cache folder "+folder);
+        }
+        for(Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            String name = entry.getKey();
+            File file = new File(folder, name.substring(name.lastIndexOf('.')+1)+".class");
+            try {
+                //written beside then renamed so a concurrent reader never sees part of a class
+                File temp = File.createTempFile(file.getName(), ".tmp", folder);
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    out.write(entry.getValue());
+                } finally {
+                    out.close();
+                }
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int)file.length());
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer))>=0) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String guidText(FieldReferenceOffsetManager from) {
+        int[] guid = from.cloneGUID();
+        StringBuilder builder = new StringBuilder(guid.length*8);
+        for(int i = 0; i<guid.length; i++) {
+            String hex = Integer.toHexString(guid[i]);
+            for(int j = hex.length(); j<8; j++) {
+                builder.append('0');
+            }
+            builder.append(hex);
+        }
+        return builder.toString();
+    }
+
+    private static Runnable newInstance(Class<?> clazz, Class<?>[] types, Object pipe, Object visitor) {
+        try {
+            return (Runnable)clazz.getConstructor(types).newInstance(pipe, visitor);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to construct "+clazz.getName(), e);
+        }
+    }
+
+    private static class IsolatedClassLoader extends ClassLoader {
+
+        private final Map<String, byte[]> classes;
+
+        IsolatedClassLoader(ClassLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (null==bytes) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+}
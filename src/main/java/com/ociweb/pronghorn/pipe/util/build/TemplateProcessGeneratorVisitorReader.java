@@ -0,0 +1,329 @@
+package com.ociweb.pronghorn.pipe.util.build;
+
+import java.io.IOException;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.stream.LowLevelStateManager;
+import com.ociweb.pronghorn.pipe.stream.StreamingReadVisitor;
+
+/**
+ * Generates a low level reader which calls a StreamingReadVisitor with exactly the same events as
+ * StreamingVisitorReader. The field names, ids and fragment layout are fixed in the source so the
+ * only remaining branch per fragment is the end of sequence check.
+ *
+ * The generated class implements Runnable and has a (Pipe, StreamingReadVisitor) constructor,
+ * see TemplateProcessCompiler for building and loading it at runtime.
+ */
+public class TemplateProcessGeneratorVisitorReader extends TemplateProcessGenerator {
+
+    private final Appendable bodyTarget;
+    private final FieldReferenceOffsetManager from;
+    private final String className;
+    private final String packageName;
+
+    private final String tab = "    ";
+    private final String pipeVarName = "input";
+    private final String stageMgrVarName = "navState";
+
+    public TemplateProcessGeneratorVisitorReader(MessageSchema schema, Appendable bodyTarget, String className, String packageName) {
+        super(schema);
+        this.bodyTarget = bodyTarget;
+        this.from = MessageSchema.from(schema);
+        this.className = className;
+        this.packageName = packageName;
+    }
+
+    @Override
+    protected void headerConstruction() throws IOException {
+        bodyTarget.append("package ").append(packageName).append(";\n");
+        bodyTarget.append("import ").append(Pipe.class.getCanonicalName()).append(";\n");
+        bodyTarget.append("import ").append(LowLevelStateManager.class.getCanonicalName()).append(";\n");
+        bodyTarget.append("import ").append(StreamingReadVisitor.class.getCanonicalName()).append(";\n");
+        bodyTarget.append("\n");
+        bodyTarget.append("public class ").append(className).append(" implements Runnable {\n");
+        bodyTarget.append("\n");
+    }
+
+    @Override
+    protected void defineMembers() throws IOException {
+        from.appendGUID(bodyTarget.append("private static final int[] FROM_GUID = ")).append(";\n");
+        bodyTarget.append("private final Pipe<?> ").append(pipeVarName).append(";\n");
+        bodyTarget.append("private final StreamingReadVisitor visitor;\n");
+        bodyTarget.append("private final LowLevelStateManager ").append(stageMgrVarName).append(";\n");
+        bodyTarget.append("\n");
+        bodyTarget.append("public ").append(className).append("(Pipe<?> ").append(pipeVarName).append(", StreamingReadVisitor visitor) {\n");
+        bodyTarget.append(tab).append("Pipe.from(").append(pipeVarName).append(").validateGUID(FROM_GUID);\n");
+        bodyTarget.append(tab).append("this.").append(pipeVarName).append(" = ").append(pipeVarName).append(";\n");
+        bodyTarget.append(tab).append("this.visitor = visitor;\n");
+        bodyTarget.append(tab).append("this.").append(stageMgrVarName).append(" = new LowLevelStateManager(Pipe.from(").append(pipeVarName).append("));\n");
+        bodyTarget.append("}\n");
+    }
+
+    @Override
+    protected void processCallerPrep() throws IOException {
+        bodyTarget.append("\n");
+        bodyTarget.append("@Override\n");
+        bodyTarget.append("public void run() {\n");
+        bodyTarget.append(tab).append("while (!visitor.paused() && Pipe.hasContentToRead(").append(pipeVarName).append(")) {\n");
+        bodyTarget.append(tab).append(tab).append("int cursor;\n");
+        bodyTarget.append(tab).append(tab).append("if (LowLevelStateManager.isStartNewMessage(").append(stageMgrVarName).append(")) {\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("cursor = Pipe.takeMsgIdx(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("if (cursor<0) {\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("visitor.shutdown();\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("Pipe.confirmLowLevelRead(").append(pipeVarName).append(", Pipe.EOF_SIZE);\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("Pipe.releaseReadLock(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("return;\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append(tab).append("} else {\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("cursor = LowLevelStateManager.activeCursor(").append(stageMgrVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append(tab).append("switch(cursor) {\n");
+    }
+
+    @Override
+    protected void processCaller(int cursor) throws IOException {
+        bodyTarget.append(tab).append(tab).append(tab).append("case ").append(Integer.toString(cursor)).append(":\n");
+        if (FieldReferenceOffsetManager.isTemplateStart(from, cursor)) {
+            appendNameAndId(bodyTarget.append(tab).append(tab).append(tab).append(tab).append("visitor.visitTemplateOpen("), cursor).append(");\n");
+        }
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("processFragment").append(Integer.toString(cursor)).append("();\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("Pipe.confirmLowLevelRead(").append(pipeVarName).append(", ")
+                  .append(Integer.toString(from.fragDataSize[cursor])).append(" /* fragment size */);\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("break;\n");
+    }
+
+    @Override
+    protected void processCallerPost() throws IOException {
+        bodyTarget.append(tab).append(tab).append(tab).append("default:\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("throw new UnsupportedOperationException(\"Unknown message type, rebuild with the new schema.\");\n");
+        bodyTarget.append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append(tab).append("Pipe.releaseReadLock(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append("}\n");
+        bodyTarget.append("}\n");
+        bodyTarget.append("\n");
+    }
+
+    @Override
+    protected void processCalleeOpen(int cursor) throws IOException {
+        bodyTarget.append("private void processFragment").append(Integer.toString(cursor)).append("() {\n");
+    }
+
+    @Override
+    protected void processCalleeClose(int cursor) throws IOException {
+        bodyTarget.append("}\n");
+        bodyTarget.append("\n");
+    }
+
+    @Override
+    protected void footerConstruction() throws IOException {
+        bodyTarget.append("}\n");
+    }
+
+    @Override
+    protected void processFragmentOpen(String name, int fieldCursor, long id) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("visitor.visitFragmentOpen("), fieldCursor).append(", ").append(Integer.toString(fieldCursor)).append(");\n");
+    }
+
+    @Override
+    protected void processFragmentClose(int fragmentCursor) throws IOException {
+        bodyTarget.append(tab).append("LowLevelStateManager.closeFragment(").append(stageMgrVarName).append(");\n");
+    }
+
+    @Override
+    protected void processSequenceOpen(int fragmentCursor, String name, int idx, int fieldCursor, long id) throws IOException {
+        bodyTarget.append(tab).append("int length = Pipe.takeInt(").append(pipeVarName).append(");\n");
+        appendNameAndId(bodyTarget.append(tab).append("visitor.visitSequenceOpen("), fieldCursor+1).append(", length);\n");
+        bodyTarget.append(tab).append("LowLevelStateManager.processGroupLength(").append(stageMgrVarName).append(", ")
+                  .append(Integer.toString(fragmentCursor)).append(", length);\n");
+    }
+
+    @Override
+    protected boolean processSequenceInstanceClose(String name, long id, int fieldCursor) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("visitor.visitFragmentClose("), fieldCursor).append(");\n");
+        bodyTarget.append(tab).append("if (!LowLevelStateManager.closeSequenceIteration(").append(stageMgrVarName).append(")) {\n");
+        bodyTarget.append(tab).append(tab).append("return; /* Repeat this fragment*/\n");
+        bodyTarget.append(tab).append("}\n");
+        appendNameAndId(bodyTarget.append(tab).append("visitor.visitSequenceClose("), fieldCursor).append(");\n");
+        bodyTarget.append(tab).append("LowLevelStateManager.closeFragment(").append(stageMgrVarName).append(");\n");
+        //the remaining closes are generated in line after the last iteration
+        return false;
+    }
+
+    @Override
+    protected void postProcessSequence(int fieldCursor) throws IOException {
+        bodyTarget.append(tab).append("LowLevelStateManager.continueAtThisCursor(").append(stageMgrVarName).append(", ")
+                  .append(Integer.toString(fieldCursor)).append(");\n");
+    }
+
+    @Override
+    protected void processMessageClose(String name, long id, boolean needsToCloseFragment) throws IOException {
+        appendQuoted(bodyTarget.append(tab).append("visitor.visitTemplateClose("), name).append(", ").append(Long.toString(id)).append("L);\n");
+        if (needsToCloseFragment) {
+            bodyTarget.append(tab).append("LowLevelStateManager.closeFragment(").append(stageMgrVarName).append(");\n");
+        }
+    }
+
+    @Override
+    protected void processDictionary() throws IOException {
+        //nothing to do, dictionary operations are not passed to the visitor
+    }
+
+    @Override
+    protected void pronghornIntegerSigned(String name, int i, int fieldCursor, long id) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("visitor.visitSignedInteger("), fieldCursor)
+                  .append(", Pipe.takeInt(").append(pipeVarName).append("));\n");
+    }
+
+    @Override
+    protected void processIntegerUnsigned(String name, int i, int fieldCursor, long id) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("visitor.visitUnsignedInteger("), fieldCursor)
+                  .append(", 0xFFFFFFFFL&(long)Pipe.takeInt(").append(pipeVarName).append("));\n");
+    }
+
+    @Override
+    protected void processIntegerSignedOptional(String name, int i, int fieldCursor, long id) throws IOException {
+        readOptionalInt(fieldCursor, "visitSignedInteger", "value");
+    }
+
+    @Override
+    protected void processIntegerUnsignedOptional(String name, int i, int fieldCursor, long id) throws IOException {
+        readOptionalInt(fieldCursor, "visitUnsignedInteger", "0xFFFFFFFFL&(long)value");
+    }
+
+    private void readOptionalInt(int fieldCursor, String method, String valueExpression) throws IOException {
+        bodyTarget.append(tab).append("{\n");
+        bodyTarget.append(tab).append(tab).append("int value = Pipe.takeInt(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("if (").append(Integer.toString(FieldReferenceOffsetManager.getAbsent32Value(from))).append("!=value) {\n");
+        appendNameAndId(bodyTarget.append(tab).append(tab).append(tab).append("visitor.").append(method).append('('), fieldCursor)
+                  .append(", ").append(valueExpression).append(");\n");
+        bodyTarget.append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append("}\n");
+    }
+
+    @Override
+    protected void processLongSigned(String name, int idx, int fieldCursor, long id) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("visitor.visitSignedLong("), fieldCursor)
+                  .append(", Pipe.takeLong(").append(pipeVarName).append("));\n");
+    }
+
+    @Override
+    protected void processLongUnsigned(String name, int idx, int fieldCursor, long id) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("visitor.visitUnsignedLong("), fieldCursor)
+                  .append(", Pipe.takeLong(").append(pipeVarName).append("));\n");
+    }
+
+    @Override
+    protected void processLongSignedOptional(String name, int idx, int fieldCursor, long id) throws IOException {
+        readOptionalLong(fieldCursor, "visitSignedLong");
+    }
+
+    @Override
+    protected void processLongUnsignedOptional(String name, int idx, int fieldCursor, long id) throws IOException {
+        readOptionalLong(fieldCursor, "visitUnsignedLong");
+    }
+
+    private void readOptionalLong(int fieldCursor, String method) throws IOException {
+        bodyTarget.append(tab).append("{\n");
+        bodyTarget.append(tab).append(tab).append("long value = Pipe.takeLong(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("if (").append(Long.toString(FieldReferenceOffsetManager.getAbsent64Value(from))).append("L!=value) {\n");
+        appendNameAndId(bodyTarget.append(tab).append(tab).append(tab).append("visitor.").append(method).append('('), fieldCursor).append(", value);\n");
+        bodyTarget.append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append("}\n");
+    }
+
+    @Override
+    protected void processDecimal(String name, int idx, int fieldCursor, long id) throws IOException {
+        bodyTarget.append(tab).append("{\n");
+        bodyTarget.append(tab).append(tab).append("int exp = Pipe.takeInt(").append(pipeVarName).append(");\n");
+        appendNameAndId(bodyTarget.append(tab).append(tab).append("visitor.visitDecimal("), fieldCursor)
+                  .append(", exp, Pipe.takeLong(").append(pipeVarName).append("));\n");
+        bodyTarget.append(tab).append("}\n");
+    }
+
+    @Override
+    protected void processDecimalOptional(String name, int idx, int fieldCursor, long id) throws IOException {
+        bodyTarget.append(tab).append("{\n");
+        bodyTarget.append(tab).append(tab).append("int exp = Pipe.takeInt(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("long mant = Pipe.takeLong(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("if (").append(Integer.toString(FieldReferenceOffsetManager.getAbsent32Value(from))).append("!=exp) {\n");
+        appendNameAndId(bodyTarget.append(tab).append(tab).append(tab).append("visitor.visitDecimal("), fieldCursor).append(", exp, mant);\n");
+        bodyTarget.append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append("}\n");
+    }
+
+    @Override
+    protected void processTextASCII(String name, int idx, int fieldCursor, long id) throws IOException {
+        readText(fieldCursor, "ASCII", "len>=0");
+    }
+
+    @Override
+    protected void processTextASCIIOptional(String name, int idx, int fieldCursor, long id) throws IOException {
+        readText(fieldCursor, "ASCII", "len>0");
+    }
+
+    @Override
+    protected void processTextUTF8(String name, int idx, int fieldCursor, long id) throws IOException {
+        readText(fieldCursor, "UTF8", "len>=0");
+    }
+
+    @Override
+    protected void processTextUTF8Optional(String name, int idx, int fieldCursor, long id) throws IOException {
+        readText(fieldCursor, "UTF8", "len>0");
+    }
+
+    private void readText(int fieldCursor, String encoding, String condition) throws IOException {
+        bodyTarget.append(tab).append("{\n");
+        bodyTarget.append(tab).append(tab).append("int meta = Pipe.takeByteArrayMetaData(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("int len = Pipe.takeByteArrayLength(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("if (").append(condition).append(") {\n");
+        appendNameAndId(bodyTarget.append(tab).append(tab).append(tab).append("visitor.visit").append(encoding).append('('), fieldCursor)
+                  .append(", (CharSequence) Pipe.read").append(encoding).append('(').append(pipeVarName).append(", ");
+        appendNameAndId(bodyTarget.append("visitor.target").append(encoding).append('('), fieldCursor).append("), meta, len));\n");
+        bodyTarget.append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append("}\n");
+    }
+
+    @Override
+    protected void processByteArray(String name, int idx, int fieldCursor, long id) throws IOException {
+        readBytes(fieldCursor, "len>=0");
+    }
+
+    @Override
+    protected void processByteArrayOptional(String name, int idx, int fieldCursor, long id) throws IOException {
+        readBytes(fieldCursor, "len>0");
+    }
+
+    private void readBytes(int fieldCursor, String condition) throws IOException {
+        bodyTarget.append(tab).append("{\n");
+        bodyTarget.append(tab).append(tab).append("int meta = Pipe.takeByteArrayMetaData(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("int len = Pipe.takeByteArrayLength(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("if (").append(condition).append(") {\n");
+        appendNameAndId(bodyTarget.append(tab).append(tab).append(tab).append("visitor.visitBytes("), fieldCursor)
+                  .append(", Pipe.readBytes(").append(pipeVarName).append(", ");
+        appendNameAndId(bodyTarget.append("visitor.targetBytes("), fieldCursor).append(", len), meta, len));\n");
+        bodyTarget.append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append("}\n");
+    }
+
+    private Appendable appendNameAndId(Appendable target, int fieldCursor) throws IOException {
+        return appendQuoted(target, from.fieldNameScript[fieldCursor]).append(", ").append(Long.toString(from.fieldIdScript[fieldCursor])).append('L');
+    }
+
+    static Appendable appendQuoted(Appendable target, String value) throws IOException {
+        if (null==value) {
+            return target.append("null");
+        }
+        target.append('"');
+        for(int i = 0; i<value.length(); i++) {
+            char c = value.charAt(i);
+            if ('"'==c || '\\'==c) {
+                target.append('\\');
+            }
+            target.append(c);
+        }
+        return target.append('"');
+    }
+
+}
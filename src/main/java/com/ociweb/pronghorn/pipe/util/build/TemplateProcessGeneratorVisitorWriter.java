@@ -0,0 +1,290 @@
+package com.ociweb.pronghorn.pipe.util.build;
+
+import static com.ociweb.pronghorn.pipe.util.build.TemplateProcessGeneratorVisitorReader.appendQuoted;
+
+import java.io.IOException;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.stream.LowLevelStateManager;
+import com.ociweb.pronghorn.pipe.stream.StreamingWriteVisitor;
+
+/**
+ * Generates a low level writer which pulls from a StreamingWriteVisitor in exactly the same order as
+ * StreamingVisitorWriter, with the fragment layout fixed in the source.
+ *
+ * The generated class implements Runnable and has a (Pipe, StreamingWriteVisitor) constructor,
+ * see TemplateProcessCompiler for building and loading it at runtime.
+ */
+public class TemplateProcessGeneratorVisitorWriter extends TemplateProcessGenerator {
+
+    private final Appendable bodyTarget;
+    private final FieldReferenceOffsetManager from;
+    private final String className;
+    private final String packageName;
+
+    private final String tab = "    ";
+    private final String pipeVarName = "output";
+    private final String stageMgrVarName = "navState";
+
+    public TemplateProcessGeneratorVisitorWriter(MessageSchema schema, Appendable bodyTarget, String className, String packageName) {
+        super(schema);
+        this.bodyTarget = bodyTarget;
+        this.from = MessageSchema.from(schema);
+        this.className = className;
+        this.packageName = packageName;
+    }
+
+    @Override
+    protected void headerConstruction() throws IOException {
+        bodyTarget.append("package ").append(packageName).append(";\n");
+        bodyTarget.append("import java.nio.Buffer;\n");
+        bodyTarget.append("import java.nio.ByteBuffer;\n");
+        bodyTarget.append("import ").append(Pipe.class.getCanonicalName()).append(";\n");
+        bodyTarget.append("import ").append(LowLevelStateManager.class.getCanonicalName()).append(";\n");
+        bodyTarget.append("import ").append(StreamingWriteVisitor.class.getCanonicalName()).append(";\n");
+        bodyTarget.append("\n");
+        bodyTarget.append("public class ").append(className).append(" implements Runnable {\n");
+        bodyTarget.append("\n");
+    }
+
+    @Override
+    protected void defineMembers() throws IOException {
+        from.appendGUID(bodyTarget.append("private static final int[] FROM_GUID = ")).append(";\n");
+        bodyTarget.append("private static final int MAX_FRAGMENT_SIZE = ").append(Integer.toString(FieldReferenceOffsetManager.maxFragmentSize(from))).append(";\n");
+        bodyTarget.append("private final Pipe<?> ").append(pipeVarName).append(";\n");
+        bodyTarget.append("private final StreamingWriteVisitor visitor;\n");
+        bodyTarget.append("private final LowLevelStateManager ").append(stageMgrVarName).append(";\n");
+        bodyTarget.append("\n");
+        bodyTarget.append("public ").append(className).append("(Pipe<?> ").append(pipeVarName).append(", StreamingWriteVisitor visitor) {\n");
+        bodyTarget.append(tab).append("Pipe.from(").append(pipeVarName).append(").validateGUID(FROM_GUID);\n");
+        bodyTarget.append(tab).append("this.").append(pipeVarName).append(" = ").append(pipeVarName).append(";\n");
+        bodyTarget.append(tab).append("this.visitor = visitor;\n");
+        bodyTarget.append(tab).append("this.").append(stageMgrVarName).append(" = new LowLevelStateManager(Pipe.from(").append(pipeVarName).append("));\n");
+        bodyTarget.append("}\n");
+    }
+
+    @Override
+    protected void processCallerPrep() throws IOException {
+        bodyTarget.append("\n");
+        bodyTarget.append("@Override\n");
+        bodyTarget.append("public void run() {\n");
+        bodyTarget.append(tab).append("while (!visitor.paused() && Pipe.hasRoomForWrite(").append(pipeVarName).append(", MAX_FRAGMENT_SIZE)) {\n");
+        bodyTarget.append(tab).append(tab).append("int cursor;\n");
+        bodyTarget.append(tab).append(tab).append("if (LowLevelStateManager.isStartNewMessage(").append(stageMgrVarName).append(")) {\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("cursor = visitor.pullMessageIdx();\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("if (cursor<0) {\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("Pipe.publishWrites(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("Pipe.publishAllBatchedWrites(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("return;\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("Pipe.addMsgIdx(").append(pipeVarName).append(", cursor);\n");
+        bodyTarget.append(tab).append(tab).append("} else {\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("cursor = LowLevelStateManager.activeCursor(").append(stageMgrVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append(tab).append("switch(cursor) {\n");
+    }
+
+    @Override
+    protected void processCaller(int cursor) throws IOException {
+        bodyTarget.append(tab).append(tab).append(tab).append("case ").append(Integer.toString(cursor)).append(":\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("processFragment").append(Integer.toString(cursor)).append("();\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("Pipe.confirmLowLevelWrite(").append(pipeVarName).append(", ")
+                  .append(Integer.toString(from.fragDataSize[cursor])).append(" /* fragment size */);\n");
+        bodyTarget.append(tab).append(tab).append(tab).append("break;\n");
+    }
+
+    @Override
+    protected void processCallerPost() throws IOException {
+        bodyTarget.append(tab).append(tab).append(tab).append("default:\n");
+        bodyTarget.append(tab).append(tab).append(tab).append(tab).append("throw new UnsupportedOperationException(\"Unknown message type, rebuild with the new schema.\");\n");
+        bodyTarget.append(tab).append(tab).append("}\n");
+        bodyTarget.append(tab).append(tab).append("Pipe.publishWrites(").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append("}\n");
+        bodyTarget.append(tab).append("Pipe.publishAllBatchedWrites(").append(pipeVarName).append(");\n");
+        bodyTarget.append("}\n");
+        bodyTarget.append("\n");
+    }
+
+    @Override
+    protected void processCalleeOpen(int cursor) throws IOException {
+        bodyTarget.append("private void processFragment").append(Integer.toString(cursor)).append("() {\n");
+    }
+
+    @Override
+    protected void processCalleeClose(int cursor) throws IOException {
+        bodyTarget.append("}\n");
+        bodyTarget.append("\n");
+    }
+
+    @Override
+    protected void footerConstruction() throws IOException {
+        bodyTarget.append("}\n");
+    }
+
+    @Override
+    protected void processFragmentOpen(String name, int fieldCursor, long id) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("visitor.fragmentOpen("), fieldCursor).append(");\n");
+    }
+
+    @Override
+    protected void processFragmentClose(int fragmentCursor) throws IOException {
+        bodyTarget.append(tab).append("LowLevelStateManager.closeFragment(").append(stageMgrVarName).append(");\n");
+    }
+
+    @Override
+    protected void processSequenceOpen(int fragmentCursor, String name, int idx, int fieldCursor, long id) throws IOException {
+        //unlike the reader the length is pulled by the name of the length field itself
+        appendNameAndId(bodyTarget.append(tab).append("int length = visitor.pullSequenceLength("), fieldCursor).append(");\n");
+        bodyTarget.append(tab).append("Pipe.addIntValue(length, ").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append("LowLevelStateManager.processGroupLength(").append(stageMgrVarName).append(", ")
+                  .append(Integer.toString(fragmentCursor)).append(", length);\n");
+    }
+
+    @Override
+    protected boolean processSequenceInstanceClose(String name, long id, int fieldCursor) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("visitor.fragmentClose("), fieldCursor).append(");\n");
+        bodyTarget.append(tab).append("if (!LowLevelStateManager.closeSequenceIteration(").append(stageMgrVarName).append(")) {\n");
+        bodyTarget.append(tab).append(tab).append("return; /* Repeat this fragment*/\n");
+        bodyTarget.append(tab).append("}\n");
+        appendNameAndId(bodyTarget.append(tab).append("visitor.sequenceClose("), fieldCursor).append(");\n");
+        bodyTarget.append(tab).append("LowLevelStateManager.closeFragment(").append(stageMgrVarName).append(");\n");
+        //the remaining closes are generated in line after the last iteration
+        return false;
+    }
+
+    @Override
+    protected void postProcessSequence(int fieldCursor) throws IOException {
+        bodyTarget.append(tab).append("LowLevelStateManager.continueAtThisCursor(").append(stageMgrVarName).append(", ")
+                  .append(Integer.toString(fieldCursor)).append(");\n");
+    }
+
+    @Override
+    protected void processMessageClose(String name, long id, boolean needsToCloseFragment) throws IOException {
+        appendQuoted(bodyTarget.append(tab).append("visitor.templateClose("), name).append(", ").append(Long.toString(id)).append("L);\n");
+        if (needsToCloseFragment) {
+            bodyTarget.append(tab).append("LowLevelStateManager.closeFragment(").append(stageMgrVarName).append(");\n");
+        }
+    }
+
+    @Override
+    protected void processDictionary() throws IOException {
+        //nothing to write, matches StreamingVisitorWriter
+    }
+
+    @Override
+    protected void pronghornIntegerSigned(String name, int i, int fieldCursor, long id) throws IOException {
+        writeValue(fieldCursor, "addIntValue", "pullSignedInt");
+    }
+
+    @Override
+    protected void processIntegerUnsigned(String name, int i, int fieldCursor, long id) throws IOException {
+        writeValue(fieldCursor, "addIntValue", "pullUnsignedInt");
+    }
+
+    @Override
+    protected void processIntegerSignedOptional(String name, int i, int fieldCursor, long id) throws IOException {
+        writeOptionalValue(fieldCursor, "addIntValue", "pullSignedInt", Integer.toString(FieldReferenceOffsetManager.getAbsent32Value(from)));
+    }
+
+    @Override
+    protected void processIntegerUnsignedOptional(String name, int i, int fieldCursor, long id) throws IOException {
+        writeOptionalValue(fieldCursor, "addIntValue", "pullUnsignedInt", Integer.toString(FieldReferenceOffsetManager.getAbsent32Value(from)));
+    }
+
+    @Override
+    protected void processLongSigned(String name, int idx, int fieldCursor, long id) throws IOException {
+        writeValue(fieldCursor, "addLongValue", "pullSignedLong");
+    }
+
+    @Override
+    protected void processLongUnsigned(String name, int idx, int fieldCursor, long id) throws IOException {
+        writeValue(fieldCursor, "addLongValue", "pullUnsignedLong");
+    }
+
+    @Override
+    protected void processLongSignedOptional(String name, int idx, int fieldCursor, long id) throws IOException {
+        writeOptionalValue(fieldCursor, "addLongValue", "pullSignedLong", Long.toString(FieldReferenceOffsetManager.getAbsent64Value(from))+'L');
+    }
+
+    @Override
+    protected void processLongUnsignedOptional(String name, int idx, int fieldCursor, long id) throws IOException {
+        writeOptionalValue(fieldCursor, "addLongValue", "pullUnsignedLong", Long.toString(FieldReferenceOffsetManager.getAbsent64Value(from))+'L');
+    }
+
+    @Override
+    protected void processDecimal(String name, int idx, int fieldCursor, long id) throws IOException {
+        writeValue(fieldCursor, "addIntValue", "pullDecimalExponent");
+        writeValue(fieldCursor, "addLongValue", "pullDecimalMantissa");
+    }
+
+    @Override
+    protected void processDecimalOptional(String name, int idx, int fieldCursor, long id) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("if (visitor.isAbsent("), fieldCursor).append(")) {\n");
+        bodyTarget.append(tab).append(tab).append("Pipe.addIntValue(").append(Integer.toString(FieldReferenceOffsetManager.getAbsent32Value(from)))
+                  .append(", ").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append(tab).append("Pipe.addLongValue(").append(Long.toString(FieldReferenceOffsetManager.getAbsent64Value(from)))
+                  .append("L, ").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append("} else {\n");
+        bodyTarget.append(tab);
+        writeValue(fieldCursor, "addIntValue", "pullDecimalExponent");
+        bodyTarget.append(tab);
+        writeValue(fieldCursor, "addLongValue", "pullDecimalMantissa");
+        bodyTarget.append(tab).append("}\n");
+    }
+
+    @Override
+    protected void processTextASCII(String name, int idx, int fieldCursor, long id) throws IOException {
+        writeValue(fieldCursor, "addASCII", "pullASCII");
+    }
+
+    @Override
+    protected void processTextASCIIOptional(String name, int idx, int fieldCursor, long id) throws IOException {
+        //a null char sequence can be returned by pullASCII
+        writeValue(fieldCursor, "addASCII", "pullASCII");
+    }
+
+    @Override
+    protected void processTextUTF8(String name, int idx, int fieldCursor, long id) throws IOException {
+        writeValue(fieldCursor, "addUTF8", "pullUTF8");
+    }
+
+    @Override
+    protected void processTextUTF8Optional(String name, int idx, int fieldCursor, long id) throws IOException {
+        writeValue(fieldCursor, "addUTF8", "pullUTF8");
+    }
+
+    @Override
+    protected void processByteArray(String name, int idx, int fieldCursor, long id) throws IOException {
+        bodyTarget.append(tab).append("{\n");
+        appendNameAndId(bodyTarget.append(tab).append(tab).append("ByteBuffer bb = visitor.pullByteBuffer("), fieldCursor).append(");\n");
+        bodyTarget.append(tab).append(tab).append("((Buffer)bb).flip();\n");
+        bodyTarget.append(tab).append(tab).append("Pipe.addByteBuffer(bb, ").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append("}\n");
+    }
+
+    @Override
+    protected void processByteArrayOptional(String name, int idx, int fieldCursor, long id) throws IOException {
+        processByteArray(name, idx, fieldCursor, id);
+    }
+
+    private void writeValue(int fieldCursor, String addMethod, String pullMethod) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("Pipe.").append(addMethod).append("(visitor.").append(pullMethod).append('('), fieldCursor)
+                  .append("), ").append(pipeVarName).append(");\n");
+    }
+
+    private void writeOptionalValue(int fieldCursor, String addMethod, String pullMethod, String absent) throws IOException {
+        appendNameAndId(bodyTarget.append(tab).append("if (visitor.isAbsent("), fieldCursor).append(")) {\n");
+        bodyTarget.append(tab).append(tab).append("Pipe.").append(addMethod).append('(').append(absent).append(", ").append(pipeVarName).append(");\n");
+        bodyTarget.append(tab).append("} else {\n");
+        bodyTarget.append(tab);
+        writeValue(fieldCursor, addMethod, pullMethod);
+        bodyTarget.append(tab).append("}\n");
+    }
+
+    private Appendable appendNameAndId(Appendable target, int fieldCursor) throws IOException {
+        return appendQuoted(target, from.fieldNameScript[fieldCursor]).append(", ").append(Long.toString(from.fieldIdScript[fieldCursor])).append('L');
+    }
+
+}
@@ -0,0 +1,292 @@
+package com.ociweb.pronghorn.struct;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.ociweb.pronghorn.util.Appendables;
+
+/**
+ * Writes the java source of a typed accessor class for one registered struct.
+ *
+ * StructuredReader and StructuredWriter find a field from its associated object by hashing that object for
+ * every read and write. The generated class instead has the struct id and the index slot of every field
+ * written into its source, so each read is one hop through the trailing index and each write one index store.
+ * All the generated methods are static, nothing is allocated and no associated objects are used.
+ *
+ * The constants are only valid for a StructRegistry built in the same order as the one used here, the
+ * generated matches(StructRegistry) method checks this and should be called once at startup.
+ *
+ * Fields with dimensions are not given accessors, they are still read with StructuredReader.
+ */
+public class StructAccessorGenerator {
+
+    private final StructRegistry registry;
+    private final int structId;
+    private final String packageName;
+    private final String className;
+
+    /**
+     * @param registry StructRegistry holding the struct
+     * @param structId int id returned when the struct was registered
+     * @param packageName String package of the generated class
+     * @param className String simple name of the generated class
+     */
+    public StructAccessorGenerator(StructRegistry registry, int structId, String packageName, String className) {
+        assert((StructRegistry.IS_STRUCT_BIT&structId)!=0) : "must be valid struct";
+        this.registry = registry;
+        this.structId = structId;
+        this.packageName = packageName;
+        this.className = className;
+    }
+
+    public <A extends Appendable> A generate(A target) {
+        try {
+            final int count = registry.totalSizeOfIndexes(structId);
+            final String[] names = new String[count];
+            final Set<String> used = new HashSet<String>();
+            for(int i = 0; i<count; i++) {
+                names[i] = javaName(fieldId(i));
+                if (!used.add(names[i].toUpperCase())) {
+                    throw new UnsupportedOperationException("Field names of this struct are not unique once made into java names: "+names[i]);
+                }
+            }
+
+            target.append("package ").append(packageName).append(";\n\n");
+            target.append("import java.nio.charset.StandardCharsets;\n\n");
+            target.append("import com.ociweb.pronghorn.pipe.DataInputBlobReader;\n");
+            target.append("import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;\n");
+            target.append("import com.ociweb.pronghorn.struct.StructRegistry;\n");
+            target.append("import com.ociweb.pronghorn.struct.StructType;\n\n");
+            target.append("/**\n * Generated by ").append(StructAccessorGenerator.class.getSimpleName()).append(", do not edit.\n */\n");
+            target.append("public final class ").append(className).append(" {\n\n");
+
+            target.append("    public static final int STRUCT_ID = ");
+            appendHex(target, structId).append(";\n");
+            target.append("    public static final int FIELD_COUNT = ");
+            Appendables.appendValue(target, count).append(";\n\n");
+            for(int i = 0; i<count; i++) {
+                target.append("    public static final long ").append(constant(names[i])).append(" = ");
+                Appendables.appendHexDigitsRaw(target.append("0x"), fieldId(i)).append("L;\n");
+            }
+            target.append('\n');
+
+            target.append("    private ").append(className).append("() {\n    }\n\n");
+
+            generateMatches(target, names);
+            generateBegin(target);
+            target.append("    public static boolean isStruct(DataInputBlobReader<?> reader) {\n");
+            target.append("        return STRUCT_ID==DataInputBlobReader.getStructType(reader);\n");
+            target.append("    }\n\n");
+
+            for(int i = 0; i<count; i++) {
+                final long fieldId = fieldId(i);
+                if (0==registry.dims(fieldId)) {
+                    generateField(target, i, names[i], registry.fieldType(fieldId));
+                }
+            }
+
+            target.append("}\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return target;
+    }
+
+    private void generateMatches(Appendable target, String[] names) throws IOException {
+        target.append("    /**\n     * @return true if the registry holds the struct this class was generated from at the same id\n     */\n");
+        target.append("    public static boolean matches(StructRegistry registry) {\n");
+        target.append("        return FIELD_COUNT==registry.totalSizeOfIndexes(STRUCT_ID)");
+        for(int i = 0; i<names.length; i++) {
+            final long fieldId = fieldId(i);
+            final String constant = constant(names[i]);
+            target.append("\n            && StructType.").append(registry.fieldType(fieldId).name()).append("==registry.fieldType(").append(constant).append(')');
+            target.append("\n            && ");
+            Appendables.appendValue(target, registry.dims(fieldId)).append("==registry.dims(").append(constant).append(')');
+            target.append("\n            && \"");
+            appendEscaped(target, new String(registry.fieldName(fieldId), StandardCharsets.UTF_8));
+            target.append("\".equals(new String(registry.fieldName(").append(constant).append("), StandardCharsets.UTF_8))");
+        }
+        target.append(";\n    }\n\n");
+    }
+
+    private void generateBegin(Appendable target) throws IOException {
+        target.append("    /**\n     * Mark the open field as this struct with every field absent, call before writing any field.\n     */\n");
+        target.append("    public static void begin(DataOutputBlobWriter<?> writer) {\n");
+        target.append("        DataOutputBlobWriter.commitBackData(writer, STRUCT_ID);\n");
+        target.append("        int i = FIELD_COUNT;\n");
+        target.append("        while (--i>=0) {\n");
+        target.append("            DataOutputBlobWriter.setIntBackData(writer, -1, i);\n");
+        target.append("        }\n");
+        target.append("    }\n\n");
+    }
+
+    private static void generateField(Appendable target, int idx, String name, StructType type) throws IOException {
+        final String method = Character.toUpperCase(name.charAt(0))+name.substring(1);
+
+        target.append("    public static boolean has").append(method).append("(DataInputBlobReader<?> reader) {\n");
+        target.append("        return DataInputBlobReader.readFromLastInt(reader, ");
+        Appendables.appendValue(target, idx).append(")>=0;\n");
+        target.append("    }\n\n");
+
+        switch (type) {
+            case Long:
+                read(target, idx, "long", method, "", "", "reader.readPackedLong()", "-1");
+                write(target, idx, method, "long value", "writer.writePackedLong(value)");
+                write(target, idx, method+"Null", "", "writer.writePackedNull()");
+                break;
+            case Integer:
+                read(target, idx, "int", method, "", "", "reader.readPackedInt()", "-1");
+                write(target, idx, method, "int value", "writer.writePackedInt(value)");
+                write(target, idx, method+"Null", "", "writer.writePackedNull()");
+                break;
+            case Short:
+                read(target, idx, "short", method, "", "", "reader.readPackedShort()", "-1");
+                write(target, idx, method, "short value", "writer.writePackedShort(value)");
+                write(target, idx, method+"Null", "", "writer.writePackedNull()");
+                break;
+            case Byte:
+                read(target, idx, "byte", method, "", "", "reader.readByte()", "0");
+                write(target, idx, method, "int value", "writer.writeByte(value)");
+                break;
+            case Boolean:
+                read(target, idx, "boolean", method, "", "", "reader.readBoolean()", "false");
+                write(target, idx, method, "boolean value", "writer.writeBoolean(value)");
+                write(target, idx, method+"Null", "", "writer.writeBooleanNull()");
+                break;
+            case Double:
+                read(target, idx, "double", method, "", "", "reader.readDouble()", "Double.NaN");
+                write(target, idx, method, "double value", "writer.writeDouble(value)");
+                break;
+            case Float:
+                read(target, idx, "float", method, "", "", "reader.readFloat()", "Float.NaN");
+                write(target, idx, method, "float value", "writer.writeFloat(value)");
+                break;
+            case Decimal:
+                read(target, idx, "double", method, "AsDouble", "", "reader.readDecimalAsDouble()", "Double.NaN");
+                read(target, idx, "long", method, "Mantissa", "", "reader.readPackedLong()", "-1");
+                read(target, idx, "byte", method, "Exponent", "reader.readPackedLong();", "reader.readByte()", "0");
+                //mantissa first as the readers and the JSON export expect
+                write(target, idx, method, "long m, byte e", "writer.writePackedLong(m);\n        writer.writeByte(e)");
+                break;
+            case Rational:
+                read(target, idx, "double", method, "AsDouble", "", "reader.readRationalAsDouble()", "Double.NaN");
+                write(target, idx, method, "long numerator, long denominator", "writer.writeRational(numerator, denominator)");
+                break;
+            case Text:
+                target.append("    public static <A extends Appendable> A read").append(method).append("(DataInputBlobReader<?> reader, A target) {\n");
+                target.append("        final int index = DataInputBlobReader.readFromLastInt(reader, ");
+                Appendables.appendValue(target, idx).append(");\n");
+                target.append("        if (index>=0) {\n");
+                target.append("            DataInputBlobReader.position(reader, index);\n");
+                target.append("            reader.readUTF(target);\n");
+                target.append("        }\n");
+                target.append("        return target;\n");
+                target.append("    }\n\n");
+
+                target.append("    public static boolean is").append(method).append("Equal(DataInputBlobReader<?> reader, byte[] utf8EncodedBytes) {\n");
+                target.append("        final int index = DataInputBlobReader.readFromLastInt(reader, ");
+                Appendables.appendValue(target, idx).append(");\n");
+                target.append("        if (index>=0) {\n");
+                target.append("            DataInputBlobReader.position(reader, index);\n");
+                target.append("            return utf8EncodedBytes.length==reader.readShort() && reader.equalBytes(utf8EncodedBytes);\n");
+                target.append("        }\n");
+                target.append("        return false;\n");
+                target.append("    }\n\n");
+
+                write(target, idx, method, "CharSequence value", "writer.writeUTF(value)");
+                break;
+            case Blob:
+                target.append("    /**\n     * @return reader positioned at the start of the field or null when absent\n     */\n");
+                target.append("    public static DataInputBlobReader<?> read").append(method).append("(DataInputBlobReader<?> reader) {\n");
+                target.append("        final int index = DataInputBlobReader.readFromLastInt(reader, ");
+                Appendables.appendValue(target, idx).append(");\n");
+                target.append("        if (index>=0) {\n");
+                target.append("            DataInputBlobReader.position(reader, index);\n");
+                target.append("            return reader;\n");
+                target.append("        }\n");
+                target.append("        return null;\n");
+                target.append("    }\n\n");
+
+                target.append("    /**\n     * @return writer to take the content of the field\n     */\n");
+                target.append("    public static DataOutputBlobWriter<?> write").append(method).append("(DataOutputBlobWriter<?> writer) {\n");
+                target.append("        DataOutputBlobWriter.setIntBackData(writer, writer.position(), ");
+                Appendables.appendValue(target, idx).append(");\n");
+                target.append("        return writer;\n");
+                target.append("    }\n\n");
+                break;
+        }
+    }
+
+    private static void read(Appendable target, int idx, String javaType, String method, String suffix, String skip, String decode, String absent) throws IOException {
+        target.append("    public static ").append(javaType).append(" read").append(method).append(suffix).append("(DataInputBlobReader<?> reader) {\n");
+        target.append("        final int index = DataInputBlobReader.readFromLastInt(reader, ");
+        Appendables.appendValue(target, idx).append(");\n");
+        target.append("        if (index>=0) {\n");
+        target.append("            DataInputBlobReader.position(reader, index);\n");
+        if (skip.length()>0) {
+            target.append("            ").append(skip).append("\n");
+        }
+        target.append("            return ").append(decode).append(";\n");
+        target.append("        }\n");
+        target.append("        return ").append(absent).append(";\n");
+        target.append("    }\n\n");
+    }
+
+    private static void write(Appendable target, int idx, String method, String params, String encode) throws IOException {
+        target.append("    public static void write").append(method).append("(DataOutputBlobWriter<?> writer");
+        if (params.length()>0) {
+            target.append(", ").append(params);
+        }
+        target.append(") {\n");
+        target.append("        DataOutputBlobWriter.setIntBackData(writer, writer.position(), ");
+        Appendables.appendValue(target, idx).append(");\n");
+        target.append("        ").append(encode).append(";\n");
+        target.append("    }\n\n");
+    }
+
+    private long fieldId(int idx) {
+        return (((long)structId)<<StructRegistry.STRUCT_OFFSET) | (long)idx;
+    }
+
+    /**
+     * Name of the associated enum constant when there is one, else the field name, made safe for java.
+     */
+    private String javaName(long fieldId) {
+        final Object assoc = registry.getAssociatedObject(fieldId);
+        final String raw = (assoc instanceof Enum) ? ((Enum<?>)assoc).name() : new String(registry.fieldName(fieldId), StandardCharsets.UTF_8);
+
+        StringBuilder builder = new StringBuilder(raw.length()+1);
+        for(int i = 0; i<raw.length(); i++) {
+            final char c = raw.charAt(i);
+            builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        if (0==builder.length() || !Character.isJavaIdentifierStart(builder.charAt(0))) {
+            builder.insert(0, '_');
+        }
+        return builder.toString();
+    }
+
+    private static String constant(String name) {
+        return name.toUpperCase()+"_FIELD";
+    }
+
+    private static Appendable appendHex(Appendable target, int value) throws IOException {
+        return Appendables.appendHexDigitsRaw(target.append("0x"), value);
+    }
+
+    private static void appendEscaped(Appendable target, String text) throws IOException {
+        for(int i = 0; i<text.length(); i++) {
+            final char c = text.charAt(i);
+            if ('"'==c || '\\'==c) {
+                target.append('\\').append(c);
+            } else if (c<' ') {
+                target.append(String.format("\\%03o", (int)c));
+            } else {
+                target.append(c);
+            }
+        }
+    }
+
+}
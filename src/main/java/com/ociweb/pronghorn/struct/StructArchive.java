@@ -0,0 +1,375 @@
+package com.ociweb.pronghorn.struct;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeException;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.util.RLESparseArray;
+
+/**
+ * Columnar archive of struct records, see StructArchiveReader to scan selected columns back into a pipe.
+ *
+ * Records are buffered into row groups. Each group is written as [row count][byte count of each column]
+ * followed by one chunk per field, so a reader can seek past the columns it does not need. The file
+ * starts with a header of the field names and types taken from the StructRegistry.
+ *
+ * Every chunk begins with the run length encoded presence of the field, then only the present values.
+ * Integers, booleans, bytes and the parts of decimals and rationals are delta encoded and then run length
+ * encoded when that is smaller, all as packed longs. Text is dictionary encoded per chunk. Float and
+ * double are stored as their raw bits. Blob and fields with dimensions have no column form and are rejected.
+ */
+public class StructArchive {
+
+	static final int MAGIC = 0x50534341; //PSCA
+	static final int VERSION = 1;
+
+	static final byte PLAIN = 0;
+	static final byte RUN_LENGTH = 1;
+
+	private final int structId;
+	private final StructType[] types;
+	private final int groupRows;
+	private final DataOutputStream out;
+
+	private int rows;
+	private final int[][] present;
+	private final int[] presentCount;
+	private final long[][] first;
+	private final long[][] second;
+	private final byte[][][] text;
+
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+	private final int[] chunkBytes;
+	private byte[] chunk = new byte[1<<12];
+	private int chunkPos;
+	private long totalRecords;
+
+	/**
+	 * @param registry StructRegistry holding the struct
+	 * @param structId int struct of every archived record
+	 * @param file File to create, replaced if it exists
+	 * @param groupRows int records held in memory and written together as one row group
+	 */
+	public StructArchive(StructRegistry registry, int structId, File file, int groupRows) {
+		assert((StructRegistry.IS_STRUCT_BIT&structId)!=0) : "must be valid struct";
+		if (groupRows<1) {
+			throw new UnsupportedOperationException("groupRows must be positive");
+		}
+		final int count = registry.totalSizeOfIndexes(structId);
+		this.structId = structId;
+		this.groupRows = groupRows;
+		this.types = new StructType[count];
+		this.present = new int[count][groupRows];
+		this.presentCount = new int[count];
+		this.first = new long[count][];
+		this.second = new long[count][];
+		this.text = new byte[count][][];
+		this.chunkBytes = new int[count];
+
+		for(int i = 0; i<count; i++) {
+			final long fieldId = (((long)structId)<<StructRegistry.STRUCT_OFFSET) | (long)i;
+			types[i] = registry.fieldType(fieldId);
+			if (0!=registry.dims(fieldId) || StructType.Blob==types[i]) {
+				throw new UnsupportedOperationException("Fields of type "+types[i]+" or with dimensions can not be archived: "+new String(registry.fieldName(fieldId)));
+			}
+			if (StructType.Text==types[i]) {
+				text[i] = new byte[groupRows][];
+			} else {
+				first[i] = new long[groupRows];
+			}
+			if (StructType.Decimal==types[i] || StructType.Rational==types[i]) {
+				second[i] = new long[groupRows];
+			}
+		}
+
+		try {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			for(int i = 0; i<count; i++) {
+				final byte[] name = registry.fieldName((((long)structId)<<StructRegistry.STRUCT_OFFSET) | (long)i);
+				out.writeShort(name.length);
+				out.write(name);
+				out.writeByte(types[i].ordinal());
+			}
+		} catch (IOException e) {
+			throw new PipeException("Unable to create struct archive "+file+" "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Consume every record now on the pipe into the archive, stopping after EOF.
+	 * @param archive StructArchive target
+	 * @param pipe Pipe of struct records
+	 * @return int count of records archived
+	 */
+	public static int archive(StructArchive archive, Pipe<RawDataSchema> pipe) {
+		int count = 0;
+		while (Pipe.hasContentToRead(pipe)) {
+			final int msgIdx = Pipe.takeMsgIdx(pipe);
+			if (msgIdx<0) {
+				Pipe.confirmLowLevelRead(pipe, Pipe.EOF_SIZE);
+				Pipe.releaseReadLock(pipe);
+				break;
+			}
+			append(archive, Pipe.openInputStream(pipe));
+			Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+			Pipe.releaseReadLock(pipe);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Add one record, a row group is written each time groupRows records are held.
+	 * @param archive StructArchive target
+	 * @param record DataInputBlobReader opened on a record of the archived struct
+	 */
+	public static void append(StructArchive archive, DataInputBlobReader<?> record) {
+		assert(archive.structId==DataInputBlobReader.getStructType(record)) : "record is not of the archived struct";
+		final int row = archive.rows;
+		int i = archive.types.length;
+		while (--i>=0) {
+			final int start = DataInputBlobReader.readFromLastInt(record, i);
+			boolean isPresent = false;
+			if (start>=0) {
+				DataInputBlobReader.position(record, start);
+				isPresent = read(archive, i, record);
+			}
+			archive.present[i][row] = isPresent ? 1 : 0;
+		}
+		archive.totalRecords++;
+		if (++archive.rows == archive.groupRows) {
+			flush(archive);
+		}
+	}
+
+	private static boolean read(StructArchive archive, int i, DataInputBlobReader<?> record) {
+		final int c = archive.presentCount[i];
+		long value;
+		switch (archive.types[i]) {
+			case Boolean:
+				value = record.readByte();
+				if (value<0) {
+					return false;
+				}
+				break;
+			case Byte:
+				value = record.readByte();
+				break;
+			case Short:
+			case Integer:
+			case Long:
+				value = record.readPackedLong();
+				if (0==value && record.wasPackedNull()) {
+					return false;
+				}
+				break;
+			case Float:
+				value = Float.floatToIntBits(record.readFloat());
+				break;
+			case Double:
+				value = Double.doubleToLongBits(record.readDouble());
+				break;
+			case Decimal:
+				//mantissa first as StructuredReader expects
+				value = record.readPackedLong();
+				if (0==value && record.wasPackedNull()) {
+					return false;
+				}
+				archive.second[i][c] = record.readByte();
+				break;
+			case Rational:
+				value = record.readPackedLong();
+				archive.second[i][c] = record.readPackedLong();
+				break;
+			case Text:
+				{
+					final int length = record.readShort();
+					if (length<0) {
+						return false;
+					}
+					byte[] bytes = new byte[length];
+					record.readFully(bytes);
+					archive.text[i][c] = bytes;
+					archive.presentCount[i] = c+1;
+					return true;
+				}
+			default:
+				throw new UnsupportedOperationException();
+		}
+		archive.first[i][c] = value;
+		archive.presentCount[i] = c+1;
+		return true;
+	}
+
+	/**
+	 * Write the records held so far as a row group, called by close.
+	 * @param archive StructArchive target
+	 */
+	public static void flush(StructArchive archive) {
+		if (0==archive.rows) {
+			return;
+		}
+		archive.body.reset();
+		final int count = archive.types.length;
+		for(int i = 0; i<count; i++) {
+			archive.chunkPos = 0;
+			encodeChunk(archive, i);
+			archive.body.write(archive.chunk, 0, archive.chunkPos);
+			archive.chunkBytes[i] = archive.chunkPos;
+			archive.presentCount[i] = 0;
+		}
+		try {
+			archive.out.writeInt(archive.rows);
+			for(int i = 0; i<count; i++) {
+				archive.out.writeInt(archive.chunkBytes[i]);
+			}
+			archive.body.writeTo(archive.out);
+		} catch (IOException e) {
+			throw new PipeException("Unable to write struct archive "+e.getMessage());
+		}
+		archive.rows = 0;
+	}
+
+	/**
+	 * Write any held records and close the file.
+	 * @param archive StructArchive target
+	 */
+	public static void close(StructArchive archive) {
+		flush(archive);
+		try {
+			archive.out.close();
+		} catch (IOException e) {
+			throw new PipeException("Unable to close struct archive "+e.getMessage());
+		}
+	}
+
+	/**
+	 * @param archive StructArchive source
+	 * @return long count of records appended since creation
+	 */
+	public static long totalRecords(StructArchive archive) {
+		return archive.totalRecords;
+	}
+
+	private static void encodeChunk(StructArchive archive, int i) {
+		final int[] presence = RLESparseArray.rlEncodeSparseArray(Arrays.copyOf(archive.present[i], archive.rows));
+		writePacked(archive, presence.length);
+		for(int j = 0; j<presence.length; j++) {
+			writePacked(archive, presence[j]);
+		}
+		final int count = archive.presentCount[i];
+		if (0==count) {
+			return;
+		}
+		switch (archive.types[i]) {
+			case Float:
+				writeBits(archive, archive.first[i], count, 4);
+				break;
+			case Double:
+				writeBits(archive, archive.first[i], count, 8);
+				break;
+			case Text:
+				writeDictionary(archive, archive.text[i], count);
+				break;
+			case Decimal:
+			case Rational:
+				writeIntegers(archive, archive.first[i], count);
+				writeIntegers(archive, archive.second[i], count);
+				break;
+			default:
+				writeIntegers(archive, archive.first[i], count);
+		}
+	}
+
+	private static void writeIntegers(StructArchive archive, long[] values, int count) {
+		final long[] deltas = new long[count];
+		long prev = 0;
+		for(int j = 0; j<count; j++) {
+			deltas[j] = values[j]-prev;
+			prev = values[j];
+		}
+		final long[] runs = RLESparseArray.rlEncodeSparseArray(deltas);
+		if (runs.length < count) {
+			ensure(archive, 1);
+			archive.chunk[archive.chunkPos++] = RUN_LENGTH;
+			writePacked(archive, runs.length);
+			for(int j = 0; j<runs.length; j++) {
+				writePacked(archive, runs[j]);
+			}
+		} else {
+			ensure(archive, 1);
+			archive.chunk[archive.chunkPos++] = PLAIN;
+			for(int j = 0; j<count; j++) {
+				writePacked(archive, deltas[j]);
+			}
+		}
+	}
+
+	private static void writeBits(StructArchive archive, long[] values, int count, int width) {
+		ensure(archive, count*width);
+		final byte[] buf = archive.chunk;
+		int pos = archive.chunkPos;
+		for(int j = 0; j<count; j++) {
+			final long v = values[j];
+			int shift = width<<3;
+			while ((shift-=8)>=0) {
+				buf[pos++] = (byte)(v>>>shift);
+			}
+		}
+		archive.chunkPos = pos;
+	}
+
+	private static void writeDictionary(StructArchive archive, byte[][] values, int count) {
+		final Map<ByteBuffer, Integer> lookup = new HashMap<ByteBuffer, Integer>();
+		final long[] indexes = new long[count];
+		final byte[][] entries = new byte[count][];
+		int size = 0;
+		for(int j = 0; j<count; j++) {
+			final ByteBuffer key = ByteBuffer.wrap(values[j]);
+			Integer idx = lookup.get(key);
+			if (null==idx) {
+				idx = size;
+				lookup.put(key, idx);
+				entries[size++] = values[j];
+			}
+			indexes[j] = idx;
+			values[j] = null;
+		}
+		writePacked(archive, size);
+		for(int j = 0; j<size; j++) {
+			final byte[] entry = entries[j];
+			writePacked(archive, entry.length);
+			ensure(archive, entry.length);
+			System.arraycopy(entry, 0, archive.chunk, archive.chunkPos, entry.length);
+			archive.chunkPos += entry.length;
+		}
+		writeIntegers(archive, indexes, count);
+	}
+
+	private static void writePacked(StructArchive archive, long value) {
+		ensure(archive, 10);
+		archive.chunkPos = DataOutputBlobWriter.writePackedLong(value, archive.chunk, Integer.MAX_VALUE, archive.chunkPos);
+	}
+
+	private static void ensure(StructArchive archive, int bytes) {
+		if (archive.chunkPos+bytes > archive.chunk.length) {
+			archive.chunk = Arrays.copyOf(archive.chunk, Math.max(archive.chunk.length*2, archive.chunkPos+bytes));
+		}
+	}
+
+}
@@ -0,0 +1,360 @@
+package com.ociweb.pronghorn.struct;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeException;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.StructuredWriter;
+import com.ociweb.pronghorn.pipe.util.RLESparseArray;
+
+/**
+ * Scans a file written by StructArchive back into a pipe as struct records.
+ *
+ * Archive columns are matched to the fields of the target struct by name and must be of the same type.
+ * Only the selected columns are read, the chunks of all others are skipped with a seek, so a replay of a
+ * few fields reads a fraction of the file. Target fields which are not selected are written as absent.
+ * replay() publishes as much as the target has room for and can be called again once the target is read.
+ */
+public class StructArchiveReader {
+
+	private final RandomAccessFile file;
+	private final int structId;
+	private final int targetFieldCount;
+	private final StructType[] types;
+	private final long[] fieldIds;
+	private final boolean[] selected;
+	private final int[] chunkBytes;
+
+	private int groupRows;
+	private int row;
+	private final int[][] present;
+	private final long[][] first;
+	private final long[][] second;
+	private final byte[][][] dictionary;
+	private final int[] cursor;
+
+	private byte[] chunk = new byte[1<<12];
+	private int chunkPos;
+	private long bytesRead;
+	private long totalRecords;
+
+	/**
+	 * @param file File written by StructArchive
+	 * @param registry StructRegistry of the target pipe
+	 * @param structId int struct of the records written to the target
+	 */
+	public StructArchiveReader(File file, StructRegistry registry, int structId) {
+		assert((StructRegistry.IS_STRUCT_BIT&structId)!=0) : "must be valid struct";
+		this.structId = structId;
+		this.targetFieldCount = registry.totalSizeOfIndexes(structId);
+		try {
+			this.file = new RandomAccessFile(file, "r");
+			if (StructArchive.MAGIC!=this.file.readInt() || StructArchive.VERSION!=this.file.readInt()) {
+				throw new PipeException("Not a struct archive "+file);
+			}
+			final int columns = this.file.readInt();
+			this.types = new StructType[columns];
+			this.fieldIds = new long[columns];
+			this.selected = new boolean[columns];
+			for(int c = 0; c<columns; c++) {
+				final byte[] name = new byte[this.file.readShort()];
+				this.file.readFully(name);
+				types[c] = StructType.values()[this.file.readByte()];
+				final String fieldName = new String(name, StandardCharsets.UTF_8);
+				fieldIds[c] = registry.fieldLookup(fieldName, structId);
+				if (-1!=fieldIds[c]) {
+					if (types[c]!=registry.fieldType(fieldIds[c])) {
+						throw new UnsupportedOperationException("Archived "+types[c]+" "+fieldName+" does not match "+registry.fieldType(fieldIds[c]));
+					}
+					selected[c] = true;
+				}
+			}
+			bytesRead = this.file.getFilePointer();
+		} catch (IOException e) {
+			throw new PipeException("Unable to open struct archive "+file+" "+e.getMessage());
+		}
+		final int columns = types.length;
+		this.chunkBytes = new int[columns];
+		this.present = new int[columns][];
+		this.first = new long[columns][];
+		this.second = new long[columns][];
+		this.dictionary = new byte[columns][][];
+		this.cursor = new int[columns];
+	}
+
+	/**
+	 * Replace the selection, only these fields are read and replayed. By default every field found in both
+	 * the archive and the target struct is selected. Must be called before the first replay.
+	 * @param fieldIds long fields of the target struct
+	 */
+	public StructArchiveReader select(long ... fieldIds) {
+		assert(0==totalRecords) : "select before replay";
+		Arrays.fill(selected, false);
+		for(int j = 0; j<fieldIds.length; j++) {
+			assert((int)(fieldIds[j]>>>StructRegistry.STRUCT_OFFSET)==structId) : "field is not from the target struct";
+			int c = this.fieldIds.length;
+			while (--c>=0) {
+				if (this.fieldIds[c]==fieldIds[j]) {
+					selected[c] = true;
+					break;
+				}
+			}
+			if (c<0) {
+				throw new UnsupportedOperationException("Field is not in the archive: "+fieldIds[j]);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Publish archived records into the target until it is full or the archive has nothing more.
+	 * @param reader StructArchiveReader source
+	 * @param target Pipe with the StructRegistry of the reader
+	 * @return int count of records published
+	 */
+	public static int replay(StructArchiveReader reader, Pipe<RawDataSchema> target) {
+		final int fragmentSize = Pipe.sizeOf(target, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		int count = 0;
+		while (Pipe.hasRoomForWrite(target, fragmentSize) && (reader.row<reader.groupRows || nextGroup(reader))) {
+			final int size = Pipe.addMsgIdx(target, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+			DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(target);
+			DataOutputBlobWriter.commitBackData(out, reader.structId);
+			int t = reader.targetFieldCount;
+			while (--t>=0) {
+				DataOutputBlobWriter.setIntBackData(out, -1, t);
+			}
+			StructuredWriter writer = out.structured();
+			final int row = reader.row;
+			for(int c = 0; c<reader.types.length; c++) {
+				if (reader.selected[c] && 0!=reader.present[c][row]) {
+					write(reader, c, out, writer);
+				}
+			}
+			reader.row++;
+			out.closeLowLevelField();
+			Pipe.confirmLowLevelWrite(target, size);
+			Pipe.publishWrites(target);
+			count++;
+		}
+		reader.totalRecords += count;
+		return count;
+	}
+
+	private static void write(StructArchiveReader reader, int c, DataOutputBlobWriter<RawDataSchema> out, StructuredWriter writer) {
+		final int k = reader.cursor[c]++;
+		final long fieldId = reader.fieldIds[c];
+		final long value = reader.first[c][k];
+		switch (reader.types[c]) {
+			case Boolean:
+				writer.writeBoolean(0!=value, fieldId);
+				break;
+			case Byte:
+				writer.writeByte((int)value, fieldId);
+				break;
+			case Short:
+				writer.writeShort((short)value, fieldId);
+				break;
+			case Integer:
+				writer.writeInt((int)value, fieldId);
+				break;
+			case Long:
+				writer.writeLong(value, fieldId);
+				break;
+			case Float:
+				writer.writeFloat(Float.intBitsToFloat((int)value), fieldId);
+				break;
+			case Double:
+				writer.writeDouble(Double.longBitsToDouble(value), fieldId);
+				break;
+			case Rational:
+				writer.writeRational(value, reader.second[c][k], fieldId);
+				break;
+			case Decimal:
+				//mantissa first as StructuredReader expects
+				DataOutputBlobWriter.setIntBackData(out, out.position(), StructRegistry.extractFieldPosition(fieldId));
+				out.writePackedLong(value);
+				out.writeByte((int)reader.second[c][k]);
+				break;
+			case Text:
+				{
+					final byte[] bytes = reader.dictionary[c][(int)value];
+					DataOutputBlobWriter.setIntBackData(out, out.position(), StructRegistry.extractFieldPosition(fieldId));
+					out.writeShort(bytes.length);
+					out.write(bytes, 0, bytes.length);
+				}
+				break;
+			default:
+				throw new UnsupportedOperationException();
+		}
+	}
+
+	private static boolean nextGroup(StructArchiveReader reader) {
+		final RandomAccessFile file = reader.file;
+		try {
+			if (file.getFilePointer()>=file.length()) {
+				return false;
+			}
+			//row count and chunk lengths are read in one call, the chunks that follow reuse the buffer
+			final int columns = reader.types.length;
+			final int header = 4+(4*columns);
+			if (header>reader.chunk.length) {
+				reader.chunk = new byte[Math.max(header, reader.chunk.length*2)];
+			}
+			file.readFully(reader.chunk, 0, header);
+			reader.groupRows = readInt(reader.chunk, 0);
+			for(int c = 0; c<columns; c++) {
+				reader.chunkBytes[c] = readInt(reader.chunk, 4+(4*c));
+			}
+			reader.bytesRead += header;
+			for(int c = 0; c<columns; c++) {
+				final int length = reader.chunkBytes[c];
+				if (reader.selected[c]) {
+					if (length>reader.chunk.length) {
+						reader.chunk = new byte[Math.max(length, reader.chunk.length*2)];
+					}
+					file.readFully(reader.chunk, 0, length);
+					reader.bytesRead += length;
+					decodeChunk(reader, c);
+				} else {
+					file.seek(file.getFilePointer()+length);
+				}
+			}
+		} catch (IOException e) {
+			throw new PipeException("Unable to read struct archive "+e.getMessage());
+		}
+		reader.row = 0;
+		return reader.groupRows>0;
+	}
+
+	private static void decodeChunk(StructArchiveReader reader, int c) {
+		reader.chunkPos = 0;
+		final int[] presence = new int[(int)readPacked(reader)];
+		for(int j = 0; j<presence.length; j++) {
+			presence[j] = (int)readPacked(reader);
+		}
+		final int[] rows = RLESparseArray.rlDecodeSparseArray(presence);
+		int count = 0;
+		for(int j = 0; j<rows.length; j++) {
+			count += rows[j];
+		}
+		reader.present[c] = rows;
+		reader.cursor[c] = 0;
+		if (0==count) {
+			return;
+		}
+		switch (reader.types[c]) {
+			case Float:
+				reader.first[c] = readBits(reader, count, 4);
+				break;
+			case Double:
+				reader.first[c] = readBits(reader, count, 8);
+				break;
+			case Text:
+				{
+					final byte[][] entries = new byte[(int)readPacked(reader)][];
+					for(int j = 0; j<entries.length; j++) {
+						final int length = (int)readPacked(reader);
+						entries[j] = Arrays.copyOfRange(reader.chunk, reader.chunkPos, reader.chunkPos+length);
+						reader.chunkPos += length;
+					}
+					reader.dictionary[c] = entries;
+					reader.first[c] = readIntegers(reader, count);
+				}
+				break;
+			case Decimal:
+			case Rational:
+				reader.first[c] = readIntegers(reader, count);
+				reader.second[c] = readIntegers(reader, count);
+				break;
+			default:
+				reader.first[c] = readIntegers(reader, count);
+		}
+	}
+
+	private static long[] readIntegers(StructArchiveReader reader, int count) {
+		final byte encoding = reader.chunk[reader.chunkPos++];
+		long[] values;
+		if (StructArchive.RUN_LENGTH==encoding) {
+			final long[] runs = new long[(int)readPacked(reader)];
+			for(int j = 0; j<runs.length; j++) {
+				runs[j] = readPacked(reader);
+			}
+			values = RLESparseArray.rlDecodeSparseArray(runs);
+		} else {
+			values = new long[count];
+			for(int j = 0; j<count; j++) {
+				values[j] = readPacked(reader);
+			}
+		}
+		//values were written as deltas
+		long prev = 0;
+		for(int j = 0; j<count; j++) {
+			prev += values[j];
+			values[j] = prev;
+		}
+		return values;
+	}
+
+	private static long[] readBits(StructArchiveReader reader, int count, int width) {
+		final long[] values = new long[count];
+		final byte[] buf = reader.chunk;
+		int pos = reader.chunkPos;
+		for(int j = 0; j<count; j++) {
+			long v = 0;
+			for(int b = 0; b<width; b++) {
+				v = (v<<8) | (0xFF & buf[pos++]);
+			}
+			values[j] = v;
+		}
+		reader.chunkPos = pos;
+		return values;
+	}
+
+	//big endian to match RandomAccessFile.writeInt
+	private static int readInt(byte[] buf, int pos) {
+		return (buf[pos]<<24) | ((0xFF&buf[pos+1])<<16) | ((0xFF&buf[pos+2])<<8) | (0xFF&buf[pos+3]);
+	}
+
+	//same stop bit encoding as DataInputBlobReader.readPackedLong
+	private static long readPacked(StructArchiveReader reader) {
+		final byte[] buf = reader.chunk;
+		byte v = buf[reader.chunkPos++];
+		long a = (v << 25) >> 25;
+		while (v >= 0) {
+			v = buf[reader.chunkPos++];
+			a = (a << 7) | (v & 0x7F);
+		}
+		return a;
+	}
+
+	/**
+	 * @param reader StructArchiveReader source
+	 * @return long bytes of the file read so far, skipped columns are not counted
+	 */
+	public static long bytesRead(StructArchiveReader reader) {
+		return reader.bytesRead;
+	}
+
+	/**
+	 * @param reader StructArchiveReader source
+	 * @return long count of records published since creation
+	 */
+	public static long totalRecords(StructArchiveReader reader) {
+		return reader.totalRecords;
+	}
+
+	public static void close(StructArchiveReader reader) {
+		try {
+			reader.file.close();
+		} catch (IOException e) {
+			throw new PipeException("Unable to close struct archive "+e.getMessage());
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.ociweb.pronghorn.struct;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import com.ociweb.json.decode.JSONExtractor;
@@ -166,6 +167,26 @@ public class StructBuilder {
 				);		
 	}
 
+	/**
+	 * Register this struct with a dense fixed layout, see StructFixedLayout.
+	 * Every field must have a fixed width so Text, Blob and fields with dimensions are rejected.
+	 * @return the struct id
+	 */
+	public int registerFixed() {
+		return registerFixed(null);
+	}
+	
+	public int registerFixed(Object associated) {
+		for(int i = 0; i<fieldCount; i++) {
+			if (0!=fieldDims[i] || StructType.Text==fieldTypes[i] || StructType.Blob==fieldTypes[i]) {
+				throw new UnsupportedOperationException("Fixed layout requires fixed width fields: "+new String(fieldNames[i], StandardCharsets.UTF_8));
+			}
+		}
+		int structId = null==associated ? register() : register(associated);
+		typeData.fixLayout(structId);
+		return structId;
+	}
+
 	public StructBuilder add(JSONExtractor jsonDecoder) {
 		jsonDecoder.addToStruct(typeData, this);
 		return this;
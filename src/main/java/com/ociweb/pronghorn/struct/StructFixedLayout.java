@@ -0,0 +1,346 @@
+package com.ociweb.pronghorn.struct;
+
+import java.nio.charset.StandardCharsets;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * Dense encoding for structs whose fields all have a fixed width, chosen with StructBuilder.registerFixed().
+ *
+ * Each record starts with a bitmap holding one bit per field, set when the field has a value, followed by the
+ * fields in the order they were defined. Values are little endian at offsets computed when the struct is
+ * registered, so a read is one load at a known position with no trailing index and no packed decode.
+ * The record length is always size(), it carries no struct id so the reader must already know the struct.
+ *
+ * Decimal is held as an 8 byte mantissa and a 1 byte exponent, Rational as an 8 byte numerator and denominator.
+ * Text, Blob and fields with dimensions have no fixed width and are not supported.
+ */
+public class StructFixedLayout {
+
+    private final int structId;
+    private final StructType[] types;
+    private final int[] offsets;
+    private final int bitmapBytes;
+    private final int size;
+
+    StructFixedLayout(StructRegistry registry, int structId) {
+        final int count = registry.totalSizeOfIndexes(structId);
+        this.structId = structId;
+        this.types = new StructType[count];
+        this.offsets = new int[count];
+        this.bitmapBytes = (count+7)>>3;
+
+        int offset = bitmapBytes;
+        for(int i = 0; i<count; i++) {
+            final long fieldId = (((long)structId)<<StructRegistry.STRUCT_OFFSET) | (long)i;
+            if (0!=registry.dims(fieldId)) {
+                throw new UnsupportedOperationException("Fields with dimensions have no fixed width: "+new String(registry.fieldName(fieldId), StandardCharsets.UTF_8));
+            }
+            types[i] = registry.fieldType(fieldId);
+            offsets[i] = offset;
+            offset += width(types[i], registry, fieldId);
+        }
+        this.size = offset;
+    }
+
+    private static int width(StructType type, StructRegistry registry, long fieldId) {
+        switch (type) {
+            case Boolean:
+            case Byte:
+                return 1;
+            case Short:
+                return 2;
+            case Integer:
+            case Float:
+                return 4;
+            case Long:
+            case Double:
+                return 8;
+            case Decimal:
+                return 9;
+            case Rational:
+                return 16;
+            default:
+                throw new UnsupportedOperationException("Fields of type "+type+" have no fixed width: "+new String(registry.fieldName(fieldId), StandardCharsets.UTF_8));
+        }
+    }
+
+    public int structId() {
+        return structId;
+    }
+
+    /**
+     * @return bytes in every record of this struct
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return position of the field from the start of the record
+     */
+    public int offset(long fieldId) {
+        assert((int)(fieldId>>>StructRegistry.STRUCT_OFFSET)==structId) : "field is not from this struct";
+        return offsets[StructRegistry.extractFieldPosition(fieldId)];
+    }
+
+    ////////////////////
+    //writing
+    ////////////////////
+
+    /**
+     * Reserve the whole record in the open field with every field absent, call before writing any field.
+     * The record is complete once the field is closed.
+     */
+    public void begin(DataOutputBlobWriter<?> writer) {
+        int i = size;
+        while (--i>=0) {
+            writer.writeByte(0);
+        }
+    }
+
+    public void writeBoolean(DataOutputBlobWriter<?> writer, long fieldId, boolean value) {
+        assert(type(fieldId)==StructType.Boolean);
+        final int pos = present(writer, fieldId);
+        Pipe.blob(writer.getPipe())[Pipe.blobMask(writer.getPipe()) & pos] = (byte)(value ? 1 : 0);
+    }
+
+    public void writeByte(DataOutputBlobWriter<?> writer, long fieldId, byte value) {
+        assert(type(fieldId)==StructType.Byte);
+        final int pos = present(writer, fieldId);
+        Pipe.blob(writer.getPipe())[Pipe.blobMask(writer.getPipe()) & pos] = value;
+    }
+
+    public void writeShort(DataOutputBlobWriter<?> writer, long fieldId, short value) {
+        assert(type(fieldId)==StructType.Short);
+        write16(Pipe.blob(writer.getPipe()), Pipe.blobMask(writer.getPipe()), present(writer, fieldId), value);
+    }
+
+    public void writeInt(DataOutputBlobWriter<?> writer, long fieldId, int value) {
+        assert(type(fieldId)==StructType.Integer);
+        write32(Pipe.blob(writer.getPipe()), Pipe.blobMask(writer.getPipe()), present(writer, fieldId), value);
+    }
+
+    public void writeLong(DataOutputBlobWriter<?> writer, long fieldId, long value) {
+        assert(type(fieldId)==StructType.Long);
+        write64(Pipe.blob(writer.getPipe()), Pipe.blobMask(writer.getPipe()), present(writer, fieldId), value);
+    }
+
+    public void writeFloat(DataOutputBlobWriter<?> writer, long fieldId, float value) {
+        assert(type(fieldId)==StructType.Float);
+        write32(Pipe.blob(writer.getPipe()), Pipe.blobMask(writer.getPipe()), present(writer, fieldId), Float.floatToIntBits(value));
+    }
+
+    public void writeDouble(DataOutputBlobWriter<?> writer, long fieldId, double value) {
+        assert(type(fieldId)==StructType.Double);
+        write64(Pipe.blob(writer.getPipe()), Pipe.blobMask(writer.getPipe()), present(writer, fieldId), Double.doubleToLongBits(value));
+    }
+
+    public void writeDecimal(DataOutputBlobWriter<?> writer, long fieldId, long m, byte e) {
+        assert(type(fieldId)==StructType.Decimal);
+        final byte[] blob = Pipe.blob(writer.getPipe());
+        final int mask = Pipe.blobMask(writer.getPipe());
+        final int pos = present(writer, fieldId);
+        write64(blob, mask, pos, m);
+        blob[mask & (pos+8)] = e;
+    }
+
+    public void writeRational(DataOutputBlobWriter<?> writer, long fieldId, long numerator, long denominator) {
+        assert(type(fieldId)==StructType.Rational);
+        final byte[] blob = Pipe.blob(writer.getPipe());
+        final int mask = Pipe.blobMask(writer.getPipe());
+        final int pos = present(writer, fieldId);
+        write64(blob, mask, pos, numerator);
+        write64(blob, mask, pos+8, denominator);
+    }
+
+    /**
+     * Mark the field absent again after it was written, its value is zeroed so it reads back as 0.
+     */
+    public void writeNull(DataOutputBlobWriter<?> writer, long fieldId) {
+        final int idx = StructRegistry.extractFieldPosition(fieldId);
+        final byte[] blob = Pipe.blob(writer.getPipe());
+        final int mask = Pipe.blobMask(writer.getPipe());
+        final int start = recordStart(writer);
+        blob[mask & (start+(idx>>3))] &= ~(1<<(idx&0x7));
+        final int end = start+(idx+1<offsets.length ? offsets[idx+1] : size);
+        for(int p = start+offsets[idx]; p<end; p++) {
+            blob[mask & p] = 0;
+        }
+    }
+
+    /**
+     * Set the bit of the field and return the absolute position of its value.
+     */
+    private int present(DataOutputBlobWriter<?> writer, long fieldId) {
+        assert((int)(fieldId>>>StructRegistry.STRUCT_OFFSET)==structId) : "field is not from this struct";
+        assert(writer.position()>=size) : "call begin before writing fields";
+        final int idx = StructRegistry.extractFieldPosition(fieldId);
+        final int start = recordStart(writer);
+        final byte[] blob = Pipe.blob(writer.getPipe());
+        blob[Pipe.blobMask(writer.getPipe()) & (start+(idx>>3))] |= (1<<(idx&0x7));
+        return start+offsets[idx];
+    }
+
+    private int recordStart(DataOutputBlobWriter<?> writer) {
+        return writer.absolutePosition()-writer.position();
+    }
+
+    ////////////////////
+    //reading
+    ////////////////////
+
+    /**
+     * @return true if the open field is the length of a record of this struct
+     */
+    public boolean isRecord(DataInputBlobReader<?> reader) {
+        return size==reader.length();
+    }
+
+    public boolean hasValue(DataInputBlobReader<?> reader, long fieldId) {
+        assert((int)(fieldId>>>StructRegistry.STRUCT_OFFSET)==structId) : "field is not from this struct";
+        final int idx = StructRegistry.extractFieldPosition(fieldId);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return 0 != (Pipe.blob(pipe)[Pipe.blobMask(pipe) & (recordStart(reader)+(idx>>3))] & (1<<(idx&0x7)));
+    }
+
+    /**
+     * @return false when absent
+     */
+    public boolean readBoolean(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Boolean);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return 0 != Pipe.blob(pipe)[Pipe.blobMask(pipe) & position(reader, fieldId)];
+    }
+
+    /**
+     * @return 0 when absent
+     */
+    public byte readByte(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Byte);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return Pipe.blob(pipe)[Pipe.blobMask(pipe) & position(reader, fieldId)];
+    }
+
+    /**
+     * @return 0 when absent
+     */
+    public short readShort(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Short);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return (short)read16(Pipe.blob(pipe), Pipe.blobMask(pipe), position(reader, fieldId));
+    }
+
+    /**
+     * @return 0 when absent
+     */
+    public int readInt(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Integer);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return read32(Pipe.blob(pipe), Pipe.blobMask(pipe), position(reader, fieldId));
+    }
+
+    /**
+     * @return 0 when absent
+     */
+    public long readLong(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Long);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return read64(Pipe.blob(pipe), Pipe.blobMask(pipe), position(reader, fieldId));
+    }
+
+    /**
+     * @return 0 when absent
+     */
+    public float readFloat(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Float);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return Float.intBitsToFloat(read32(Pipe.blob(pipe), Pipe.blobMask(pipe), position(reader, fieldId)));
+    }
+
+    /**
+     * @return 0 when absent
+     */
+    public double readDouble(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Double);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return Double.longBitsToDouble(read64(Pipe.blob(pipe), Pipe.blobMask(pipe), position(reader, fieldId)));
+    }
+
+    public long readDecimalMantissa(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Decimal);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return read64(Pipe.blob(pipe), Pipe.blobMask(pipe), position(reader, fieldId));
+    }
+
+    public byte readDecimalExponent(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Decimal);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return Pipe.blob(pipe)[Pipe.blobMask(pipe) & (position(reader, fieldId)+8)];
+    }
+
+    public long readRationalNumerator(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Rational);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return read64(Pipe.blob(pipe), Pipe.blobMask(pipe), position(reader, fieldId));
+    }
+
+    public long readRationalDenominator(DataInputBlobReader<?> reader, long fieldId) {
+        assert(type(fieldId)==StructType.Rational);
+        final Pipe<?> pipe = DataInputBlobReader.getBackingPipe(reader);
+        return read64(Pipe.blob(pipe), Pipe.blobMask(pipe), position(reader, fieldId)+8);
+    }
+
+    private int position(DataInputBlobReader<?> reader, long fieldId) {
+        assert((int)(fieldId>>>StructRegistry.STRUCT_OFFSET)==structId) : "field is not from this struct";
+        assert(isRecord(reader)) : "field is not a record of this struct";
+        return recordStart(reader)+offsets[StructRegistry.extractFieldPosition(fieldId)];
+    }
+
+    private static int recordStart(DataInputBlobReader<?> reader) {
+        return reader.absolutePosition()-reader.position();
+    }
+
+    private StructType type(long fieldId) {
+        return types[StructRegistry.extractFieldPosition(fieldId)];
+    }
+
+    ////////////////////
+    //little endian
+    ////////////////////
+
+    private static void write16(byte[] buf, int mask, int pos, int v) {
+        buf[mask & pos]     = (byte) v;
+        buf[mask & (pos+1)] = (byte)(v >>> 8);
+    }
+
+    private static void write32(byte[] buf, int mask, int pos, int v) {
+        buf[mask & pos]     = (byte) v;
+        buf[mask & (pos+1)] = (byte)(v >>> 8);
+        buf[mask & (pos+2)] = (byte)(v >>> 16);
+        buf[mask & (pos+3)] = (byte)(v >>> 24);
+    }
+
+    private static void write64(byte[] buf, int mask, int pos, long v) {
+        write32(buf, mask, pos, (int)v);
+        write32(buf, mask, pos+4, (int)(v >>> 32));
+    }
+
+    private static int read16(byte[] buf, int mask, int pos) {
+        return (0xFF & buf[mask & pos]) | (buf[mask & (pos+1)] << 8);
+    }
+
+    private static int read32(byte[] buf, int mask, int pos) {
+        return (0xFF & buf[mask & pos])
+             | ((0xFF & buf[mask & (pos+1)]) << 8)
+             | ((0xFF & buf[mask & (pos+2)]) << 16)
+             | (buf[mask & (pos+3)] << 24);
+    }
+
+    private static long read64(byte[] buf, int mask, int pos) {
+        return (0xFFFFFFFFL & read32(buf, mask, pos)) | (((long)read32(buf, mask, pos+4)) << 32);
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.ociweb.pronghorn.struct;
+
+import java.nio.charset.StandardCharsets;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+
+/**
+ * Precompiled copy of selected fields from one struct into another, for stages which forward part of an
+ * incoming record without looking at the values.
+ *
+ * The plan is built once from field ids. At run time each mapped field is found through the source index,
+ * its encoded bytes are copied as they are and the target index is rebuilt in the same pass. Only the
+ * extent of each field is measured, packed values are not decoded and encoded again.
+ *
+ * Coercions which do not change the encoding are copied raw, Short to Integer to Long since all are packed
+ * the same way. Packed integers and decimals may also be mapped to a Double, these are decoded and written.
+ * Fields with dimensions and blobs have no known extent and can not be mapped.
+ */
+public class StructProjection {
+
+    private static final byte COPY_PACKED     = 0;
+    private static final byte COPY_FIXED      = 1;
+    private static final byte COPY_TEXT       = 2;
+    private static final byte COPY_DECIMAL    = 3;
+    private static final byte COPY_RATIONAL   = 4;
+    private static final byte PACKED_TO_DOUBLE  = 5;
+    private static final byte DECIMAL_TO_DOUBLE = 6;
+
+    private final StructRegistry registry;
+    private final int sourceStructId;
+    private final int targetStructId;
+    private final int targetFieldCount;
+
+    private int count;
+    private int[] sourceIdx = new int[8];
+    private int[] targetIdx = new int[8];
+    private byte[] ops = new byte[8];
+    private byte[] fixedSize = new byte[8];
+
+    /**
+     * @param registry StructRegistry holding both structs
+     * @param sourceStructId int id of the struct read
+     * @param targetStructId int id of the struct written
+     */
+    public StructProjection(StructRegistry registry, int sourceStructId, int targetStructId) {
+        assert((StructRegistry.IS_STRUCT_BIT&sourceStructId)!=0) : "must be valid struct";
+        assert((StructRegistry.IS_STRUCT_BIT&targetStructId)!=0) : "must be valid struct";
+        this.registry = registry;
+        this.sourceStructId = sourceStructId;
+        this.targetStructId = targetStructId;
+        this.targetFieldCount = registry.totalSizeOfIndexes(targetStructId);
+    }
+
+    /**
+     * Map every source field to the target field of the same name, fields found in only one struct are skipped.
+     */
+    public StructProjection mapByName() {
+        final int sourceCount = registry.totalSizeOfIndexes(sourceStructId);
+        for(int i = 0; i<sourceCount; i++) {
+            final long sourceFieldId = fieldId(sourceStructId, i);
+            final long targetFieldId = registry.fieldLookup(new String(registry.fieldName(sourceFieldId), StandardCharsets.UTF_8), targetStructId);
+            if (-1 != targetFieldId) {
+                map(sourceFieldId, targetFieldId);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Copy the value of one source field into one target field.
+     * @param sourceFieldId long field of the source struct
+     * @param targetFieldId long field of the target struct
+     */
+    public StructProjection map(long sourceFieldId, long targetFieldId) {
+        assert((int)(sourceFieldId>>>StructRegistry.STRUCT_OFFSET)==sourceStructId) : "field is not from the source struct";
+        assert((int)(targetFieldId>>>StructRegistry.STRUCT_OFFSET)==targetStructId) : "field is not from the target struct";
+        if (0!=registry.dims(sourceFieldId) || 0!=registry.dims(targetFieldId)) {
+            throw new UnsupportedOperationException("Fields with dimensions can not be projected: "+name(sourceFieldId));
+        }
+        final StructType from = registry.fieldType(sourceFieldId);
+        final StructType to = registry.fieldType(targetFieldId);
+
+        byte op;
+        int size = 0;
+        if (isPacked(from) && isPacked(to) && width(from)<=width(to)) {
+            op = COPY_PACKED;
+        } else if (StructType.Double==to && isPacked(from)) {
+            op = PACKED_TO_DOUBLE;
+        } else if (StructType.Double==to && StructType.Decimal==from) {
+            op = DECIMAL_TO_DOUBLE;
+        } else if (from!=to) {
+            throw new UnsupportedOperationException("Unable to project "+from+" "+name(sourceFieldId)+" into "+to+" "+name(targetFieldId));
+        } else {
+            switch (from) {
+                case Boolean:
+                case Byte:
+                    op = COPY_FIXED;
+                    size = 1;
+                    break;
+                case Float:
+                    op = COPY_FIXED;
+                    size = 4;
+                    break;
+                case Double:
+                    op = COPY_FIXED;
+                    size = 8;
+                    break;
+                case Text:
+                    op = COPY_TEXT;
+                    break;
+                case Decimal:
+                    op = COPY_DECIMAL;
+                    break;
+                case Rational:
+                    op = COPY_RATIONAL;
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Fields of type "+from+" have no known length and can not be projected: "+name(sourceFieldId));
+            }
+        }
+
+        if (count==ops.length) {
+            sourceIdx = grow(sourceIdx);
+            targetIdx = grow(targetIdx);
+            ops = grow(ops);
+            fixedSize = grow(fixedSize);
+        }
+        sourceIdx[count] = StructRegistry.extractFieldPosition(sourceFieldId);
+        targetIdx[count] = StructRegistry.extractFieldPosition(targetFieldId);
+        ops[count] = op;
+        fixedSize[count] = (byte)size;
+        count++;
+        return this;
+    }
+
+    /**
+     * @return count of mapped fields
+     */
+    public int fields() {
+        return count;
+    }
+
+    /**
+     * Write the mapped fields of the open source record into the open target field. Target fields which are not
+     * mapped, or whose source is absent, are left absent. The target field is not closed.
+     * @param source DataInputBlobReader opened on a record of the source struct
+     * @param target DataOutputBlobWriter opened for the record of the target struct
+     * @return count of fields copied
+     */
+    public int project(DataInputBlobReader<?> source, DataOutputBlobWriter<?> target) {
+        assert(sourceStructId==DataInputBlobReader.getStructType(source)) : "record is not of the source struct";
+
+        DataOutputBlobWriter.commitBackData(target, targetStructId);
+        int t = targetFieldCount;
+        while (--t>=0) {
+            DataOutputBlobWriter.setIntBackData(target, -1, t);
+        }
+
+        int copied = 0;
+        for(int i = 0; i<count; i++) {
+            final int start = DataInputBlobReader.readFromLastInt(source, sourceIdx[i]);
+            if (start<0) {
+                continue;
+            }
+            DataInputBlobReader.position(source, start);
+            DataOutputBlobWriter.setIntBackData(target, target.position(), targetIdx[i]);
+
+            switch (ops[i]) {
+                case COPY_PACKED:
+                    source.readPackedLong();
+                    break;
+                case COPY_FIXED:
+                    source.skipBytes(fixedSize[i]);
+                    break;
+                case COPY_TEXT:
+                    source.skipBytes(Math.max(0, source.readShort()));
+                    break;
+                case COPY_DECIMAL:
+                    source.readPackedLong();
+                    source.skipBytes(1);
+                    break;
+                case COPY_RATIONAL:
+                    source.readPackedLong();
+                    source.readPackedLong();
+                    break;
+                case PACKED_TO_DOUBLE:
+                    {
+                        final long value = source.readPackedLong();
+                        target.writeDouble((0==value && source.wasPackedNull()) ? Double.NaN : value);
+                    }
+                    copied++;
+                    continue;
+                case DECIMAL_TO_DOUBLE:
+                    target.writeDouble(source.readDecimalAsDouble());
+                    copied++;
+                    continue;
+            }
+            //raw copy of the measured extent
+            final int length = source.position()-start;
+            DataInputBlobReader.position(source, start);
+            source.readInto(target, length);
+            copied++;
+        }
+        return copied;
+    }
+
+    private static boolean isPacked(StructType type) {
+        return StructType.Short==type || StructType.Integer==type || StructType.Long==type;
+    }
+
+    private static int width(StructType type) {
+        return StructType.Short==type ? 2 : (StructType.Integer==type ? 4 : 8);
+    }
+
+    private static long fieldId(int structId, int idx) {
+        return (((long)structId)<<StructRegistry.STRUCT_OFFSET) | (long)idx;
+    }
+
+    private String name(long fieldId) {
+        return new String(registry.fieldName(fieldId), StandardCharsets.UTF_8);
+    }
+
+    private static int[] grow(int[] source) {
+        int[] result = new int[source.length*2];
+        System.arraycopy(source, 0, result, 0, source.length);
+        return result;
+    }
+
+    private static byte[] grow(byte[] source) {
+        byte[] result = new byte[source.length*2];
+        System.arraycopy(source, 0, result, 0, source.length);
+        return result;
+    }
+
+}
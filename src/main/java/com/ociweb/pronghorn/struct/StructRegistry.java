@@ -29,6 +29,8 @@ public class StructRegistry { //prong struct store
 	private int[][]          fieldDims          = new int[4][];
 	private Object[][]       fieldLocals        = new Object[4][];
 	private IntHashTable[]   fieldAttachedIndex = new IntHashTable[4];
+	//only for structs registered with a fixed layout, null for all others
+	private StructFixedLayout[] fixedLayouts    = new StructFixedLayout[4];
 	
 	private IntHashTable structTable = new IntHashTable(3);
 	
@@ -74,10 +76,16 @@ public class StructRegistry { //prong struct store
 		
 		for(int i=0; i<structCount; i++) {			
 			maxDims(fieldDims[i]);
-			result.addStruct(fieldNames[i], fieldTypes[i], fieldDims[i]);			
+			int id = result.addStruct(fieldNames[i], fieldTypes[i], fieldDims[i]);
+			if (null!=fixedLayouts[i]) {
+				result.fixLayout(id);
+			}
 		}
 		for(int i=0; i<source.structCount; i++) {			
-			result.addStruct(source.fieldNames[i], source.fieldTypes[i], source.fieldDims[i]);			
+			int id = result.addStruct(source.fieldNames[i], source.fieldTypes[i], source.fieldDims[i]);
+			if (null!=source.fixedLayouts[i]) {
+				result.fixLayout(id);
+			}
 		}	
 		
 		return result;
@@ -527,9 +535,16 @@ public class StructRegistry { //prong struct store
 			fieldDims          = grow(newSize, fieldDims);
 			fieldLocals        = grow(newSize, fieldLocals);
 			fieldAttachedIndex = grow(newSize, fieldAttachedIndex);	
+			fixedLayouts       = grow(newSize, fixedLayouts);
 		}
 	}
 
+	private static StructFixedLayout[] grow(int newSize, StructFixedLayout[] source) {
+		StructFixedLayout[] result = new StructFixedLayout[newSize];
+		System.arraycopy(source, 0, result, 0, source.length);
+		return result;
+	}
+
 
 	private IntHashTable[] grow(int newSize, IntHashTable[] source) {
 		IntHashTable[] result = new IntHashTable[newSize];
@@ -568,6 +583,31 @@ public class StructRegistry { //prong struct store
 		return result;
 	}
 	
+	/**
+	 * Compute the fixed layout of a registered struct, its records are then written with StructFixedLayout.
+	 * @param structId int struct to fix
+	 * @return StructFixedLayout of offsets for this struct
+	 */
+	StructFixedLayout fixLayout(int structId) {
+		assert((IS_STRUCT_BIT&structId)!=0) : "must be valid struct";
+		StructFixedLayout layout = new StructFixedLayout(this, structId);
+		fixedLayouts[STRUCT_MASK & structId] = layout;
+		return layout;
+	}
+	
+	/**
+	 * @param structId int struct id
+	 * @return StructFixedLayout or null if this struct was not registered with a fixed layout
+	 */
+	public StructFixedLayout fixedLayout(int structId) {
+		assert((IS_STRUCT_BIT&structId)!=0) : "must be valid struct";
+		return fixedLayouts[STRUCT_MASK & structId];
+	}
+	
+	public boolean isFixedLayout(int structId) {
+		return null!=fixedLayout(structId);
+	}
+	
 	public int maxDim() {
 		return maxDims;
 	}
@@ -214,6 +214,112 @@ public class DataInputOutputTest {
     
     
     
+    @Test
+    public void testPackedLongsBulk() {
+        int testSize = testSpace/10;
+        Random r = new Random(101);
+        long[] values = new long[testSize];
+        for(int i = 0; i<testSize; i++) {
+            values[i] = testLongValueGenerator(r,i);
+        }
+
+        Pipe<RawDataSchema> testPipe = new Pipe<RawDataSchema>(config);
+        testPipe.initBuffers();
+        DataOutputBlobWriter<RawDataSchema> out = new DataOutputBlobWriter<>(testPipe);
+        DataInputBlobReader<RawDataSchema> in = new DataInputBlobReader<>(testPipe);
+
+        assertTrue(PipeWriter.tryWriteFragment(testPipe, 0));
+        out.openField();
+        //one at a time then in bulk, both must decode the same either way
+        for(int i = 0; i<testSize; i++) {
+            out.writePackedLong(values[i]);
+        }
+        out.writePackedLongs(values, 0, testSize);
+        out.closeHighLevelField(RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2);
+        PipeWriter.publishWrites(testPipe);
+
+        assertTrue(PipeReader.tryReadFragment(testPipe));
+        in.openHighLevelAPIField(RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2);
+
+        long[] actual = new long[testSize+1];
+        in.readPackedLongs(actual, 1, testSize);
+        assertArrayEquals(values, Arrays.copyOfRange(actual, 1, testSize+1));
+        for(int i = 0; i<testSize; i++) {
+            assertEquals("at pos "+i, values[i], in.readPackedLong());
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void testPackedIntsBulk() {
+        int testSize = testSpace/5;
+        Random r = new Random(101);
+        int[] values = new int[testSize];
+        for(int i = 0; i<testSize; i++) {
+            values[i] = testIntValueGenerator(r,i);
+        }
+
+        Pipe<RawDataSchema> testPipe = new Pipe<RawDataSchema>(config);
+        testPipe.initBuffers();
+        DataOutputBlobWriter<RawDataSchema> out = new DataOutputBlobWriter<>(testPipe);
+        DataInputBlobReader<RawDataSchema> in = new DataInputBlobReader<>(testPipe);
+
+        assertTrue(PipeWriter.tryWriteFragment(testPipe, 0));
+        out.openField();
+        out.writePackedInts(values, 0, testSize);
+        for(int i = 0; i<testSize; i++) {
+            out.writePackedInt(values[i]);
+        }
+        out.closeHighLevelField(RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2);
+        PipeWriter.publishWrites(testPipe);
+
+        assertTrue(PipeReader.tryReadFragment(testPipe));
+        in.openHighLevelAPIField(RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2);
+
+        for(int i = 0; i<testSize; i++) {
+            assertEquals("at pos "+i, values[i], in.readPackedInt());
+        }
+        int[] actual = new int[testSize];
+        in.readPackedInts(actual, 0, testSize);
+        assertArrayEquals(values, actual);
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void testPackedLongsDeltaOfDelta() {
+        int testSize = 10000;
+        Random r = new Random(101);
+        long[] values = new long[testSize];
+        long time = 1500000000000L;
+        for(int i = 0; i<testSize; i++) {
+            time += 1000 + r.nextInt(3) - 1; //near constant rate with jitter
+            values[i] = time;
+        }
+        //extremes must survive the wrap around of the deltas
+        values[testSize-2] = Long.MIN_VALUE;
+        values[testSize-1] = Long.MAX_VALUE;
+
+        Pipe<RawDataSchema> testPipe = new Pipe<RawDataSchema>(config);
+        testPipe.initBuffers();
+        DataOutputBlobWriter<RawDataSchema> out = new DataOutputBlobWriter<>(testPipe);
+        DataInputBlobReader<RawDataSchema> in = new DataInputBlobReader<>(testPipe);
+
+        assertTrue(PipeWriter.tryWriteFragment(testPipe, 0));
+        out.openField();
+        out.writePackedLongsDeltaOfDelta(values, 0, testSize);
+        int length = out.closeHighLevelField(RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2);
+        //all but the first few and the extremes take one byte
+        assertTrue(Integer.toString(length), length < testSize+64);
+        PipeWriter.publishWrites(testPipe);
+
+        assertTrue(PipeReader.tryReadFragment(testPipe));
+        in.openHighLevelAPIField(RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2);
+
+        long[] actual = new long[testSize];
+        in.readPackedLongsDeltaOfDelta(actual, 0, testSize);
+        assertArrayEquals(values, actual);
+    }
+
     @Test
     public void testPackedChars() {
         int testSize = testSpace/50;
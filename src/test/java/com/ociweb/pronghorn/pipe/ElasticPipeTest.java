@@ -0,0 +1,113 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ElasticPipeTest {
+
+	@Test
+	public void growThenShrinkTest() {
+		PipeConfig<TestDataSchema> config = TestDataSchema.instance.newPipeConfig(4, 20);
+		ElasticPipe<TestDataSchema> elastic = new ElasticPipe<TestDataSchema>(config, config.slabBits()+3, 75, 2, 10, 50);
+		final int minSize = ElasticPipe.slabSize(elastic);
+
+		//nothing is read so the producer sees backpressure and keeps growing up to the max
+		int written = 0;
+		while (true) {
+			Pipe<TestDataSchema> out = ElasticPipe.writePipe(elastic);
+			if (Pipe.hasRoomForWrite(out)) {
+				writeMessage(out, written++);
+			} else if (ElasticPipe.slabSize(elastic)==(minSize<<3)) {
+				break;
+			}
+			ElasticPipe.safePoint(elastic);
+		}
+		assertEquals(minSize<<3, ElasticPipe.slabSize(elastic));
+		assertEquals(3, ElasticPipe.resizeCount(elastic));
+
+		//everything written before the resizes is still read in order
+		int read = 0;
+		Pipe<TestDataSchema> in;
+		while (Pipe.hasContentToRead(in = ElasticPipe.readPipe(elastic))) {
+			read = readMessage(in, read);
+		}
+		assertEquals(written, read);
+
+		//idle producer shrinks back to the first size
+		for(int i = 0; i<150; i++) {
+			ElasticPipe.safePoint(elastic);
+		}
+		assertEquals(minSize, ElasticPipe.slabSize(elastic));
+		assertEquals(6, ElasticPipe.resizeCount(elastic));
+
+		writeMessage(ElasticPipe.writePipe(elastic), written++);
+		while (Pipe.hasContentToRead(in = ElasticPipe.readPipe(elastic))) {
+			read = readMessage(in, read);
+		}
+		assertEquals(written, read);
+		assertSame(ElasticPipe.writePipe(elastic), ElasticPipe.readPipe(elastic));
+	}
+
+	@Test
+	public void threadedElasticTest() throws InterruptedException {
+		final int messages = 100000;
+		PipeConfig<TestDataSchema> config = TestDataSchema.instance.newPipeConfig(4, 20);
+		final ElasticPipe<TestDataSchema> elastic = new ElasticPipe<TestDataSchema>(config, config.slabBits()+4, 80, 2, 20, 50);
+
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				int i = 0;
+				while (i<messages) {
+					Pipe<TestDataSchema> out = ElasticPipe.writePipe(elastic);
+					if (Pipe.hasRoomForWrite(out)) {
+						writeMessage(out, i++);
+					} else {
+						Thread.yield();
+					}
+					ElasticPipe.safePoint(elastic);
+				}
+			}
+		});
+		producer.start();
+
+		int read = 0;
+		while (read<messages) {
+			Pipe<TestDataSchema> in = ElasticPipe.readPipe(elastic);
+			if (Pipe.hasContentToRead(in)) {
+				read = readMessage(in, read);
+				if (read<20000 && 0==(read&0xFF)) {
+					Thread.sleep(1);//slow start builds backpressure
+				}
+			} else {
+				Thread.yield();
+			}
+		}
+		producer.join();
+		assertTrue(ElasticPipe.resizeCount(elastic)>0);
+	}
+
+	private static void writeMessage(Pipe<TestDataSchema> out, int value) {
+		int size = Pipe.addMsgIdx(out, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20);
+		Pipe.addIntValue(value, out);
+		Pipe.addASCII(Integer.toString(value), out);
+		Pipe.confirmLowLevelWrite(out, size);
+		Pipe.publishWrites(out);
+	}
+
+	private static int readMessage(Pipe<TestDataSchema> in, int expected) {
+		int msgIdx = Pipe.takeMsgIdx(in);
+		assertEquals(TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, msgIdx);
+		assertEquals(expected, Pipe.takeInt(in));
+		int meta = Pipe.takeByteArrayMetaData(in);
+		int len = Pipe.takeByteArrayLength(in);
+		StringBuilder text = new StringBuilder();
+		Pipe.readASCII(in, text, meta, len);
+		assertEquals(Integer.toString(expected), text.toString());
+		Pipe.confirmLowLevelRead(in, Pipe.sizeOf(in, msgIdx));
+		Pipe.releaseReadLock(in);
+		return expected+1;
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.stream.StreamingConsumerTest;
+import com.ociweb.pronghorn.pipe.token.OperatorMask;
+import com.ociweb.pronghorn.pipe.token.TokenBuilder;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+
+public class FieldReferenceIndexTest {
+
+    @Test
+    public void matchesLinearSearchTest() {
+        checkAgainstLinearSearch(StreamingConsumerTest.buildFROM());
+        checkAgainstLinearSearch(TestDataSchema.FROM);
+    }
+
+    @Test
+    public void caseAndMissingTest() {
+        FieldReferenceOffsetManager from = StreamingConsumerTest.buildFROM();
+        int boxes = FieldReferenceOffsetManager.lookupTemplateLocator("Boxes", from);
+        assertEquals(FieldReferenceOffsetManager.lookupFieldLocator("Count", boxes, from),
+                     FieldReferenceOffsetManager.lookupFieldLocator("cOUNT", boxes, from));
+        try {
+            FieldReferenceOffsetManager.lookupTemplateLocator("boxes", from); //template names are case sensitive
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+        try {
+            FieldReferenceOffsetManager.lookupFieldLocator("NotAField", boxes, from);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+    }
+
+    private static void checkAgainstLinearSearch(FieldReferenceOffsetManager from) {
+        FieldReferenceIndex index = new FieldReferenceIndex(from.tokens, from.fieldNameScript, from.fieldIdScript, from.messageStarts);
+        for(int start = 0; start<from.tokens.length; start++) {
+            for(int x = 0; x<from.fieldNameScript.length; x++) {
+                String name = from.fieldNameScript[x];
+                if (null!=name) {
+                    assertEquals(linearByName(from, name.toUpperCase(), start), FieldReferenceIndex.fieldPosition(index, name.toUpperCase(), start));
+                }
+                long id = from.fieldIdScript[x];
+                assertEquals(linearById(from, id, start), FieldReferenceIndex.fieldPosition(index, id, start));
+            }
+        }
+        for(int i = 0; i<from.messageStarts.length; i++) {
+            int expected = from.messageStarts[i];
+            //the last message with a name or id wins
+            for(int j = i+1; j<from.messageStarts.length; j++) {
+                if (from.fieldIdScript[from.messageStarts[j]]==from.fieldIdScript[expected]) {
+                    expected = from.messageStarts[j];
+                }
+            }
+            assertEquals(expected, FieldReferenceOffsetManager.lookupTemplateLocator(from.fieldIdScript[from.messageStarts[i]], from));
+            assertEquals(from.messageStarts[i], FieldReferenceOffsetManager.lookupTemplateLocator(from.fieldNameScript[from.messageStarts[i]], from));
+        }
+    }
+
+    private static int linearByName(FieldReferenceOffsetManager from, String name, int x) {
+        while (x < from.fieldNameScript.length) {
+            if (name.equalsIgnoreCase(from.fieldNameScript[x])) {
+                return x;
+            }
+            if (isTemplateClose(from.tokens[x])) {
+                break;
+            }
+            x++;
+        }
+        return -1;
+    }
+
+    private static int linearById(FieldReferenceOffsetManager from, long id, int x) {
+        while (x < from.fieldIdScript.length) {
+            if (id == from.fieldIdScript[x]) {
+                return x;
+            }
+            if (isTemplateClose(from.tokens[x])) {
+                break;
+            }
+            x++;
+        }
+        return -1;
+    }
+
+    private static boolean isTemplateClose(int token) {
+        return TypeMask.Group == TokenBuilder.extractType(token) &&
+               0 != (token & (OperatorMask.Group_Bit_Close << TokenBuilder.SHIFT_OPER)) &&
+               0 != (token & (OperatorMask.Group_Bit_Templ << TokenBuilder.SHIFT_OPER));
+    }
+
+}
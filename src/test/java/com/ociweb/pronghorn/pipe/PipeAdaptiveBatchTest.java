@@ -0,0 +1,145 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PipeAdaptiveBatchTest {
+
+	@Test
+	public void growWhileConsumerKeepsUpTest() {
+		Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(64, 20).adaptiveBatching(1_000_000));
+		pipe.initBuffers();
+		assertEquals(0, Pipe.getPublishBatchSize(pipe));
+
+		int written = 0;
+		int read = 0;
+		for(int round = 0; round<200; round++) {
+			writeInt(pipe, written++);
+			while (Pipe.hasContentToRead(pipe)) {
+				assertEquals(read++, readInt(pipe));
+			}
+		}
+		assertTrue(Pipe.getPublishBatchSize(pipe)>1);
+		assertTrue(Pipe.getReleaseBatchSize(pipe)>1);
+		assertTrue(Pipe.getPublishBatchSize(pipe)<=Pipe.computeMaxBatchSize(pipe, 3));
+
+		Pipe.publishAllBatchedWrites(pipe);
+		while (Pipe.hasContentToRead(pipe)) {
+			assertEquals(read++, readInt(pipe));
+		}
+		assertEquals(written, read);
+	}
+
+	@Test
+	public void shrinkAsPipeFillsTest() {
+		Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(64, 20).adaptiveBatching(1_000_000));
+		pipe.initBuffers();
+		Pipe.setPublishBatchSize(pipe, 8);
+
+		int written = 0;
+		while (Pipe.hasRoomForWrite(pipe)) {
+			writeInt(pipe, written++);
+		}
+		assertTrue(Pipe.getPublishBatchSize(pipe)<8);
+		//the full pipe published everything the producer had held back
+		assertEquals(Pipe.workingHeadPosition(pipe), Pipe.headPosition(pipe));
+	}
+
+	@Test
+	public void agedBatchIsFlushedTest() throws InterruptedException {
+		Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(64, 20).adaptiveBatching(100));
+		pipe.initBuffers();
+		Pipe.setPublishBatchSize(pipe, 8);
+
+		writeInt(pipe, 0);
+		assertFalse(Pipe.hasContentToRead(pipe));
+		assertFalse(PipeAdaptiveBatch.flushAgedWrites(pipe));
+		Thread.sleep(2);
+		writeInt(pipe, 1); //joins an old batch so both are published
+		assertEquals(Pipe.workingHeadPosition(pipe), Pipe.headPosition(pipe));
+
+		writeInt(pipe, 2);
+		Thread.sleep(2);
+		assertTrue(PipeAdaptiveBatch.flushAgedWrites(pipe));
+		assertFalse(PipeAdaptiveBatch.flushAgedWrites(pipe));
+
+		Pipe.setReleaseBatchSize(pipe, 8);
+		assertEquals(0, readInt(pipe));
+		assertEquals(0, Pipe.tailPosition(pipe));
+		Thread.sleep(2);
+		assertTrue(PipeAdaptiveBatch.flushAgedReleases(pipe));
+		assertEquals(Pipe.getWorkingTailPosition(pipe), Pipe.tailPosition(pipe));
+	}
+
+	@Test
+	public void emptyConsumerReleasesTest() {
+		Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(64, 20).adaptiveBatching(1_000_000));
+		pipe.initBuffers();
+		Pipe.setReleaseBatchSize(pipe, 8);
+
+		writeInt(pipe, 7);
+		assertEquals(7, readInt(pipe));
+		assertEquals(0, Pipe.tailPosition(pipe));
+		assertFalse(Pipe.hasContentToRead(pipe));
+		assertEquals(Pipe.getWorkingTailPosition(pipe), Pipe.tailPosition(pipe));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void offByDefaultTest() {
+		PipeAdaptiveBatch.flushAgedWrites(TestDataSchema.instance.newPipe(8, 20));
+	}
+
+	@Test
+	public void threadedHighLevelTest() throws InterruptedException {
+		final int messages = 200000;
+		final Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(256, 20).adaptiveBatching(50));
+		pipe.initBuffers();
+
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				int i = 0;
+				while (i<messages) {
+					if (PipeWriter.tryWriteFragment(pipe, TestDataSchema.MSG_INT_40)) {
+						PipeWriter.writeInt(pipe, TestDataSchema.MSG_INT_40_FIELD_INTVALUE_41, i++);
+						PipeWriter.publishWrites(pipe);
+					} else {
+						Thread.yield();
+					}
+				}
+				while (PipeAdaptiveBatch.flushAgedWrites(pipe) || Pipe.headPosition(pipe)!=Pipe.workingHeadPosition(pipe)) {
+					Thread.yield();
+				}
+			}
+		});
+		producer.start();
+
+		int expected = 0;
+		while (expected<messages) {
+			if (PipeReader.tryReadFragment(pipe)) {
+				assertEquals(expected++, PipeReader.readInt(pipe, TestDataSchema.MSG_INT_40_FIELD_INTVALUE_41));
+				PipeReader.releaseReadLock(pipe);
+			} else {
+				Thread.yield();
+			}
+		}
+		producer.join();
+	}
+
+	private static void writeInt(Pipe<TestDataSchema> pipe, int value) {
+		Pipe.addMsgIdx(pipe, TestDataSchema.MSG_INT_40);
+		Pipe.addIntValue(value, pipe);
+		Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, TestDataSchema.MSG_INT_40));
+		Pipe.publishWrites(pipe);
+	}
+
+	private static int readInt(Pipe<TestDataSchema> pipe) {
+		Pipe.takeMsgIdx(pipe);
+		int value = Pipe.takeInt(pipe);
+		Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, TestDataSchema.MSG_INT_40));
+		Pipe.releaseReadLock(pipe);
+		return value;
+	}
+
+}
@@ -0,0 +1,197 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+public class PipeBroadcastTest {
+
+	@Test
+	public void slowestReaderHoldsWriterTest() {
+		Pipe<TestDataSchema> source = TestDataSchema.instance.newPipe(4, 100);
+		source.initBuffers();
+		Pipe<TestDataSchema>[] readers = Pipe.buildBroadcastReaders(source, 2);
+		readers[0].initBuffers();
+		readers[1].initBuffers();
+		assertTrue(Pipe.isBroadcastReader(readers[0]));
+		assertFalse(Pipe.isBroadcastReader(source));
+
+		int written = 0;
+		while (Pipe.hasRoomForWrite(source)) {
+			int size = Pipe.addMsgIdx(source, TestDataSchema.MSG_INT_40);
+			Pipe.addIntValue(written++, source);
+			Pipe.confirmLowLevelWrite(source, size);
+			Pipe.publishWrites(source);
+		}
+		assertTrue(written>0);
+
+		//first reader takes everything, second reader still holds the ring
+		for(int i = 0; i<written; i++) {
+			assertTrue(Pipe.hasContentToRead(readers[0]));
+			assertEquals(TestDataSchema.MSG_INT_40, Pipe.takeMsgIdx(readers[0]));
+			assertEquals(i, Pipe.takeInt(readers[0]));
+			Pipe.confirmLowLevelRead(readers[0], Pipe.sizeOf(readers[0], TestDataSchema.MSG_INT_40));
+			Pipe.releaseReadLock(readers[0]);
+		}
+		assertFalse(Pipe.hasContentToRead(readers[0]));
+		assertFalse(Pipe.hasRoomForWrite(source));
+
+		//high level read on the second reader
+		assertTrue(PipeReader.tryReadFragment(readers[1]));
+		assertEquals(0, PipeReader.readInt(readers[1], TestDataSchema.MSG_INT_40_FIELD_INTVALUE_41));
+		PipeReader.releaseReadLock(readers[1]);
+
+		assertTrue(Pipe.hasRoomForWrite(source));
+	}
+
+	@Test
+	public void threadedBroadcastTest() throws InterruptedException {
+		final int messages = 50000;
+		final Pipe<TestDataSchema> source = TestDataSchema.instance.newPipe(32, 20);
+		source.initBuffers();
+		final Pipe<TestDataSchema>[] readers = Pipe.buildBroadcastReaders(source, 3);
+
+		final int[] results = new int[readers.length];
+		Thread[] threads = new Thread[readers.length];
+		int r = readers.length;
+		while (--r>=0) {
+			final int id = r;
+			readers[r].initBuffers();
+			threads[r] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Pipe<TestDataSchema> reader = readers[id];
+					StringBuilder text = new StringBuilder();
+					int expected = 0;
+					while (expected<messages) {
+						if (Pipe.hasContentToRead(reader)) {
+							int msgIdx = Pipe.takeMsgIdx(reader);
+							int value = Pipe.takeInt(reader);
+							int meta = Pipe.takeByteArrayMetaData(reader);
+							int len = Pipe.takeByteArrayLength(reader);
+							text.setLength(0);
+							Pipe.readASCII(reader, text, meta, len);
+							if (value!=expected || !Integer.toString(expected).contentEquals(text)) {
+								break;
+							}
+							Pipe.confirmLowLevelRead(reader, Pipe.sizeOf(reader, msgIdx));
+							Pipe.releaseReadLock(reader);
+							expected++;
+						} else {
+							Thread.yield();
+						}
+					}
+					results[id] = expected;
+				}
+			});
+			threads[r].start();
+		}
+
+		int i = 0;
+		while (i<messages) {
+			if (Pipe.hasRoomForWrite(source)) {
+				int size = Pipe.addMsgIdx(source, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20);
+				Pipe.addIntValue(i, source);
+				Pipe.addASCII(Integer.toString(i), source);
+				Pipe.confirmLowLevelWrite(source, size);
+				Pipe.publishWrites(source);
+				i++;
+			} else {
+				Thread.yield();
+			}
+		}
+
+		r = readers.length;
+		while (--r>=0) {
+			threads[r].join();
+			assertEquals(messages, results[r]);
+		}
+	}
+
+	@Test
+	public void unevenReaderSpeedTest() throws InterruptedException {
+		final int messages = 30000;
+		final Pipe<TestDataSchema> source = TestDataSchema.instance.newPipe(16, 40);
+		source.initBuffers();
+		final Pipe<TestDataSchema>[] readers = Pipe.buildBroadcastReaders(source, 4);
+
+		final int[] results = new int[readers.length];
+		Thread[] threads = new Thread[readers.length];
+		int r = readers.length;
+		while (--r>=0) {
+			final int id = r;
+			readers[r].initBuffers();
+			threads[r] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Pipe<TestDataSchema> reader = readers[id];
+					StringBuilder text = new StringBuilder();
+					int expected = 0;
+					while (expected<messages) {
+						if (Pipe.hasContentToRead(reader)) {
+							int msgIdx = Pipe.takeMsgIdx(reader);
+							int value = Pipe.takeInt(reader);
+							int meta = Pipe.takeByteArrayMetaData(reader);
+							int len = Pipe.takeByteArrayLength(reader);
+							text.setLength(0);
+							Pipe.readASCII(reader, text, meta, len);
+							if (value!=expected || !textFor(expected).contentEquals(text)) {
+								break;
+							}
+							Pipe.confirmLowLevelRead(reader, Pipe.sizeOf(reader, msgIdx));
+							Pipe.releaseReadLock(reader);
+							expected++;
+							//each reader is held back by a different amount so the slowest keeps changing
+							if (0 == (expected % (1+id*7))) {
+								if (0==(id&1)) {
+									Thread.yield();
+								} else {
+									LockSupport.parkNanos(1000*id);
+								}
+							}
+						} else {
+							Thread.yield();
+						}
+					}
+					results[id] = expected;
+				}
+			});
+			threads[r].start();
+		}
+
+		int i = 0;
+		while (i<messages) {
+			if (Pipe.hasRoomForWrite(source)) {
+				int size = Pipe.addMsgIdx(source, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20);
+				Pipe.addIntValue(i, source);
+				Pipe.addASCII(textFor(i), source);
+				Pipe.confirmLowLevelWrite(source, size);
+				Pipe.publishWrites(source);
+				i++;
+			} else {
+				Thread.yield();
+			}
+		}
+
+		r = readers.length;
+		while (--r>=0) {
+			threads[r].join();
+			assertEquals(messages, results[r]);
+		}
+		assertEquals(Pipe.headPosition(source), Pipe.tailPosition(source));
+		assertEquals(Pipe.getBlobHeadPosition(source)&Pipe.blobMask(source), Pipe.getBlobTailPosition(source)&Pipe.blobMask(source));
+	}
+
+	//text length varies with the value so the blob tail does not follow the slab tail in lock step
+	private static String textFor(int value) {
+		StringBuilder builder = new StringBuilder();
+		int count = 1+(value%5);
+		while (--count>=0) {
+			builder.append(value);
+		}
+		return builder.toString();
+	}
+
+}
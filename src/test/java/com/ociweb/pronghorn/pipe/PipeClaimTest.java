@@ -0,0 +1,165 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PipeClaimTest {
+
+	@Test
+	public void singleProducerClaimTest() {
+		Pipe<TestDataSchema> p = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(4, 100).multiProducer());
+		p.initBuffers();
+		assertTrue(Pipe.isMultiProducer(p));
+
+		PipeClaim<TestDataSchema> claim = new PipeClaim<TestDataSchema>(p);
+		byte[] data = "hello".getBytes();
+		assertTrue(PipeClaim.tryClaim(claim, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, data.length));
+		PipeClaim.addIntValue(42, claim);
+		PipeClaim.addByteArray(data, 0, data.length, claim);
+		PipeClaim.publish(claim);
+		assertFalse(PipeClaim.isClaimed(claim));
+
+		assertTrue(PipeClaim.tryClaim(claim, TestDataSchema.MSG_LONG_50));
+		PipeClaim.addLongValue(1234567890123L, claim);
+		PipeClaim.publish(claim);
+
+		//high level read of the low level claim writes
+		assertTrue(PipeReader.tryReadFragment(p));
+		assertEquals(TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, PipeReader.getMsgIdx(p));
+		assertEquals(42, PipeReader.readInt(p, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20_FIELD_INTVALUE_21));
+		assertTrue(PipeReader.eqASCII(p, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20_FIELD_BYTEARRAY_22, "hello"));
+		PipeReader.releaseReadLock(p);
+
+		assertTrue(PipeReader.tryReadFragment(p));
+		assertEquals(TestDataSchema.MSG_LONG_50, PipeReader.getMsgIdx(p));
+		assertEquals(1234567890123L, PipeReader.readLong(p, TestDataSchema.MSG_LONG_50_FIELD_LONGVALUE_51));
+		PipeReader.releaseReadLock(p);
+
+		assertFalse(PipeReader.tryReadFragment(p));
+	}
+
+	@Test
+	public void fullBlobRingClaimTest() {
+		Pipe<TestDataSchema> p = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(8, 100).multiProducer());
+		p.initBuffers();
+		final int half = p.sizeOfBlobRing/2;
+
+		PipeClaim<TestDataSchema> claim = new PipeClaim<TestDataSchema>(p);
+		byte[] first = new byte[half];
+		Arrays.fill(first, (byte)1);
+		assertTrue(PipeClaim.tryClaim(claim, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, half));
+		PipeClaim.addIntValue(1, claim);
+		PipeClaim.addByteArray(first, 0, half, claim);
+		PipeClaim.publish(claim);
+
+		//exactly filling the blob ring would make it look empty so it must be refused
+		assertFalse(PipeClaim.tryClaim(claim, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, half));
+		assertFalse(PipeClaim.isClaimed(claim));
+
+		byte[] second = new byte[half-1];
+		Arrays.fill(second, (byte)2);
+		assertTrue(PipeClaim.tryClaim(claim, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, half-1));
+		PipeClaim.addIntValue(2, claim);
+		PipeClaim.addByteArray(second, 0, half-1, claim);
+		PipeClaim.publish(claim);
+
+		//ring is now one byte short of full
+		assertFalse(PipeClaim.tryClaim(claim, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, 1));
+
+		byte[] target = new byte[half];
+		assertTrue(PipeReader.tryReadFragment(p));
+		assertEquals(1, PipeReader.readInt(p, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20_FIELD_INTVALUE_21));
+		assertEquals(half, PipeReader.readBytes(p, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20_FIELD_BYTEARRAY_22, target, 0));
+		assertArrayEquals(first, target);
+		PipeReader.releaseReadLock(p);
+
+		assertTrue(PipeClaim.tryClaim(claim, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, 1));
+		PipeClaim.addIntValue(3, claim);
+		PipeClaim.addByteArray(new byte[]{3}, 0, 1, claim);
+		PipeClaim.publish(claim);
+
+		assertTrue(PipeReader.tryReadFragment(p));
+		assertEquals(2, PipeReader.readInt(p, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20_FIELD_INTVALUE_21));
+		assertEquals(half-1, PipeReader.readBytes(p, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20_FIELD_BYTEARRAY_22, target, 0));
+		assertArrayEquals(second, Arrays.copyOf(target, half-1));
+		PipeReader.releaseReadLock(p);
+
+		assertTrue(PipeReader.tryReadFragment(p));
+		assertEquals(3, PipeReader.readInt(p, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20_FIELD_INTVALUE_21));
+		PipeReader.releaseReadLock(p);
+		assertFalse(PipeReader.tryReadFragment(p));
+	}
+
+	@Test
+	public void manyProducerClaimTest() throws InterruptedException {
+		final int producers = 4;
+		final int perProducer = 20000;
+
+		final Pipe<TestDataSchema> p = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(64, 32).multiProducer());
+		p.initBuffers();
+
+		Thread[] threads = new Thread[producers];
+		int t = producers;
+		while (--t>=0) {
+			final int producerId = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					PipeClaim<TestDataSchema> claim = new PipeClaim<TestDataSchema>(p);
+					byte[] data = new byte[4];
+					for(int i = 0; i<perProducer; i++) {
+						int value = (producerId<<24) | i;
+						data[0] = (byte)(value>>24);
+						data[1] = (byte)(value>>16);
+						data[2] = (byte)(value>>8);
+						data[3] = (byte)value;
+						while (!PipeClaim.tryClaim(claim, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, data.length)) {
+							Thread.yield();
+						}
+						PipeClaim.addIntValue(value, claim);
+						PipeClaim.addByteArray(data, 0, data.length, claim);
+						PipeClaim.publish(claim);
+					}
+				}
+			});
+			threads[t].start();
+		}
+
+		int[] nextExpected = new int[producers];
+		int total = producers*perProducer;
+		byte[] target = new byte[4];
+		while (total>0) {
+			if (Pipe.hasContentToRead(p)) {
+				int msgIdx = Pipe.takeMsgIdx(p);
+				assertEquals(TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, msgIdx);
+				int value = Pipe.takeInt(p);
+				int meta = Pipe.takeByteArrayMetaData(p);
+				int len = Pipe.takeByteArrayLength(p);
+				assertEquals(4, len);
+				Pipe.readBytes(p, target, 0, 0xFFFF, meta, len);
+				assertEquals(value, ((0xFF&target[0])<<24)|((0xFF&target[1])<<16)|((0xFF&target[2])<<8)|(0xFF&target[3]));
+
+				int producerId = value>>>24;
+				assertEquals("messages from one producer must stay in order", nextExpected[producerId]++, value&0xFFFFFF);
+
+				Pipe.confirmLowLevelRead(p, Pipe.sizeOf(p, msgIdx));
+				Pipe.releaseReadLock(p);
+				total--;
+			} else {
+				Thread.yield();
+			}
+		}
+
+		t = producers;
+		while (--t>=0) {
+			threads[t].join();
+			assertEquals(perProducer, nextExpected[t]);
+		}
+		assertEquals(producers*perProducer, Pipe.totalWrittenFragments(p));
+		assertEquals(0, Pipe.contentRemaining(p));
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class PipeColumnBatchTest {
+
+    @Test
+    public void kernelsTest() throws Exception {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/scanExample.xml");
+        final int trade = FieldReferenceOffsetManager.lookupTemplateLocator("Trade", from);
+        final int control = FieldReferenceOffsetManager.lookupTemplateLocator("Control", from);
+        final int qtyLoc = FieldReferenceOffsetManager.lookupFieldLocator("Qty", trade, from);
+        final int priceLoc = FieldReferenceOffsetManager.lookupFieldLocator("Price", trade, from);
+
+        //small ring so the columns often wrap the end of the slab
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(new MessageSchemaDynamic(from), 37, 20));
+        pipe.initBuffers();
+        PipeColumnBatch batch = new PipeColumnBatch(from, trade);
+
+        int value = 0;
+        for(int round = 0; round<100; round++) {
+            final int count = 1+(round%30);
+            final int first = value;
+            for(int i = 0; i<count; i++) {
+                writeTrade(pipe, trade, value++);
+            }
+            Pipe.addMsgIdx(pipe, control);
+            Pipe.addIntValue(round, pipe);
+            Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, control));
+            Pipe.publishWrites(pipe);
+
+            //the control message ends the batch
+            assertEquals(count, batch.begin(pipe, Integer.MAX_VALUE));
+
+            long sum = 0;
+            long priceSum = 0;
+            for(int i = first; i<value; i++) {
+                sum += qty(i);
+                priceSum += price(i);
+            }
+            assertEquals(sum, batch.sumInt(qtyLoc));
+            assertEquals(priceSum, batch.sumLong(priceLoc));
+            assertEquals(qty(value-1), batch.minInt(qtyLoc));
+            assertEquals(qty(first), batch.maxInt(qtyLoc));
+            assertEquals(price(first), batch.minLong(priceLoc));
+            assertEquals(price(value-1), batch.maxLong(priceLoc));
+            assertEquals(count, batch.countLong(priceLoc, Long.MIN_VALUE, Long.MAX_VALUE));
+            assertEquals(1, batch.countInt(qtyLoc, qty(first), qty(first)));
+            assertEquals(qty(first+count-1), batch.readInt(qtyLoc, count-1));
+            assertEquals(price(first), batch.readLong(priceLoc, 0));
+            batch.release();
+
+            assertEquals(control, Pipe.takeMsgIdx(pipe));
+            assertEquals(round, Pipe.takeInt(pipe));
+            Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, control));
+            Pipe.releaseReadLock(pipe);
+            assertEquals(0, Pipe.contentRemaining(pipe));
+        }
+    }
+
+    @Test
+    public void limitedBatchTest() throws Exception {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/scanExample.xml");
+        final int trade = FieldReferenceOffsetManager.lookupTemplateLocator("Trade", from);
+        final int qtyLoc = FieldReferenceOffsetManager.lookupFieldLocator("Qty", trade, from);
+
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(new MessageSchemaDynamic(from), 20, 20));
+        pipe.initBuffers();
+        for(int i = 0; i<10; i++) {
+            writeTrade(pipe, trade, i);
+        }
+
+        PipeColumnBatch batch = new PipeColumnBatch(from, trade);
+        assertEquals(4, batch.begin(pipe, 4));
+        assertEquals(qty(0)+qty(1)+qty(2)+qty(3), batch.sumInt(qtyLoc));
+        batch.release();
+
+        //the text of the next message is still found after the bulk release
+        assertEquals(trade, Pipe.takeMsgIdx(pipe));
+        assertEquals(qty(4), Pipe.takeInt(pipe));
+        Pipe.takeLong(pipe);
+        assertEquals("S4", Pipe.readUTF8(pipe, new StringBuilder(), Pipe.takeByteArrayMetaData(pipe), Pipe.takeByteArrayLength(pipe)).toString());
+        Pipe.takeByteArrayMetaData(pipe);
+        Pipe.takeByteArrayLength(pipe);
+        Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, trade));
+        Pipe.releaseReadLock(pipe);
+
+        assertEquals(5, batch.begin(pipe, 100));
+        batch.release();
+        assertEquals(0, batch.begin(pipe, 100));
+        assertEquals(0, Pipe.contentRemaining(pipe));
+    }
+
+    private static int qty(int i) {
+        return 1000-i;
+    }
+
+    private static long price(int i) {
+        return (((long)i)<<33)-7;
+    }
+
+    private static void writeTrade(Pipe<MessageSchemaDynamic> pipe, int trade, int i) {
+        Pipe.addMsgIdx(pipe, trade);
+        Pipe.addIntValue(qty(i), pipe);
+        Pipe.addLongValue(price(i), pipe);
+        Pipe.addUTF8("S"+i, pipe);
+        Pipe.addByteArray(new byte[] {(byte)i}, 0, 1, pipe);
+        Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, trade));
+        Pipe.publishWrites(pipe);
+    }
+
+}
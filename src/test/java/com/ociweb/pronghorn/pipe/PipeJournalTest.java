@@ -0,0 +1,113 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class PipeJournalTest {
+
+	@Test
+	public void sequenceSchemaIsRejectedTest() throws Exception {
+		File dir = Files.createTempDirectory("pipeJournal").toFile();
+		Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(
+				new PipeConfig<MessageSchemaDynamic>(new MessageSchemaDynamic(TemplateHandler.loadFrom("/template/orderV1.xml")), 4, 64));
+		pipe.initBuffers();
+		try {
+			new PipeJournal<MessageSchemaDynamic>(pipe, dir, 1<<16, 1, Long.MAX_VALUE);
+			fail("the body fragments of a sequence can not be journaled as messages");
+		} catch (UnsupportedOperationException e) {
+			//expected
+		}
+		assertEquals(0, dir.list().length);
+	}
+
+	@Test
+	public void journalAndReplayTest() throws IOException {
+		File dir = Files.createTempDirectory("pipeJournal").toFile();
+		final int messages = 5000;
+
+		Pipe<TestDataSchema> source = TestDataSchema.instance.newPipe(16, 40);
+		source.initBuffers();
+		//the journal is its own reader so the consumer of the source is not slowed by it
+		Pipe<TestDataSchema>[] readers = Pipe.buildBroadcastReaders(source, 2);
+		readers[0].initBuffers();
+		readers[1].initBuffers();
+		PipeJournal<TestDataSchema> journal = new PipeJournal<TestDataSchema>(readers[1], dir, 4096, 100, Long.MAX_VALUE);
+
+		int written = 0;
+		while (written<=messages) {
+			if (Pipe.hasRoomForWrite(source)) {
+				if (written==messages) {
+					Pipe.publishEOF(source);
+				} else {
+					int size = Pipe.addMsgIdx(source, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20);
+					Pipe.addIntValue(written, source);
+					Pipe.addASCII(Integer.toString(written), source);
+					Pipe.confirmLowLevelWrite(source, size);
+					Pipe.publishWrites(source);
+				}
+				written++;
+			}
+			while (Pipe.hasContentToRead(readers[0])) {
+				int msgIdx = Pipe.takeMsgIdx(readers[0]);
+				if (msgIdx>=0) {
+					Pipe.takeInt(readers[0]);
+					Pipe.takeByteArrayMetaData(readers[0]);
+					Pipe.takeByteArrayLength(readers[0]);
+				}
+				Pipe.confirmLowLevelRead(readers[0], msgIdx<0 ? Pipe.EOF_SIZE : Pipe.sizeOf(readers[0], msgIdx));
+				Pipe.releaseReadLock(readers[0]);
+			}
+			PipeJournal.journal(journal);
+		}
+		PipeJournal.sync(journal);
+		assertEquals(messages+1, PipeJournal.totalFragments(journal));
+		assertTrue("expected many segments", PipeJournal.segmentFile(dir, 2).exists());
+
+		//replay into a fresh pipe which is smaller than the journal
+		Pipe<TestDataSchema> target = TestDataSchema.instance.newPipe(8, 40);
+		target.initBuffers();
+		PipeJournalReader<TestDataSchema> reader = new PipeJournalReader<TestDataSchema>(dir);
+		StringBuilder text = new StringBuilder();
+		int expected = 0;
+		boolean eof = false;
+		while (!eof) {
+			int published = PipeJournalReader.replay(reader, target);
+			assertTrue(published>0 || Pipe.hasContentToRead(target));
+			while (Pipe.hasContentToRead(target)) {
+				int msgIdx = Pipe.takeMsgIdx(target);
+				if (msgIdx<0) {
+					Pipe.confirmLowLevelRead(target, Pipe.EOF_SIZE);
+					Pipe.releaseReadLock(target);
+					eof = true;
+					break;
+				}
+				assertEquals(expected, Pipe.takeInt(target));
+				int meta = Pipe.takeByteArrayMetaData(target);
+				int len = Pipe.takeByteArrayLength(target);
+				text.setLength(0);
+				Pipe.readASCII(target, text, meta, len);
+				assertEquals(Integer.toString(expected), text.toString());
+				Pipe.confirmLowLevelRead(target, Pipe.sizeOf(target, msgIdx));
+				Pipe.releaseReadLock(target);
+				expected++;
+			}
+		}
+		assertEquals(messages, expected);
+		assertEquals(0, PipeJournalReader.replay(reader, target));
+		assertEquals(messages+1, PipeJournalReader.totalFragments(reader));
+
+		File[] files = dir.listFiles();
+		for(int i = 0; i<files.length; i++) {
+			files[i].delete();
+		}
+		dir.delete();
+	}
+
+}
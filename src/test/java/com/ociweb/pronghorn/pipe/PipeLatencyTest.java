@@ -0,0 +1,111 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PipeLatencyTest {
+
+	@Test
+	public void lowLevelResidencyTest() throws InterruptedException {
+		Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(8, 20).latencyTrace(1));
+		pipe.initBuffers();
+		assertNull(Pipe.telemetry(pipe));
+
+		for(int round = 0; round<10; round++) {
+			int size = Pipe.addMsgIdx(pipe, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20);
+			Pipe.addIntValue(round, pipe);
+			Pipe.addASCII("abc", pipe);
+			Pipe.confirmLowLevelWrite(pipe, size);
+			Pipe.publishWrites(pipe);
+
+			Thread.sleep(2);
+
+			int msgIdx = Pipe.takeMsgIdx(pipe);
+			assertEquals(round, Pipe.takeInt(pipe));
+			Pipe.takeByteArrayMetaData(pipe);
+			Pipe.takeByteArrayLength(pipe);
+			Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+			Pipe.releaseReadLock(pipe);
+		}
+		assertEquals(10, PipeLatency.samples(pipe));
+		assertTrue(PipeLatency.nanosAtPercentile(pipe, .5f) >= 1_000_000);
+		assertTrue(PipeLatency.report(pipe, new StringBuilder()).toString().contains("99 percentile"));
+
+		PipeLatency.clear(pipe);
+		assertEquals(0, PipeLatency.samples(pipe));
+	}
+
+	@Test
+	public void highLevelSampledTest() {
+		Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(8, 20).latencyTrace(4));
+		pipe.initBuffers();
+
+		int total = 0;
+		for(int round = 0; round<10; round++) {
+			while (PipeWriter.tryWriteFragment(pipe, TestDataSchema.MSG_INT_40)) {
+				PipeWriter.writeInt(pipe, TestDataSchema.MSG_INT_40_FIELD_INTVALUE_41, total++);
+				PipeWriter.publishWrites(pipe);
+			}
+			while (PipeReader.tryReadFragment(pipe)) {
+				PipeReader.releaseReadLock(pipe);
+			}
+		}
+		assertEquals(total/4, PipeLatency.samples(pipe));
+	}
+
+	@Test
+	public void columnBatchReleaseTest() {
+		Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(8, 20).latencyTrace(1));
+		pipe.initBuffers();
+		PipeColumnBatch batch = new PipeColumnBatch(Pipe.from(pipe), TestDataSchema.MSG_INT_40);
+
+		int total = 0;
+		for(int round = 0; round<10; round++) {
+			//the batch is released in one step but each message in it is still timed
+			for(int i = 0; i<5; i++) {
+				Pipe.addMsgIdx(pipe, TestDataSchema.MSG_INT_40);
+				Pipe.addIntValue(total++, pipe);
+				Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, TestDataSchema.MSG_INT_40));
+				Pipe.publishWrites(pipe);
+			}
+			assertEquals(5, batch.begin(pipe, Integer.MAX_VALUE));
+			batch.release();
+		}
+		assertEquals(total, PipeLatency.samples(pipe));
+	}
+
+	@Test
+	public void transferIsNotTracedTest() {
+		PipeConfig<TestDataSchema> config = TestDataSchema.instance.newPipeConfig(8, 20).latencyTrace(1);
+		Pipe<TestDataSchema> source = new Pipe<TestDataSchema>(config);
+		Pipe<TestDataSchema> target = new Pipe<TestDataSchema>(config);
+		source.initBuffers();
+		target.initBuffers();
+
+		for(int i = 0; i<3; i++) {
+			Pipe.addMsgIdx(source, TestDataSchema.MSG_INT_40);
+			Pipe.addIntValue(i, source);
+			Pipe.confirmLowLevelWrite(source, Pipe.sizeOf(source, TestDataSchema.MSG_INT_40));
+			Pipe.publishWrites(source);
+		}
+		assertEquals(3, Pipe.transferAvailable(source, target, 10));
+
+		//the target never had the stamps written so none of its releases match
+		while (Pipe.hasContentToRead(target)) {
+			Pipe.takeMsgIdx(target);
+			Pipe.takeInt(target);
+			Pipe.confirmLowLevelRead(target, Pipe.sizeOf(target, TestDataSchema.MSG_INT_40));
+			Pipe.releaseReadLock(target);
+		}
+		assertEquals(0, PipeLatency.samples(target));
+		assertEquals(0, PipeLatency.samples(source));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void offByDefaultTest() {
+		Pipe<TestDataSchema> pipe = TestDataSchema.instance.newPipe(8, 20);
+		PipeLatency.samples(pipe);
+	}
+
+}
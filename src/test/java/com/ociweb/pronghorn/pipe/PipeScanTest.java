@@ -0,0 +1,137 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class PipeScanTest {
+
+    private static final String[] SYMBOLS = new String[] {"IBM", "MSFT", "IBMX"};
+
+    @Test
+    public void scanBitmapTest() throws Exception {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/scanExample.xml");
+        final int trade = FieldReferenceOffsetManager.lookupTemplateLocator("Trade", from);
+        final int control = FieldReferenceOffsetManager.lookupTemplateLocator("Control", from);
+        Pipe<MessageSchemaDynamic> pipe = newPipe(from);
+
+        for(int i = 0; i<70; i++) {
+            writeTrade(pipe, from, trade, i);
+        }
+        assertTrue(PipeWriter.tryWriteFragment(pipe, control));
+        PipeWriter.writeInt(pipe, FieldReferenceOffsetManager.lookupFieldLocator("Code", control, from), 9);
+        PipeWriter.publishWrites(pipe);
+
+        PipeScan scan = new PipeScan(from, trade).eqUTF8(FieldReferenceOffsetManager.lookupFieldLocator("Symbol", trade, from), "IBM");
+        long[] matches = new long[2];
+        //stops at the control message
+        assertEquals(70, PipeReader.scan(pipe, scan, matches));
+        for(int i = 0; i<70; i++) {
+            assertEquals(0==i%3, 0!=(matches[i>>6]&(1L<<(i&0x3F))));
+        }
+
+        //nothing was consumed
+        assertTrue(PipeReader.tryReadFragment(pipe));
+        assertEquals(0, PipeReader.readInt(pipe, FieldReferenceOffsetManager.lookupFieldLocator("Qty", trade, from)));
+        PipeReader.releaseReadLock(pipe);
+
+        //capacity of the bitmap limits the scan
+        assertEquals(64, PipeReader.scan(pipe, scan, new long[1]));
+    }
+
+    @Test
+    public void readMatchingTest() throws Exception {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/scanExample.xml");
+        final int trade = FieldReferenceOffsetManager.lookupTemplateLocator("Trade", from);
+        final int control = FieldReferenceOffsetManager.lookupTemplateLocator("Control", from);
+        final int qtyLoc = FieldReferenceOffsetManager.lookupFieldLocator("Qty", trade, from);
+        final int priceLoc = FieldReferenceOffsetManager.lookupFieldLocator("Price", trade, from);
+        final int tagLoc = FieldReferenceOffsetManager.lookupFieldLocator("Tag", trade, from);
+        final int codeLoc = FieldReferenceOffsetManager.lookupFieldLocator("Code", control, from);
+        Pipe<MessageSchemaDynamic> pipe = newPipe(from);
+
+        PipeScan scan = new PipeScan(from, trade)
+                             .longRange(priceLoc, 0, 100000)
+                             .bytePrefix(tagLoc, "t1".getBytes());
+
+        //many rounds so the slab and blob both wrap and the released space is reused
+        int value = 0;
+        int expected = 0;
+        for(int round = 0; round<50; round++) {
+            for(int i = 0; i<40; i++) {
+                writeTrade(pipe, from, trade, value++);
+            }
+            assertTrue(PipeWriter.tryWriteFragment(pipe, control));
+            PipeWriter.writeInt(pipe, codeLoc, round);
+            PipeWriter.publishWrites(pipe);
+
+            while (PipeReader.tryReadMatchingFragment(pipe, scan)) {
+                if (PipeReader.getMsgIdx(pipe)==control) {
+                    assertEquals(round, PipeReader.readInt(pipe, codeLoc));
+                } else {
+                    final int qty = PipeReader.readInt(pipe, qtyLoc);
+                    while (!Integer.toString(expected).startsWith("1") || expected*10L>100000) {
+                        expected++;
+                    }
+                    assertEquals(expected++, qty);
+                    assertTrue(PipeReader.readLong(pipe, priceLoc)<=100000);
+                }
+                PipeReader.releaseReadLock(pipe);
+            }
+            assertEquals(0, Pipe.contentRemaining(pipe));
+        }
+        assertTrue(expected>1000);
+    }
+
+    @Test
+    public void skippedMessagesAreTimedTest() throws Exception {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/scanExample.xml");
+        final int trade = FieldReferenceOffsetManager.lookupTemplateLocator("Trade", from);
+        final int control = FieldReferenceOffsetManager.lookupTemplateLocator("Control", from);
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(new MessageSchemaDynamic(from), 100, 20).latencyTrace(1));
+        pipe.initBuffers();
+
+        PipeScan scan = new PipeScan(from, trade).eqUTF8(FieldReferenceOffsetManager.lookupFieldLocator("Symbol", trade, from), "IBM");
+        int written = 0;
+        for(int round = 0; round<20; round++) {
+            for(int i = 0; i<30; i++) {
+                writeTrade(pipe, from, trade, i);
+                written++;
+            }
+            assertTrue(PipeWriter.tryWriteFragment(pipe, control));
+            PipeWriter.writeInt(pipe, FieldReferenceOffsetManager.lookupFieldLocator("Code", control, from), round);
+            PipeWriter.publishWrites(pipe);
+            written++;
+
+            while (PipeReader.tryReadMatchingFragment(pipe, scan)) {
+                PipeReader.releaseReadLock(pipe);
+            }
+        }
+        //two of every three trades are skipped, they are released all the same so each one is timed
+        assertEquals(written, PipeLatency.samples(pipe));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void sequenceTemplateTest() throws Exception {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/orderV1.xml");
+        new PipeScan(from, FieldReferenceOffsetManager.lookupTemplateLocator("Order", from));
+    }
+
+    private static void writeTrade(Pipe<MessageSchemaDynamic> pipe, FieldReferenceOffsetManager from, int trade, int i) {
+        assertTrue(PipeWriter.tryWriteFragment(pipe, trade));
+        PipeWriter.writeInt(pipe, FieldReferenceOffsetManager.lookupFieldLocator("Qty", trade, from), i);
+        PipeWriter.writeLong(pipe, FieldReferenceOffsetManager.lookupFieldLocator("Price", trade, from), i*10L);
+        PipeWriter.writeUTF8(pipe, FieldReferenceOffsetManager.lookupFieldLocator("Symbol", trade, from), SYMBOLS[i%3]);
+        PipeWriter.writeBytes(pipe, FieldReferenceOffsetManager.lookupFieldLocator("Tag", trade, from), ("t"+i).getBytes());
+        PipeWriter.publishWrites(pipe);
+    }
+
+    private static Pipe<MessageSchemaDynamic> newPipe(FieldReferenceOffsetManager from) {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(new MessageSchemaDynamic(from), 100, 20));
+        pipe.initBuffers();
+        return pipe;
+    }
+
+}
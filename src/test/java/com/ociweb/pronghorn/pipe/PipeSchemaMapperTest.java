@@ -0,0 +1,171 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+import com.ociweb.pronghorn.pipe.stream.StreamingReadVisitorToJSON;
+import com.ociweb.pronghorn.pipe.stream.StreamingVisitorReader;
+import com.ociweb.pronghorn.pipe.stream.StreamingVisitorWriter;
+import com.ociweb.pronghorn.pipe.stream.StreamingWriteVisitorGenerator;
+
+public class PipeSchemaMapperTest {
+
+    @Test
+    public void compatibilityTest() throws Exception {
+        FieldReferenceOffsetManager v1 = TemplateHandler.loadFrom("/template/orderV1.xml");
+        FieldReferenceOffsetManager v2 = TemplateHandler.loadFrom("/template/orderV2.xml");
+
+        assertTrue(PipeSchemaMapper.isCompatible(v1, v1));
+        assertTrue(PipeSchemaMapper.isCompatible(v1, v2));
+        //long can not be narrowed back to int
+        assertFalse(PipeSchemaMapper.isCompatible(v2, v1));
+        //none of the templates are in the other schema
+        assertFalse(PipeSchemaMapper.isCompatible(v1, TemplateHandler.loadFrom("/template/fastExample.xml")));
+    }
+
+    @Test
+    public void sameSchemaTest() throws Exception {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/orderV1.xml");
+
+        Pipe<MessageSchemaDynamic> source = newPipe(from);
+        Pipe<MessageSchemaDynamic> expected = newPipe(from);
+        Pipe<MessageSchemaDynamic> target = newPipe(from);
+
+        StreamingVisitorWriter sourceWriter = new StreamingVisitorWriter(source, new StreamingWriteVisitorGenerator(from, new Random(7), 20, 20));
+        StreamingVisitorWriter expectedWriter = new StreamingVisitorWriter(expected, new StreamingWriteVisitorGenerator(from, new Random(7), 20, 20));
+        PipeSchemaMapper mapper = new PipeSchemaMapper(source, target);
+
+        ByteArrayOutputStream expectedJSON = new ByteArrayOutputStream();
+        ByteArrayOutputStream targetJSON = new ByteArrayOutputStream();
+        StreamingVisitorReader expectedReader = new StreamingVisitorReader(expected, new StreamingReadVisitorToJSON(new PrintStream(expectedJSON)));
+        StreamingVisitorReader targetReader = new StreamingVisitorReader(target, new StreamingReadVisitorToJSON(new PrintStream(targetJSON)));
+
+        int i = 2000;
+        while (--i>=0) {
+            sourceWriter.run();
+            expectedWriter.run();
+            mapper.run();
+            expectedReader.run();
+            targetReader.run();
+        }
+
+        String targetText = new String(targetJSON.toByteArray());
+        assertTrue(targetText.length()>10000);
+        assertTrue(new String(expectedJSON.toByteArray()).startsWith(targetText));
+    }
+
+    @Test
+    public void evolvedSchemaTest() throws Exception {
+        FieldReferenceOffsetManager v1 = TemplateHandler.loadFrom("/template/orderV1.xml");
+        FieldReferenceOffsetManager v2 = TemplateHandler.loadFrom("/template/orderV2.xml");
+        final int order1 = FieldReferenceOffsetManager.lookupTemplateLocator("Order", v1);
+        final int heartbeat1 = FieldReferenceOffsetManager.lookupTemplateLocator("Heartbeat", v1);
+        final int fills1 = FieldReferenceOffsetManager.lookupFragmentLocator("Fills", order1, v1);
+        final int trailer1 = cursorOf("Trailer", v1);
+        final int order2 = FieldReferenceOffsetManager.lookupTemplateLocator("Order", v2);
+        final int heartbeat2 = FieldReferenceOffsetManager.lookupTemplateLocator("Heartbeat", v2);
+
+        Pipe<MessageSchemaDynamic> source = newPipe(v1);
+        Pipe<MessageSchemaDynamic> target = newPipe(v2);
+
+        for(int m = 0; m<3; m++) {
+            Pipe.addMsgIdx(source, heartbeat1);
+            Pipe.addIntValue(m, source);
+            Pipe.addByteArray("gw".getBytes(), 0, 2, source);
+            Pipe.confirmLowLevelWrite(source, Pipe.sizeOf(source, heartbeat1));
+            Pipe.publishWrites(source);
+
+            Pipe.addMsgIdx(source, order1);
+            Pipe.addIntValue(100+m, source);
+            Pipe.addIntValue(-5-m, source);
+            Pipe.addByteArray("IBM".getBytes(), 0, 3, source);
+            Pipe.addIntValue(m, source); //fills
+            Pipe.confirmLowLevelWrite(source, Pipe.sizeOf(source, order1));
+            Pipe.publishWrites(source);
+            for(int f = 0; f<Math.max(1, m); f++) {
+                //zero length sequences still carry one body
+                Pipe.addIntValue(-f, source);
+                Pipe.confirmLowLevelWrite(source, Pipe.sizeOf(source, fills1));
+                Pipe.publishWrites(source);
+            }
+            Pipe.addIntValue(7, source);
+            Pipe.confirmLowLevelWrite(source, v1.fragDataSize[trailer1]);
+            Pipe.publishWrites(source);
+        }
+        Pipe.publishEOF(source);
+
+        new PipeSchemaMapper(source, target).run();
+
+        final int fills2 = FieldReferenceOffsetManager.lookupFragmentLocator("Fills", order2, v2);
+        final int trailer2 = cursorOf("Trailer", v2);
+        byte[] text = new byte[8];
+        for(int m = 0; m<3; m++) {
+            assertEquals(heartbeat2, Pipe.takeMsgIdx(target));
+            assertEquals(m, Pipe.takeInt(target));
+            int meta = Pipe.takeByteArrayMetaData(target);
+            int len = Pipe.takeByteArrayLength(target);
+            Pipe.readBytes(target, text, 0, Integer.MAX_VALUE, meta, len);
+            assertEquals("gw", new String(text, 0, len));
+            Pipe.confirmLowLevelRead(target, Pipe.sizeOf(target, heartbeat2));
+            Pipe.releaseReadLock(target);
+
+            assertEquals(order2, Pipe.takeMsgIdx(target));
+            meta = Pipe.takeByteArrayMetaData(target);
+            len = Pipe.takeByteArrayLength(target);
+            Pipe.readBytes(target, text, 0, Integer.MAX_VALUE, meta, len);
+            assertEquals("IBM", new String(text, 0, len));
+            assertEquals(-5-m, Pipe.takeLong(target));
+            assertEquals(100+m, Pipe.takeInt(target));
+            assertEquals(FieldReferenceOffsetManager.getAbsent32Value(v2), Pipe.takeInt(target));
+            assertEquals(m, Pipe.takeInt(target));
+            Pipe.confirmLowLevelRead(target, Pipe.sizeOf(target, order2));
+            Pipe.releaseReadLock(target);
+            for(int f = 0; f<Math.max(1, m); f++) {
+                assertEquals(-f, Pipe.takeLong(target));
+                Pipe.takeByteArrayMetaData(target);
+                assertEquals(-1, Pipe.takeByteArrayLength(target));
+                Pipe.confirmLowLevelRead(target, Pipe.sizeOf(target, fills2));
+                Pipe.releaseReadLock(target);
+            }
+            assertEquals(7, Pipe.takeInt(target));
+            Pipe.confirmLowLevelRead(target, v2.fragDataSize[trailer2]);
+            Pipe.releaseReadLock(target);
+        }
+        assertTrue(Pipe.takeMsgIdx(target)<0);
+    }
+
+    @Test
+    public void incompatibleSchemaTest() throws Exception {
+        try {
+            new PipeSchemaMapper(newPipe(TemplateHandler.loadFrom("/template/orderV2.xml")),
+                                 newPipe(TemplateHandler.loadFrom("/template/orderV1.xml")));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertTrue(e.getMessage().contains("Price"));
+        }
+    }
+
+    /**
+     * Script position of the field, used for the fragment that follows a sequence.
+     */
+    private static int cursorOf(String name, FieldReferenceOffsetManager from) {
+        int i = 0;
+        while (!name.equals(from.fieldNameScript[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static Pipe<MessageSchemaDynamic> newPipe(FieldReferenceOffsetManager from) {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(new MessageSchemaDynamic(from), 200, 200));
+        pipe.initBuffers();
+        return pipe;
+    }
+
+}
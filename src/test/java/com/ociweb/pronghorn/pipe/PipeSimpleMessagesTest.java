@@ -0,0 +1,77 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class PipeSimpleMessagesTest {
+
+    @Test
+    public void selectedAtConstructionTest() throws Exception {
+        assertTrue(newPipe(TemplateHandler.loadFrom("/template/scanExample.xml")).ringWalker.simpleMessagesOnly);
+        Pipe<RawDataSchema> raw = RawDataSchema.instance.newPipe(4, 100);
+        raw.initBuffers();
+        assertTrue(raw.ringWalker.simpleMessagesOnly);
+        assertFalse(newPipe(TemplateHandler.loadFrom("/template/orderV1.xml")).ringWalker.simpleMessagesOnly);
+    }
+
+    @Test
+    public void highLevelRoundTripTest() throws Exception {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("/template/scanExample.xml");
+        final int trade = FieldReferenceOffsetManager.lookupTemplateLocator("Trade", from);
+        final int control = FieldReferenceOffsetManager.lookupTemplateLocator("Control", from);
+        final int qtyLoc = FieldReferenceOffsetManager.lookupFieldLocator("Qty", trade, from);
+        final int priceLoc = FieldReferenceOffsetManager.lookupFieldLocator("Price", trade, from);
+        final int symbolLoc = FieldReferenceOffsetManager.lookupFieldLocator("Symbol", trade, from);
+        final int codeLoc = FieldReferenceOffsetManager.lookupFieldLocator("Code", control, from);
+        Pipe<MessageSchemaDynamic> pipe = newPipe(from);
+
+        StringBuilder text = new StringBuilder();
+        int written = 0;
+        int read = 0;
+        while (read<=1000) {
+            while (written<1000 && PipeWriter.tryWriteFragment(pipe, 0==written%7 ? control : trade)) {
+                if (0==written%7) {
+                    PipeWriter.writeInt(pipe, codeLoc, written);
+                } else {
+                    PipeWriter.writeInt(pipe, qtyLoc, written);
+                    PipeWriter.writeLong(pipe, priceLoc, written*3L);
+                    PipeWriter.writeUTF8(pipe, symbolLoc, "S"+written);
+                }
+                PipeWriter.publishWrites(pipe);
+                written++;
+            }
+            if (1000==written && PipeWriter.hasRoomForWrite(pipe)) {
+                PipeWriter.publishEOF(pipe);
+                written++;
+            }
+            while (PipeReader.tryReadFragment(pipe)) {
+                if (read==1000) {
+                    assertEquals(-1, PipeReader.getMsgIdx(pipe));
+                } else if (0==read%7) {
+                    assertEquals(control, PipeReader.getMsgIdx(pipe));
+                    assertEquals(read, PipeReader.readInt(pipe, codeLoc));
+                } else {
+                    assertEquals(trade, PipeReader.getMsgIdx(pipe));
+                    assertEquals(read, PipeReader.readInt(pipe, qtyLoc));
+                    assertEquals(read*3L, PipeReader.readLong(pipe, priceLoc));
+                    text.setLength(0);
+                    assertEquals("S"+read, PipeReader.readUTF8(pipe, symbolLoc, text).toString());
+                }
+                PipeReader.releaseReadLock(pipe);
+                read++;
+            }
+        }
+        assertEquals(1001, read);
+        assertFalse(PipeReader.tryReadFragment(pipe));
+    }
+
+    private static Pipe<MessageSchemaDynamic> newPipe(FieldReferenceOffsetManager from) {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(new MessageSchemaDynamic(from), 16, 20));
+        pipe.initBuffers();
+        return pipe;
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PipeTelemetryTest {
+
+	@Test
+	public void offByDefaultTest() {
+		Pipe<TestDataSchema> pipe = TestDataSchema.instance.newPipe(8, 20);
+		pipe.initBuffers();
+		assertNull(Pipe.telemetry(pipe));
+		assertNull(PipeTelemetry.busiest(new Pipe[]{pipe}));
+	}
+
+	@Test
+	public void lowLevelCountersTest() {
+		PipeConfig<TestDataSchema> config = TestDataSchema.instance.newPipeConfig(8, 20).telemetry(1);
+		assertTrue(config.grow2x().hasTelemetry());
+		Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(config);
+		pipe.initBuffers();
+
+		assertFalse(Pipe.hasContentToRead(pipe));
+
+		int written = 0;
+		while (Pipe.hasRoomForWrite(pipe)) {
+			int size = Pipe.addMsgIdx(pipe, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20);
+			Pipe.addIntValue(written, pipe);
+			Pipe.addASCII("abcd", pipe);
+			Pipe.confirmLowLevelWrite(pipe, size);
+			Pipe.publishWrites(pipe);
+			written++;
+		}
+
+		PipeTelemetry telemetry = PipeTelemetry.pull(pipe);
+		assertEquals(1, PipeTelemetry.consumerEmptyStalls(telemetry));
+		assertTrue(PipeTelemetry.producerFullStalls(telemetry)>=1);
+		assertEquals(written, PipeTelemetry.fillSamples(telemetry));
+		assertTrue(PipeTelemetry.slabFillAtPercentile(telemetry, 1f)>=50);
+		assertTrue(PipeTelemetry.publishedFragmentsPerSecond(telemetry)>0);
+		assertTrue(PipeTelemetry.publishedBytesPerSecond(telemetry)>0);
+		assertEquals(0, PipeTelemetry.releasedFragmentsPerSecond(telemetry));
+
+		int read = 0;
+		while (Pipe.hasContentToRead(pipe)) {
+			int msgIdx = Pipe.takeMsgIdx(pipe);
+			Pipe.takeInt(pipe);
+			Pipe.takeByteArrayMetaData(pipe);
+			Pipe.takeByteArrayLength(pipe);
+			Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+			Pipe.releaseReadLock(pipe);
+			read++;
+		}
+		assertEquals(written, read);
+		assertEquals(written, telemetry.releasedFragments);
+		assertEquals(4L*written, telemetry.releasedBytes);
+
+		PipeTelemetry.pull(pipe);
+		assertTrue(PipeTelemetry.releasedFragmentsPerSecond(telemetry)>0);
+		assertTrue(PipeTelemetry.releasedBytesPerSecond(telemetry)>0);
+		assertEquals(0, PipeTelemetry.publishedFragmentsPerSecond(telemetry));
+		assertTrue(telemetry.toString().contains("Full stalls:"));
+
+		PipeTelemetry.clear(telemetry);
+		assertEquals(0, PipeTelemetry.fillSamples(telemetry));
+		assertEquals(0, PipeTelemetry.producerFullStalls(telemetry));
+	}
+
+	@Test
+	public void blobFillPastWrapTest() {
+		Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(8, 20).telemetry(1));
+		pipe.initBuffers();
+		//start the blob head just short of the point where it wraps
+		pipe.reset(0, Pipe.BYTES_WRAP_MASK-1000);
+		PipeTelemetry telemetry = PipeTelemetry.pull(pipe);
+
+		long bytes = 0;
+		for(int i = 0; i<2000; i++) {
+			//fill half the ring then drain it so each sample is near 50%
+			int written = 0;
+			while (written<4 && Pipe.hasRoomForWrite(pipe)) {
+				int size = Pipe.addMsgIdx(pipe, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20);
+				Pipe.addIntValue(i, pipe);
+				Pipe.addASCII("abcdefgh", pipe);
+				Pipe.confirmLowLevelWrite(pipe, size);
+				Pipe.publishWrites(pipe);
+				written++;
+				bytes += 8;
+			}
+			while (Pipe.hasContentToRead(pipe)) {
+				int msgIdx = Pipe.takeMsgIdx(pipe);
+				Pipe.takeInt(pipe);
+				Pipe.takeByteArrayMetaData(pipe);
+				Pipe.takeByteArrayLength(pipe);
+				Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+				Pipe.releaseReadLock(pipe);
+			}
+		}
+		assertTrue(bytes > 1000);
+		assertTrue(Pipe.getBlobHeadPosition(pipe) < 1<<20);//head has wrapped
+
+		long maxFill = PipeTelemetry.blobFillAtPercentile(telemetry, 1f);
+		assertTrue("blob fill of "+maxFill+"%", maxFill>0 && maxFill<=100);
+		PipeTelemetry.pull(pipe);
+		assertTrue(PipeTelemetry.publishedBytesPerSecond(telemetry)>0);
+	}
+
+	@Test
+	public void highLevelAndSpinTest() {
+		Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(4, 20).telemetry(2));
+		pipe.initBuffers();
+		PipeTelemetry telemetry = Pipe.telemetry(pipe);
+
+		assertFalse(PipeReader.tryReadFragment(pipe));
+		assertEquals(1, PipeTelemetry.consumerEmptyStalls(telemetry));
+
+		int written = 0;
+		while (PipeWriter.tryWriteFragment(pipe, TestDataSchema.MSG_INT_40)) {
+			PipeWriter.writeInt(pipe, TestDataSchema.MSG_INT_40_FIELD_INTVALUE_41, written++);
+			PipeWriter.publishWrites(pipe);
+		}
+		assertEquals(1, PipeTelemetry.producerFullStalls(telemetry));
+		assertEquals(written/2, PipeTelemetry.fillSamples(telemetry));
+
+		while (PipeReader.tryReadFragment(pipe)) {
+			PipeReader.releaseReadLock(pipe);
+		}
+		assertEquals(written, telemetry.releasedFragments);
+
+		Pipe.spinWork(pipe);
+		assertTrue(PipeTelemetry.spinNanos(telemetry)>0);
+	}
+
+	@Test
+	public void busiestTest() {
+		PipeConfig<TestDataSchema> config = TestDataSchema.instance.newPipeConfig(8, 20).telemetry(1);
+		Pipe<TestDataSchema> idle = new Pipe<TestDataSchema>(config);
+		Pipe<TestDataSchema> full = new Pipe<TestDataSchema>(config);
+		idle.initBuffers();
+		full.initBuffers();
+
+		int i = 3;
+		while (--i>=0) {
+			Pipe.addMsgIdx(idle, TestDataSchema.MSG_INT_40);
+			Pipe.addIntValue(i, idle);
+			Pipe.confirmLowLevelWrite(idle, Pipe.sizeOf(idle, TestDataSchema.MSG_INT_40));
+			Pipe.publishWrites(idle);
+			Pipe.takeMsgIdx(idle);
+			Pipe.takeInt(idle);
+			Pipe.confirmLowLevelRead(idle, Pipe.sizeOf(idle, TestDataSchema.MSG_INT_40));
+			Pipe.releaseReadLock(idle);
+		}
+		while (Pipe.hasRoomForWrite(full)) {
+			Pipe.addMsgIdx(full, TestDataSchema.MSG_INT_40);
+			Pipe.addIntValue(1, full);
+			Pipe.confirmLowLevelWrite(full, Pipe.sizeOf(full, TestDataSchema.MSG_INT_40));
+			Pipe.publishWrites(full);
+		}
+		assertSame(full, PipeTelemetry.busiest(new Pipe[]{idle, full}));
+	}
+
+}
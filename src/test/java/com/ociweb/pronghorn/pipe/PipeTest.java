@@ -4,10 +4,13 @@ import static org.junit.Assert.*;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 import org.junit.Ignore;
 import org.junit.Test;
@@ -552,4 +555,174 @@ public class PipeTest {
 
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void transferAvailableTest() {
+		Pipe<TestDataSchema> source = TestDataSchema.instance.newPipe(16, 40);
+		Pipe<TestDataSchema> target = TestDataSchema.instance.newPipe(8, 40);
+		source.initBuffers();
+		target.initBuffers();
+
+		final int messages = 3000;
+		StringBuilder text = new StringBuilder();
+		int written = 0;
+		int read = 0;
+		boolean eof = false;
+		while (!eof) {
+			//mixed sizes so the runs wrap at different places in both rings
+			while (written<=messages && Pipe.hasRoomForWrite(source)) {
+				if (written==messages) {
+					Pipe.publishEOF(source);
+				} else if (0==(written&1)) {
+					int size = Pipe.addMsgIdx(source, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20);
+					Pipe.addIntValue(written, source);
+					Pipe.addASCII(Integer.toString(written), source);
+					Pipe.confirmLowLevelWrite(source, size);
+					Pipe.publishWrites(source);
+				} else {
+					int size = Pipe.addMsgIdx(source, TestDataSchema.MSG_LONG_50);
+					Pipe.addLongValue(written, source);
+					Pipe.confirmLowLevelWrite(source, size);
+					Pipe.publishWrites(source);
+				}
+				written++;
+			}
+
+			int moved = Pipe.transferAvailable(source, target, 5);
+			assertTrue(moved<=5);
+
+			while (Pipe.hasContentToRead(target)) {
+				int msgIdx = Pipe.takeMsgIdx(target);
+				if (msgIdx<0) {
+					Pipe.confirmLowLevelRead(target, Pipe.EOF_SIZE);
+					Pipe.releaseReadLock(target);
+					eof = true;
+					break;
+				}
+				if (TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20==msgIdx) {
+					assertEquals(read, Pipe.takeInt(target));
+					int meta = Pipe.takeByteArrayMetaData(target);
+					int len = Pipe.takeByteArrayLength(target);
+					text.setLength(0);
+					Pipe.readASCII(target, text, meta, len);
+					assertEquals(Integer.toString(read), text.toString());
+				} else {
+					assertEquals(TestDataSchema.MSG_LONG_50, msgIdx);
+					assertEquals(read, Pipe.takeLong(target));
+				}
+				Pipe.confirmLowLevelRead(target, Pipe.sizeOf(target, msgIdx));
+				Pipe.releaseReadLock(target);
+				read++;
+			}
+		}
+		assertEquals(messages, read);
+		assertEquals(0, Pipe.contentRemaining(source));
+		assertEquals(0, Pipe.transferAvailable(source, target, 5));
+	}
+
+	@Test
+	public void transferAvailableSmallerTargetTest() {
+		//target blob ring holds exactly two of these messages, it must never be filled completely
+		Pipe<TestDataSchema> source = TestDataSchema.instance.newPipe(16, 128);
+		Pipe<TestDataSchema> target = TestDataSchema.instance.newPipe(2, 64);
+		source.initBuffers();
+		target.initBuffers();
+
+		final int messages = 3;
+		byte[] payload = new byte[128];
+		for(int i = 0; i<messages; i++) {
+			Arrays.fill(payload, (byte)i);
+			int size = Pipe.addMsgIdx(source, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20);
+			Pipe.addIntValue(i, source);
+			Pipe.addByteArray(payload, 0, payload.length, source);
+			Pipe.confirmLowLevelWrite(source, size);
+			Pipe.publishWrites(source);
+		}
+
+		byte[] readBack = new byte[128];
+		int read = 0;
+		int calls = 0;
+		while (read<messages) {
+			assertTrue(++calls<10);
+			Pipe.transferAvailable(source, target, messages);
+			Pipe.transferAvailable(source, target, messages);
+			if (Pipe.hasContentToRead(target)) {
+				assertEquals(TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, Pipe.takeMsgIdx(target));
+				assertEquals(read, Pipe.takeInt(target));
+				int meta = Pipe.takeByteArrayMetaData(target);
+				int len = Pipe.takeByteArrayLength(target);
+				assertEquals(128, len);
+				Pipe.readBytes(target, readBack, 0, Integer.MAX_VALUE, meta, len);
+				for(int j = 0; j<len; j++) {
+					assertEquals(read, readBack[j]);
+				}
+				Pipe.confirmLowLevelRead(target, Pipe.sizeOf(target, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20));
+				Pipe.releaseReadLock(target);
+				read++;
+			}
+		}
+		assertEquals(0, Pipe.contentRemaining(source));
+	}
+
+	@Test
+	public void offHeapRoundTripTest() {
+		Pipe<TestDataSchema> p = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(4, 64).offHeap());
+		p.initBuffers();
+		assertTrue(Pipe.isOffHeap(p));
+		roundTrip(p);
+	}
+
+	@Test
+	public void memoryMappedRoundTripTest() throws IOException {
+		File dir = Files.createTempDirectory("pipe").toFile();
+		dir.deleteOnExit();
+		Pipe<TestDataSchema> p = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(4, 64).memoryMapped(dir));
+		p.initBuffers();
+		assertTrue(Pipe.isOffHeap(p));
+		roundTrip(p);
+	}
+
+	private static void roundTrip(Pipe<TestDataSchema> p) {
+		//many more messages than the rings hold so both the slab and the blob wrap
+		byte[] payload = new byte[64];
+		byte[] readBack = new byte[64];
+		for(int i = 0; i<1000; i++) {
+			int len = i%64;
+			Arrays.fill(payload, (byte)i);
+
+			assertTrue(Pipe.hasRoomForWrite(p));
+			int size = Pipe.addMsgIdx(p, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20);
+			Pipe.addIntValue(i, p);
+			Pipe.addByteArray(payload, 0, len, p);
+			Pipe.confirmLowLevelWrite(p, size);
+			Pipe.publishWrites(p);
+
+			size = Pipe.addMsgIdx(p, TestDataSchema.MSG_LONG_50);
+			Pipe.addLongValue(-1L-i*0x100000001L, p);
+			Pipe.confirmLowLevelWrite(p, size);
+			Pipe.publishWrites(p);
+
+			assertTrue(Pipe.hasContentToRead(p));
+			assertEquals(TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20, Pipe.takeMsgIdx(p));
+			assertEquals(i, Pipe.takeInt(p));
+			int meta = Pipe.takeByteArrayMetaData(p);
+			assertEquals(len, Pipe.takeByteArrayLength(p));
+			Arrays.fill(readBack, (byte)-1);
+			Pipe.readBytes(p, readBack, 0, Integer.MAX_VALUE, meta, len);
+			for(int j = 0; j<len; j++) {
+				assertEquals((byte)i, readBack[j]);
+			}
+			Pipe.confirmLowLevelRead(p, Pipe.sizeOf(p, TestDataSchema.MSG_INTANDCHUNKEDSTREAM_20));
+			Pipe.releaseReadLock(p);
+
+			assertTrue(Pipe.hasContentToRead(p));
+			assertEquals(TestDataSchema.MSG_LONG_50, Pipe.takeMsgIdx(p));
+			assertEquals(-1L-i*0x100000001L, Pipe.takeLong(p));
+			Pipe.confirmLowLevelRead(p, Pipe.sizeOf(p, TestDataSchema.MSG_LONG_50));
+			Pipe.releaseReadLock(p);
+		}
+		Pipe.publishEOF(p);
+		assertTrue(Pipe.hasContentToRead(p));
+		assertEquals(-1, Pipe.takeMsgIdx(p));
+	}
+
+}
@@ -0,0 +1,184 @@
+package com.ociweb.pronghorn.pipe;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.stream.RingInputStream;
+import com.ociweb.pronghorn.pipe.stream.RingStreams;
+
+public class PipeWaitStrategyTest {
+
+	@Test
+	public void configCopiesStrategyTest() {
+		PipeConfig<TestDataSchema> config = TestDataSchema.instance.newPipeConfig(4, 100);
+		assertSame(PipeWaitStrategy.YIELD, config.waitStrategy());
+
+		PipeConfig<TestDataSchema> parking = config.waitStrategy(PipeWaitStrategy.PARK);
+		assertSame(PipeWaitStrategy.YIELD, config.waitStrategy());
+		assertSame(PipeWaitStrategy.PARK, parking.waitStrategy());
+		assertSame(PipeWaitStrategy.PARK, parking.grow2x().waitStrategy());
+		assertSame(PipeWaitStrategy.PARK, parking.multiProducer().waitStrategy());
+		assertSame(PipeWaitStrategy.PARK, parking.debug(0).waitStrategy());
+	}
+
+	@Test
+	public void timeoutTest() {
+		Pipe<TestDataSchema> p = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(4, 100)
+				.waitStrategy(PipeWaitStrategy.timeout(PipeWaitStrategy.PARK, TimeUnit.MILLISECONDS.toNanos(20))));
+		p.initBuffers();
+		while (PipeWriter.tryWriteFragment(p, TestDataSchema.MSG_INT_40)) {
+			PipeWriter.writeInt(p, TestDataSchema.MSG_INT_40_FIELD_INTVALUE_41, 1);
+			PipeWriter.publishWrites(p);
+		}
+		//nothing reads so this must give up
+		long start = System.nanoTime();
+		try {
+			PipeWriter.blockWriteFragment(p, TestDataSchema.MSG_INT_40);
+			fail("expected timeout");
+		} catch (PipeException e) {
+			assertTrue(System.nanoTime()-start >= TimeUnit.MILLISECONDS.toNanos(20));
+		}
+	}
+
+	@Test
+	public void oneArgumentSpinWorkCountsAttemptsTest() {
+		Pipe<TestDataSchema> p = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(4, 100)
+				.waitStrategy(PipeWaitStrategy.timeout(PipeWaitStrategy.PARK, TimeUnit.MILLISECONDS.toNanos(20))));
+		p.initBuffers();
+		//nothing moves the pipe so the wait must count up and time out
+		long limit = System.currentTimeMillis()+TimeUnit.SECONDS.toMillis(5);
+		try {
+			while (System.currentTimeMillis()<limit) {
+				Pipe.spinWork(p);
+			}
+			fail("expected timeout");
+		} catch (PipeException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void blockedInputStreamParksTest() throws InterruptedException {
+		final Pipe<RawDataSchema> p = new Pipe<RawDataSchema>(RawDataSchema.instance.newPipeConfig(4, 100)
+				.waitStrategy(PipeWaitStrategy.park(TimeUnit.SECONDS.toNanos(10))));
+		p.initBuffers();
+		final RingInputStream in = new RingInputStream(p);
+
+		//move the head once so the pipe caches differ from a fresh pipe
+		RingStreams.writeBytesToRing(new byte[]{1}, 0, 1, p, 100);
+		assertEquals(1, in.read());
+
+		final int[] result = new int[]{-2};
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				result[0] = in.read();
+			}
+		});
+		reader.setDaemon(true);
+		reader.start();
+
+		long limit = System.currentTimeMillis()+TimeUnit.SECONDS.toMillis(5);
+		while (p != LockSupport.getBlocker(reader)) {
+			assertTrue("reader did not park", System.currentTimeMillis()<limit);
+			Thread.sleep(1);
+		}
+
+		//a full park is 10 seconds so the reader must be woken by the publish
+		long start = System.nanoTime();
+		RingStreams.writeBytesToRing(new byte[]{2}, 0, 1, p, 100);
+		reader.join(TimeUnit.SECONDS.toMillis(5));
+		assertFalse("reader was not woken", reader.isAlive());
+		assertEquals(2, result[0]);
+		assertTrue(System.nanoTime()-start < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	@Test
+	public void parkedWriterIsWokenTest() throws InterruptedException {
+		checkStrategy(PipeWaitStrategy.park(TimeUnit.SECONDS.toNanos(1)));
+	}
+
+	@Test
+	public void allStrategiesTest() throws InterruptedException {
+		checkStrategy(PipeWaitStrategy.BUSY_SPIN);
+		checkStrategy(PipeWaitStrategy.YIELD);
+		checkStrategy(PipeWaitStrategy.SPIN_HINT);
+		checkStrategy(PipeWaitStrategy.BACKOFF);
+		checkStrategy(PipeWaitStrategy.PARK);
+	}
+
+	@Test
+	public void producerAndConsumerParkTest() throws InterruptedException {
+		final int messages = 20000;
+		//a missed wake up costs a full second so this only finishes in time if both sides are woken
+		final Pipe<TestDataSchema> p = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(4, 20)
+				.waitStrategy(PipeWaitStrategy.park(TimeUnit.SECONDS.toNanos(1))));
+		p.initBuffers();
+
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 0; i<messages; i++) {
+					PipeWriter.blockWriteFragment(p, TestDataSchema.MSG_INT_40);
+					PipeWriter.writeInt(p, TestDataSchema.MSG_INT_40_FIELD_INTVALUE_41, i);
+					PipeWriter.publishWrites(p);
+				}
+			}
+		});
+		long start = System.nanoTime();
+		writer.start();
+
+		int expected = 0;
+		int attempt = 0;
+		while (expected<messages) {
+			if (PipeReader.tryReadFragment(p)) {
+				assertEquals(expected++, PipeReader.readInt(p, TestDataSchema.MSG_INT_40_FIELD_INTVALUE_41));
+				PipeReader.releaseReadLock(p);
+				attempt = 0;
+			} else {
+				//reader parks on the empty pipe while the writer parks on the full one
+				Pipe.spinWork(p, attempt++);
+			}
+		}
+		writer.join();
+		assertTrue("parked side was not woken", System.nanoTime()-start < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	private void checkStrategy(PipeWaitStrategy strategy) throws InterruptedException {
+		final int messages = 2000;
+		final Pipe<TestDataSchema> p = new Pipe<TestDataSchema>(TestDataSchema.instance.newPipeConfig(8, 20).waitStrategy(strategy));
+		p.initBuffers();
+
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 0; i<messages; i++) {
+					//blocks with the wait strategy until the reader makes room
+					PipeWriter.blockWriteFragment(p, TestDataSchema.MSG_INT_40);
+					PipeWriter.writeInt(p, TestDataSchema.MSG_INT_40_FIELD_INTVALUE_41, i);
+					PipeWriter.publishWrites(p);
+				}
+			}
+		});
+		writer.start();
+
+		//a full park is 1 second so this only finishes in time if the writer is woken by the releases
+		long limit = System.currentTimeMillis()+TimeUnit.SECONDS.toMillis(30);
+		int expected = 0;
+		while (expected<messages) {
+			assertTrue("writer was not woken", System.currentTimeMillis()<limit);
+			if (PipeReader.tryReadFragment(p)) {
+				assertEquals(expected++, PipeReader.readInt(p, TestDataSchema.MSG_INT_40_FIELD_INTVALUE_41));
+				PipeReader.releaseReadLock(p);
+			} else {
+				Thread.yield();
+			}
+		}
+		writer.join();
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.ociweb.pronghorn.pipe.build;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.stream.StreamingConsumerTest;
+import com.ociweb.pronghorn.pipe.stream.StreamingReadVisitorToJSON;
+import com.ociweb.pronghorn.pipe.stream.StreamingVisitorReader;
+import com.ociweb.pronghorn.pipe.stream.StreamingVisitorWriter;
+import com.ociweb.pronghorn.pipe.stream.StreamingWriteVisitorGenerator;
+import com.ociweb.pronghorn.pipe.util.build.TemplateProcessCompiler;
+
+public class TemplateProcessCompilerTest {
+
+    private static final FieldReferenceOffsetManager FROM = StreamingConsumerTest.buildFROM();
+    private static final int SEED = 100;
+
+    @Test
+    public void writerMatchesInterpretedTest() {
+        Pipe<MessageSchemaDynamic> expected = newPipe();
+        Pipe<MessageSchemaDynamic> generated = newPipe();
+
+        StreamingVisitorWriter svw = new StreamingVisitorWriter(expected, new StreamingWriteVisitorGenerator(FROM, new Random(SEED), 30, 30));
+        Runnable writer = new TemplateProcessCompiler(null).newVisitorWriter(generated, new StreamingWriteVisitorGenerator(FROM, new Random(SEED), 30, 30));
+
+        svw.run();
+        writer.run();
+
+        assertTrue(Pipe.contentRemaining(generated)>0);
+        assertEquals(Pipe.headPosition(expected), Pipe.headPosition(generated));
+        assertTrue(Arrays.equals(Pipe.slab(expected), Pipe.slab(generated)));
+        assertTrue(Arrays.equals(Pipe.blob(expected), Pipe.blob(generated)));
+    }
+
+    @Test
+    public void readerMatchesInterpretedTest() {
+        Pipe<MessageSchemaDynamic> expected = newPipe();
+        Pipe<MessageSchemaDynamic> generated = newPipe();
+        new StreamingVisitorWriter(expected, new StreamingWriteVisitorGenerator(FROM, new Random(SEED), 30, 30)).run();
+        new StreamingVisitorWriter(generated, new StreamingWriteVisitorGenerator(FROM, new Random(SEED), 30, 30)).run();
+
+        ByteArrayOutputStream expectedJSON = new ByteArrayOutputStream();
+        new StreamingVisitorReader(expected, new StreamingReadVisitorToJSON(new PrintStream(expectedJSON))).run();
+
+        ByteArrayOutputStream generatedJSON = new ByteArrayOutputStream();
+        Runnable reader = new TemplateProcessCompiler(null).newVisitorReader(generated, new StreamingReadVisitorToJSON(new PrintStream(generatedJSON)));
+        reader.run();
+
+        assertTrue(generatedJSON.size()>0);
+        assertEquals(new String(expectedJSON.toByteArray()), new String(generatedJSON.toByteArray()));
+        assertEquals(0, Pipe.contentRemaining(generated));
+    }
+
+    @Test
+    public void diskCacheTest() throws IOException {
+        File folder = File.createTempFile("classCache", "");
+        assertTrue(folder.delete());
+
+        Runnable first = new TemplateProcessCompiler(folder).newVisitorReader(newPipe(), new StreamingReadVisitorToJSON(System.out));
+        assertNotSame(getClass().getClassLoader(), first.getClass().getClassLoader());
+
+        File[] guidFolders = folder.listFiles();
+        assertEquals(1, guidFolders.length);
+        File classFile = new File(guidFolders[0], "GeneratedVisitorReader.class");
+        assertTrue(classFile.exists());
+        long built = classFile.lastModified();
+
+        //a new compiler loads the same bytes from disk into a new loader
+        Runnable second = new TemplateProcessCompiler(folder).newVisitorReader(newPipe(), new StreamingReadVisitorToJSON(System.out));
+        assertNotSame(first.getClass(), second.getClass());
+        assertEquals(first.getClass().getName(), second.getClass().getName());
+        assertEquals(built, classFile.lastModified());
+        assertEquals(1, guidFolders[0].listFiles().length);
+
+        classFile.delete();
+        guidFolders[0].delete();
+        folder.delete();
+    }
+
+    @Test
+    public void unloadedWhenUnusedTest() {
+        TemplateProcessCompiler compiler = new TemplateProcessCompiler(null);
+        Runnable first = compiler.newVisitorReader(newPipe(), new StreamingReadVisitorToJSON(System.out));
+        //while an instance remains the class is reused
+        assertSame(first.getClass(), compiler.newVisitorReader(newPipe(), new StreamingReadVisitorToJSON(System.out)).getClass());
+
+        WeakReference<Class<?>> clazz = new WeakReference<Class<?>>(first.getClass());
+        first = null;
+        int attempts = 50;
+        while (null!=clazz.get() && --attempts>=0) {
+            System.gc();
+            Thread.yield();
+        }
+        assertNull("compiled class was held after its last instance", clazz.get());
+
+        //and built again when asked for later
+        assertNotNull(compiler.newVisitorReader(newPipe(), new StreamingReadVisitorToJSON(System.out)));
+    }
+
+    private static Pipe<MessageSchemaDynamic> newPipe() {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(new MessageSchemaDynamic(FROM), 50, 30));
+        pipe.initBuffers();
+        return pipe;
+    }
+
+}
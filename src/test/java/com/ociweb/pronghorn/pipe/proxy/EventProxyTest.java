@@ -0,0 +1,170 @@
+package com.ociweb.pronghorn.pipe.proxy;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.TestDataSchema;
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class EventProxyTest {
+
+    @ProngTemplateMessage(templateId=20)
+    public interface IntAndBytesWriter {
+        @ProngTemplateField(fieldId=21)
+        void setValue(int value);
+        @ProngTemplateField(fieldId=22)
+        void setBytes(byte[] value);
+    }
+
+    @ProngTemplateMessage(templateId=20)
+    public interface IntAndBytesReader {
+        @ProngTemplateField(fieldId=21)
+        int getValue();
+        @ProngTemplateField(fieldId=22)
+        ByteBuffer getBytes(ByteBuffer target);
+    }
+
+    @ProngTemplateMessage(templateId=1)
+    public interface QuoteWriter {
+        @ProngTemplateField(fieldId=101)
+        void setQty(int value);
+        @ProngTemplateField(fieldId=102)
+        void setPrice(long value);
+        @ProngTemplateField(fieldId=103)
+        void setSymbol(String value);
+        @ProngTemplateField(fieldId=104)
+        void setVenue(Integer value);
+        @ProngTemplateField(fieldId=105)
+        void setLimit(Long value);
+        @ProngTemplateField(fieldId=106)
+        void setNote(CharSequence value);
+    }
+
+    @ProngTemplateMessage(templateId=1)
+    public interface QuoteReader {
+        @ProngTemplateField(fieldId=101)
+        int getQty();
+        @ProngTemplateField(fieldId=102)
+        long getPrice();
+        @ProngTemplateField(fieldId=103)
+        String getSymbol();
+        @ProngTemplateField(fieldId=103)
+        StringBuilder getSymbol(StringBuilder target);
+        @ProngTemplateField(fieldId=104)
+        Integer getVenue();
+        @ProngTemplateField(fieldId=105)
+        Long getLimit();
+        @ProngTemplateField(fieldId=106)
+        String getNote(StringBuilder target);
+    }
+
+    @ProngTemplateMessage(templateId=20)
+    interface HiddenWriter {
+        @ProngTemplateField(fieldId=21)
+        void setValue(int value);
+        @ProngTemplateField(fieldId=22)
+        void setBytes(byte[] value);
+    }
+
+    @Test
+    public void generatedRoundTripTest() {
+        Pipe<TestDataSchema> pipe = newPipe();
+        EventConsumer consumer = new EventConsumer(pipe);
+        EventProducer producer = new EventProducer(pipe);
+
+        IntAndBytesWriter first = null;
+        for(int i = 0; i<3; i++) {
+            IntAndBytesWriter writer = EventConsumer.create(consumer, IntAndBytesWriter.class);
+            assertNotNull(writer);
+            assertFalse(Proxy.isProxyClass(writer.getClass()));
+            if (null==first) {
+                first = writer;
+            }
+            assertSame(first, writer);
+            writer.setValue(100+i);
+            writer.setBytes(new byte[]{(byte)i, 2, 3});
+            EventConsumer.publish(consumer, writer);
+        }
+
+        ByteBuffer target = ByteBuffer.allocate(16);
+        for(int i = 0; i<3; i++) {
+            IntAndBytesReader reader = EventProducer.take(producer, IntAndBytesReader.class);
+            assertNotNull(reader);
+            assertFalse(Proxy.isProxyClass(reader.getClass()));
+            assertEquals(100+i, reader.getValue());
+            target.clear();
+            reader.getBytes(target);
+            assertEquals(3, target.position());
+            assertEquals(i, target.get(0));
+            EventProducer.dispose(producer, reader);
+        }
+        assertNull(EventProducer.take(producer, IntAndBytesReader.class));
+    }
+
+    @Test
+    public void generatedOptionalTextAndLongTest() throws Exception {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(
+                new MessageSchemaDynamic(TemplateHandler.loadFrom("/template/proxyExample.xml")), 10, 64));
+        pipe.initBuffers();
+        EventConsumer consumer = new EventConsumer(pipe);
+        EventProducer producer = new EventProducer(pipe);
+
+        for(int i = 0; i<2; i++) {
+            QuoteWriter writer = EventConsumer.create(consumer, QuoteWriter.class);
+            assertFalse(Proxy.isProxyClass(writer.getClass()));
+            writer.setQty(10+i);
+            writer.setPrice(Long.MAX_VALUE-i);
+            writer.setSymbol("SYM"+i);
+            writer.setVenue(0==i ? Integer.valueOf(-7) : null);
+            writer.setLimit(0==i ? Long.valueOf(1L<<40) : null);
+            writer.setNote(0==i ? "\u00e9t\u00e9" : null);
+            EventConsumer.publish(consumer, writer);
+        }
+
+        StringBuilder target = new StringBuilder();
+        for(int i = 0; i<2; i++) {
+            QuoteReader reader = EventProducer.take(producer, QuoteReader.class);
+            assertFalse("generated class expected, not the Proxy fallback", Proxy.isProxyClass(reader.getClass()));
+            assertEquals(10+i, reader.getQty());
+            assertEquals(Long.MAX_VALUE-i, reader.getPrice());
+            assertEquals("SYM"+i, reader.getSymbol());
+            target.setLength(0);
+            assertSame(target, reader.getSymbol(target));
+            assertEquals("SYM"+i, target.toString());
+            if (0==i) {
+                assertEquals(Integer.valueOf(-7), reader.getVenue());
+                assertEquals(Long.valueOf(1L<<40), reader.getLimit());
+                assertEquals("\u00e9t\u00e9", reader.getNote(new StringBuilder()));
+            } else {
+                assertNull(reader.getVenue());
+                assertNull(reader.getLimit());
+                assertNull(reader.getNote(new StringBuilder()));
+            }
+            EventProducer.dispose(producer, reader);
+        }
+    }
+
+    @Test
+    public void nonPublicFallsBackToProxyTest() {
+        EventConsumer consumer = new EventConsumer(newPipe());
+        HiddenWriter writer = EventConsumer.create(consumer, HiddenWriter.class);
+        assertTrue(Proxy.isProxyClass(writer.getClass()));
+        writer.setValue(42);
+        writer.setBytes(new byte[]{1});
+        EventConsumer.publish(consumer, writer);
+    }
+
+    private static Pipe<TestDataSchema> newPipe() {
+        Pipe<TestDataSchema> pipe = new Pipe<TestDataSchema>(new PipeConfig<TestDataSchema>(TestDataSchema.instance, 10, 64));
+        pipe.initBuffers();
+        return pipe;
+    }
+
+}
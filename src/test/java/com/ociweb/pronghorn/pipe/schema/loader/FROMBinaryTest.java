@@ -0,0 +1,59 @@
+package com.ociweb.pronghorn.pipe.schema.loader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+
+public class FROMBinaryTest {
+
+    @Test
+    public void roundTripTest() throws Exception {
+        FieldReferenceOffsetManager expected = TemplateHandler.loadFrom("/template/smallExample.xml");
+        FieldReferenceOffsetManager actual = FROMBinary.read(FROMBinary.write(expected, null), null);
+
+        assertEquals(expected, actual);
+        assertTrue(Arrays.equals(expected.cloneGUID(), actual.cloneGUID()));
+        assertTrue(Arrays.equals(expected.fragDataSize, actual.fragDataSize));
+        assertEquals(expected.name, actual.name);
+    }
+
+    @Test
+    public void compiledFileTest() throws Exception {
+        File file = File.createTempFile("fastExample", ".bin");
+        try {
+            FROMBinary.compile("/template/fastExample.xml", file);
+
+            DictionaryFactory dictionary = new DictionaryFactory();
+            FieldReferenceOffsetManager actual = FROMBinary.load(file, dictionary);
+            assertEquals(TemplateHandler.loadFrom("/template/fastExample.xml"), actual);
+
+            //text initial values are only kept by the dictionary
+            boolean found = false;
+            for(int i = 0; i<dictionary.byteInitCount; i++) {
+                found |= null!=dictionary.byteInitValue[i] && "XNAS".equals(new String(dictionary.byteInitValue[i]));
+            }
+            assertTrue(found);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void changedGUIDTest() throws Exception {
+        ByteBuffer buffer = FROMBinary.write(TemplateHandler.loadFrom("/template/smallExample.xml"), null);
+        buffer.putInt(12, buffer.getInt(12)+1); //first int of the GUID
+        try {
+            FROMBinary.read(buffer, null);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+    }
+
+}
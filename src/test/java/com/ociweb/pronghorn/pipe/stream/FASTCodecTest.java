@@ -0,0 +1,358 @@
+package com.ociweb.pronghorn.pipe.stream;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+
+public class FASTCodecTest {
+
+    private static final String TEMPLATE = "/template/fastExample.xml";
+
+    @Test
+    public void randomRoundTripTest() throws Exception {
+        TemplateHandler handler = loadHandler();
+        final FieldReferenceOffsetManager from = TemplateHandler.from(handler, (short)0);
+        final int tick = FieldReferenceOffsetManager.lookupTemplateLocator("Tick", from);
+
+        Pipe<MessageSchemaDynamic> source = newPipe(from);
+        Pipe<MessageSchemaDynamic> expected = newPipe(from);
+        Pipe<RawDataSchema> encoded = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>(RawDataSchema.instance, 100, 4000));
+        encoded.initBuffers();
+        Pipe<MessageSchemaDynamic> decoded = newPipe(from);
+
+        StreamingVisitorWriter sourceWriter = new StreamingVisitorWriter(source, new Generator(from, 42, tick));
+        StreamingVisitorWriter expectedWriter = new StreamingVisitorWriter(expected, new Generator(from, 42, tick));
+        FASTEncoder encoder = new FASTEncoder(source, encoded, handler.defaultConstValues);
+        FASTDecoder decoder = new FASTDecoder(encoded, decoded, handler.defaultConstValues);
+
+        ByteArrayOutputStream expectedJSON = new ByteArrayOutputStream();
+        ByteArrayOutputStream decodedJSON = new ByteArrayOutputStream();
+        StreamingVisitorReader expectedReader = new StreamingVisitorReader(expected, new EncodedFieldsToJSON(new PrintStream(expectedJSON)));
+        StreamingVisitorReader decodedReader = new StreamingVisitorReader(decoded, new EncodedFieldsToJSON(new PrintStream(decodedJSON)));
+
+        int i = 4000;
+        while (--i>=0) {
+            sourceWriter.run();
+            expectedWriter.run();
+            encoder.run();
+            decoder.run();
+            expectedReader.run();
+            decodedReader.run();
+        }
+
+        String decodedText = new String(decodedJSON.toByteArray());
+        assertTrue(decodedText.length()>10000);
+        //the expected side is not held back by encoding so it may be part way into more messages
+        assertTrue(new String(expectedJSON.toByteArray()).startsWith(decodedText));
+    }
+
+    @Test
+    public void operatorsShrinkMessagesTest() throws Exception {
+        TemplateHandler handler = loadHandler();
+        FieldReferenceOffsetManager from = TemplateHandler.from(handler, (short)0);
+        final int tick = FieldReferenceOffsetManager.lookupTemplateLocator("Tick", from);
+
+        Pipe<MessageSchemaDynamic> source = newPipe(from);
+        Pipe<RawDataSchema> encoded = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>(RawDataSchema.instance, 20, 64));
+        encoded.initBuffers();
+        Pipe<MessageSchemaDynamic> decoded = newPipe(from);
+
+        final int count = 10;
+        for(int i = 0; i<count; i++) {
+            Pipe.addMsgIdx(source, tick);
+            Pipe.addIntValue(100+i, source);
+            Pipe.addIntValue(-7, source);
+            Pipe.addIntValue(2, source);
+            Pipe.addByteArray("XNAS".getBytes(), 0, 4, source);
+            if (i==count-1) {
+                Pipe.addNullByteArray(source);
+            } else {
+                Pipe.addByteArray("A".getBytes(), 0, 1, source);
+            }
+            Pipe.confirmLowLevelWrite(source, Pipe.sizeOf(source, tick));
+            Pipe.publishWrites(source);
+        }
+        Pipe.publishEOF(source);
+
+        new FASTEncoder(source, encoded, handler.defaultConstValues).run();
+
+        //copy of the encoded chunks so their sizes can be checked before decoding
+        Pipe<RawDataSchema> copy = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>(RawDataSchema.instance, 20, 64));
+        copy.initBuffers();
+        for(int i = 0; i<count; i++) {
+            assertEquals(RawDataSchema.MSG_CHUNKEDSTREAM_1, Pipe.takeMsgIdx(encoded));
+            int meta = Pipe.takeByteArrayMetaData(encoded);
+            int len = Pipe.takeByteArrayLength(encoded);
+            if (i>0 && i<count-1) {
+                //template id, sequence increment, price copy and the default flag are all implied by the presence map
+                assertEquals(1, len);
+            }
+            byte[] bytes = new byte[len];
+            Pipe.readBytes(encoded, bytes, 0, Integer.MAX_VALUE, meta, len);
+            Pipe.confirmLowLevelRead(encoded, Pipe.sizeOf(encoded, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+            Pipe.releaseReadLock(encoded);
+
+            Pipe.addMsgIdx(copy, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            Pipe.addByteArray(bytes, 0, len, copy);
+            Pipe.confirmLowLevelWrite(copy, Pipe.sizeOf(copy, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+            Pipe.publishWrites(copy);
+        }
+        assertTrue(Pipe.takeMsgIdx(encoded)<0);
+        Pipe.publishEOF(copy);
+
+        new FASTDecoder(copy, decoded, handler.defaultConstValues).run();
+
+        byte[] text = new byte[8];
+        for(int i = 0; i<count; i++) {
+            assertEquals(tick, Pipe.takeMsgIdx(decoded));
+            assertEquals(100+i, Pipe.takeInt(decoded));
+            assertEquals(-7, Pipe.takeInt(decoded));
+            assertEquals(2, Pipe.takeInt(decoded));
+            int meta = Pipe.takeByteArrayMetaData(decoded);
+            int len = Pipe.takeByteArrayLength(decoded);
+            assertEquals(4, len);
+            Pipe.readBytes(decoded, text, 0, Integer.MAX_VALUE, meta, len);
+            assertEquals("XNAS", new String(text, 0, len));
+            Pipe.takeByteArrayMetaData(decoded);
+            assertEquals(i==count-1 ? -1 : 1, Pipe.takeByteArrayLength(decoded));
+            Pipe.confirmLowLevelRead(decoded, Pipe.sizeOf(decoded, tick));
+            Pipe.releaseReadLock(decoded);
+        }
+        assertTrue(Pipe.takeMsgIdx(decoded)<0);
+    }
+
+    @Test
+    public void constantMismatchTest() throws Exception {
+        TemplateHandler handler = loadHandler();
+        FieldReferenceOffsetManager from = TemplateHandler.from(handler, (short)0);
+        final int tick = FieldReferenceOffsetManager.lookupTemplateLocator("Tick", from);
+
+        Pipe<MessageSchemaDynamic> source = newPipe(from);
+        Pipe<RawDataSchema> encoded = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>(RawDataSchema.instance, 20, 64));
+        encoded.initBuffers();
+
+        Pipe.addMsgIdx(source, tick);
+        Pipe.addIntValue(1, source);
+        Pipe.addIntValue(1, source);
+        Pipe.addIntValue(3, source); //constant is 2
+        Pipe.addByteArray("XNAS".getBytes(), 0, 4, source);
+        Pipe.addNullByteArray(source);
+        Pipe.confirmLowLevelWrite(source, Pipe.sizeOf(source, tick));
+        Pipe.publishWrites(source);
+
+        try {
+            new FASTEncoder(source, encoded, handler.defaultConstValues).run();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void nullableOverflowTest() throws Exception {
+        TemplateHandler handler = loadHandler();
+        FieldReferenceOffsetManager from = TemplateHandler.from(handler, (short)0);
+        final int quote = FieldReferenceOffsetManager.lookupTemplateLocator("Quote", from);
+
+        Pipe<MessageSchemaDynamic> source = newPipe(from);
+        Pipe<RawDataSchema> encoded = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>(RawDataSchema.instance, 20, 64));
+        encoded.initBuffers();
+
+        Pipe.addMsgIdx(source, quote);
+        Pipe.addIntValue(1, source);
+        Pipe.addIntValue(5, source);
+        Pipe.addLongValue(100, source);
+        Pipe.addLongValue(-1L, source); //2^64-1 for the optional uInt64 Volume
+        Pipe.addDecimal(-2, 1234, source);
+        Pipe.addDecimal(-2, 1235, source);
+        Pipe.addByteArray("IBM".getBytes(), 0, 3, source);
+        Pipe.addNullByteArray(source);
+        Pipe.addNullByteArray(source);
+        Pipe.addByteArray(new byte[1], 0, 1, source);
+        Pipe.confirmLowLevelWrite(source, Pipe.sizeOf(source, quote));
+        Pipe.publishWrites(source);
+
+        try {
+            new FASTEncoder(source, encoded, handler.defaultConstValues).run();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //expected, one more than the value would be zero which is null
+        }
+    }
+
+    @Test
+    public void textConstantNeedsDictionaryTest() throws Exception {
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom(TEMPLATE);
+        Pipe<RawDataSchema> encoded = new Pipe<RawDataSchema>(new PipeConfig<RawDataSchema>(RawDataSchema.instance, 20, 64));
+        try {
+            new FASTEncoder(newPipe(from), encoded);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            //expected, the text constant values are only in the DictionaryFactory
+        }
+    }
+
+    private static TemplateHandler loadHandler() throws Exception {
+        //parsed here rather than with loadFrom because the text initial values are only kept by the handler
+        TemplateHandler handler = new TemplateHandler();
+        SAXParserFactory.newInstance().newSAXParser().parse(FASTCodecTest.class.getResourceAsStream(TEMPLATE), handler);
+        return handler;
+    }
+
+    private static Pipe<MessageSchemaDynamic> newPipe(FieldReferenceOffsetManager from) {
+        Pipe<MessageSchemaDynamic> pipe = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(new MessageSchemaDynamic(from), 200, 200));
+        pipe.initBuffers();
+        return pipe;
+    }
+
+    /**
+     * JSON of only the fields that are encoded, the body the pipe carries for an empty sequence is not
+     * part of the encoding so it is left out.
+     */
+    private static class EncodedFieldsToJSON extends StreamingReadVisitorToJSON<PrintStream> {
+
+        private int skipDepth; //sequences opened since the empty one, 0 when not skipping
+
+        EncodedFieldsToJSON(PrintStream out) {
+            super(out);
+        }
+
+        @Override
+        public void visitSequenceOpen(String name, long id, int length) {
+            if (skipDepth>0) {
+                skipDepth++;
+                return;
+            }
+            super.visitSequenceOpen(name, id, length);
+            if (0==length) {
+                skipDepth = 1;
+            }
+        }
+
+        @Override
+        public void visitSequenceClose(String name, long id) {
+            if (skipDepth>0 && --skipDepth>0) {
+                return;
+            }
+            super.visitSequenceClose(name, id);
+        }
+
+        @Override
+        public void visitFragmentOpen(String name, long id, int cursor) {
+            if (0==skipDepth) {
+                super.visitFragmentOpen(name, id, cursor);
+            }
+        }
+
+        @Override
+        public void visitFragmentClose(String name, long id) {
+            if (0==skipDepth) {
+                super.visitFragmentClose(name, id);
+            }
+        }
+
+        @Override
+        public void visitSignedInteger(String name, long id, int value) {
+            if (0==skipDepth) {
+                super.visitSignedInteger(name, id, value);
+            }
+        }
+
+        @Override
+        public void visitUnsignedInteger(String name, long id, long value) {
+            if (0==skipDepth) {
+                super.visitUnsignedInteger(name, id, value);
+            }
+        }
+
+        @Override
+        public void visitSignedLong(String name, long id, long value) {
+            if (0==skipDepth) {
+                super.visitSignedLong(name, id, value);
+            }
+        }
+
+        @Override
+        public void visitUnsignedLong(String name, long id, long value) {
+            if (0==skipDepth) {
+                super.visitUnsignedLong(name, id, value);
+            }
+        }
+
+        @Override
+        public void visitDecimal(String name, long id, int exp, long mant) {
+            if (0==skipDepth) {
+                super.visitDecimal(name, id, exp, mant);
+            }
+        }
+
+        @Override
+        public void visitASCII(String name, long id, CharSequence value) {
+            if (0==skipDepth) {
+                super.visitASCII(name, id, value);
+            }
+        }
+
+        @Override
+        public void visitUTF8(String name, long id, CharSequence value) {
+            if (0==skipDepth) {
+                super.visitUTF8(name, id, value);
+            }
+        }
+
+        @Override
+        public void visitBytes(String name, long id, ByteBuffer value) {
+            if (0==skipDepth) {
+                super.visitBytes(name, id, value);
+            }
+        }
+    }
+
+    /**
+     * Random values for every template but Tick, whose constants must match, with sequences from zero to three long.
+     */
+    private static class Generator extends StreamingWriteVisitorGenerator {
+
+        private final Random random;
+        private final int[] starts;
+
+        Generator(FieldReferenceOffsetManager from, long seed, int excluded) {
+            super(from, new Random(seed), 20, 20);
+            this.random = new Random(seed);
+            int[] all = from.messageStarts();
+            int[] temp = new int[all.length-1];
+            int j = 0;
+            for(int i = 0; i<all.length; i++) {
+                if (all[i]!=excluded) {
+                    temp[j++] = all[i];
+                }
+            }
+            this.starts = temp;
+        }
+
+        @Override
+        public int pullMessageIdx() {
+            return starts[random.nextInt(starts.length)];
+        }
+
+        @Override
+        public int pullSequenceLength(String name, long id) {
+            return random.nextInt(4);
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.ociweb.pronghorn.struct;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.StructuredReader;
+import com.ociweb.pronghorn.pipe.StructuredWriter;
+import com.ociweb.pronghorn.pipe.util.build.TemplateProcessCompiler;
+
+public class StructAccessorGeneratorTest {
+
+    enum Field {id, count, small, flag, active, ratio, weight, price, part, symbol, payload, samples};
+
+    private static final String CLASS_NAME = "GeneratedOrderStruct";
+
+    private final StructRegistry reg = new StructRegistry();
+    private final int structId = register(reg);
+
+    private static int register(StructRegistry reg) {
+        reg.addStruct(); //so the struct under test is not the first one
+        return StructBuilder.newStruct(reg)
+                     .addField(Field.id, StructType.Long)
+                     .addField(Field.count, StructType.Integer)
+                     .addField(Field.small, StructType.Short)
+                     .addField(Field.flag, StructType.Byte)
+                     .addField(Field.active, StructType.Boolean)
+                     .addField(Field.ratio, StructType.Double)
+                     .addField(Field.weight, StructType.Float)
+                     .addField(Field.price, StructType.Decimal)
+                     .addField(Field.part, StructType.Rational)
+                     .addField(Field.symbol, StructType.Text)
+                     .addField(Field.payload, StructType.Blob)
+                     .addField(Field.samples, StructType.Integer, 1)
+                     .register();
+    }
+
+    private static Class<?> compile(StructRegistry reg, int structId) {
+        String source = new StructAccessorGenerator(reg, structId, TemplateProcessCompiler.PACKAGE_NAME, CLASS_NAME).generate(new StringBuilder()).toString();
+        String qualifiedName = TemplateProcessCompiler.PACKAGE_NAME+'.'+CLASS_NAME;
+        return TemplateProcessCompiler.defineIsolated(StructAccessorGeneratorTest.class.getClassLoader(), qualifiedName, TemplateProcessCompiler.compile(qualifiedName, source));
+    }
+
+    private static Object call(Class<?> clazz, String name, Object ... args) throws Exception {
+        for(Method m : clazz.getMethods()) {
+            if (m.getName().equals(name) && m.getParameterTypes().length==args.length) {
+                return m.invoke(null, args);
+            }
+        }
+        throw new NoSuchMethodException(name);
+    }
+
+    private static Pipe<RawDataSchema> newPipe(StructRegistry reg) {
+        Pipe<RawDataSchema> pipe = RawDataSchema.instance.newPipe(4, 512);
+        pipe.initBuffers();
+        Pipe.structRegistry(pipe, reg);
+        return pipe;
+    }
+
+    private static void publish(Pipe<RawDataSchema> pipe, DataOutputBlobWriter<RawDataSchema> out, int size) {
+        out.closeLowLevelField();
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    @Test
+    public void generatedWriterTest() throws Exception {
+        Class<?> clazz = compile(reg, structId);
+        assertEquals(structId, clazz.getField("STRUCT_ID").getInt(null));
+        assertEquals(reg.fieldLookupByIdentity(Field.count, structId), clazz.getField("COUNT_FIELD").getLong(null));
+        assertTrue((Boolean)call(clazz, "matches", reg));
+
+        Pipe<RawDataSchema> pipe = newPipe(reg);
+        final int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(pipe);
+        call(clazz, "begin", out);
+        call(clazz, "writeId", out, 9876543210L);
+        call(clazz, "writeCount", out, -42);
+        call(clazz, "writeSmall", out, (short)7);
+        call(clazz, "writeFlag", out, 3);
+        call(clazz, "writeActive", out, true);
+        call(clazz, "writeRatio", out, 0.25d);
+        call(clazz, "writePrice", out, 12345L, (byte)-2);
+        call(clazz, "writePart", out, 3L, 4L);
+        call(clazz, "writeSymbol", out, "IBM");
+        ((DataOutputBlobWriter<?>)call(clazz, "writePayload", out)).writeUTF("blob");
+        //weight is left absent
+        publish(pipe, out, size);
+
+        Pipe.takeMsgIdx(pipe);
+        DataInputBlobReader<RawDataSchema> in = Pipe.openInputStream(pipe);
+
+        //the existing reader finds the same values
+        StructuredReader reader = in.structured();
+        assertEquals(9876543210L, reader.readLong(Field.id));
+        assertEquals(-42, reader.readInt(Field.count));
+        assertEquals(12345L, reader.readDecimalMantissa(Field.price));
+        assertEquals(-2, reader.readDecimalExponent(Field.price));
+        assertEquals(0.75d, reader.readRationalAsDouble(Field.part), 0.0);
+        assertTrue(reader.isEqual(Field.symbol, "IBM".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("blob", reader.read(Field.payload).readUTF());
+
+        //and so does the generated one
+        assertTrue((Boolean)call(clazz, "isStruct", in));
+        assertEquals(9876543210L, call(clazz, "readId", in));
+        assertEquals(-42, call(clazz, "readCount", in));
+        assertEquals((short)7, call(clazz, "readSmall", in));
+        assertEquals((byte)3, call(clazz, "readFlag", in));
+        assertEquals(true, call(clazz, "readActive", in));
+        assertEquals(0.25d, call(clazz, "readRatio", in));
+        assertFalse((Boolean)call(clazz, "hasWeight", in));
+        assertTrue(Float.isNaN((Float)call(clazz, "readWeight", in)));
+        assertEquals(123.45d, (Double)call(clazz, "readPriceAsDouble", in), 0.0000001);
+        assertEquals(12345L, call(clazz, "readPriceMantissa", in));
+        assertEquals((byte)-2, call(clazz, "readPriceExponent", in));
+        assertEquals(0.75d, call(clazz, "readPartAsDouble", in));
+        assertEquals("IBM", call(clazz, "readSymbol", in, new StringBuilder()).toString());
+        assertTrue((Boolean)call(clazz, "isSymbolEqual", in, "IBM".getBytes(StandardCharsets.UTF_8)));
+        assertFalse((Boolean)call(clazz, "isSymbolEqual", in, "IBMX".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("blob", ((DataInputBlobReader<?>)call(clazz, "readPayload", in)).readUTF());
+    }
+
+    @Test
+    public void generatedReaderTest() throws Exception {
+        Class<?> clazz = compile(reg, structId);
+
+        //fields with dimensions have no accessors
+        for(Method m : clazz.getMethods()) {
+            assertFalse(m.getName(), m.getName().contains("Samples"));
+        }
+
+        Pipe<RawDataSchema> pipe = newPipe(reg);
+        final int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(pipe);
+        StructuredWriter writer = out.structured();
+        writer.writeLong(Field.id, 77);
+        writer.writeInt(Field.count, 5);
+        writer.writeText(Field.symbol, "MSFT");
+        writer.writeBoolean(Field.active, true);
+        writer.selectStruct(structId);
+        publish(pipe, out, size);
+
+        Pipe.takeMsgIdx(pipe);
+        DataInputBlobReader<RawDataSchema> in = Pipe.openInputStream(pipe);
+        assertEquals(77L, call(clazz, "readId", in));
+        assertEquals(5, call(clazz, "readCount", in));
+        assertEquals("MSFT", call(clazz, "readSymbol", in, new StringBuilder()).toString());
+        assertEquals(true, call(clazz, "readActive", in));
+    }
+
+    @Test
+    public void matchesTest() throws Exception {
+        Class<?> clazz = compile(reg, structId);
+
+        //same fields registered in another order
+        StructRegistry other = new StructRegistry();
+        other.addStruct();
+        StructBuilder.newStruct(other)
+                     .addField(Field.count, StructType.Integer)
+                     .addField(Field.id, StructType.Long)
+                     .register();
+        assertFalse((Boolean)call(clazz, "matches", other));
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.ociweb.pronghorn.struct;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.StructuredReader;
+import com.ociweb.pronghorn.pipe.StructuredWriter;
+
+public class StructArchiveTest {
+
+    enum Field {time, count, small, flag, active, ratio, weight, price, part, symbol, venue};
+
+    private static final int RECORDS = 1000;
+    private static final String[] SYMBOLS = {"IBM", "MSFT", "ORCL", "AAPL"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final StructRegistry reg = new StructRegistry();
+
+    private final int structId = StructBuilder.newStruct(reg)
+            .addField(Field.time, StructType.Long)
+            .addField(Field.count, StructType.Integer)
+            .addField(Field.small, StructType.Short)
+            .addField(Field.flag, StructType.Byte)
+            .addField(Field.active, StructType.Boolean)
+            .addField(Field.ratio, StructType.Double)
+            .addField(Field.weight, StructType.Float)
+            .addField(Field.price, StructType.Decimal)
+            .addField(Field.part, StructType.Rational)
+            .addField(Field.symbol, StructType.Text)
+            .addField(Field.venue, StructType.Text)
+            .register();
+
+    private long field(Field f) {
+        return reg.fieldLookupByIdentity(f, structId);
+    }
+
+    private Pipe<RawDataSchema> newPipe() {
+        Pipe<RawDataSchema> pipe = RawDataSchema.instance.newPipe(16, 256);
+        pipe.initBuffers();
+        Pipe.structRegistry(pipe, reg);
+        return pipe;
+    }
+
+    private static long time(int i) {
+        return 1500000000000L + (i*1000L);
+    }
+
+    private File writeArchive() throws IOException {
+        File file = folder.newFile("trades.col");
+        StructArchive archive = new StructArchive(reg, structId, file, 128);
+        Pipe<RawDataSchema> pipe = newPipe();
+        int i = 0;
+        while (i<RECORDS) {
+            while (i<RECORDS && Pipe.hasRoomForWrite(pipe)) {
+                final int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+                DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(pipe);
+                StructuredWriter writer = out.structured();
+                writer.writeLong(time(i), field(Field.time));
+                writer.writeInt(-i, field(Field.count));
+                if (0==i%7) {
+                    writer.writeShortNull(field(Field.small));
+                } else {
+                    writer.writeShort((short)(i%300), field(Field.small));
+                }
+                writer.writeByte(i, field(Field.flag));
+                writer.writeBoolean(0==(i&1), field(Field.active));
+                writer.writeDouble(i/3d, field(Field.ratio));
+                writer.writeFloat(-i/8f, field(Field.weight));
+                //mantissa first as StructuredReader reads it
+                DataOutputBlobWriter.setIntBackData(out, out.position(), StructRegistry.extractFieldPosition(field(Field.price)));
+                out.writePackedLong(100L*i+5);
+                out.writeByte(-2);
+                writer.writeRational(i, 7, field(Field.part));
+                writer.writeText(field(Field.symbol));
+                out.writeUTF(SYMBOLS[i%SYMBOLS.length]);
+                if (0!=i%5) {
+                    writer.writeText(field(Field.venue));
+                    out.writeUTF("NYSE");
+                } else {
+                    writer.writeNull(field(Field.venue));
+                }
+                out.closeLowLevelField();
+                Pipe.confirmLowLevelWrite(pipe, size);
+                Pipe.publishWrites(pipe);
+                i++;
+            }
+            StructArchive.archive(archive, pipe);
+        }
+        StructArchive.close(archive);
+        assertEquals(RECORDS, StructArchive.totalRecords(archive));
+        return file;
+    }
+
+    @Test
+    public void replayAllTest() throws IOException {
+        File file = writeArchive();
+        StructArchiveReader reader = new StructArchiveReader(file, reg, structId);
+        Pipe<RawDataSchema> pipe = newPipe();
+
+        int i = 0;
+        while (StructArchiveReader.replay(reader, pipe)>0) {
+            while (Pipe.hasContentToRead(pipe)) {
+                Pipe.takeMsgIdx(pipe);
+                StructuredReader in = Pipe.openInputStream(pipe).structured();
+                assertEquals(time(i), in.readLong(field(Field.time)));
+                assertEquals(-i, in.readInt(field(Field.count)));
+                assertEquals(0!=i%7, in.hasValue(field(Field.small)));
+                if (0!=i%7) {
+                    assertEquals(i%300, in.readInt(field(Field.small)));
+                }
+                assertEquals((byte)i, in.read(field(Field.flag)).readByte());
+                assertEquals(0==(i&1), in.readBoolean(field(Field.active)));
+                assertEquals(i/3d, in.read(field(Field.ratio)).readDouble(), 0.0);
+                assertEquals(-i/8f, in.read(field(Field.weight)).readFloat(), 0.0f);
+                assertEquals(100L*i+5, in.readDecimalMantissa(field(Field.price)));
+                assertEquals(-2, in.readDecimalExponent(field(Field.price)));
+                assertEquals(i/7d, in.readRationalAsDouble(field(Field.part)), 0.0);
+                assertEquals(SYMBOLS[i%SYMBOLS.length], in.readText(field(Field.symbol)));
+                assertEquals(0!=i%5 ? "NYSE" : null, in.readText(field(Field.venue)));
+                Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+                Pipe.releaseReadLock(pipe);
+                i++;
+            }
+        }
+        assertEquals(RECORDS, i);
+        assertEquals(RECORDS, StructArchiveReader.totalRecords(reader));
+        assertEquals(file.length(), StructArchiveReader.bytesRead(reader));
+        StructArchiveReader.close(reader);
+    }
+
+    @Test
+    public void replaySelectedTest() throws IOException {
+        File file = writeArchive();
+        StructArchiveReader reader = new StructArchiveReader(file, reg, structId).select(field(Field.time), field(Field.symbol));
+        Pipe<RawDataSchema> pipe = newPipe();
+
+        int i = 0;
+        while (StructArchiveReader.replay(reader, pipe)>0) {
+            while (Pipe.hasContentToRead(pipe)) {
+                Pipe.takeMsgIdx(pipe);
+                StructuredReader in = Pipe.openInputStream(pipe).structured();
+                assertEquals(time(i), in.readLong(field(Field.time)));
+                assertTrue(in.isEqual(field(Field.symbol), SYMBOLS[i%SYMBOLS.length].getBytes(StandardCharsets.UTF_8)));
+                assertFalse(in.hasValue(field(Field.count)));
+                assertNull(in.readText(field(Field.venue)));
+                Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+                Pipe.releaseReadLock(pipe);
+                i++;
+            }
+        }
+        assertEquals(RECORDS, i);
+        //constant rate times and a small dictionary leave little to read
+        assertTrue(StructArchiveReader.bytesRead(reader)+" of "+file.length(), StructArchiveReader.bytesRead(reader)*5 < file.length());
+        StructArchiveReader.close(reader);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void blobTest() throws IOException {
+        StructRegistry other = new StructRegistry();
+        final int id = StructBuilder.newStruct(other).addField("payload", StructType.Blob, 0, null).register();
+        new StructArchive(other, id, folder.newFile("blob.col"), 16);
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.ociweb.pronghorn.struct;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+public class StructFixedLayoutTest {
+
+    enum Field {id, count, small, flag, active, ratio, weight, price, part};
+
+    private final StructRegistry reg = new StructRegistry();
+
+    private final int structId = StructBuilder.newStruct(reg)
+            .addField(Field.id, StructType.Long)
+            .addField(Field.count, StructType.Integer)
+            .addField(Field.small, StructType.Short)
+            .addField(Field.flag, StructType.Byte)
+            .addField(Field.active, StructType.Boolean)
+            .addField(Field.ratio, StructType.Double)
+            .addField(Field.weight, StructType.Float)
+            .addField(Field.price, StructType.Decimal)
+            .addField(Field.part, StructType.Rational)
+            .registerFixed();
+
+    private long field(Field f) {
+        return reg.fieldLookupByIdentity(f, structId);
+    }
+
+    @Test
+    public void layoutTest() {
+        StructFixedLayout layout = reg.fixedLayout(structId);
+        assertTrue(reg.isFixedLayout(structId));
+        //two bitmap bytes then the fields in order
+        assertEquals(2, layout.offset(field(Field.id)));
+        assertEquals(10, layout.offset(field(Field.count)));
+        assertEquals(14, layout.offset(field(Field.small)));
+        assertEquals(16, layout.offset(field(Field.flag)));
+        assertEquals(17, layout.offset(field(Field.active)));
+        assertEquals(18, layout.offset(field(Field.ratio)));
+        assertEquals(26, layout.offset(field(Field.weight)));
+        assertEquals(30, layout.offset(field(Field.price)));
+        assertEquals(39, layout.offset(field(Field.part)));
+        assertEquals(55, layout.size());
+
+        int other = StructBuilder.newStruct(reg).addField("x", StructType.Long, 0, null).register();
+        assertFalse(reg.isFixedLayout(other));
+        assertTrue(reg.merge(new StructRegistry()).isFixedLayout(structId));
+    }
+
+    @Test
+    public void readWriteTest() {
+        StructFixedLayout layout = reg.fixedLayout(structId);
+        //small blob so records wrap around the end of the ring
+        Pipe<RawDataSchema> pipe = RawDataSchema.instance.newPipe(4, 64);
+        pipe.initBuffers();
+
+        for(int i = 0; i<100; i++) {
+            final int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(pipe);
+            layout.begin(out);
+            layout.writeLong(out, field(Field.id), Long.MIN_VALUE+i);
+            layout.writeInt(out, field(Field.count), -i);
+            layout.writeShort(out, field(Field.small), (short)(i-50));
+            layout.writeByte(out, field(Field.flag), (byte)i);
+            layout.writeBoolean(out, field(Field.active), 0==(i&1));
+            if (0!=i%3) {
+                layout.writeDouble(out, field(Field.ratio), i/4d);
+            }
+            layout.writeFloat(out, field(Field.weight), -i/8f);
+            layout.writeDecimal(out, field(Field.price), 12345L*i, (byte)-2);
+            layout.writeRational(out, field(Field.part), i, -7);
+            if (0==i%5) {
+                layout.writeNull(out, field(Field.part));
+            }
+            assertEquals(layout.size(), out.closeLowLevelField());
+            Pipe.confirmLowLevelWrite(pipe, size);
+            Pipe.publishWrites(pipe);
+
+            Pipe.takeMsgIdx(pipe);
+            DataInputBlobReader<RawDataSchema> in = Pipe.openInputStream(pipe);
+            assertTrue(layout.isRecord(in));
+            assertEquals(Long.MIN_VALUE+i, layout.readLong(in, field(Field.id)));
+            assertEquals(-i, layout.readInt(in, field(Field.count)));
+            assertEquals((short)(i-50), layout.readShort(in, field(Field.small)));
+            assertEquals((byte)i, layout.readByte(in, field(Field.flag)));
+            assertEquals(0==(i&1), layout.readBoolean(in, field(Field.active)));
+            assertEquals(0!=i%3, layout.hasValue(in, field(Field.ratio)));
+            assertEquals(0!=i%3 ? i/4d : 0d, layout.readDouble(in, field(Field.ratio)), 0.0);
+            assertEquals(-i/8f, layout.readFloat(in, field(Field.weight)), 0.0f);
+            assertEquals(12345L*i, layout.readDecimalMantissa(in, field(Field.price)));
+            assertEquals(-2, layout.readDecimalExponent(in, field(Field.price)));
+            assertEquals(0!=i%5, layout.hasValue(in, field(Field.part)));
+            assertEquals(0!=i%5 ? i : 0, layout.readRationalNumerator(in, field(Field.part)));
+            assertEquals(0!=i%5 ? -7 : 0, layout.readRationalDenominator(in, field(Field.part)));
+            assertTrue(layout.hasValue(in, field(Field.id)));
+            Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+            Pipe.releaseReadLock(pipe);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void textTest() {
+        StructBuilder.newStruct(reg).addField("id", StructType.Long, 0, null).addField("name", StructType.Text, 0, null).registerFixed();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void dimsTest() {
+        StructBuilder.newStruct(reg).addField("samples", StructType.Integer, 1, null).registerFixed();
+    }
+
+}
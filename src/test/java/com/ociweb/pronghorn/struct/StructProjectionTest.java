@@ -0,0 +1,133 @@
+package com.ociweb.pronghorn.struct;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.StructuredReader;
+import com.ociweb.pronghorn.pipe.StructuredWriter;
+
+public class StructProjectionTest {
+
+    enum In {id, qty, symbol, active, ratio, part, price, note, payload};
+    enum Out {qty, id, symbol, ratio, part, price, active, extra};
+
+    private final StructRegistry reg = new StructRegistry();
+
+    private final int inStruct = StructBuilder.newStruct(reg)
+            .addField(In.id, StructType.Integer)
+            .addField(In.qty, StructType.Short)
+            .addField(In.symbol, StructType.Text)
+            .addField(In.active, StructType.Boolean)
+            .addField(In.ratio, StructType.Double)
+            .addField(In.part, StructType.Rational)
+            .addField(In.price, StructType.Long)
+            .addField(In.note, StructType.Text)
+            .addField(In.payload, StructType.Blob)
+            .register();
+
+    //reordered, widened, price becomes a double and note is dropped
+    private final int outStruct = StructBuilder.newStruct(reg)
+            .addField(Out.qty, StructType.Long)
+            .addField(Out.id, StructType.Long)
+            .addField(Out.symbol, StructType.Text)
+            .addField(Out.ratio, StructType.Double)
+            .addField(Out.part, StructType.Rational)
+            .addField(Out.price, StructType.Double)
+            .addField(Out.active, StructType.Boolean)
+            .addField(Out.extra, StructType.Text)
+            .register();
+
+    private Pipe<RawDataSchema> newPipe() {
+        Pipe<RawDataSchema> pipe = RawDataSchema.instance.newPipe(4, 512);
+        pipe.initBuffers();
+        Pipe.structRegistry(pipe, reg);
+        return pipe;
+    }
+
+    private void writeSource(Pipe<RawDataSchema> pipe, int i, boolean withSymbol) {
+        final int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(pipe);
+        StructuredWriter writer = out.structured();
+        writer.writeInt(In.id, -i);
+        writer.writeShort(In.qty, (short)(i*3));
+        if (withSymbol) {
+            writer.writeText(In.symbol, "SYM"+i);
+        } else {
+            writer.writeNull(In.symbol);
+        }
+        writer.writeBoolean(In.active, 0==(i&1));
+        writer.writeRational(In.part, i, 7);
+        writer.writeLong(In.price, 1000L*i);
+        writer.writeText(In.note, "not forwarded");
+        writer.writeNull(In.ratio);
+        writer.writeNull(In.payload);
+        writer.selectStruct(inStruct);
+        out.closeLowLevelField();
+        Pipe.confirmLowLevelWrite(pipe, size);
+        Pipe.publishWrites(pipe);
+    }
+
+    @Test
+    public void projectByNameTest() {
+        StructProjection projection = new StructProjection(reg, inStruct, outStruct).mapByName();
+        //note and payload have no target
+        assertEquals(7, projection.fields());
+
+        Pipe<RawDataSchema> source = newPipe();
+        Pipe<RawDataSchema> target = newPipe();
+
+        for(int i = 0; i<20; i++) {
+            writeSource(source, i, 0!=i%5);
+
+            Pipe.takeMsgIdx(source);
+            DataInputBlobReader<RawDataSchema> in = Pipe.openInputStream(source);
+            final int size = Pipe.addMsgIdx(target, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+            DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(target);
+            //ratio is absent so only six are copied, or five when the symbol is also absent
+            assertEquals(0!=i%5 ? 6 : 5, projection.project(in, out));
+            out.closeLowLevelField();
+            Pipe.confirmLowLevelWrite(target, size);
+            Pipe.publishWrites(target);
+            Pipe.confirmLowLevelRead(source, Pipe.sizeOf(source, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+            Pipe.releaseReadLock(source);
+
+            Pipe.takeMsgIdx(target);
+            StructuredReader reader = Pipe.openInputStream(target).structured();
+            assertEquals(-i, reader.readLong(Out.id));
+            assertEquals(i*3, reader.readLong(Out.qty));
+            if (0!=i%5) {
+                assertTrue(reader.isEqual(Out.symbol, ("SYM"+i).getBytes(StandardCharsets.UTF_8)));
+            } else {
+                assertNull(reader.readText(Out.symbol));
+            }
+            assertEquals(0==(i&1), reader.readBoolean(Out.active));
+            assertEquals(i/7d, reader.readRationalAsDouble(Out.part), 0.0);
+            assertEquals(1000d*i, reader.read(Out.price).readDouble(), 0.0);
+            assertNull(reader.read(Out.ratio));
+            assertNull(reader.read(Out.extra));
+            Pipe.confirmLowLevelRead(target, Pipe.sizeOf(target, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+            Pipe.releaseReadLock(target);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void narrowingTest() {
+        new StructProjection(reg, outStruct, inStruct).map(reg.fieldLookupByIdentity(Out.qty, outStruct), reg.fieldLookupByIdentity(In.qty, inStruct));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void blobTest() {
+        StructRegistry other = new StructRegistry();
+        final int a = StructBuilder.newStruct(other).addField("payload", StructType.Blob, 0, null).register();
+        final int b = StructBuilder.newStruct(other).addField("payload", StructType.Blob, 0, null).register();
+        new StructProjection(other, a, b).mapByName();
+    }
+
+}